@@ -32,6 +32,8 @@ import whitehole.editor.GalaxyPropertiesForm;
 import whitehole.editor.ObjectSelectForm;
 import whitehole.editor.WorldEditorForm;
 import whitehole.io.ExternalFilesystem;
+import whitehole.rendering.CollisionCache;
+import whitehole.rendering.ModelAssetCache;
 import whitehole.rendering.RendererCache;
 import whitehole.rendering.ShaderCache;
 import whitehole.rendering.TextureCache;
@@ -347,7 +349,9 @@ public final class MainFrame extends javax.swing.JFrame {
         // Prepare caches
         TextureCache.init();
         ShaderCache.init();
+        ModelAssetCache.init();
         RendererCache.init();
+        CollisionCache.init();
         
         currentGalaxy = galaxy.identifier;
         galaxyEditor = new GalaxyEditorForm(currentGalaxy);
@@ -368,7 +372,9 @@ public final class MainFrame extends javax.swing.JFrame {
         // Prepare caches
         TextureCache.init();
         ShaderCache.init();
+        ModelAssetCache.init();
         RendererCache.init();
+        CollisionCache.init();
         
         // Load zone archive
         currentZone = zone.identifier;
@@ -399,7 +405,9 @@ public final class MainFrame extends javax.swing.JFrame {
         // Prepare caches
         TextureCache.init();
         ShaderCache.init();
+        ModelAssetCache.init();
         RendererCache.init();
+        CollisionCache.init();
         
         currentWorld = galaxy.identifier;
         worldEditor = new WorldEditorForm(currentWorld);
@@ -80,6 +80,18 @@ public final class Settings {
     public static boolean getUseDarkMode() { return PREFERENCES.getBoolean("whitehole_useDarkMode", true); }
     public static void setUseDarkMode(boolean val) { PREFERENCES.putBoolean("whitehole_useDarkMode", val); }
     
+    public static boolean getUseFastCompression() { return PREFERENCES.getBoolean("whitehole_useFastCompression", false); }
+    public static void setUseFastCompression(boolean val) { PREFERENCES.putBoolean("whitehole_useFastCompression", val); }
+    
+    public static boolean getUseParallelSaving() { return PREFERENCES.getBoolean("whitehole_useParallelSaving", true); }
+    public static void setUseParallelSaving(boolean val) { PREFERENCES.putBoolean("whitehole_useParallelSaving", val); }
+    
+    public static boolean getUseCpuPicking() { return PREFERENCES.getBoolean("whitehole_useCpuPicking", false); }
+    public static void setUseCpuPicking(boolean val) { PREFERENCES.putBoolean("whitehole_useCpuPicking", val); }
+    
+    public static boolean getUseModelCache() { return PREFERENCES.getBoolean("whitehole_useModelCache", true); }
+    public static void setUseModelCache(boolean val) { PREFERENCES.putBoolean("whitehole_useModelCache", val); }
+    
     public static boolean getOpenGalaxyEditorMaximized() { return PREFERENCES.getBoolean("whitehole_openGalaxyEditorMaximized", false); }
     public static void setOpenGalaxyEditorMaximized(boolean val) { PREFERENCES.putBoolean("whitehole_openGalaxyEditorMaximized", val); }
     
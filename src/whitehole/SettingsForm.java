@@ -29,8 +29,10 @@ import javax.swing.JColorChooser;
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.colorchooser.AbstractColorChooserPanel;
+import whitehole.rendering.ModelCache;
 
 public class SettingsForm extends javax.swing.JDialog {
     public SettingsForm(JFrame parent) {
@@ -216,6 +218,11 @@ public class SettingsForm extends javax.swing.JDialog {
         lblMisc = new javax.swing.JLabel();
         txtBaseGame = new javax.swing.JTextField();
         btnBrowseBaseGamePath = new javax.swing.JButton();
+        chkUseFastCompression = new javax.swing.JCheckBox();
+        chkUseParallelSaving = new javax.swing.JCheckBox();
+        chkUseCpuPicking = new javax.swing.JCheckBox();
+        chkUseModelCache = new javax.swing.JCheckBox();
+        btnClearModelCache = new javax.swing.JButton();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
         setTitle(String.format("%s -- Settings", Whitehole.NAME));
@@ -733,6 +740,84 @@ public class SettingsForm extends javax.swing.JDialog {
         gridBagConstraints.insets = new java.awt.Insets(2, 2, 2, 2);
         pnlMisc.add(btnBrowseBaseGamePath, gridBagConstraints);
 
+        chkUseFastCompression.setSelected(Settings.getUseFastCompression());
+        chkUseFastCompression.setText("Use fast compression when saving");
+        chkUseFastCompression.setToolTipText("Saves archives faster at the cost of slightly larger files.");
+        chkUseFastCompression.addItemListener(new java.awt.event.ItemListener() {
+            public void itemStateChanged(java.awt.event.ItemEvent evt) {
+                chkUseFastCompressionItemStateChanged(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 3;
+        gridBagConstraints.gridwidth = 3;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.WEST;
+        gridBagConstraints.insets = new java.awt.Insets(2, 2, 2, 2);
+        pnlMisc.add(chkUseFastCompression, gridBagConstraints);
+
+        chkUseParallelSaving.setSelected(Settings.getUseParallelSaving());
+        chkUseParallelSaving.setText("Save zones in parallel");
+        chkUseParallelSaving.setToolTipText("Compresses all changed zones at once and only replaces them once every zone was saved.");
+        chkUseParallelSaving.addItemListener(new java.awt.event.ItemListener() {
+            public void itemStateChanged(java.awt.event.ItemEvent evt) {
+                chkUseParallelSavingItemStateChanged(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 4;
+        gridBagConstraints.gridwidth = 3;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.WEST;
+        gridBagConstraints.insets = new java.awt.Insets(2, 2, 2, 2);
+        pnlMisc.add(chkUseParallelSaving, gridBagConstraints);
+
+        chkUseCpuPicking.setSelected(Settings.getUseCpuPicking());
+        chkUseCpuPicking.setText("Pick objects without drawing them");
+        chkUseCpuPicking.setToolTipText("Finds the objects under the cursor by casting a ray through the scene instead of drawing it a second time.");
+        chkUseCpuPicking.addItemListener(new java.awt.event.ItemListener() {
+            public void itemStateChanged(java.awt.event.ItemEvent evt) {
+                chkUseCpuPickingItemStateChanged(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 5;
+        gridBagConstraints.gridwidth = 3;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.WEST;
+        gridBagConstraints.insets = new java.awt.Insets(2, 2, 2, 2);
+        pnlMisc.add(chkUseCpuPicking, gridBagConstraints);
+
+        chkUseModelCache.setSelected(Settings.getUseModelCache());
+        chkUseModelCache.setText("Cache models on disk");
+        chkUseModelCache.setToolTipText("Stores decompressed archives, decoded textures and baked meshes in data/cache/models to load objects faster.");
+        chkUseModelCache.addItemListener(new java.awt.event.ItemListener() {
+            public void itemStateChanged(java.awt.event.ItemEvent evt) {
+                chkUseModelCacheItemStateChanged(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 6;
+        gridBagConstraints.gridwidth = 3;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.WEST;
+        gridBagConstraints.insets = new java.awt.Insets(2, 2, 2, 2);
+        pnlMisc.add(chkUseModelCache, gridBagConstraints);
+
+        btnClearModelCache.setText("Clear");
+        btnClearModelCache.setToolTipText("Deletes all cached models.");
+        btnClearModelCache.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                btnClearModelCacheActionPerformed(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 5;
+        gridBagConstraints.gridy = 6;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.insets = new java.awt.Insets(2, 2, 2, 2);
+        pnlMisc.add(btnClearModelCache, gridBagConstraints);
+
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 0;
         gridBagConstraints.gridy = 1;
@@ -917,6 +1002,29 @@ public class SettingsForm extends javax.swing.JDialog {
         }
     }//GEN-LAST:event_btnGravityAreaZeroSecondaryColorActionPerformed
 
+    private void chkUseFastCompressionItemStateChanged(java.awt.event.ItemEvent evt) {//GEN-FIRST:event_chkUseFastCompressionItemStateChanged
+        Settings.setUseFastCompression(evt.getStateChange() == ItemEvent.SELECTED);
+    }//GEN-LAST:event_chkUseFastCompressionItemStateChanged
+
+    private void chkUseParallelSavingItemStateChanged(java.awt.event.ItemEvent evt) {//GEN-FIRST:event_chkUseParallelSavingItemStateChanged
+        Settings.setUseParallelSaving(evt.getStateChange() == ItemEvent.SELECTED);
+    }//GEN-LAST:event_chkUseParallelSavingItemStateChanged
+
+    private void chkUseCpuPickingItemStateChanged(java.awt.event.ItemEvent evt) {//GEN-FIRST:event_chkUseCpuPickingItemStateChanged
+        Settings.setUseCpuPicking(evt.getStateChange() == ItemEvent.SELECTED);
+    }//GEN-LAST:event_chkUseCpuPickingItemStateChanged
+
+    private void chkUseModelCacheItemStateChanged(java.awt.event.ItemEvent evt) {//GEN-FIRST:event_chkUseModelCacheItemStateChanged
+        Settings.setUseModelCache(evt.getStateChange() == ItemEvent.SELECTED);
+    }//GEN-LAST:event_chkUseModelCacheItemStateChanged
+
+    private void btnClearModelCacheActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnClearModelCacheActionPerformed
+        if (ModelCache.clear())
+            JOptionPane.showMessageDialog(this, "The model cache has been cleared.", Whitehole.NAME, JOptionPane.INFORMATION_MESSAGE);
+        else
+            JOptionPane.showMessageDialog(this, "Some cached models are still in use and will be deleted the next time Whitehole starts.", Whitehole.NAME, JOptionPane.WARNING_MESSAGE);
+    }//GEN-LAST:event_btnClearModelCacheActionPerformed
+
     private void chkShowLowPolyModelsItemStateChanged(java.awt.event.ItemEvent evt) {//GEN-FIRST:event_chkShowLowPolyModelsItemStateChanged
         Settings.setUseLowPolyModels(evt.getStateChange() == ItemEvent.SELECTED);
     }//GEN-LAST:event_chkShowLowPolyModelsItemStateChanged
@@ -937,6 +1045,7 @@ public class SettingsForm extends javax.swing.JDialog {
     private javax.swing.JButton btnBrowseBaseGamePath;
     private javax.swing.JButton btnCameraAreaPrimaryColor;
     private javax.swing.JButton btnCameraAreaSecondaryColor;
+    private javax.swing.JButton btnClearModelCache;
     private javax.swing.JButton btnGravityAreaPrimaryColor;
     private javax.swing.JButton btnGravityAreaSecondaryColor;
     private javax.swing.JButton btnGravityAreaZeroPrimaryColor;
@@ -954,7 +1063,11 @@ public class SettingsForm extends javax.swing.JDialog {
     private javax.swing.JCheckBox chkShowCollisionModels;
     private javax.swing.JCheckBox chkShowLowPolyModels;
     private javax.swing.JCheckBox chkUseBetterQuality;
+    private javax.swing.JCheckBox chkUseCpuPicking;
     private javax.swing.JCheckBox chkUseDarkMode;
+    private javax.swing.JCheckBox chkUseFastCompression;
+    private javax.swing.JCheckBox chkUseModelCache;
+    private javax.swing.JCheckBox chkUseParallelSaving;
     private javax.swing.JCheckBox chkUseReverseRot;
     private javax.swing.JCheckBox chkUseWASD;
     private javax.swing.JLabel lblAppearance;
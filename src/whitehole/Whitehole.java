@@ -30,6 +30,7 @@ import java.util.List;
 import javax.swing.*;
 import whitehole.db.*;
 import whitehole.io.FilesystemBase;
+import whitehole.rendering.ModelCache;
 import whitehole.smg.GameArchive;
 import whitehole.util.Discord;
 
@@ -91,6 +92,7 @@ public class Whitehole {
         ObjectDB.init(true);
         ModelSubstitutions.initBaseGame();
         SpecialRenderers.initBaseGame(); //Must come after the Object Database and ModelSubstitutions
+        ModelCache.cleanUp();
         
         RPC = new Discord();
         RPC.init();
@@ -32,22 +32,37 @@ import java.awt.geom.AffineTransform;
 import java.io.*;
 import java.nio.*;
 import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javax.swing.*;
 import javax.swing.event.*;
 import javax.swing.tree.*;
 import whitehole.Settings;
 import whitehole.Whitehole;
+import whitehole.io.FileTransaction;
+import whitehole.rendering.CollisionCache;
+import whitehole.rendering.CollisionIndex;
 import whitehole.rendering.GLRenderer;
 import whitehole.rendering.GLRenderer.RenderMode;
+import whitehole.rendering.PickingBuffer;
 import whitehole.rendering.RendererCache;
+import whitehole.rendering.SpatialDrawList;
 import whitehole.smg.Bcsv;
 import whitehole.smg.GalaxyArchive;
 import whitehole.smg.StageArchive;
 import whitehole.smg.object.*;
 import whitehole.util.CheckBoxList;
+import whitehole.math.Frustum;
 import whitehole.math.Matrix4;
+import whitehole.math.Ray;
 import whitehole.util.PropertyGrid;
 import whitehole.math.RotationMatrix;
+import whitehole.math.ScenePicker;
 import whitehole.math.Vec2f;
 import whitehole.math.Vec3f;
 import whitehole.util.Color4;
@@ -103,6 +118,27 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
     private final ObjListTreeNode objListPathRootNode = new ObjListTreeNode("Paths");
     private String addingObject = "";
     private String addingObjectOnLayer = "";
+    private SnapMode snapMode = SnapMode.NONE;
+    
+    /**
+     * How placed and dragged objects are moved onto collision
+     */
+    private enum SnapMode {
+        NONE("off"),
+        GRAVITY("drop to the floor"),
+        VIEW("follow the cursor");
+        
+        final String description;
+        
+        SnapMode(String description) {
+            this.description = description;
+        }
+    }
+    
+    /**
+     * How far above themselves objects look for the floor, so objects that sink a bit into it aren't dropped through
+     */
+    private static final float SNAP_LIFT = 100f;
     
     private static final Vec3f COPY_POSITION = new Vec3f(0f, 0f, 0f);
     private static final Vec3f COPY_ROTATION = new Vec3f(0f, 0f, 0f);
@@ -114,14 +150,21 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
     // Rendering
     private GalaxyRenderer renderer;
     private GLRenderer.RenderInfo renderInfo;
-    private final HashMap<String, int[]> objDisplayLists = new HashMap();
-    private final HashMap<Integer, int[]> zoneDisplayLists = new HashMap();
+    private final HashMap<String, SpatialDrawList> objDrawLists = new HashMap();
+    private final HashMap<String, int[]> zoneDisplayLists = new HashMap(); // Paths and selection highlights per zone
+    private int lastUploadCount = -1;
     private final Queue<String> rerenderTasks = new PriorityQueue();
     private GLCanvas glCanvas;
     private boolean initializedRenderer = false;
     
+    // Animation playback
+    private static final long ANIMATION_FRAME_TIME = 1000000000L / 60L;
+    private final javax.swing.Timer animationTimer = new javax.swing.Timer(1000 / 60, evt -> glCanvas.repaint());
+    private long animationStartTime;
+    
     // Camera & view
     private Matrix4 modelViewMatrix;
+    private Matrix4 projectionMatrix;
     private float camDistance = 1.0f;
     private final Vec2f camRotation = new Vec2f(0.0f, 0.0f);
     private final Vec3f camPosition = new Vec3f(0.0f, 0.0f, 0.0f);
@@ -138,6 +181,12 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
     private final IntBuffer pickingFrameBuffer = IntBuffer.allocate(9);
     private final FloatBuffer pickingDepthBuffer = FloatBuffer.allocate(1);
     private float pickingDepth = 1.0f;
+    private PickingBuffer pickingBuffer; // Null if the picking pass has to be drawn to the window
+    private boolean isPickingDirty = true;
+    private Matrix4 pickedModelView, pickedProjection; // The camera the picking buffer was drawn with
+    private Point pickedMousePos;
+    private ScenePicker<Integer> scenePicker; // Null until objects are picked without the picking pass
+    private CollisionIndex collisionIndex; // Null until objects are snapped to collision
     
     // Assorted    
     private float g_move_x=0;
@@ -494,15 +543,12 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
     
     private void loadZone(String zone) throws IOException {
         // Load zone archive
-        StageArchive arc;
+        StageArchive arc = zoneArchives.get(zone);
         
-        if (isGalaxyMode) {
+        if (arc == null && isGalaxyMode) {
             arc = galaxyArchive.openZone(zone);
             zoneArchives.put(zone, arc);
         }
-        else {
-            arc = zoneArchives.get(zone);
-        }
         
         // Populate objects and assign their maxUniqueIDs
         for (List<AbstractObj> layers : arc.objects.values()) {
@@ -796,13 +842,11 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                 galaxyArchive = Whitehole.GAME.openGalaxy(galaxyName);
                 zoneArchives = new HashMap(galaxyArchive.zoneList.size());
 
-                int Progress = 0;
-                int MaxProgress = galaxyArchive.zoneList.size();
+                openZoneArchives();
+                
+                // Assign unique IDs in zone order so they don't depend on which zone finished loading first
                 for (String zone : galaxyArchive.zoneList) {
-                    setStatusToInfo("Loading Zones... ("+Progress+"/"+MaxProgress+")");
-                    System.out.println("Loading \""+zone+"\"");
                     loadZone(zone);
-                    Progress++;
                 }
 
                 setStatusToInfo("Validating Switches...");
@@ -892,6 +936,48 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                 ToggleUI(true);
             });
         }
+        
+        /**
+         * Opens all zone archives of the galaxy at once. The zones don't share any state while they are being read, so
+         * they are decompressed and parsed on a pool with one thread per core. Only this thread updates the status bar.
+         */
+        private void openZoneArchives() throws IOException
+        {
+            List<String> zoneList = galaxyArchive.zoneList;
+            int MaxProgress = zoneList.size();
+            int threadCount = Math.max(1, Math.min(MaxProgress, Runtime.getRuntime().availableProcessors()));
+            ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+            CompletionService<StageArchive> zoneLoader = new ExecutorCompletionService<>(pool);
+            
+            try {
+                for (String zone : zoneList) {
+                    zoneLoader.submit(() -> {
+                        System.out.println("Loading \""+zone+"\"");
+                        return galaxyArchive.openZone(zone);
+                    });
+                }
+                
+                for (int Progress = 0; Progress < MaxProgress; Progress++) {
+                    setStatusToInfo("Loading Zones... ("+Progress+"/"+MaxProgress+")");
+                    StageArchive arc = zoneLoader.take().get();
+                    zoneArchives.put(arc.stageName, arc);
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading zones", ex);
+            }
+            catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException)
+                    throw (IOException)ex.getCause();
+                if (ex.getCause() instanceof RuntimeException)
+                    throw (RuntimeException)ex.getCause();
+                throw new IOException(ex.getCause());
+            }
+            finally {
+                pool.shutdownNow();
+            }
+        }
     }
     
     private class AsyncLevelSaver implements Runnable
@@ -906,15 +992,12 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             ToggleUI(false);
             
             try {
-                int Progress = 0;
-                int MaxProgress = zoneArchives.size();
-                for (StageArchive stageArc : zoneArchives.values())
-                {
-                    setStatusToInfo("Saving changes... ("+Progress+"/"+MaxProgress+")");
-                    System.out.println("Saving \""+stageArc.stageName+"\"");
-                    stageArc.save();
-                    Progress++;
-                }
+                String timings;
+                
+                if (Settings.getUseParallelSaving() && zoneArchives.size() > 1)
+                    timings = saveZonesParallel();
+                else
+                    timings = saveZones();
 
                 // Update main editor from subzone
                 if(!isGalaxyMode) {
@@ -931,7 +1014,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                 }
 
                 unsavedChanges = false;
-                setStatusToInfo("Saved changes!");
+                setStatusToInfo(timings.isEmpty() ? "Saved changes! (nothing changed)" : "Saved changes! (" + timings + ")");
             }
             catch(IOException ex) {
                 setStatusToError("Failed to save changes:", ex);
@@ -939,6 +1022,113 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             
             ToggleUI(true);
         }
+        
+        private String saveZones() throws IOException
+        {
+            StringJoiner timings = new StringJoiner(", ");
+            int Progress = 0;
+            int MaxProgress = zoneArchives.size();
+            
+            for (StageArchive stageArc : zoneArchives.values())
+            {
+                setStatusToInfo("Saving changes... ("+Progress+"/"+MaxProgress+")");
+                long start = System.nanoTime();
+                
+                if (stageArc.save()) {
+                    long time = (System.nanoTime() - start) / 1000000;
+                    System.out.println("Saved \""+stageArc.stageName+"\" in "+time+" ms");
+                    timings.add(stageArc.stageName+" "+time+" ms");
+                }
+                else
+                    System.out.println("Skipped \""+stageArc.stageName+"\", nothing changed");
+                Progress++;
+            }
+            
+            return timings.toString();
+        }
+        
+        /**
+         * Saves all zones at once. Every changed archive is staged in a temporary file first, and they only replace the
+         * actual archives after all zones were saved successfully, so a failure never leaves the galaxy half-written.
+         */
+        private String saveZonesParallel() throws IOException
+        {
+            FileTransaction transaction = new FileTransaction();
+            List<StageArchive> zones = new ArrayList<>(zoneArchives.values());
+            int MaxProgress = zones.size();
+            int threadCount = Math.max(1, Math.min(MaxProgress, Runtime.getRuntime().availableProcessors()));
+            ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+            CompletionService<Long> zoneSaver = new ExecutorCompletionService<>(pool);
+            Map<Future<Long>, StageArchive> tasks = new HashMap<>(MaxProgress);
+            Map<StageArchive, Long> times = new HashMap<>(MaxProgress);
+            
+            try {
+                for (StageArchive stageArc : zones) {
+                    Future<Long> task = zoneSaver.submit(() -> {
+                        long start = System.nanoTime();
+                        return stageArc.save(transaction) ? (System.nanoTime() - start) / 1000000 : -1L;
+                    });
+                    tasks.put(task, stageArc);
+                }
+                
+                for (int Progress = 0; Progress < MaxProgress; Progress++) {
+                    setStatusToInfo("Saving changes... ("+Progress+"/"+MaxProgress+")");
+                    Future<Long> task = zoneSaver.take();
+                    StageArchive stageArc = tasks.get(task);
+                    long time = task.get();
+                    
+                    if (time >= 0) {
+                        System.out.println("Saved \""+stageArc.stageName+"\" in "+time+" ms");
+                        times.put(stageArc, time);
+                    }
+                    else
+                        System.out.println("Skipped \""+stageArc.stageName+"\", nothing changed");
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                abortSave(pool, transaction);
+                throw new IOException("Interrupted while saving zones", ex);
+            }
+            catch (ExecutionException ex) {
+                abortSave(pool, transaction);
+                
+                if (ex.getCause() instanceof IOException)
+                    throw (IOException)ex.getCause();
+                if (ex.getCause() instanceof RuntimeException)
+                    throw (RuntimeException)ex.getCause();
+                throw new IOException(ex.getCause());
+            }
+            finally {
+                pool.shutdown();
+            }
+            
+            setStatusToInfo("Replacing archives...");
+            transaction.commit();
+            
+            StringJoiner timings = new StringJoiner(", ");
+            for (StageArchive stageArc : zones) {
+                if (times.containsKey(stageArc))
+                    timings.add(stageArc.stageName+" "+times.get(stageArc)+" ms");
+            }
+            
+            return timings.toString();
+        }
+        
+        private void abortSave(ExecutorService pool, FileTransaction transaction)
+        {
+            // Let the remaining zones finish writing before their temporary files are deleted
+            pool.shutdownNow();
+            
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            
+            transaction.rollback();
+        }
     }
     
     
@@ -1538,7 +1728,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                 pnlObjectSettings.setFieldValue("pos_y", selectedObj.position.y);
                 pnlObjectSettings.setFieldValue("pos_z", selectedObj.position.z);
                 pnlObjectSettings.repaint();
-                addRerenderTask("zone:"+selectedObj.stage.stageName);
+                addRedrawTask(selectedObj);
                 if (selectedObj.renderer.hasSpecialPosition())
                     addRerenderTask("object:"+Integer.toString(selectedObj.uniqueID));
             }
@@ -1564,7 +1754,6 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             pnlObjectSettings.setFieldValue("dir_z", selectedObj.rotation.z);
             pnlObjectSettings.repaint();
             
-            addRerenderTask("zone:"+selectedObj.stage.stageName);
             addRerenderTask("object:"+selectedObj.uniqueID);
             glCanvas.repaint();
         }
@@ -1596,7 +1785,6 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             pnlObjectSettings.setFieldValue("scale_z", selectedObj.scale.z);
             pnlObjectSettings.repaint();
 
-            addRerenderTask("zone:"+selectedObj.stage.stageName);
             addRerenderTask("object:"+selectedObj.uniqueID);
             glCanvas.repaint();
         }
@@ -2025,7 +2213,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                                                 break;
                         default:System.out.println("Invalid axis");
                 }
-                addRerenderTask("zone:"+selectedObj.stage.stageName);
+                addRedrawTask(selectedObj);
                 glCanvas.repaint();//redraw the objects
             }
             if(propname.startsWith("group_move_")){
@@ -2076,7 +2264,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                     default:
                         System.out.println("invalid axis");
                 }
-                addRerenderTask("zone:"+selectedObj.stage.stageName);
+                addRedrawTask(selectedObj);
                 glCanvas.repaint();
             }
             // Path point objects, as they work a bit differently
@@ -2180,7 +2368,6 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                     objlist.nodeChanged(treeNodeList.get(selectedObj.uniqueID));
 
                     addRerenderTask("object:"+Integer.toString(selectedObj.uniqueID));
-                    addRerenderTask("zone:"+selectedObj.stage.stageName);
                     glCanvas.repaint();
                 }
                 else if(propname.equals("zone"))
@@ -2307,12 +2494,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                         break;
                     }
                     
-                    if (selectedObj instanceof StageObj) {
-                        addRerenderTask("zone:"+selectedObj.name);
-                    }
-                    else {
-                        addRerenderTask("zone:"+selectedObj.stage.stageName);
-                    }
+                    addRedrawTask(selectedObj);
                     glCanvas.repaint();
                 }
                 else {
@@ -2322,13 +2504,11 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                         int argnum = Integer.parseInt(propname.substring(7));
                         if(selectedObj.renderer.boundToObjArg(argnum)) {
                             addRerenderTask("object:"+Integer.toString(selectedObj.uniqueID));
-                            addRerenderTask("zone:"+selectedObj.stage.stageName);
                             glCanvas.repaint();
                         }
                     }
                     else if (propname.equals("ShapeModelNo")) {
                         addRerenderTask("object:"+Integer.toString(selectedObj.uniqueID));
-                        addRerenderTask("zone:"+selectedObj.stage.stageName);
                         glCanvas.repaint();
                     }
                     else if(selectedObj.renderer.boundToPathId() && propname.startsWith("CommonPath_ID")) {
@@ -2336,27 +2516,23 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                         PathObj y = AbstractObj.getObjectPathData(selectedObj);
                         if (y != null)
                             addRerenderTask("path:" +  y.uniqueID);
-                        addRerenderTask("zone:"+selectedObj.stage.stageName);
                         glCanvas.repaint();
                     }
                     else if(propname.equals("Range")) {
                         if(selectedObj.renderer.boundToProperty()) {
                             addRerenderTask("object:"+Integer.toString(selectedObj.uniqueID));
-                            addRerenderTask("zone:"+selectedObj.stage.stageName);
                             glCanvas.repaint();
                         }
                     }
                     else if(propname.equals("Distant")) {
                         if(selectedObj.renderer.boundToProperty()) {
                             addRerenderTask("object:"+Integer.toString(selectedObj.uniqueID));
-                            addRerenderTask("zone:"+selectedObj.stage.stageName);
                             glCanvas.repaint();
                         }
                     }
                     else if(propname.equals("Inverse")) {
                         if(selectedObj.renderer.boundToProperty()) {
                             addRerenderTask("object:"+Integer.toString(selectedObj.uniqueID));
-                            addRerenderTask("zone:"+selectedObj.stage.stageName);
                             glCanvas.repaint();
                         }
                     }
@@ -2365,7 +2541,6 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                         objlist.nodeChanged(treeNodeList.get(selectedObj.uniqueID));
                         if(selectedObj.getClass() == AreaObj.class || selectedObj.getClass() == CameraObj.class) {
                             addRerenderTask("object:"+Integer.toString(selectedObj.uniqueID));
-                            addRerenderTask("zone:"+selectedObj.stage.stageName);
                             glCanvas.repaint();
                         }
                     }
@@ -2880,7 +3055,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             pnlObjectSettings.setFieldValue("pos_z", obj.position.z);
             pnlObjectSettings.repaint();
             
-            addRerenderTask("allobjects");
+            addRedrawTask(obj);
         }
     }
     public class UndoObjectRotateEntry implements IUndo
@@ -2906,7 +3081,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             pnlObjectSettings.setFieldValue("dir_z", obj.rotation.z);
             pnlObjectSettings.repaint();
             
-            addRerenderTask("allobjects");
+            addRedrawTask(obj);
         }
     }
     public class UndoObjectScaleEntry implements IUndo
@@ -2932,12 +3107,10 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             pnlObjectSettings.setFieldValue("scale_z", obj.scale.z);
             pnlObjectSettings.repaint();
             
-            if (obj.renderer != null && obj.renderer.hasSpecialScaling()) {
-                renderAllObjects();
+            if (obj.renderer != null && obj.renderer.hasSpecialScaling())
                 addRerenderTask("object:"+Integer.toString(obj.uniqueID));
-            }
             else
-                addRerenderTask("allobjects");
+                addRedrawTask(obj);
         }
     }
     
@@ -3014,7 +3187,6 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                 throw new NullPointerException(ERR_OBJNOEXIST);
             obj.data = (Bcsv.Entry)data.clone();
             selectionChanged();
-            renderAllObjects();
             addRerenderTask("object:"+Integer.toString(obj.uniqueID));
             
         }
@@ -3538,6 +3710,18 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             rerenderTasks.add(task);
     }
     
+    /**
+     * Queues an object that has been moved, rotated or scaled to be drawn again. Zones are placed every frame, so
+     * moving a zone only makes the collision of the placed zones outdated.
+     * @param obj the changed object
+     */
+    private void addRedrawTask(AbstractObj obj) {
+        if(obj instanceof StageObj)
+            addRerenderTask("placement:"+obj.name);
+        else
+            addRerenderTask("redraw:"+obj.uniqueID);
+    }
+    
     private class GalaxyRenderer implements GLEventListener, MouseListener, MouseMotionListener, MouseWheelListener, KeyListener {
         private class AsyncPrerenderer implements Runnable {
             private final GL2 gl;
@@ -3593,11 +3777,6 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                         }
                     }
                     
-                    renderInfo.renderMode = GLRenderer.RenderMode.PICKING;
-                    renderAllObjects(gl);
-                    renderInfo.renderMode = GLRenderer.RenderMode.OPAQUE;
-                    renderAllObjects(gl);
-                    renderInfo.renderMode = GLRenderer.RenderMode.TRANSLUCENT;
                     renderAllObjects(gl);
                     
                     gl.getContext().release();
@@ -3614,6 +3793,11 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
         private static final float Z_NEAR = 0.01f;
         private static final float Z_FAR = 1000f;
         
+        /**
+         * Repaints the viewport when a model has been loaded so that it gets uploaded
+         */
+        private final Runnable modelLoadListener = () -> glCanvas.repaint();
+        
         public GalaxyRenderer() {
             super();
         }
@@ -3623,6 +3807,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             GL2 gl = glad.getGL().getGL2();
             
             RendererCache.setRefContext(glad.getContext());
+            RendererCache.addLoadListener(modelLoadListener);
             
             
             renderInfo = new GLRenderer.RenderInfo();
@@ -3645,11 +3830,10 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             
             updateCamera();
             
-            for(int s = 0; s <(isGalaxyMode ? galaxyArchive.scenarioData.size() : 1); s++)
-                zoneDisplayLists.put(s, new int[] {0,0,0});
-            
             gl.glFrontFace(GL2.GL_CW);
             
+            pickingBuffer = PickingBuffer.create(gl);
+            
             gl.glClearColor(0.118f, 0.118f, 0.784f, 1f);
             gl.glClear(GL2.GL_COLOR_BUFFER_BIT);
             setStatusToInfo("Prerendering "+(isGalaxyMode?"galaxy":"zone")+", please wait...");
@@ -3659,10 +3843,15 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             initializedRenderer = true;
         }
         
-        private void renderSelectHighlight(GL2 gl, String zone)  {
+        /**
+         * Draws the highlights of the selected objects of a zone.
+         * @param isLive whether to draw the objects that are played back, which are drawn every frame, or the others,
+         * which are compiled into the lists of the zone
+         */
+        private void renderSelectHighlight(GL2 gl, String zone, boolean isLive)  {
             boolean gotany = false;
             for(AbstractObj obj : selectedObjs.values()) {
-                if(obj.stage.stageName.equals(zone)) {
+                if(obj.stage.stageName.equals(zone) && isDrawnLive(obj) == isLive) {
                     gotany = true;
                     break;
                 }
@@ -3673,7 +3862,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             RenderMode oldmode = doHighLightSettings(gl);
             
             for(AbstractObj obj : selectedObjs.values()) {
-                if(obj.stage.stageName.equals(zone) && !(obj instanceof PathPointObj))
+                if(obj.stage.stageName.equals(zone) && isDrawnLive(obj) == isLive && !(obj instanceof PathPointObj))
                     obj.render(renderInfo);
             }
             
@@ -3681,27 +3870,20 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             renderInfo.renderMode = oldmode;
         }
         
+        /**
+         * Returns whether an object is drawn every frame because its animations are played back, see SpatialDrawList.
+         */
+        private boolean isDrawnLive(AbstractObj obj) {
+            return renderInfo.animationFrame >= 0 && obj.isAnimated();
+        }
+        
         private void renderAllObjects(GL2 gl) {
-            int mode = -1;
-            switch(renderInfo.renderMode) {
-                case PICKING: mode = 0; break;
-                case OPAQUE: mode = 1; break;
-                case TRANSLUCENT: mode = 2; break;
-            }
-            
             if(isGalaxyMode) {
                 for(String zone : galaxyArchive.zoneList)
                     prerenderZone(gl, zone);
                 
+                // The zones are placed every frame, but broken scenarios are only reported here
                 for(int s = 0; s < galaxyArchive.scenarioData.size(); s++) {
-
-                    int dl = zoneDisplayLists.get(s)[mode];
-                    if(dl == 0) {
-                        dl = gl.glGenLists(1);
-                        zoneDisplayLists.get(s)[mode] = dl;
-                    }
-                    gl.glNewList(dl, GL2.GL_COMPILE);
-                    
                     Bcsv.Entry scenario = galaxyArchive.scenarioData.get(s);
                     var sc = scenario.get(galaxyName);
                     int scc;
@@ -3714,170 +3896,205 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                     catch (NullPointerException npex)
                     {
                         setStatusToError("Failed to render level!", npex);
-                        gl.glEndList();
                         return;
                     }
-                    renderZone(gl, scenario, galaxyName, scc, 0);
-
-                    gl.glEndList();
+                    placeZone(scenario, galaxyName, scc, 0, null, new ArrayList(), true);
                 }
             } else {
                 prerenderZone(gl, curZone);
-                
-                if(!zoneDisplayLists.containsKey(0))
-                     zoneDisplayLists.put(0, new int[] {0,0,0});
-
-                int dl = zoneDisplayLists.get(0)[mode];
-                if(dl == 0) {
-                    dl = gl.glGenLists(1);
-                    zoneDisplayLists.get(0)[mode] = dl;
-                }
-                gl.glNewList(dl, GL2.GL_COMPILE);
-
-                renderZone(gl, null, galaxyName, zoneModeLayerBitmask, 99);
-
-                gl.glEndList();
             }
         }
         
+        /**
+         * Compiles the objects of every layer of a zone for all render modes, along with the paths and selection
+         * highlights of the zone.
+         */
         private void prerenderZone(GL2 gl, String zone) {
-            int mode = -1;
-            switch(renderInfo.renderMode) {
-                case PICKING: mode = 0; break;
-                case OPAQUE: mode = 1; break;
-                case TRANSLUCENT: mode = 2; break;
-            }
+            RenderMode oldmode = renderInfo.renderMode;
             
             StageArchive zonearc = zoneArchives.get(zone);
             Set<String> layers = zonearc.objects.keySet();
             for(String layer : layers) {
                 String key = zone + "/" + layer.toLowerCase();
-                if(!objDisplayLists.containsKey(key))
-                    objDisplayLists.put(key, new int[] {0,0,0});
+                SpatialDrawList drawlist = objDrawLists.get(key);
+                if(drawlist == null) {
+                    drawlist = new SpatialDrawList();
+                    objDrawLists.put(key, drawlist);
+                }
                 
-                int dl = objDisplayLists.get(key)[mode];
+                drawlist.setAnimating(renderInfo.animationFrame >= 0);
+                drawlist.compile(gl, zonearc.objects.get(layer), (obj, mode) -> paintObject(gl, obj, mode));
+            }
+            
+            prerenderZoneExtras(gl, zone);
+            renderInfo.renderMode = oldmode;
+        }
+        
+        /**
+         * Returns whether a path is drawn, either because all paths are shown or because one of its points is selected.
+         */
+        private boolean isPathShown(PathObj pobj) {
+            if (tgbShowPaths.isSelected())
+                return true;
+            
+            for (PathPointObj display : displayedPaths.values()) {
+                if (display != null && pobj == display.path)
+                    return true;
+            }
+            return false;
+        }
+        
+        /**
+         * Compiles the paths and selection highlights of a zone for all render modes.
+         */
+        private void prerenderZoneExtras(GL2 gl, String zone) {
+            RenderMode oldmode = renderInfo.renderMode;
+            StageArchive zonearc = zoneArchives.get(zone);
+            
+            if(!zoneDisplayLists.containsKey(zone))
+                zoneDisplayLists.put(zone, new int[] {0,0,0});
+            
+            for(int mode = 0; mode < 3; mode++) {
+                int dl = zoneDisplayLists.get(zone)[mode];
                 if(dl == 0) { 
                     dl = gl.glGenLists(1); 
-                    objDisplayLists.get(key)[mode] = dl;
+                    zoneDisplayLists.get(zone)[mode] = dl;
                 }
                 
                 gl.glNewList(dl, GL2.GL_COMPILE);
-                
-                for(AbstractObj obj : zonearc.objects.get(layer)) {
-                    if(mode == 0) {
-                        int uniqueid = obj.uniqueID << 3;
-                        // set color to the object's uniqueID(RGB)
-                        gl.glColor4ub(
-                               (byte)(uniqueid >>> 16), 
-                               (byte)(uniqueid >>> 8), 
-                               (byte)uniqueid, 
-                               (byte)0xFF);
-                    }
-                    
-                    final String c = obj.getClass().getSimpleName();
-                    switch(c) {
-                        case "AreaObj":
-                            if(tgbShowAreas.isSelected())
-                                obj.render(renderInfo);
-                            break;
-                        case "GravityObj":
-                            if (tgbShowGravity.isSelected()) {
-                                obj.render(renderInfo);
-                            }
-                            break;
-                        case "CameraObj":
-                            if(tgbShowCameras.isSelected())
-                                obj.render(renderInfo);
-                            break;
-                        default:
-                            obj.render(renderInfo);
-                    }
-                }
+                renderInfo.renderMode = SpatialDrawList.MODES[mode];
                 
                 if(mode == 2 && !selectedObjs.isEmpty())
-                    renderSelectHighlight(gl, zone);
+                    renderSelectHighlight(gl, zone, false);
                 
-                // path rendering -- be lazy and hijack the display lists used for the Common objects
-                if(layer.equalsIgnoreCase("common"))
+                for(PathObj pobj : zonearc.paths)
                 {
-                    for(PathObj pobj : zonearc.paths)
-                    {
-                        boolean isRenderCurrentPath = tgbShowPaths.isSelected();
-
-                        if (!isRenderCurrentPath)
-                            for (PathPointObj display : displayedPaths.values()) {
-                                if (display == null)
-                                    continue;
-                                if (pobj == display.path)
-                                {
-                                    isRenderCurrentPath = true;
-                                    break;
-                                }
-                            }
-                        
-                        if (!isRenderCurrentPath)
-                            continue;
-                        
-                        pobj.render(renderInfo);                        
+                    if (!isPathShown(pobj))
+                        continue;
 
-                        if(mode == 1)
+                    pobj.render(renderInfo);                        
+
+                    if(mode == 1)
+                    {
+                        for(AbstractObj aObj : selectedObjs.values())
                         {
-                            for(AbstractObj aObj : selectedObjs.values())
-                            {
-                                if (!(aObj instanceof PathPointObj))
-                                    continue;
-                                PathPointObj aPthPt = (PathPointObj)aObj;
-                                if (aPthPt.path != pobj)
-                                    continue;
-                                aPthPt.render(renderInfo, selectionArg, true);
-                            }
+                            if (!(aObj instanceof PathPointObj))
+                                continue;
+                            PathPointObj aPthPt = (PathPointObj)aObj;
+                            if (aPthPt.path != pobj)
+                                continue;
+                            aPthPt.render(renderInfo, selectionArg, true);
                         }
                     }
                 }
                 
                 gl.glEndList();
             }
+            
+            renderInfo.renderMode = oldmode;
         }
         
-        private void renderZone(GL2 gl, Bcsv.Entry scenario, String zone, int layermask, int level) {
-            String alphabet = "abcdefghijklmnop";
-            int mode = -1;
-            switch(renderInfo.renderMode) {
-                case PICKING: mode = 0; break;
-                case OPAQUE: mode = 1; break;
-                case TRANSLUCENT: mode = 2; break;
+        private void paintObject(GL2 gl, AbstractObj obj, RenderMode mode) {
+            renderInfo.renderMode = mode;
+            
+            if(mode == RenderMode.PICKING) {
+                int uniqueid = obj.uniqueID << 3;
+                // set color to the object's uniqueID(RGB)
+                gl.glColor4ub(
+                       (byte)(uniqueid >>> 16), 
+                       (byte)(uniqueid >>> 8), 
+                       (byte)uniqueid, 
+                       (byte)0xFF);
             }
+
+            final String c = obj.getClass().getSimpleName();
+            switch(c) {
+                case "AreaObj":
+                    if(tgbShowAreas.isSelected())
+                        obj.render(renderInfo);
+                    break;
+                case "GravityObj":
+                    if (tgbShowGravity.isSelected()) {
+                        obj.render(renderInfo);
+                    }
+                    break;
+                case "CameraObj":
+                    if(tgbShowCameras.isSelected())
+                        obj.render(renderInfo);
+                    break;
+                default:
+                    obj.render(renderInfo);
+            }
+        }
+        
+        /**
+         * A zone as it is placed in the scene by the current scenario.
+         */
+        private class ZonePlacement {
+            final String zone;
+            final int layermask;
+            
+            /**
+             * Moves the zone into the space of the galaxy, or null for the galaxy itself
+             */
+            final Matrix4 matrix;
+            Frustum frustum;
+            
+            ZonePlacement(String zone, int layermask, Matrix4 matrix) {
+                this.zone = zone;
+                this.layermask = layermask;
+                this.matrix = matrix;
+            }
+        }
+        
+        private ArrayList<ZonePlacement> placeZones() {
+            ArrayList<ZonePlacement> ret = new ArrayList();
             
-            if (!objDisplayLists.containsKey(zone + "/common"))
+            if(isGalaxyMode) {
+                Bcsv.Entry scenario = galaxyArchive.scenarioData.get(curScenarioIndex);
+                var sc = scenario.get(galaxyName);
+                if (sc != null)
+                    placeZone(scenario, galaxyName, (int)sc, 0, null, ret, false);
+            }
+            else
+                placeZone(null, galaxyName, zoneModeLayerBitmask, 99, null, ret, false);
+            
+            return ret;
+        }
+        
+        private void placeZone(Bcsv.Entry scenario, String zone, int layermask, int level, Matrix4 matrix, List<ZonePlacement> out, boolean report) {
+            String alphabet = "abcdefghijklmnop";
+            
+            if (!objDrawLists.containsKey(zone + "/common"))
             {
-                String err = "LOAD ERROR: Cannot find "+zone+" - Common";
-                setStatusToError(err, new Exception("WHITEHOLE "+err));
+                if (report) {
+                    String err = "LOAD ERROR: Cannot find "+zone+" - Common";
+                    setStatusToError(err, new Exception("WHITEHOLE "+err));
+                }
                 return;
             }
-            gl.glCallList(objDisplayLists.get(zone + "/common")[mode]);
             
-            for (int l = 0; l < 16; l++) {
-                if((layermask & (1 << l)) != 0)
-                {
-                    var x = zone + "/layer" + alphabet.charAt(l);
-                    if (!objDisplayLists.containsKey(x))
+            if (report) {
+                for (int l = 0; l < 16; l++) {
+                    if((layermask & (1 << l)) != 0 && !objDrawLists.containsKey(zone + "/layer" + alphabet.charAt(l)))
                     {
                         String err = "LOAD ERROR: Cannot find "+zone+" - Layer"+alphabet.toUpperCase().charAt(l);
                         setStatusToError(err, new Exception("WHITEHOLE "+err));
                     }
-                    gl.glCallList(objDisplayLists.get(x)[mode]);
                 }
             }
             
+            out.add(new ZonePlacement(zone, layermask, matrix));
+            
             if (level < 2) {
                 for(StageObj subzone : zoneArchives.get(zone).zones.get("common")) {
-                    tryRenderSubZone(gl, subzone, scenario, level);
+                    tryPlaceSubZone(subzone, scenario, level, matrix, out, report);
                 }
                 
                 for(int l = 0; l < 16; l++) {
                     if((layermask &(1 << l)) != 0) {
                         for(StageObj subzone : zoneArchives.get(zone).zones.get("layer" + alphabet.charAt(l))) {
-                            tryRenderSubZone(gl, subzone, scenario, level);
+                            tryPlaceSubZone(subzone, scenario, level, matrix, out, report);
                         }
                     }
                 }
@@ -3888,22 +4105,59 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             }
         }
         
-        private void tryRenderSubZone(GL2 gl, StageObj subzone, Bcsv.Entry scenario, int level){
-            gl.glPushMatrix();
-            gl.glTranslatef(subzone.position.x, subzone.position.y, subzone.position.z);
-            gl.glRotatef(subzone.rotation.z, 0f, 0f, 1f);
-            gl.glRotatef(subzone.rotation.y, 0f, 1f, 0f);
-            gl.glRotatef(subzone.rotation.x, 1f, 0f, 0f);
-
+        private void tryPlaceSubZone(StageObj subzone, Bcsv.Entry scenario, int level, Matrix4 matrix, List<ZonePlacement> out, boolean report){
             String zonename = subzone.name;
             if (!scenario.containsKey(zonename))
             {
-                String err = "LOAD ERROR: \""+zonename+"\" is used but has no Layer information in the Scenario data";
-                setStatusToError(err, new Exception("WHITEHOLE "+err));
+                if (report) {
+                    String err = "LOAD ERROR: \""+zonename+"\" is used but has no Layer information in the Scenario data";
+                    setStatusToError(err, new Exception("WHITEHOLE "+err));
+                }
+                return;
+            }
+            
+            // Same order as glTranslate and glRotate around Z, Y and X
+            Vec3f rot = new Vec3f((float)Math.toRadians(subzone.rotation.x), (float)Math.toRadians(subzone.rotation.y), (float)Math.toRadians(subzone.rotation.z));
+            Matrix4 local = Matrix4.SRTToMatrix(GLRenderer.DEFAULT_SCALE, rot, subzone.position);
+            if (matrix != null)
+                Matrix4.mult(local, matrix, local);
+            
+            placeZone(scenario, zonename,(int)scenario.get(zonename), level + 1, local, out, report);
+        }
+        
+        /**
+         * Draws the visible parts of the placed zones.
+         */
+        private void renderZones(GL2 gl, List<ZonePlacement> zones, RenderMode mode) {
+            String alphabet = "abcdefghijklmnop";
+            int m = SpatialDrawList.getModeIndex(mode);
+            SpatialDrawList.Painter painter = (obj, objmode) -> paintObject(gl, obj, objmode);
+            
+            for(ZonePlacement placement : zones) {
+                gl.glPushMatrix();
+                if (placement.matrix != null)
+                    gl.glMultMatrixf(placement.matrix.m, 0);
+                
+                objDrawLists.get(placement.zone + "/common").draw(gl, placement.frustum, mode, painter);
+                
+                for (int l = 0; l < 16; l++) {
+                    if((placement.layermask & (1 << l)) != 0) {
+                        SpatialDrawList drawlist = objDrawLists.get(placement.zone + "/layer" + alphabet.charAt(l));
+                        if (drawlist != null)
+                            drawlist.draw(gl, placement.frustum, mode, painter);
+                    }
+                }
+                
+                int[] dls = zoneDisplayLists.get(placement.zone);
+                if (dls != null)
+                    gl.glCallList(dls[m]);
+                
+                // Same as in prerenderZoneExtras, for the objects that can't be compiled
+                if (m == 2 && !selectedObjs.isEmpty() && renderInfo.animationFrame >= 0)
+                    renderSelectHighlight(gl, placement.zone, true);
+                
+                gl.glPopMatrix();
             }
-            renderZone(gl, scenario, zonename,(int)scenario.get(zonename), level + 1);
-
-            gl.glPopMatrix();
         }
         
         @Override
@@ -3917,17 +4171,19 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                 gl.glDeleteLists(dls[2], 1);
             }
             
-            for(int[] dls : objDisplayLists.values()) {
-                gl.glDeleteLists(dls[0], 1);
-                gl.glDeleteLists(dls[1], 1);
-                gl.glDeleteLists(dls[2], 1);
-            }
+            for(SpatialDrawList drawlist : objDrawLists.values())
+                drawlist.close(gl);
+            
+            if (pickingBuffer != null)
+                pickingBuffer.close(gl);
             
             if(parentForm == null) {
                 for(AbstractObj obj : globalObjList.values())
                     obj.closeRenderer(renderInfo);
             }
             
+            animationTimer.stop();
+            RendererCache.removeLoadListener(modelLoadListener);
             RendererCache.clearRefContext();
         }
         
@@ -3968,18 +4224,14 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                 }
                 renderInfo.activeLayers = ActiveLayers;
 
+                HashSet<String> redrawnZones = new HashSet();
+                
                 while(!rerenderTasks.isEmpty()) {
                     String[] task = rerenderTasks.poll().split(":");
                     switch(task[0]) {
                         case "zone":
-                            renderInfo.renderMode = GLRenderer.RenderMode.PICKING;
-                            renderAllObjects(gl);
-                            
-                            renderInfo.renderMode = GLRenderer.RenderMode.OPAQUE;
-                            prerenderZone(gl, task[1]);
-                            
-                            renderInfo.renderMode = GLRenderer.RenderMode.TRANSLUCENT;
                             prerenderZone(gl, task[1]);
+                            collisionIndex = null;
                             break;
 
                         case "object":
@@ -3989,6 +4241,28 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                                 obj.closeRenderer(renderInfo);
                                 obj.initRenderer(renderInfo);
                                 obj.oldName = obj.name;
+                                invalidateObject(obj, redrawnZones);
+                                collisionIndex = null;
+                            }
+                            break;
+                            
+                        case "highlight":
+                            redrawnZones.add(task[1]);
+                            break;
+                            
+                        case "placement":
+                            collisionIndex = null;
+                            break;
+                            
+                        case "redraw":
+                            {
+                                int objid = Integer.parseInt(task[1]);
+                                AbstractObj obj = globalObjList.get(objid);
+                                if (obj != null) {
+                                    invalidateObject(obj, redrawnZones);
+                                    if (collisionIndex != null)
+                                        collisionIndex.update(obj);
+                                }
                             }
                             break;
 
@@ -3998,6 +4272,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                                 AbstractObj obj = globalObjList.get(objid);
                                 obj.initRenderer(renderInfo);
                                 obj.oldName = obj.name;
+                                collisionIndex = null;
                             }
                             break;
 
@@ -4007,18 +4282,13 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                                 AbstractObj obj = globalObjList.get(objid);
                                 obj.closeRenderer(renderInfo);
                                 globalObjList.remove(obj.uniqueID);
+                                collisionIndex = null;
                             }
                             break;
 
                         case "allobjects":
-                            renderInfo.renderMode = GLRenderer.RenderMode.PICKING;
-                            renderAllObjects(gl);
-                            
-                            renderInfo.renderMode = GLRenderer.RenderMode.OPAQUE;
-                            renderAllObjects(gl);
-                            
-                            renderInfo.renderMode = GLRenderer.RenderMode.TRANSLUCENT;
                             renderAllObjects(gl);
+                            collisionIndex = null;
                             break;
                             
                         case "path":
@@ -4039,6 +4309,12 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                             break;
                     }
                 }
+                
+                // Zones that have been compiled in full since then are compiled again for nothing, which is harmless
+                for(SpatialDrawList drawlist : objDrawLists.values())
+                    drawlist.compileDirty(gl, (obj, mode) -> paintObject(gl, obj, mode));
+                for(String zone : redrawnZones)
+                    prerenderZoneExtras(gl, zone);
             } catch(GLException ex) {
                 setStatusToError("Failed to render level!", ex);
                 lblStatus.setOpaque(true);
@@ -4047,6 +4323,23 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             }
         }
         
+        /**
+         * Marks the chunk of an object to be compiled again. Objects that aren't compiled yet, like newly added ones,
+         * make their whole zone compile again instead.
+         */
+        private void invalidateObject(AbstractObj obj, Set<String> redrawnZones) {
+            if (obj.stage == null || obj.layerKey == null)
+                return;
+            
+            String zone = obj.stage.stageName;
+            SpatialDrawList drawlist = objDrawLists.get(zone + "/" + obj.layerKey.toLowerCase());
+            
+            if (drawlist != null && drawlist.invalidate(obj))
+                redrawnZones.add(zone);
+            else
+                addRerenderTask("zone:" + zone);
+        }
+        
         @Override
         public void display(GLAutoDrawable glad) {
             if(!initializedRenderer)
@@ -4054,51 +4347,92 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             GL2 gl = glad.getGL().getGL2();
             renderInfo.drawable = glad;
             
-            doRerenderTasks();
-            
-            // Rendering pass 1 -- fakecolor rendering
-            // the results are used to determine which object is clicked
-            
-            gl.glClearColor(0.118f, 0.118f, 0.784f, 1f);
-            gl.glClearDepth(1f);
-            gl.glClearStencil(0);
-            gl.glClear(GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT | GL2.GL_STENCIL_BUFFER_BIT);
-            
-            gl.glMatrixMode(GL2.GL_MODELVIEW);
-            gl.glLoadMatrixf(modelViewMatrix.m, 0);
+            // Models that were drawn as placeholders may be transformed differently now
+            if (RendererCache.uploadLoadedRenderers(renderInfo))
+                addRerenderTask("allobjects");
             
-            try { gl.glUseProgram(0); } catch(GLException ex) { }
-            gl.glDisable(GL2.GL_ALPHA_TEST);
-            gl.glDisable(GL2.GL_BLEND);
-            gl.glDisable(GL2.GL_COLOR_LOGIC_OP);
-            gl.glDisable(GL2.GL_LIGHTING);
-            gl.glDisable(GL2.GL_DITHER);
-            gl.glDisable(GL2.GL_POINT_SMOOTH);
-            gl.glDisable(GL2.GL_LINE_SMOOTH);
-            gl.glDisable(GL2.GL_POLYGON_SMOOTH);
-            if(gl.isFunctionAvailable("glActiveTexture")) {
-                for(int i = 0; i < 8; i++) {
-                    try {
-                        gl.glActiveTexture(GL2.GL_TEXTURE0 + i);
-                        gl.glDisable(GL2.GL_TEXTURE_2D);
-                    } catch(GLException ex) {}
+            // Animated objects are drawn at this frame whenever their chunk is drawn, see SpatialDrawList
+            int frame = animationTimer.isRunning() ? (int)((System.nanoTime() - animationStartTime) / ANIMATION_FRAME_TIME) : -1;
+            if (frame != renderInfo.animationFrame) {
+                // They are only left out of the display lists while they are played back
+                if ((frame >= 0) != (renderInfo.animationFrame >= 0)) {
+                    addRerenderTask("allobjects");
+                    if (frame < 0)
+                        RendererCache.resetAnimations();
+                }
+                
+                renderInfo.animationFrame = frame;
+                for(SpatialDrawList drawlist : objDrawLists.values()) {
+                    if (drawlist.hasLiveObjects()) {
+                        isPickingDirty = true;
+                        break;
+                    }
                 }
             }
-            gl.glDisable(GL2.GL_TEXTURE_2D);
             
-            gl.glCallList(zoneDisplayLists.get(curScenarioIndex)[0]); // Picking Pass
+            if (!rerenderTasks.isEmpty()) {
+                isPickingDirty = true;
+                scenePicker = null;
+            }
+            doRerenderTasks();
+            
+            // Objects that were drawn as placeholders have the size of their model now
+            if (lastUploadCount != RendererCache.getUploadCount()) {
+                lastUploadCount = RendererCache.getUploadCount();
+                isPickingDirty = true;
+                scenePicker = null;
+                for(SpatialDrawList drawlist : objDrawLists.values())
+                    drawlist.updateBounds();
+            }
             
-            gl.glDepthMask(true);
+            ArrayList<ZonePlacement> zones = placeZones();
+            for(ZonePlacement placement : zones) {
+                if (projectionMatrix != null)
+                    placement.frustum = Frustum.fromMatrices(projectionMatrix, modelViewMatrix, placement.matrix);
+            }
             
-            gl.glFlush();
+            // Rendering pass 1 -- fakecolor rendering
+            // the results are used to determine which object is clicked
             
-            gl.glReadPixels(mousePos.x - 1, glad.getSurfaceHeight() - mousePos.y + 1, 3, 3, GL2.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, pickingFrameBuffer);
-            gl.glReadPixels(mousePos.x, glad.getSurfaceHeight() - mousePos.y, 1, 1, GL2.GL_DEPTH_COMPONENT, GL2.GL_FLOAT, pickingDepthBuffer);
-            pickingDepth = -(Z_FAR * Z_NEAR /(pickingDepthBuffer.get(0) *(Z_FAR - Z_NEAR) - Z_FAR));
+            int width = glad.getSurfaceWidth();
+            int height = glad.getSurfaceHeight();
             
-            if (Settings.getDebugFakeColor()) {
-                //glad.swapBuffers();
-                return;
+            if (isPickingWithoutDrawing()) {
+                // The mouse handlers pick with the scene picker instead, see pickWithoutDrawing
+            }
+            else if (pickingBuffer == null || Settings.getDebugFakeColor()) {
+                renderPicking(gl, zones);
+                
+                gl.glFlush();
+                
+                gl.glReadPixels(mousePos.x - 1, height - mousePos.y + 1, 3, 3, GL2.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, pickingFrameBuffer);
+                gl.glReadPixels(mousePos.x, height - mousePos.y, 1, 1, GL2.GL_DEPTH_COMPONENT, GL2.GL_FLOAT, pickingDepthBuffer);
+                pickingDepth = -(Z_FAR * Z_NEAR /(pickingDepthBuffer.get(0) *(Z_FAR - Z_NEAR) - Z_FAR));
+                
+                // The picking buffer was not kept up to date meanwhile
+                isPickingDirty = true;
+                
+                if (Settings.getDebugFakeColor()) {
+                    //glad.swapBuffers();
+                    return;
+                }
+            }
+            else if (isPickingDirty || pickedModelView != modelViewMatrix || pickedProjection != projectionMatrix) {
+                // Only drawn again when the camera or the scene has changed
+                pickingBuffer.bind(gl, width, height);
+                renderPicking(gl, zones);
+                pickingBuffer.unbind(gl, width, height);
+                pickingBuffer.requestRead(gl, mousePos.x, height - mousePos.y);
+                
+                isPickingDirty = false;
+                pickedModelView = modelViewMatrix;
+                pickedProjection = projectionMatrix;
+                pickedMousePos = new Point(mousePos);
+            }
+            else if (!mousePos.equals(pickedMousePos)) {
+                // Only the cursor has moved, so the last picking pass is still valid
+                pickingBuffer.requestRead(gl, mousePos.x, height - mousePos.y);
+                pickedMousePos = new Point(mousePos);
             }
            
             // Rendering pass 2 -- standard rendering
@@ -4123,8 +4457,8 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                     gl.glPolygonMode(GL2.GL_FRONT_AND_BACK, GL2.GL_FILL);
             }
             
-            gl.glCallList(zoneDisplayLists.get(curScenarioIndex)[1]); // Opaque Pass
-            gl.glCallList(zoneDisplayLists.get(curScenarioIndex)[2]); // Alpha Pass (Includes highlights)
+            renderZones(gl, zones, RenderMode.OPAQUE); // Opaque Pass
+            renderZones(gl, zones, RenderMode.TRANSLUCENT); // Alpha Pass (Includes highlights)
             
             gl.glDepthMask(true);
             try { gl.glUseProgram(0); } catch(GLException ex) { }
@@ -4156,9 +4490,49 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                 gl.glEnd();
             }
             
+            // The read was started before the visible pass, so it has most likely finished by now
+            if (pickingBuffer != null && pickingBuffer.collect(gl, pickingFrameBuffer, pickingDepthBuffer))
+                pickingDepth = -(Z_FAR * Z_NEAR /(pickingDepthBuffer.get(0) *(Z_FAR - Z_NEAR) - Z_FAR));
+            
             // Apparently this prevents the infamous flickering glitch
             // glad.swapBuffers();
         }
+        
+        /**
+         * Draws the picking colors of the placed zones into the current framebuffer.
+         */
+        private void renderPicking(GL2 gl, List<ZonePlacement> zones) {
+            gl.glClearColor(0.118f, 0.118f, 0.784f, 1f);
+            gl.glClearDepth(1f);
+            gl.glClearStencil(0);
+            gl.glClear(GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT | GL2.GL_STENCIL_BUFFER_BIT);
+            
+            gl.glMatrixMode(GL2.GL_MODELVIEW);
+            gl.glLoadMatrixf(modelViewMatrix.m, 0);
+            
+            try { gl.glUseProgram(0); } catch(GLException ex) { }
+            gl.glDisable(GL2.GL_ALPHA_TEST);
+            gl.glDisable(GL2.GL_BLEND);
+            gl.glDisable(GL2.GL_COLOR_LOGIC_OP);
+            gl.glDisable(GL2.GL_LIGHTING);
+            gl.glDisable(GL2.GL_DITHER);
+            gl.glDisable(GL2.GL_POINT_SMOOTH);
+            gl.glDisable(GL2.GL_LINE_SMOOTH);
+            gl.glDisable(GL2.GL_POLYGON_SMOOTH);
+            if(gl.isFunctionAvailable("glActiveTexture")) {
+                for(int i = 0; i < 8; i++) {
+                    try {
+                        gl.glActiveTexture(GL2.GL_TEXTURE0 + i);
+                        gl.glDisable(GL2.GL_TEXTURE_2D);
+                    } catch(GLException ex) {}
+                }
+            }
+            gl.glDisable(GL2.GL_TEXTURE_2D);
+            
+            renderZones(gl, zones, RenderMode.PICKING); // Picking Pass
+            
+            gl.glDepthMask(true);
+        }
 
         private RenderMode doHighLightSettings(GL2 gl) {
             try { gl.glUseProgram(0); } catch(GLException ex) { }
@@ -4212,6 +4586,9 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             gl.glFrustum(-ymax * aspectRatio, ymax * aspectRatio,
                     -ymax, ymax,
                     Z_NEAR, Z_FAR);
+            projectionMatrix = Matrix4.createFrustum(-ymax * aspectRatio, ymax * aspectRatio,
+                    -ymax, ymax,
+                    Z_NEAR, Z_FAR);
             
             pixelFactorX =(2f * (float) Math.tan(FOV * 0.5f) * aspectRatio) / (float) width;
             pixelFactorY =(2f * (float) Math.tan(FOV * 0.5f)) / (float) height;
@@ -4250,6 +4627,241 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             tgbAddObject.setSelected(false);
         }
         
+        // -------------------------------------------------------------------------------------------------------------------------
+        // Collision snapping
+        
+        /**
+         * Returns the distance at which a ray hits the collision of the visible objects.
+         * @param ray the ray in world space, with a normalized direction
+         * @param ignored objects that are left out, for example the ones that are being moved
+         * @return the distance, or {@link Ray#MISS}
+         */
+        private float raycastCollision(Ray ray, Map<Integer, AbstractObj> ignored) {
+            return getCollisionIndex().raycast(ray, ignored);
+        }
+        
+        /**
+         * Returns the index of the collision of the shown objects, creating it if the shown objects have changed or if
+         * more collision has been loaded since. Collision is loaded in the background, so objects can be missing at
+         * first.
+         */
+        private CollisionIndex getCollisionIndex() {
+            if (collisionIndex != null && !collisionIndex.isOutdated())
+                return collisionIndex;
+            
+            String alphabet = "abcdefghijklmnop";
+            collisionIndex = new CollisionIndex();
+            
+            for(ZonePlacement placement : placeZones()) {
+                StageArchive zoneArc = zoneArchives.get(placement.zone);
+                addToCollisionIndex(zoneArc.objects.get("common"), placement.matrix);
+                
+                for(int l = 0; l < 16; l++) {
+                    if((placement.layermask & (1 << l)) != 0)
+                        addToCollisionIndex(zoneArc.objects.get("layer" + alphabet.charAt(l)), placement.matrix);
+                }
+            }
+            
+            collisionIndex.build();
+            return collisionIndex;
+        }
+        
+        private void addToCollisionIndex(List<AbstractObj> objs, Matrix4 zoneMatrix) {
+            if (objs == null)
+                return;
+            
+            for(AbstractObj obj : objs)
+                collisionIndex.add(obj, zoneMatrix);
+        }
+        
+        /**
+         * Returns the matrix that places a zone in the world, or null if the zone isn't moved.
+         */
+        private Matrix4 getZoneMatrix(String zone) {
+            for(ZonePlacement placement : placeZones()) {
+                if (placement.zone.equals(zone))
+                    return placement.matrix;
+            }
+            return null;
+        }
+        
+        /**
+         * Returns the direction of gravity in a zone in world space. Gravity volumes aren't taken into account, objects
+         * simply fall towards the bottom of their zone.
+         */
+        private Vec3f getZoneDown(Matrix4 zoneMatrix) {
+            Vec3f down = new Vec3f(0f, -1f, 0f);
+            if (zoneMatrix != null)
+                Vec3f.normalize(Matrix4.transformVec3Mat4w0(zoneMatrix, down), down);
+            return down;
+        }
+        
+        /**
+         * Returns the point where a ray hits collision, or null if it doesn't.
+         */
+        private Vec3f raycastCollisionPoint(Vec3f origin, Vec3f direction, Map<Integer, AbstractObj> ignored) {
+            Ray ray = new Ray(origin, direction);
+            float distance = raycastCollision(ray, ignored);
+            return distance != Ray.MISS ? ray.getPoint(distance) : null;
+        }
+        
+        private boolean isPickingWithoutDrawing() {
+            return Settings.getUseCpuPicking() && !Settings.getDebugFakeColor();
+        }
+        
+        /**
+         * Finds what is under the cursor by casting a ray through a {@link ScenePicker} of the shown objects and path
+         * points, if the picking pass is turned off. The result is stored just like the picking pass stores its own, so
+         * the mouse handlers work the same either way. Models are picked in their rest pose.
+         */
+        private void pickWithoutDrawing() {
+            if (!isPickingWithoutDrawing())
+                return;
+            
+            if (scenePicker == null) {
+                String alphabet = "abcdefghijklmnop";
+                scenePicker = new ScenePicker<>();
+                
+                for(ZonePlacement placement : placeZones()) {
+                    StageArchive zoneArc = zoneArchives.get(placement.zone);
+                    addToScenePicker(zoneArc.objects.get("common"), placement.matrix);
+                    
+                    for(int l = 0; l < 16; l++) {
+                        if((placement.layermask & (1 << l)) != 0)
+                            addToScenePicker(zoneArc.objects.get("layer" + alphabet.charAt(l)), placement.matrix);
+                    }
+                    
+                    for(PathObj pobj : zoneArc.paths) {
+                        if (!isPathShown(pobj))
+                            continue;
+                        for(PathPointObj point : pobj.getPoints())
+                            point.addToPicker(scenePicker, placement.matrix);
+                    }
+                }
+                
+                scenePicker.build();
+            }
+            
+            ScenePicker.Hit<Integer> hit = scenePicker.pickRay(getViewRay(mousePos));
+            for(int i = 0; i < pickingFrameBuffer.capacity(); i++)
+                pickingFrameBuffer.put(i, hit != null ? hit.item : 0xFFFFFF);
+            
+            if (hit != null) {
+                // The picking pass reads the depth along the view direction, see get3DCoords
+                Vec3f step = get3DCoords(mousePos, 1f);
+                step.subtract(get3DCoords(mousePos, 0f));
+                pickingDepth = hit.distance / step.length();
+            }
+            else
+                pickingDepth = Z_FAR;
+        }
+        
+        private void addToScenePicker(List<AbstractObj> objs, Matrix4 zoneMatrix) {
+            if (objs == null)
+                return;
+            
+            for(AbstractObj obj : objs) {
+                if (!obj.isHidden)
+                    obj.addToPicker(scenePicker, zoneMatrix);
+            }
+        }
+        
+        /**
+         * Returns the ray from the camera through a point of the viewport in world space.
+         */
+        private Ray getViewRay(Point pt) {
+            Vec3f origin = get3DCoords(pt, 0f);
+            Vec3f direction = get3DCoords(pt, 1f);
+            direction.subtract(origin);
+            Vec3f.normalize(direction, direction);
+            return new Ray(origin, direction);
+        }
+        
+        /**
+         * Moves a position in world space for a new object onto collision, depending on the snap mode.
+         * @param position the position the object would be placed at without snapping
+         * @return the snapped position, or {@code position} if there is nothing to snap to
+         */
+        private Vec3f snapToCollision(Vec3f position) {
+            Vec3f hit = null;
+            
+            if (snapMode == SnapMode.GRAVITY) {
+                Vec3f down = getZoneDown(getZoneMatrix(curZone));
+                Vec3f origin = new Vec3f(down);
+                origin.scale(-SNAP_LIFT);
+                origin.add(position);
+                hit = raycastCollisionPoint(origin, down, Collections.emptyMap());
+            }
+            else if (snapMode == SnapMode.VIEW) {
+                Ray ray = getViewRay(mousePos);
+                hit = raycastCollisionPoint(ray.origin, ray.direction, Collections.emptyMap());
+            }
+            
+            return hit != null ? hit : position;
+        }
+        
+        /**
+         * Moves the selection onto collision after it has been dragged, depending on the snap mode. Along gravity,
+         * every object falls on its own. Along the view, the dragged object is placed under the cursor and the others
+         * keep their distance to it.
+         * @param dragged the object that is being dragged
+         */
+        private void snapSelectionToCollision(AbstractObj dragged) {
+            if (snapMode == SnapMode.GRAVITY) {
+                for(AbstractObj selectedObj : selectedObjs.values())
+                    dropToFloor(selectedObj);
+            }
+            else if (snapMode == SnapMode.VIEW && dragged != null && !(dragged instanceof PathPointObj)) {
+                Ray ray = getViewRay(mousePos);
+                float distance = raycastCollision(ray, selectedObjs);
+                if (distance == Ray.MISS)
+                    return;
+                
+                Vec3f delta = ray.getPoint(distance);
+                Vec3f current = new Vec3f();
+                Matrix4 zoneMatrix = getZoneMatrix(dragged.stage.stageName);
+                Vec3f.transform(dragged.position, zoneMatrix != null ? zoneMatrix : new Matrix4(), current);
+                delta.subtract(current);
+                tryApplyCurrentZoneTR(delta, false, true);
+                offsetSelectionBy(delta, false);
+            }
+        }
+        
+        /**
+         * Moves an object down onto the collision below it.
+         * @return whether there was collision to drop the object onto
+         */
+        private boolean dropToFloor(AbstractObj obj) {
+            if (obj instanceof PathPointObj || obj instanceof StageObj)
+                return false;
+            
+            Matrix4 zoneMatrix = getZoneMatrix(obj.stage.stageName);
+            Vec3f down = getZoneDown(zoneMatrix);
+            Vec3f origin = new Vec3f();
+            Vec3f.transform(obj.position, zoneMatrix != null ? zoneMatrix : new Matrix4(), origin);
+            origin.x -= down.x * SNAP_LIFT;
+            origin.y -= down.y * SNAP_LIFT;
+            origin.z -= down.z * SNAP_LIFT;
+            
+            Vec3f hit = raycastCollisionPoint(origin, down, selectedObjs);
+            if (hit == null)
+                return false;
+            
+            if (zoneMatrix != null)
+                Vec3f.transform(hit, Matrix4.invert(zoneMatrix), hit);
+            
+            obj.position.set(hit);
+            pnlObjectSettings.setFieldValue("pos_x", obj.position.x);
+            pnlObjectSettings.setFieldValue("pos_y", obj.position.y);
+            pnlObjectSettings.setFieldValue("pos_z", obj.position.z);
+            pnlObjectSettings.repaint();
+            addRedrawTask(obj);
+            if (obj.renderer.hasSpecialPosition())
+                addRerenderTask("object:"+Integer.toString(obj.uniqueID));
+            unsavedChanges = true;
+            return true;
+        }
+        
         @Override
         public void mouseDragged(MouseEvent e) {
             if(!initializedRenderer)
@@ -4271,6 +4883,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                 return;
             
             if(pickingCapture) {
+                pickWithoutDrawing();
                 underCursor = pickingFrameBuffer.get(4) & 0xFFFFFF;
                 depthUnderCursor = pickingDepth;
                 pickingCapture = false;
@@ -4301,6 +4914,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                             -(xdelta * CamRotXCos) -(ydelta * CamRotYSin * CamRotXSin));
                     tryApplyCurrentZoneTR(delta, false, true);
                     offsetSelectionBy(delta, e.isShiftDown());
+                    snapSelectionToCollision(selectedObjs.get(underCursor >>> 3));
                     
                     unsavedChanges = true;
                 }
@@ -4426,6 +5040,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                     return;
                 }
 
+                pickWithoutDrawing();
                 int val = pickingFrameBuffer.get(4);
                 if(    val != pickingFrameBuffer.get(1) ||
                         val != pickingFrameBuffer.get(3) ||
@@ -4469,7 +5084,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                     if(!addingObject.isEmpty())
                     {
                         // Apply zone placement
-                        Vec3f position = get3DCoords(mousePos, Math.min(pickingDepth, 1f));
+                        Vec3f position = snapToCollision(get3DCoords(mousePos, Math.min(pickingDepth, 1f)));
                         tryApplyCurrentZoneTR(position, true, true);
                         addObject(position, addingObject, addingObjectOnLayer, curZone, true);
 
@@ -4497,7 +5112,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                     else if(isPasteMode)
                     {
                         // Apply zone placement
-                        Vec3f position = get3DCoords(mousePos, Math.min(pickingDepth, 1f));
+                        Vec3f position = snapToCollision(get3DCoords(mousePos, Math.min(pickingDepth, 1f)));
                         tryApplyCurrentZoneTR(position, true, true);
                         performObjectPaste(position);
                         
@@ -4550,7 +5165,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                             listZones.setSelectedIndex(z);
                             break;
                         }
-                        addRerenderTask("zone:"+theobject.stage.stageName);
+                        addRerenderTask("highlight:"+theobject.stage.stageName);
 
                         if(wasselected) {
                             if(selectedObjs.size() == 1) {
@@ -4604,6 +5219,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
         @Override
         public void mouseWheelMoved(MouseWheelEvent e) {
             if(!initializedRenderer) return;
+            pickWithoutDrawing();
             int GLWidth = glCanvas.getSurfaceWidth();
             int GLHeight = glCanvas.getSurfaceHeight();
 
@@ -4753,6 +5369,10 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
                     shortcutAddZonePosition();            
                 else if (isShortcutPressed(e, false, true, false, KeyEvent.VK_CLOSE_BRACKET)) // Subtract Zone Position -- SHIFT+]
                     shortcutSubZonePosition();
+                else if (isShortcutPressed(e, false, false, false, KeyEvent.VK_END))          // Drop Selection to Floor -- END
+                    shortcutDropToFloor();
+                else if (isShortcutPressed(e, false, true, false, KeyEvent.VK_END))           // Cycle Collision Snapping -- SHIFT+END
+                    shortcutCycleSnapMode();
                 
             } else {
                 // ==========================================
@@ -5190,6 +5810,39 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             offsetSelectionBy(delta, false);
             endUndoMulti();
         }
+        private void shortcutDropToFloor() {
+            if (selectedObjs.isEmpty()) {
+                setStatusToWarning("Nothing selected to drop to the floor.");
+                return;
+            }
+            
+            startUndoMulti();
+            for(AbstractObj selectedObj : selectedObjs.values())
+                addUndoEntry(IUndo.Action.TRANSLATE, selectedObj);
+            
+            int dropped = 0;
+            for(AbstractObj selectedObj : selectedObjs.values()) {
+                if (dropToFloor(selectedObj))
+                    dropped++;
+            }
+            endUndoMulti();
+            
+            if (dropped == 0 && CollisionCache.isLoading())
+                setStatusToWarning("Collision is still being loaded, try again in a moment.");
+            else if (dropped == 0)
+                setStatusToWarning("There is no collision below the selection.");
+            else
+                setStatusToInfo("Dropped "+dropped+" of "+selectedObjs.size()+" object(s) to the floor.");
+            glCanvas.repaint();
+        }
+        private void shortcutCycleSnapMode() {
+            snapMode = SnapMode.values()[(snapMode.ordinal() + 1) % SnapMode.values().length];
+            setStatusToInfo("Snapping to collision: " + snapMode.description + ".");
+            
+            // Starts loading the collision of all shown objects
+            if (snapMode != SnapMode.NONE)
+                getCollisionIndex();
+        }
     }
     
     
@@ -5342,6 +5995,8 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
         tgbShowCameras = new javax.swing.JToggleButton();
         sep4 = new javax.swing.JToolBar.Separator();
         tgbShowGravity = new javax.swing.JToggleButton();
+        sep6 = new javax.swing.JToolBar.Separator();
+        tgbPlayAnimations = new javax.swing.JToggleButton();
         lblStatus = new javax.swing.JLabel();
         tabData = new javax.swing.JTabbedPane();
         pnlScenarioZone = new javax.swing.JSplitPane();
@@ -5518,6 +6173,18 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             }
         });
         tlbOptions.add(tgbShowGravity);
+        tlbOptions.add(sep6);
+
+        tgbPlayAnimations.setText("Play animations");
+        tgbPlayAnimations.setFocusable(false);
+        tgbPlayAnimations.setHorizontalTextPosition(javax.swing.SwingConstants.CENTER);
+        tgbPlayAnimations.setVerticalTextPosition(javax.swing.SwingConstants.BOTTOM);
+        tgbPlayAnimations.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                tgbPlayAnimationsActionPerformed(evt);
+            }
+        });
+        tlbOptions.add(tgbPlayAnimations);
 
         pnlGLPanel.add(tlbOptions, java.awt.BorderLayout.NORTH);
 
@@ -6073,7 +6740,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
 
     private void tgbDeselectActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_tgbDeselectActionPerformed
         for (AbstractObj obj : selectedObjs.values()) {
-            addRerenderTask("zone:" + obj.stage.stageName);
+            addRerenderTask("highlight:" + obj.stage.stageName);
         }
         
         selectedObjs.clear();
@@ -6102,6 +6769,17 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
         glCanvas.repaint();
     }//GEN-LAST:event_tgbShowAxisActionPerformed
 
+    private void tgbPlayAnimationsActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_tgbPlayAnimationsActionPerformed
+        if (tgbPlayAnimations.isSelected()) {
+            animationStartTime = System.nanoTime();
+            animationTimer.start();
+        }
+        else {
+            animationTimer.stop();
+            glCanvas.repaint();
+        }
+    }//GEN-LAST:event_tgbPlayAnimationsActionPerformed
+
     private void treeObjectsValueChanged(javax.swing.event.TreeSelectionEvent evt) {//GEN-FIRST:event_treeObjectsValueChanged
         TreePath[] paths = evt.getPaths();
         for(TreePath path : paths) {
@@ -6116,10 +6794,10 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
             AbstractObj obj =(AbstractObj)tnode.object;
             if(evt.isAddedPath(path)) {
                 selectedObjs.put(obj.uniqueID, obj);
-                addRerenderTask("zone:"+obj.stage.stageName);
+                addRerenderTask("highlight:"+obj.stage.stageName);
             } else {
                 selectedObjs.remove(obj.uniqueID);
-                addRerenderTask("zone:"+obj.stage.stageName);
+                addRerenderTask("highlight:"+obj.stage.stageName);
             }
         }
 
@@ -6229,6 +6907,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
     private javax.swing.JToolBar.Separator sep3;
     private javax.swing.JToolBar.Separator sep4;
     private javax.swing.JToolBar.Separator sep5;
+    private javax.swing.JToolBar.Separator sep6;
     private javax.swing.JToolBar.Separator sepZones;
     private javax.swing.JSplitPane split;
     private javax.swing.JTabbedPane tabData;
@@ -6237,6 +6916,7 @@ public class GalaxyEditorForm extends javax.swing.JFrame {
     private javax.swing.JToggleButton tgbDeleteObject;
     private javax.swing.JButton tgbDeselect;
     private javax.swing.JToggleButton tgbPasteObj;
+    private javax.swing.JToggleButton tgbPlayAnimations;
     private javax.swing.JToggleButton tgbShowAreas;
     private javax.swing.JToggleButton tgbShowAxis;
     private javax.swing.JToggleButton tgbShowCameras;
@@ -1987,6 +1987,11 @@ public class WorldEditorForm extends javax.swing.JFrame {
         private static final float Z_NEAR = 0.01f;
         private static final float Z_FAR = 1000f;
         
+        /**
+         * Repaints the viewport when a model has been loaded so that it gets uploaded
+         */
+        private final Runnable modelLoadListener = () -> glCanvas.repaint();
+        
         public GalaxyRenderer() {
             super();
         }
@@ -1996,6 +2001,7 @@ public class WorldEditorForm extends javax.swing.JFrame {
             GL2 gl = glad.getGL().getGL2();
             
             RendererCache.setRefContext(glad.getContext());
+            RendererCache.addLoadListener(modelLoadListener);
             
             
             renderInfo = new GLRenderer.RenderInfo();
@@ -2265,6 +2271,7 @@ public class WorldEditorForm extends javax.swing.JFrame {
             for(AbstractObj obj : globalObjList.values())
                 obj.closeRenderer(renderInfo);
             
+            RendererCache.removeLoadListener(modelLoadListener);
             RendererCache.clearRefContext();
         }
         
@@ -2341,6 +2348,10 @@ public class WorldEditorForm extends javax.swing.JFrame {
             GL2 gl = glad.getGL().getGL2();
             renderInfo.drawable = glad;
             
+            // Models that were drawn as placeholders may be transformed differently now
+            if (RendererCache.uploadLoadedRenderers(renderInfo))
+                addRerenderTask("allobjects");
+            
             doRerenderTasks();
             
             // Rendering pass 1 -- fakecolor rendering
@@ -18,6 +18,7 @@ package whitehole.io;
 
 import java.io.*;
 import java.nio.*;
+import java.nio.channels.Channels;
 import java.nio.charset.*;
 import whitehole.Settings;
 
@@ -331,4 +332,14 @@ public class ExternalFile implements FileBase {
         file.write(buffer);
         file.seek(oldpos);
     }
+    
+    /**
+     * Returns a stream over the whole file that reads straight from its channel. The stream moves the file pointer
+     * and closing it closes the file as well.
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        file.seek(0);
+        return Channels.newInputStream(file.getChannel());
+    }
 }
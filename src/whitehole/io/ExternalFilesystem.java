@@ -104,6 +104,14 @@ public class ExternalFilesystem implements FilesystemBase {
         return new ExternalFile(baseDirectory.getAbsolutePath() + filename);
     }
     
+    @Override
+    public MappedFile openFileReadOnly(String filename) throws IOException {
+        if (!fileExists(filename))
+            throw new FileNotFoundException("File '" + filename + "' doesn't exist");
+        
+        return new MappedFile(baseDirectory.getAbsolutePath() + filename);
+    }
+    
     @Override
     public void createFile(String parent, String newfile) throws IOException {
         if(!parent.startsWith(baseDirectory.getAbsolutePath()))
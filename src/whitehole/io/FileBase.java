@@ -17,6 +17,7 @@
 package whitehole.io;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 public interface FileBase  {
     public void save() throws IOException;
@@ -50,4 +51,5 @@ public interface FileBase  {
     
     public byte[] getContents() throws IOException;
     public void setContents(byte[] buf) throws IOException;
+    public InputStream getInputStream() throws IOException;
 }
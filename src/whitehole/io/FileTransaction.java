@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2022 Whitehole Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitehole.io;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Groups the saving of several files on disk so that either all of them are replaced or none of them is. Files opened
+ * through a transaction are saved to temporary files next to their targets. Nothing is replaced until {@link #commit()}
+ * is called, which moves all of them into place and restores the old files if any move fails.
+ */
+public class FileTransaction {
+    private static final String TEMP_SUFFIX = ".whtmp";
+    private static final String BACKUP_SUFFIX = ".whbak";
+
+    private final List<StagedFile> files = new ArrayList<>();
+    private final List<Runnable> commitActions = new ArrayList<>();
+
+    /**
+     * Opens a file of the given filesystem for staged saving. Files that are not stored on disk directly can't be
+     * staged and are opened as usual.
+     */
+    public FileBase openFile(FilesystemBase filesystem, String filename) throws IOException {
+        if (!(filesystem instanceof ExternalFilesystem))
+            return filesystem.openFile(filename);
+        if (!filesystem.fileExists(filename))
+            throw new FileNotFoundException("File '" + filename + "' doesn't exist");
+
+        StagedFile file = new StagedFile(Paths.get(((ExternalFilesystem)filesystem).getFileName(filename)));
+
+        synchronized (files) {
+            files.add(file);
+        }
+
+        return file;
+    }
+
+    /**
+     * Registers an action that is run once all files have been moved into place.
+     */
+    public void onCommit(Runnable action) {
+        synchronized (commitActions) {
+            commitActions.add(action);
+        }
+    }
+
+    /**
+     * Replaces all saved files with their new contents. If one of them can't be replaced, the files that were already
+     * replaced are restored and no commit action is run.
+     */
+    public void commit() throws IOException {
+        List<StagedFile> replaced = new ArrayList<>(files.size());
+
+        try {
+            for (StagedFile file : files) {
+                if (!file.isSaved)
+                    continue;
+
+                move(file.target, file.backup);
+                replaced.add(file);
+                move(file.temp, file.target);
+            }
+        }
+        catch (IOException ex) {
+            for (int i = replaced.size() - 1; i >= 0; i--) {
+                StagedFile file = replaced.get(i);
+
+                try {
+                    move(file.backup, file.target);
+                }
+                catch (IOException ex2) {
+                    System.err.println("Failed to restore " + file.target + ": " + ex2.getMessage());
+                }
+            }
+
+            rollback();
+            throw ex;
+        }
+
+        for (StagedFile file : replaced)
+            Files.deleteIfExists(file.backup);
+        files.clear();
+
+        for (Runnable action : commitActions)
+            action.run();
+        commitActions.clear();
+    }
+
+    /**
+     * Discards all staged files, leaving their targets untouched.
+     */
+    public void rollback() {
+        for (StagedFile file : files) {
+            try {
+                Files.deleteIfExists(file.temp);
+            }
+            catch (IOException ex) {
+                System.err.println("Failed to delete " + file.temp + ": " + ex.getMessage());
+            }
+        }
+
+        files.clear();
+        commitActions.clear();
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    private static class StagedFile extends MemoryFile {
+        private final Path target, temp, backup;
+        private boolean isSaved;
+
+        private StagedFile(Path path) throws IOException {
+            super(Files.readAllBytes(path));
+            target = path;
+            temp = Paths.get(path + TEMP_SUFFIX);
+            backup = Paths.get(path + BACKUP_SUFFIX);
+            isSaved = false;
+        }
+
+        @Override
+        public void save() throws IOException {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, logicalSize);
+
+                while (data.hasRemaining())
+                    channel.write(data);
+
+                channel.force(true);
+            }
+
+            isSaved = true;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2022 Whitehole Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitehole.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import whitehole.Settings;
+
+/**
+ * Read-only file backed by a {@link ByteBuffer}, either a file on disk or a slice of one. Slices share their memory
+ * with the parent buffer, so opening files inside a read-only archive does not copy them.
+ * <p>
+ * Files on disk that are Yaz0-compressed are read onto the heap, since they are decompressed there anyway. Other files
+ * are memory-mapped. The file and every slice of it are separate handles of the mapping, and the mapping is unmapped
+ * right away once all of them have been closed, so the file isn't locked until the next garbage collection. Handles
+ * that are never closed keep the mapping alive, which is then released by the garbage collector instead. A closed
+ * handle fails to read, and a handle must not be closed while another thread is still reading from it.
+ */
+public class MappedFile implements FileBase {
+    /**
+     * The memory mapping shared by a file and its slices
+     */
+    private static final class Mapping {
+        final MappedByteBuffer buffer;
+        private int openHandles = 1;
+        private boolean isReleased = false;
+        
+        Mapping(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        
+        synchronized void acquire() throws IOException {
+            if (isReleased)
+                throw new IOException("The mapped file has been closed");
+            openHandles++;
+        }
+        
+        synchronized void release() {
+            if (--openHandles > 0)
+                return;
+            
+            isReleased = true;
+            unmap(buffer);
+        }
+    }
+    
+    private final ByteBuffer buffer;
+    private final Mapping mapping;
+    private volatile boolean isClosed = false;
+
+    public MappedFile(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            
+            if (isYaz0(channel)) {
+                buffer = ByteBuffer.allocate((int)size);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, buffer.position()) < 0)
+                        throw new EOFException("Unexpected end of " + path);
+                }
+                buffer.flip();
+                mapping = null;
+            }
+            else {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                buffer = mapped.duplicate();
+                mapping = new Mapping(mapped);
+            }
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public MappedFile(ByteBuffer buf) {
+        this(buf, null);
+    }
+
+    /**
+     * Wraps a mapping that has been created elsewhere. The file takes ownership of it and unmaps it once it and all of
+     * its slices are closed.
+     */
+    public MappedFile(MappedByteBuffer mapped) {
+        this(mapped, new Mapping(mapped));
+    }
+    
+    private MappedFile(ByteBuffer buf, Mapping _mapping) {
+        buffer = buf.slice();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        mapping = _mapping;
+    }
+    
+    private static boolean isYaz0(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        while (magic.hasRemaining()) {
+            if (channel.read(magic, magic.position()) < 0)
+                return false;
+        }
+        return magic.getInt(0) == 0x59617A30; // Yaz0
+    }
+
+    /**
+     * Returns a view of length bytes starting at offset. The view shares its memory with this file, and keeps the
+     * mapping alive until it is closed.
+     * @throws IOException if this file has been closed
+     */
+    public MappedFile slice(int offset, int length) throws IOException {
+        ensureOpen();
+        if (mapping != null)
+            mapping.acquire();
+        
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return new MappedFile(view, mapping);
+    }
+    
+    /**
+     * Same as {@link #slice}, but closes this file afterwards, so the mapping is released along with the view. This
+     * is meant for files that are only opened to get at a part of them.
+     * @throws IOException if this file has been closed
+     */
+    public MappedFile sliceOwningMapping(int offset, int length) throws IOException {
+        MappedFile view = slice(offset, length);
+        close();
+        return view;
+    }
+
+    /**
+     * Returns the memory of this file. The buffer must not be used after this file has been closed.
+     */
+    ByteBuffer getBuffer() {
+        return buffer.duplicate();
+    }
+    
+    private void ensureOpen() throws IOException {
+        if (isClosed)
+            throw new IOException("The mapped file has been closed");
+    }
+    
+    /**
+     * Unmaps a buffer right away. The cleaner is only reachable through Unsafe, if it isn't, the mapping is released
+     * once the buffer is garbage collected.
+     */
+    private static void unmap(MappedByteBuffer buf) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buf);
+        }
+        catch (ReflectiveOperationException | RuntimeException ex) {
+            System.err.println("Can't unmap file, leaving it to the garbage collector: " + ex);
+            if (Settings.getDebugAdditionalLogs())
+                ex.printStackTrace();
+        }
+    }
+
+    @Override
+    public void save() throws IOException {
+        throw new IOException("Can't save a read-only file");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isClosed)
+            return;
+        
+        isClosed = true;
+        if (mapping != null)
+            mapping.release();
+    }
+
+    @Override
+    public void releaseStorage() {
+        // Nothing to do here...
+    }
+
+
+    @Override
+    public void setBigEndian(boolean bigendian) {
+        buffer.order(bigendian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    }
+
+
+    @Override
+    public long getLength() throws IOException {
+        return (long)buffer.limit();
+    }
+
+    @Override
+    public void setLength(long length) throws IOException {
+        throw new IOException("Can't resize a read-only file");
+    }
+
+
+    @Override
+    public long position() throws IOException {
+        return (long)buffer.position();
+    }
+
+    @Override
+    public void position(long newpos) throws IOException {
+        if (newpos > buffer.limit()) throw new IOException("Position is outside of the file");
+        buffer.position((int)newpos);
+    }
+
+    @Override
+    public void skip(long nbytes) throws IOException {
+        position(buffer.position() + nbytes);
+    }
+
+
+    @Override
+    public byte readByte() throws IOException {
+        ensureOpen();
+        if (buffer.remaining() < 1) return 0;
+        return buffer.get();
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        ensureOpen();
+        if (buffer.remaining() < 2) return 0;
+        return buffer.getShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        ensureOpen();
+        if (buffer.remaining() < 4) return 0;
+        return buffer.getInt();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        ensureOpen();
+        if (buffer.remaining() < 4) return 0f;
+        return buffer.getFloat();
+    }
+
+    @Override
+    public String readString(String encoding, int length) throws IOException {
+        ensureOpen();
+        if (!Charset.isSupported(encoding)) encoding = "ASCII";
+        CharsetDecoder dec = Charset.forName(encoding).newDecoder();
+        ByteBuffer bin = buffer.duplicate();
+        CharBuffer bout = CharBuffer.allocate(1);
+        StringBuilder ret = new StringBuilder();
+
+        for (int i = 0; length == 0 || i < length; i++)
+        {
+            CoderResult res = dec.decode(bin, bout, false);
+            if (res != CoderResult.OVERFLOW)
+                break;
+
+            char ch = bout.get(0);
+            if (ch == '\0') break;
+
+            bout.clear();
+            ret.append(ch);
+        }
+
+        return ret.toString();
+    }
+
+    @Override
+    public byte[] readBytes(int length) throws IOException {
+        ensureOpen();
+        byte[] ret = new byte[length];
+        buffer.get(ret);
+        return ret;
+    }
+
+    @Override
+    public short[] readShorts(int length) throws IOException {
+        short[] ret = new short[length];
+        for (int i = 0; i < length; i++)
+            ret[i] = readShort();
+        return ret;
+    }
+
+    @Override
+    public float[] readFloats(int length) throws IOException {
+        float[] ret = new float[length];
+        for (int i = 0; i < length; i++)
+            ret[i] = readFloat();
+        return ret;
+    }
+
+
+    @Override
+    public void writeByte(byte val) throws IOException {
+        throw new IOException("Can't write to a read-only file");
+    }
+
+    @Override
+    public void writeShort(short val) throws IOException {
+        throw new IOException("Can't write to a read-only file");
+    }
+
+    @Override
+    public void writeInt(int val) throws IOException {
+        throw new IOException("Can't write to a read-only file");
+    }
+
+    @Override
+    public void writeFloat(float val) throws IOException {
+        throw new IOException("Can't write to a read-only file");
+    }
+
+    @Override
+    public int writeString(String encoding, String val, int length) throws IOException {
+        throw new IOException("Can't write to a read-only file");
+    }
+
+    @Override
+    public void writeBytes(byte[] stuff) throws IOException {
+        throw new IOException("Can't write to a read-only file");
+    }
+
+
+    @Override
+    public byte[] getContents() throws IOException {
+        ensureOpen();
+        byte[] ret = new byte[buffer.limit()];
+        ByteBuffer all = buffer.duplicate();
+        all.position(0);
+        all.get(ret);
+        return ret;
+    }
+
+    @Override
+    public void setContents(byte[] buf) throws IOException {
+        throw new IOException("Can't write to a read-only file");
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        ensureOpen();
+        ByteBuffer all = buffer.duplicate();
+        all.position(0);
+
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                ensureOpen();
+                return all.hasRemaining() ? (all.get() & 0xFF) : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                ensureOpen();
+                if (len == 0)
+                    return 0;
+                if (!all.hasRemaining())
+                    return -1;
+
+                len = Math.min(len, all.remaining());
+                all.get(b, off, len);
+                return len;
+            }
+        };
+    }
+}
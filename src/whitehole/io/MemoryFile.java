@@ -16,7 +16,9 @@
  */
 package whitehole.io;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
@@ -275,8 +277,14 @@ public class MemoryFile implements FileBase {
     
     @Override
     public void setContents(byte[] buf) throws IOException {
+        // The file takes over the array instead of copying it
         buffer = buf;
-        setLength(buf.length);
+        logicalSize = buf.length;
+    }
+    
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new ByteArrayInputStream(buffer, 0, logicalSize);
     }
     
     private void resizeBuffer(int newsize) {
@@ -18,6 +18,7 @@ package whitehole.io;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import whitehole.Settings;
 import whitehole.Whitehole;
@@ -28,9 +29,38 @@ public class RarcFile implements FilesystemBase {
     private LinkedHashMap<String, FileEntry> fileEntries;
     private LinkedHashMap<String, DirEntry> dirEntries;
     private boolean isBigEndian;
+    private boolean isReadOnly = false;
+    private MappedFile mappedFile;
+    private Yaz0.Decoder decoder;
     
     public RarcFile(FileBase _file) throws IOException {
         file = new Yaz0File(_file);
+        readHeader();
+    }
+    
+    /**
+     * Opens an archive in read-only mode. Files are returned as views of the mapped archive instead of copies, and
+     * compressed archives are only decompressed as far as the files that have been opened so far.
+     * @param _file the mapped archive file
+     * @throws IOException 
+     */
+    public RarcFile(MappedFile _file) throws IOException {
+        ByteBuffer data = _file.getBuffer();
+        
+        if (Yaz0.isCompressed(data)) {
+            decoder = new Yaz0.Decoder(data);
+            mappedFile = new MappedFile(ByteBuffer.wrap(decoder.getOutput()));
+        }
+        else
+            mappedFile = _file;
+        
+        file = mappedFile;
+        isReadOnly = true;
+        readHeader();
+    }
+    
+    private void readHeader() throws IOException {
+        ensureDecoded(0x40);
         file.setBigEndian(true);
         isBigEndian = true;
         
@@ -45,6 +75,7 @@ public class RarcFile implements FilesystemBase {
 
         file.position(0xC);
         int fileDataOffset = file.readInt() + 0x20;
+        ensureDecoded(fileDataOffset);
         file.position(0x20);
         int numDirNodes = file.readInt();
         int dirNodesOffset = file.readInt() + 0x20;
@@ -181,9 +212,16 @@ public class RarcFile implements FilesystemBase {
     public boolean isBigEndian() {
         return isBigEndian;
     }
+    
+    public boolean isReadOnly() {
+        return isReadOnly;
+    }
 
     @Override
     public void save() throws IOException {
+        if (isReadOnly)
+            throw new IOException("Can't save an archive that was opened read-only");
+        
         for (FileEntry fe : fileEntries.values()) {
             if (fe.data != null) continue;
             file.position(fe.dataOffset);
@@ -412,6 +450,32 @@ public class RarcFile implements FilesystemBase {
         }
         return path;
     }
+    /**
+     * Returns the complete contents of an archive that was opened in read-only mode, decompressing what is left.
+     * @return a copy of the decompressed archive
+     * @throws IOException if the archive isn't read-only or has been closed
+     */
+    public byte[] getDecompressedData() throws IOException {
+        if (mappedFile == null)
+            throw new IOException("Archive isn't read-only");
+        
+        ensureDecoded(Integer.MAX_VALUE);
+        
+        // The slice keeps the archive mapped while it is copied, even if the archive is closed in the meantime
+        MappedFile data = mappedFile.slice(0, (int)mappedFile.getLength());
+        try {
+            return data.getContents();
+        }
+        finally {
+            data.close();
+        }
+    }
+    
+    private void ensureDecoded(int end) {
+        if (decoder != null)
+            decoder.decodeUntil(end);
+    }
+    
     private int align32(int val) {
         return (val + 0x1F) & ~0x1F;
     }
@@ -575,7 +639,26 @@ public class RarcFile implements FilesystemBase {
     
     @Override
     public FileBase openFile(String filePath) throws IOException {
-
+        if (isReadOnly)
+            return openFileReadOnly(filePath);
+        
+        return new InRarcFile(this, resolveFilePath(filePath));
+    }
+    
+    @Override
+    public MappedFile openFileReadOnly(String filePath) throws IOException {
+        filePath = resolveFilePath(filePath);
+        FileEntry fileEntry = fileEntries.get(pathToKey(filePath));
+        
+        // Files that were added or replaced since opening only exist on the heap
+        if (mappedFile == null || fileEntry.data != null)
+            return new MappedFile(ByteBuffer.wrap(getFileContents(filePath), 0, fileEntry.dataSize));
+        
+        ensureDecoded(fileEntry.dataOffset + fileEntry.dataSize);
+        return mappedFile.slice(fileEntry.dataOffset, fileEntry.dataSize);
+    }
+    
+    private String resolveFilePath(String filePath) throws FileNotFoundException {
         if (!fileEntries.containsKey(pathToKey(filePath))) {
             boolean pathExistsNoRoot = false;
             for (String fileEntry : fileEntries.keySet()) {
@@ -591,7 +674,7 @@ public class RarcFile implements FilesystemBase {
             }
         }
         
-        return new InRarcFile(this, filePath);
+        return filePath;
     }
     
     @Override
@@ -690,6 +773,7 @@ public class RarcFile implements FilesystemBase {
         FileEntry fileEntry = fileEntries.get(key);
         
         if (fileEntry.data == null){
+            ensureDecoded(fileEntry.dataOffset + fileEntry.dataSize);
             file.position(fileEntry.dataOffset);
             fileEntry.data = file.readBytes(fileEntry.dataSize);
         }
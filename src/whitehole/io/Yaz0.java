@@ -15,86 +15,261 @@
 
 package whitehole.io;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class Yaz0 
 {
-    private static class Occurence
+    /**
+     * Compression level used by {@link #compress(byte[], Level)}. MAX searches the whole 4 KB window and looks one
+     * byte ahead before committing to a match, FAST only inspects the most recent candidates of every hash chain.
+     */
+    public enum Level
     {
-        public Occurence()
+        FAST(16, false),
+        MAX(WINDOW_SIZE, true);
+        
+        private final int maxChain;
+        private final boolean lazy;
+        
+        private Level(int maxChain, boolean lazy)
         {
-            offset = -1;
-            length = 0;
+            this.maxChain = maxChain;
+            this.lazy = lazy;
         }
+    }
+    
+    private static final int WINDOW_SIZE = 0x1000;
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+    private static final int MIN_MATCH = 3;
+    private static final int MAX_MATCH = 0x111;
+    private static final int HASH_BITS = 15;
+    private static final int PARALLEL_BLOCK_SIZE = 64 * WINDOW_SIZE;
+    private static final int STREAM_BUFFER_SIZE = 0x10000;
+    private static final int GROUP_MAX_SIZE = 1 + 8 * 3;
+    
+    /**
+     * Hash-chain index over the 3-byte prefixes of the input. head holds the most recent position of every hash
+     * bucket and prev links each position of the sliding window to the previous one sharing its bucket.
+     */
+    private static class MatchFinder
+    {
+        private final byte[] data;
+        private final int[] head = new int[1 << HASH_BITS];
+        private final int[] prev = new int[WINDOW_SIZE];
+        private final int end;
+        private final int maxChain;
+        private int inserted;
+        
+        public int offset, length;
         
-        public Occurence(int offset, int length)
+        /**
+         * Creates a finder for matches that start and end within [start, end). The window preceding start is still
+         * indexed, as back-references into data that was emitted by an earlier block are valid for the decoder.
+         */
+        public MatchFinder(byte[] data, int start, int end, Level level)
         {
-            this.offset = offset;
-            this.length = length;
+            this.data = data;
+            this.end = end;
+            maxChain = level.maxChain;
+            inserted = Math.max(0, start - WINDOW_SIZE);
+            Arrays.fill(head, -1);
         }
         
-        public int offset, length;
+        private int hash(int pos)
+        {
+            int key = ((data[pos] & 0xFF) << 16) | ((data[pos + 1] & 0xFF) << 8) | (data[pos + 2] & 0xFF);
+            return (key * 0x9E3779B1) >>> (32 - HASH_BITS);
+        }
+        
+        private void insertUpTo(int pos)
+        {
+            int end = Math.min(pos, data.length - 2);
+            
+            for (; inserted < end; inserted++)
+            {
+                int h = hash(inserted);
+                prev[inserted & WINDOW_MASK] = head[h];
+                head[h] = inserted;
+            }
+        }
+        
+        /**
+         * Finds the longest match for the bytes at pos within the preceding window. Among equally long matches the
+         * oldest one wins, which is what the former brute-force search picked as well.
+         */
+        public void find(int pos)
+        {
+            offset = -1;
+            length = 0;
+            
+            if (pos >= end - 2)
+                return;
+            
+            insertUpTo(pos);
+            
+            int maxlen = Math.min(MAX_MATCH, end - pos);
+            int start = pos - WINDOW_SIZE;
+            int chain = maxChain;
+            
+            for (int cand = head[hash(pos)]; cand >= 0 && cand >= start && chain > 0; cand = prev[cand & WINDOW_MASK], chain--)
+            {
+                if (data[cand] != data[pos] || data[cand + 1] != data[pos + 1] || data[cand + 2] != data[pos + 2])
+                    continue;
+                
+                int len = MIN_MATCH;
+                while (len < maxlen && data[cand + len] == data[pos + len])
+                    len++;
+                
+                if (len >= length)
+                {
+                    offset = cand;
+                    length = len;
+                    
+                    if (len == MAX_MATCH)
+                        break;
+                }
+            }
+        }
     }
     
-    private static Occurence findOccurence(byte[] data, int pos)
+    public static byte[] compress(byte[] data)
     {
-        Occurence ret = new Occurence();
-
-        if (pos >= data.length - 2) return ret;
-
-        LinkedList<Occurence> occurences = new LinkedList<>();
+        return compress(data, Level.MAX);
+    }
+    
+    public static byte[] compress(byte[] data, Level level)
+    {
+        if (isYaz0(data))
+            return data;
 
-        int len;
-        int start = (pos > 4096) ? pos - 4096 : 0;
-        for (int i = start; i < pos; i++)
+        byte[] output = new byte[16 + maxEncodedSize(data.length)];
+        writeHeader(output, data.length);
+        
+        int outpos = encode(data, 0, data.length, level, output, 16);
+        return Arrays.copyOf(output, outpos);
+    }
+    
+    /**
+     * Compresses large inputs as independent blocks on the common fork-join pool and stitches the encoded blocks
+     * into a single stream. Blocks are aligned to the 4 KB window and may still reference the data preceding them,
+     * so the result is only marginally larger than the serial output. Small inputs are compressed serially.
+     */
+    public static byte[] compressParallel(byte[] data, Level level)
+    {
+        if (isYaz0(data))
+            return data;
+        
+        int numBlocks = (data.length + PARALLEL_BLOCK_SIZE - 1) / PARALLEL_BLOCK_SIZE;
+        if (numBlocks < 2 || ForkJoinPool.getCommonPoolParallelism() < 2)
+            return compress(data, level);
+        
+        List<ForkJoinTask<EncodedBlock>> tasks = new ArrayList<>(numBlocks);
+        for (int i = 0; i < numBlocks; i++)
         {
-            if (i >= data.length - 2) break;
-
-            if (data[i] != data[pos] || data[i + 1] != data[pos + 1] || data[i + 2] != data[pos + 2])
-                continue;
-
-            len = 3;
-            while ((i + len < data.length) && (pos + len < data.length) && (data[i + len] == data[pos + len]))
-                len++;
-
-            occurences.add(new Occurence(i, len));
+            int start = i * PARALLEL_BLOCK_SIZE;
+            int end = Math.min(start + PARALLEL_BLOCK_SIZE, data.length);
+            tasks.add(ForkJoinPool.commonPool().submit(() -> new EncodedBlock(data, start, end, level)));
         }
-
-        for (Occurence occ : occurences)
+        
+        byte[] output = new byte[16 + maxEncodedSize(data.length)];
+        writeHeader(output, data.length);
+        
+        int outpos = 16;
+        int groupPos = -1, numOps = 0;
+        
+        for (ForkJoinTask<EncodedBlock> task : tasks)
         {
-            if (occ.length > ret.length)
+            EncodedBlock block = task.join();
+            
+            // every block ends with a partial group, so the following one has to be regrouped operation by operation
+            int inpos = 0;
+            while (inpos < block.length)
             {
-                ret.offset = occ.offset;
-                ret.length = occ.length;
+                byte header = block.buffer[inpos++];
+                
+                for (int i = 0; i < 8 && inpos < block.length; i++)
+                {
+                    if ((numOps & 7) == 0)
+                    {
+                        groupPos = outpos++;
+                        output[groupPos] = 0;
+                    }
+                    numOps++;
+                    
+                    int oplen;
+                    if ((header & 0x80) != 0)
+                    {
+                        output[groupPos] |= 0x80 >>> ((numOps - 1) & 7);
+                        oplen = 1;
+                    }
+                    else
+                        oplen = ((block.buffer[inpos] & 0xF0) == 0) ? 3 : 2;
+                    
+                    System.arraycopy(block.buffer, inpos, output, outpos, oplen);
+                    inpos += oplen;
+                    outpos += oplen;
+                    header <<= 1;
+                }
             }
         }
         
-        return ret;
+        return Arrays.copyOf(output, outpos);
     }
-
-    public static byte[] compress(byte[] data)
+    
+    private static class EncodedBlock
+    {
+        public final byte[] buffer;
+        public final int length;
+        
+        public EncodedBlock(byte[] data, int start, int end, Level level)
+        {
+            buffer = new byte[maxEncodedSize(end - start)];
+            length = encode(data, start, end, level, buffer, 0);
+        }
+    }
+    
+    private static boolean isYaz0(byte[] data)
+    {
+        return data.length >= 4 && data[0] == 'Y' && data[1] == 'a' && data[2] == 'z' && data[3] == '0';
+    }
+    
+    private static int maxEncodedSize(int size)
+    {
+        return size + ((size + 7) / 8);
+    }
+    
+    private static void writeHeader(byte[] output, int fullsize)
     {
-        if (data[0] == 'Y' && data[1] == 'a' && data[2] == 'z' && data[3] == '0')
-            return data;
-
-        byte[] output = new byte[16 + data.length + (data.length / 8)];
-
         output[0] = 'Y';
         output[1] = 'a';
         output[2] = 'z';
         output[3] = '0';
-
-        int fullsize = data.length;
         output[4] = (byte)(fullsize >>> 24);
         output[5] = (byte)(fullsize >>> 16);
         output[6] = (byte)(fullsize >>> 8);
         output[7] = (byte)fullsize;
+    }
+    
+    /**
+     * Encodes data[start..end) into groups of eight operations at output[outpos] and returns the end position. The
+     * last group may hold less than eight operations.
+     */
+    private static int encode(byte[] data, int start, int end, Level level, byte[] output, int outpos)
+    {
+        MatchFinder finder = new MatchFinder(data, start, end, level);
+        int inpos = start;
+        int occOffset = -1, occLength = 0;
+        boolean searched = false;
 
-        int inpos = 0, outpos = 16;
-        Occurence occ = new Occurence();
-
-        while (inpos < fullsize)
+        while (inpos < end)
         {
             int datastart = outpos + 1;
             byte block = 0;
@@ -103,48 +278,56 @@ public class Yaz0
             {
                 block <<= 1;
 
-                if (inpos < data.length)
+                if (inpos >= end)
+                    continue;
+                
+                if (!searched)
+                {
+                    finder.find(inpos);
+                    occOffset = finder.offset;
+                    occLength = finder.length;
+                }
+                searched = false;
+                
+                // lazy matching: emit a literal if the next byte starts a noticeably longer match
+                if (occOffset != -1 && level.lazy)
                 {
-                    if (occ.offset == -2)
-                        occ = findOccurence(data, inpos);
+                    finder.find(inpos + 1);
+                    
+                    if (finder.length > occLength + 1)
+                    {
+                        output[datastart++] = data[inpos++];
+                        block |= 0x01;
+                        
+                        occOffset = finder.offset;
+                        occLength = finder.length;
+                        searched = true;
+                        continue;
+                    }
+                }
 
-                    Occurence next = findOccurence(data, inpos + 1);
-                    if (next.length > occ.length + 1) occ.offset = -1;
+                if (occOffset != -1)
+                {
+                    int disp = inpos - occOffset - 1;
 
-                    if (occ.offset != -1)
+                    if (occLength > 17)
                     {
-                        int disp = inpos - occ.offset - 1;
-                        if (disp > 4095)
-                            throw new RuntimeException("DISP OUT OF RANGE!");
-
-                        if (occ.length > 17)
-                        {
-                            if (occ.length > 273) occ.length = 273;
-
-                            output[datastart++] = (byte)(disp >> 8);
-                            output[datastart++] = (byte)disp;
-                            output[datastart++] = (byte)(occ.length - 18);
-                        }
-                        else
-                        {
-                            output[datastart++] = (byte)(((occ.length - 2) << 4) | (disp >>> 8));
-                            output[datastart++] = (byte)disp;
-                        }
-
-                        inpos += occ.length;
-                        occ.offset = -2;
+                        output[datastart++] = (byte)(disp >> 8);
+                        output[datastart++] = (byte)disp;
+                        output[datastart++] = (byte)(occLength - 18);
                     }
                     else
                     {
-                        output[datastart++] = data[inpos++];
-                        block |= 0x01;
+                        output[datastart++] = (byte)(((occLength - 2) << 4) | (disp >>> 8));
+                        output[datastart++] = (byte)disp;
                     }
 
-                    if (occ.offset != -2)
-                    {
-                        occ.offset = next.offset;
-                        occ.length = next.length;
-                    }
+                    inpos += occLength;
+                }
+                else
+                {
+                    output[datastart++] = data[inpos++];
+                    block |= 0x01;
                 }
             }
 
@@ -152,12 +335,12 @@ public class Yaz0
             outpos = datastart;
         }
 
-        return Arrays.copyOf(output, outpos);
+        return outpos;
     }
     
     public static byte[] decompress(byte[] data)
     {
-        if (data[0] != 'Y' || data[1] != 'a' || data[2] != 'z' || data[3] != '0')
+        if (!isYaz0(data))
             return data;
 
         int fullsize = ((data[4] & 0xFF) << 24) | ((data[5] & 0xFF) << 16) | ((data[6] & 0xFF) << 8) | (data[7] & 0xFF);
@@ -182,14 +365,12 @@ public class Yaz0
                     byte b2 = data[inpos++];
 
                     int dist = ((b1 & 0xF) << 8) | (b2 & 0xFF);
-                    int copysrc = outpos - (dist + 1);
 
                     int nbytes = (b1 & 0xFF) >>> 4;
                     if (nbytes == 0) nbytes = (data[inpos++] & 0xFF) + 0x12;
                     else nbytes += 2;
 
-                    for (int j = 0; j < nbytes; j++)
-                        output[outpos++] = output[copysrc++];
+                    outpos = copyBackReference(output, outpos, dist + 1, Math.min(nbytes, fullsize - outpos));
                 }
 
                 block <<= 1;
@@ -200,4 +381,202 @@ public class Yaz0
 
         return output;
     }
+    
+    /**
+     * Decompresses a Yaz0 stream without reading the compressed data into memory first. Only the decompressed
+     * output is allocated in full. If the stream is not Yaz0-compressed, its contents are returned unchanged.
+     */
+    public static byte[] decompress(InputStream in) throws IOException
+    {
+        byte[] input = new byte[STREAM_BUFFER_SIZE + GROUP_MAX_SIZE];
+        int inlen = in.readNBytes(input, 0, 16);
+        
+        if (inlen < 16 || !isYaz0(input))
+        {
+            byte[] rest = in.readAllBytes();
+            byte[] ret = Arrays.copyOf(input, inlen + rest.length);
+            System.arraycopy(rest, 0, ret, inlen, rest.length);
+            return ret;
+        }
+        
+        int fullsize = ((input[4] & 0xFF) << 24) | ((input[5] & 0xFF) << 16) | ((input[6] & 0xFF) << 8) | (input[7] & 0xFF);
+        byte[] output = new byte[fullsize];
+        
+        int inpos = 0, outpos = 0;
+        inlen = 0;
+        boolean eof = false;
+        
+        while (outpos < fullsize)
+        {
+            // make sure a whole group is buffered so the operations below can be decoded without bounds checks
+            if (!eof && inlen - inpos < GROUP_MAX_SIZE)
+            {
+                int remaining = inlen - inpos;
+                System.arraycopy(input, inpos, input, 0, remaining);
+                inpos = 0;
+                inlen = remaining;
+                
+                while (inlen < STREAM_BUFFER_SIZE)
+                {
+                    int read = in.read(input, inlen, STREAM_BUFFER_SIZE - inlen);
+                    if (read < 0)
+                    {
+                        eof = true;
+                        break;
+                    }
+                    inlen += read;
+                }
+            }
+            
+            if (inpos >= inlen)
+                break;
+            
+            byte block = input[inpos++];
+            
+            for (int i = 0; i < 8; i++)
+            {
+                if ((block & 0x80) != 0)
+                {
+                    // copy one plain byte
+                    output[outpos++] = input[inpos++];
+                }
+                else
+                {
+                    // copy N compressed bytes
+                    byte b1 = input[inpos++];
+                    byte b2 = input[inpos++];
+                    
+                    int dist = ((b1 & 0xF) << 8) | (b2 & 0xFF);
+                    
+                    int nbytes = (b1 & 0xFF) >>> 4;
+                    if (nbytes == 0) nbytes = (input[inpos++] & 0xFF) + 0x12;
+                    else nbytes += 2;
+                    
+                    outpos = copyBackReference(output, outpos, dist + 1, Math.min(nbytes, fullsize - outpos));
+                }
+                
+                block <<= 1;
+                if (outpos >= fullsize || inpos >= inlen)
+                    break;
+            }
+        }
+        
+        return output;
+    }
+    
+    public static boolean isCompressed(ByteBuffer data)
+    {
+        return data.limit() >= 16 && data.get(0) == 'Y' && data.get(1) == 'a' && data.get(2) == 'z' && data.get(3) == '0';
+    }
+    
+    /**
+     * Resumable decoder that only decompresses as much of a stream as has been asked for so far. This lets read-only
+     * archives parse their header and pull single files without decoding the data that follows them.
+     */
+    public static class Decoder
+    {
+        private final ByteBuffer input;
+        private final byte[] output;
+        private int outpos;
+        private byte block;
+        private int opsLeft;
+        
+        public Decoder(ByteBuffer data) throws IOException
+        {
+            if (!isCompressed(data))
+                throw new IOException("Data isn't Yaz0-compressed");
+            
+            input = data.duplicate();
+            input.order(ByteOrder.BIG_ENDIAN);
+            output = new byte[input.getInt(4)];
+            input.position(16);
+            outpos = 0;
+            opsLeft = 0;
+        }
+        
+        /**
+         * Returns the buffer the data is decompressed into. Only the first {@link #getDecodedSize()} bytes are valid.
+         */
+        public byte[] getOutput()
+        {
+            return output;
+        }
+        
+        public int getDecodedSize()
+        {
+            return outpos;
+        }
+        
+        public void decodeUntil(int end)
+        {
+            end = Math.min(end, output.length);
+            
+            while (outpos < end)
+            {
+                if (opsLeft == 0)
+                {
+                    if (!input.hasRemaining())
+                        break;
+                    
+                    block = input.get();
+                    opsLeft = 8;
+                }
+                
+                if (!input.hasRemaining())
+                    break;
+                
+                if ((block & 0x80) != 0)
+                {
+                    // copy one plain byte
+                    output[outpos++] = input.get();
+                }
+                else
+                {
+                    // copy N compressed bytes
+                    byte b1 = input.get();
+                    byte b2 = input.get();
+                    
+                    int dist = ((b1 & 0xF) << 8) | (b2 & 0xFF);
+                    
+                    int nbytes = (b1 & 0xFF) >>> 4;
+                    if (nbytes == 0) nbytes = (input.get() & 0xFF) + 0x12;
+                    else nbytes += 2;
+                    
+                    outpos = copyBackReference(output, outpos, dist + 1, Math.min(nbytes, output.length - outpos));
+                }
+                
+                block <<= 1;
+                opsLeft--;
+            }
+        }
+    }
+    
+    /**
+     * Copies nbytes from distance bytes behind outpos and returns the new output position. Runs that overlap their
+     * own source repeat a pattern, so they are copied in chunks that double in size with each pass.
+     */
+    private static int copyBackReference(byte[] output, int outpos, int distance, int nbytes)
+    {
+        int copysrc = outpos - distance;
+        
+        if (distance >= nbytes)
+            System.arraycopy(output, copysrc, output, outpos, nbytes);
+        else if (distance == 1)
+            Arrays.fill(output, outpos, outpos + nbytes, output[copysrc]);
+        else
+        {
+            int end = outpos + nbytes;
+            
+            while (outpos < end)
+            {
+                int len = Math.min(outpos - copysrc, end - outpos);
+                System.arraycopy(output, copysrc, output, outpos, len);
+                outpos += len;
+            }
+            
+            return end;
+        }
+        
+        return outpos + nbytes;
+    }
 }
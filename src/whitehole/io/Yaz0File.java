@@ -17,12 +17,13 @@
 package whitehole.io;
 
 import java.io.IOException;
+import whitehole.Settings;
 
 public class Yaz0File extends MemoryFile {
     private final FileBase backend;
     
     public Yaz0File(FileBase file) throws IOException {
-        super(Yaz0.decompress(file.getContents()));
+        super(Yaz0.decompress(file.getInputStream()));
         backend = file;
         backend.releaseStorage();
     }
@@ -30,7 +31,8 @@ public class Yaz0File extends MemoryFile {
     @Override
     public void save() throws IOException {
         if (backend != null) {
-            backend.setContents(Yaz0.compress(buffer));
+            Yaz0.Level level = Settings.getUseFastCompression() ? Yaz0.Level.FAST : Yaz0.Level.MAX;
+            backend.setContents(Yaz0.compressParallel(buffer, level));
             backend.save();
             backend.releaseStorage();
         }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2022 Whitehole Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitehole.math;
+
+/**
+ * An axis-aligned box. A new box is empty until a point is included.
+ */
+public class BoundingBox {
+    public final Vec3f min, max;
+
+    public BoundingBox() {
+        min = new Vec3f(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+        max = new Vec3f(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+    }
+
+    public BoundingBox(Vec3f min, Vec3f max) {
+        this.min = new Vec3f(min);
+        this.max = new Vec3f(max);
+    }
+
+    public BoundingBox(BoundingBox that) {
+        this(that.min, that.max);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s - %s", min, max);
+    }
+
+    public boolean isEmpty() {
+        return min.x > max.x || min.y > max.y || min.z > max.z;
+    }
+
+    public void include(float x, float y, float z) {
+        if (x < min.x) min.x = x;
+        if (y < min.y) min.y = y;
+        if (z < min.z) min.z = z;
+        if (x > max.x) max.x = x;
+        if (y > max.y) max.y = y;
+        if (z > max.z) max.z = z;
+    }
+
+    public void include(BoundingBox that) {
+        if (that.isEmpty())
+            return;
+
+        include(that.min.x, that.min.y, that.min.z);
+        include(that.max.x, that.max.y, that.max.z);
+    }
+
+    /**
+     * Grows the box around its center.
+     * @param factor how many times larger the box gets on every axis
+     */
+    public void scaleAroundCenter(float factor) {
+        if (isEmpty())
+            return;
+
+        float cx = (min.x + max.x) * 0.5f, cy = (min.y + max.y) * 0.5f, cz = (min.z + max.z) * 0.5f;
+        float ex = (max.x - min.x) * 0.5f * factor, ey = (max.y - min.y) * 0.5f * factor, ez = (max.z - min.z) * 0.5f * factor;
+        min.x = cx - ex; min.y = cy - ey; min.z = cz - ez;
+        max.x = cx + ex; max.y = cy + ey; max.z = cz + ez;
+    }
+
+    /**
+     * Writes the box into an array as min x, y, z followed by max x, y, z.
+     */
+    public void toArray(float[] out, int offset) {
+        out[offset] = min.x;
+        out[offset + 1] = min.y;
+        out[offset + 2] = min.z;
+        out[offset + 3] = max.x;
+        out[offset + 4] = max.y;
+        out[offset + 5] = max.z;
+    }
+
+    /**
+     * Returns the box around the transformed corners of another box.
+     * @param box the box to transform
+     * @param m the transformation, see {@link Matrix4}
+     * @return a new box
+     */
+    public static BoundingBox transform(BoundingBox box, Matrix4 m) {
+        BoundingBox ret = new BoundingBox();
+        if (box.isEmpty())
+            return ret;
+
+        // Every axis of the matrix moves the box by its smallest or largest contribution
+        float[] lo = { m.m[12], m.m[13], m.m[14] };
+        float[] hi = { m.m[12], m.m[13], m.m[14] };
+        float[] bmin = { box.min.x, box.min.y, box.min.z };
+        float[] bmax = { box.max.x, box.max.y, box.max.z };
+
+        for (int col = 0; col < 3; col++) {
+            for (int row = 0; row < 3; row++) {
+                float a = m.m[col * 4 + row] * bmin[col];
+                float b = m.m[col * 4 + row] * bmax[col];
+                lo[row] += Math.min(a, b);
+                hi[row] += Math.max(a, b);
+            }
+        }
+
+        ret.min.x = lo[0]; ret.min.y = lo[1]; ret.min.z = lo[2];
+        ret.max.x = hi[0]; ret.max.y = hi[1]; ret.max.z = hi[2];
+        return ret;
+    }
+}
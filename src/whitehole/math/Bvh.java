@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2022 Whitehole Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitehole.math;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A bounding volume hierarchy over boxes that are identified by their index. The boxes are split at the median of
+ * their centers along the longest axis until at most a given number of them is left, which then form a leaf. Leaves
+ * are numbered, so callers can keep data per leaf, for example a display list of everything in it.
+ */
+public class Bvh {
+    private final int itemCount;
+    private final float[] itemBounds;
+    private final int[] items;
+    private final int[] itemLeaves;
+
+    // Per node: the two children or -1, and the leaf of the node or -1
+    private int[] nodeChildren = new int[16 * 2];
+    private int[] nodeLeaves = new int[16];
+    private float[] nodeBounds = new float[16 * 6];
+    private int nodeCount = 0;
+
+    // Per leaf: the range of its items in items
+    private int[] leafStarts = new int[8];
+    private int[] leafSizes = new int[8];
+    private int leafCount = 0;
+
+    /**
+     * @param itemBounds six floats per item, see {@link BoundingBox#toArray}. The array is copied.
+     * @param itemCount the number of items
+     * @param leafSize the most items a leaf may hold
+     */
+    public Bvh(float[] itemBounds, int itemCount, int leafSize) {
+        this.itemCount = itemCount;
+        this.itemBounds = Arrays.copyOf(itemBounds, itemCount * 6);
+        items = new int[itemCount];
+        itemLeaves = new int[itemCount];
+
+        for (int i = 0; i < itemCount; i++)
+            items[i] = i;
+
+        if (itemCount > 0)
+            build(0, itemCount, Math.max(1, leafSize));
+    }
+
+    public int getItemCount() { return itemCount; }
+    public int getLeafCount() { return leafCount; }
+    public int getLeafStart(int leaf) { return leafStarts[leaf]; }
+    public int getLeafSize(int leaf) { return leafSizes[leaf]; }
+
+    /**
+     * Returns the item at the given position. The items of a leaf are at the positions from its start on.
+     */
+    public int getItem(int position) { return items[position]; }
+
+    public int getLeafOfItem(int item) { return itemLeaves[item]; }
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    private int build(int start, int end, int leafSize) {
+        int node = addNode();
+        float[] b = nodeBounds;
+        int o = node * 6;
+
+        b[o] = b[o + 1] = b[o + 2] = Float.POSITIVE_INFINITY;
+        b[o + 3] = b[o + 4] = b[o + 5] = Float.NEGATIVE_INFINITY;
+        float cMinX = Float.POSITIVE_INFINITY, cMinY = Float.POSITIVE_INFINITY, cMinZ = Float.POSITIVE_INFINITY;
+        float cMaxX = Float.NEGATIVE_INFINITY, cMaxY = Float.NEGATIVE_INFINITY, cMaxZ = Float.NEGATIVE_INFINITY;
+
+        for (int i = start; i < end; i++) {
+            int ib = items[i] * 6;
+            includeBox(o, ib);
+
+            float cx = center(ib, 0), cy = center(ib, 1), cz = center(ib, 2);
+            cMinX = Math.min(cMinX, cx); cMaxX = Math.max(cMaxX, cx);
+            cMinY = Math.min(cMinY, cy); cMaxY = Math.max(cMaxY, cy);
+            cMinZ = Math.min(cMinZ, cz); cMaxZ = Math.max(cMaxZ, cz);
+        }
+
+        int count = end - start;
+        float ex = cMaxX - cMinX, ey = cMaxY - cMinY, ez = cMaxZ - cMinZ;
+
+        // Items whose centers all coincide can't be split any further
+        if (count <= leafSize || !(ex > 0f || ey > 0f || ez > 0f)) {
+            makeLeaf(node, start, end);
+            return node;
+        }
+
+        int axis = ex >= ey && ex >= ez ? 0 : (ey >= ez ? 1 : 2);
+        int mid = (start + end) >>> 1;
+        select(start, end - 1, mid, axis);
+
+        int left = build(start, mid, leafSize);
+        int right = build(mid, end, leafSize);
+        nodeChildren[node * 2] = left;
+        nodeChildren[node * 2 + 1] = right;
+        return node;
+    }
+
+    private int addNode() {
+        if (nodeCount == nodeLeaves.length) {
+            nodeChildren = Arrays.copyOf(nodeChildren, nodeCount * 2 * 2);
+            nodeLeaves = Arrays.copyOf(nodeLeaves, nodeCount * 2);
+            nodeBounds = Arrays.copyOf(nodeBounds, nodeCount * 2 * 6);
+        }
+
+        nodeChildren[nodeCount * 2] = nodeChildren[nodeCount * 2 + 1] = -1;
+        nodeLeaves[nodeCount] = -1;
+        return nodeCount++;
+    }
+
+    private void makeLeaf(int node, int start, int end) {
+        if (leafCount == leafStarts.length) {
+            leafStarts = Arrays.copyOf(leafStarts, leafCount * 2);
+            leafSizes = Arrays.copyOf(leafSizes, leafCount * 2);
+        }
+
+        leafStarts[leafCount] = start;
+        leafSizes[leafCount] = end - start;
+        for (int i = start; i < end; i++)
+            itemLeaves[items[i]] = leafCount;
+
+        nodeLeaves[node] = leafCount++;
+    }
+
+    private float center(int ib, int axis) {
+        return (itemBounds[ib + axis] + itemBounds[ib + 3 + axis]) * 0.5f;
+    }
+
+    private void includeBox(int o, int ib) {
+        float[] b = nodeBounds;
+        b[o] = Math.min(b[o], itemBounds[ib]);
+        b[o + 1] = Math.min(b[o + 1], itemBounds[ib + 1]);
+        b[o + 2] = Math.min(b[o + 2], itemBounds[ib + 2]);
+        b[o + 3] = Math.max(b[o + 3], itemBounds[ib + 3]);
+        b[o + 4] = Math.max(b[o + 4], itemBounds[ib + 4]);
+        b[o + 5] = Math.max(b[o + 5], itemBounds[ib + 5]);
+    }
+
+    /**
+     * Moves the items so that the one at k has the median center and no item before it has a larger center.
+     */
+    private void select(int lo, int hi, int k, int axis) {
+        while (hi > lo) {
+            float pivot = center(items[(lo + hi) >>> 1] * 6, axis);
+            int i = lo, j = hi;
+
+            while (i <= j) {
+                while (center(items[i] * 6, axis) < pivot) i++;
+                while (center(items[j] * 6, axis) > pivot) j--;
+                if (i <= j) {
+                    int t = items[i];
+                    items[i] = items[j];
+                    items[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+
+            if (k <= j)
+                hi = j;
+            else if (k >= i)
+                lo = i;
+            else
+                return;
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Changes the box of an item without changing the structure. The boxes of the nodes above it have to be updated
+     * with {@link #refit()} afterwards.
+     */
+    public void setItemBounds(int item, BoundingBox box) {
+        box.toArray(itemBounds, item * 6);
+    }
+
+    public void getItemBounds(int item, BoundingBox out) {
+        int ib = item * 6;
+        out.min.x = itemBounds[ib];
+        out.min.y = itemBounds[ib + 1];
+        out.min.z = itemBounds[ib + 2];
+        out.max.x = itemBounds[ib + 3];
+        out.max.y = itemBounds[ib + 4];
+        out.max.z = itemBounds[ib + 5];
+    }
+
+    /**
+     * Recalculates the boxes of all nodes from the boxes of their items.
+     */
+    public void refit() {
+        // Children are always created after their parent
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            int o = node * 6;
+            nodeBounds[o] = nodeBounds[o + 1] = nodeBounds[o + 2] = Float.POSITIVE_INFINITY;
+            nodeBounds[o + 3] = nodeBounds[o + 4] = nodeBounds[o + 5] = Float.NEGATIVE_INFINITY;
+
+            int leaf = nodeLeaves[node];
+            if (leaf >= 0) {
+                for (int i = leafStarts[leaf]; i < leafStarts[leaf] + leafSizes[leaf]; i++)
+                    includeBox(o, items[i] * 6);
+            }
+            else {
+                for (int c = 0; c < 2; c++) {
+                    int co = nodeChildren[node * 2 + c] * 6;
+                    nodeBounds[o] = Math.min(nodeBounds[o], nodeBounds[co]);
+                    nodeBounds[o + 1] = Math.min(nodeBounds[o + 1], nodeBounds[co + 1]);
+                    nodeBounds[o + 2] = Math.min(nodeBounds[o + 2], nodeBounds[co + 2]);
+                    nodeBounds[o + 3] = Math.max(nodeBounds[o + 3], nodeBounds[co + 3]);
+                    nodeBounds[o + 4] = Math.max(nodeBounds[o + 4], nodeBounds[co + 4]);
+                    nodeBounds[o + 5] = Math.max(nodeBounds[o + 5], nodeBounds[co + 5]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls the visitor with every leaf whose box is at least partly inside the view volume.
+     * @param frustum the view volume in the space of the boxes
+     * @param visitor receives the leaf indices
+     */
+    public void queryFrustum(Frustum frustum, IntConsumer visitor) {
+        if (nodeCount == 0)
+            return;
+
+        int[] stack = new int[64];
+        boolean[] inside = new boolean[64];
+        int top = 0;
+        stack[top++] = 0;
+
+        while (top > 0) {
+            top--;
+            int node = stack[top];
+            boolean isInside = inside[top];
+
+            if (!isInside) {
+                int o = node * 6;
+                int result = frustum.classify(nodeBounds[o], nodeBounds[o + 1], nodeBounds[o + 2],
+                        nodeBounds[o + 3], nodeBounds[o + 4], nodeBounds[o + 5]);
+
+                if (result == Frustum.OUTSIDE)
+                    continue;
+                isInside = result == Frustum.INSIDE;
+            }
+
+            if (nodeLeaves[node] >= 0) {
+                visitor.accept(nodeLeaves[node]);
+                continue;
+            }
+
+            if (top + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+                inside = Arrays.copyOf(inside, inside.length * 2);
+            }
+
+            // Everything below a node that is fully inside is visible as well
+            stack[top] = nodeChildren[node * 2 + 1];
+            inside[top++] = isInside;
+            stack[top] = nodeChildren[node * 2];
+            inside[top++] = isInside;
+        }
+    }
+
+    /**
+     * Tests the items of a leaf against a ray.
+     */
+    public interface RayVisitor {
+        /**
+         * @param leaf the index of the leaf whose box the ray hits
+         * @param maxDistance the distance of the nearest hit so far
+         * @return the distance of the nearest hit including this leaf
+         */
+        float visit(int leaf, float maxDistance);
+    }
+
+    /**
+     * Calls the visitor with the leaves whose boxes are hit by a ray, nearest first. Leaves that are further away than
+     * the nearest hit returned by the visitor are skipped.
+     * @param ray the ray in the space of the boxes
+     * @param maxDistance hits at this distance or further away are ignored
+     * @param visitor tests the items of the leaves
+     * @return the distance of the nearest hit, or {@link Ray#MISS}
+     */
+    public float queryRay(Ray ray, float maxDistance, RayVisitor visitor) {
+        if (nodeCount == 0)
+            return Ray.MISS;
+
+        float best = maxDistance;
+        int[] stack = new int[64];
+        float[] entries = new float[64];
+        int top = 0;
+
+        float entry = intersectNode(ray, 0, best);
+        if (entry == Ray.MISS)
+            return Ray.MISS;
+        stack[top] = 0;
+        entries[top++] = entry;
+
+        while (top > 0) {
+            top--;
+            int node = stack[top];
+            if (entries[top] > best)
+                continue;
+
+            if (nodeLeaves[node] >= 0) {
+                best = Math.min(best, visitor.visit(nodeLeaves[node], best));
+                continue;
+            }
+
+            int left = nodeChildren[node * 2], right = nodeChildren[node * 2 + 1];
+            float leftEntry = intersectNode(ray, left, best);
+            float rightEntry = intersectNode(ray, right, best);
+
+            if (top + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+
+            // The nearer child goes on top, so it is visited first and may rule out the other one
+            if (leftEntry > rightEntry) {
+                int t = left; left = right; right = t;
+                float e = leftEntry; leftEntry = rightEntry; rightEntry = e;
+            }
+
+            if (rightEntry != Ray.MISS) {
+                stack[top] = right;
+                entries[top++] = rightEntry;
+            }
+            if (leftEntry != Ray.MISS) {
+                stack[top] = left;
+                entries[top++] = leftEntry;
+            }
+        }
+
+        return best < maxDistance ? best : Ray.MISS;
+    }
+
+    /**
+     * Returns the distance at which a ray enters the box of an item, see {@link Ray#intersectBox}.
+     */
+    public float intersectItem(Ray ray, int item, float maxDistance) {
+        int ib = item * 6;
+        return ray.intersectBox(itemBounds[ib], itemBounds[ib + 1], itemBounds[ib + 2],
+                itemBounds[ib + 3], itemBounds[ib + 4], itemBounds[ib + 5], maxDistance);
+    }
+
+    private float intersectNode(Ray ray, int node, float maxDistance) {
+        int o = node * 6;
+        return ray.intersectBox(nodeBounds[o], nodeBounds[o + 1], nodeBounds[o + 2],
+                nodeBounds[o + 3], nodeBounds[o + 4], nodeBounds[o + 5], maxDistance);
+    }
+}
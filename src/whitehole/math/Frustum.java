@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2022 Whitehole Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitehole.math;
+
+/**
+ * The six planes of a view volume. The planes are taken from a combined projection and model-view matrix, so they are
+ * in whatever space that matrix transforms from.
+ */
+public class Frustum {
+    public static final int OUTSIDE = 0;
+    public static final int INTERSECTS = 1;
+    public static final int INSIDE = 2;
+
+    // a, b, c, d of the left, right, bottom, top, near and far planes. Points inside have a positive distance.
+    private final float[] planes = new float[24];
+
+    /**
+     * @param clip projection * model-view, see {@link Matrix4}
+     */
+    public Frustum(Matrix4 clip) {
+        float[] m = clip.m;
+
+        for (int i = 0; i < 6; i++) {
+            int row = i / 2;
+            float sign = (i & 1) == 0 ? 1f : -1f;
+            int p = i * 4;
+
+            planes[p] = m[3] + sign * m[row];
+            planes[p + 1] = m[7] + sign * m[4 + row];
+            planes[p + 2] = m[11] + sign * m[8 + row];
+            planes[p + 3] = m[15] + sign * m[12 + row];
+        }
+    }
+
+    /**
+     * Returns whether a box is outside of the view volume, partly inside it or fully inside it.
+     */
+    public int classify(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int ret = INSIDE;
+
+        for (int p = 0; p < 24; p += 4) {
+            float a = planes[p], b = planes[p + 1], c = planes[p + 2], d = planes[p + 3];
+
+            // The corner furthest along the normal decides if the box is outside, the nearest one if it is inside
+            float far = a * (a > 0f ? maxX : minX) + b * (b > 0f ? maxY : minY) + c * (c > 0f ? maxZ : minZ) + d;
+            if (far < 0f)
+                return OUTSIDE;
+
+            float near = a * (a > 0f ? minX : maxX) + b * (b > 0f ? minY : maxY) + c * (c > 0f ? minZ : maxZ) + d;
+            if (near < 0f)
+                ret = INTERSECTS;
+        }
+
+        return ret;
+    }
+
+    public int classify(BoundingBox box) {
+        return classify(box.min.x, box.min.y, box.min.z, box.max.x, box.max.y, box.max.z);
+    }
+
+    /**
+     * Returns the view volume of a projection and model-view matrix as seen from a space below them, for example the
+     * space of a zone placed in the scene.
+     * @param projection the projection matrix
+     * @param modelView the model-view matrix
+     * @param local transforms from the local space into the space of the model-view matrix, or null
+     */
+    public static Frustum fromMatrices(Matrix4 projection, Matrix4 modelView, Matrix4 local) {
+        Matrix4 clip = new Matrix4();
+        if (local != null)
+            Matrix4.mult(local, modelView, clip);
+        else
+            System.arraycopy(modelView.m, 0, clip.m, 0, 16);
+        Matrix4.mult(clip, projection, clip);
+        return new Frustum(clip);
+    }
+}
@@ -92,6 +92,17 @@ public class Matrix4 {
                 trans.x, trans.y, trans.z, 1f);
     }
     
+    /**
+     * Creates the same projection as glFrustum.
+     */
+    public static Matrix4 createFrustum(float left, float right, float bottom, float top, float near, float far) {
+        return new Matrix4(
+                2f * near / (right - left), 0f, 0f, 0f,
+                0f, 2f * near / (top - bottom), 0f, 0f,
+                (right + left) / (right - left), (top + bottom) / (top - bottom), -(far + near) / (far - near), -1f,
+                0f, 0f, -2f * far * near / (far - near), 0f);
+    }
+    
     public static Matrix4 fromRotation(double radians, Vec3f axis)
     {
         Matrix4 out = new Matrix4();
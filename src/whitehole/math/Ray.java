@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2022 Whitehole Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitehole.math;
+
+/**
+ * A half-line from an origin along a direction. Distances along the ray are measured in multiples of the direction, so
+ * they stay the same when the ray is transformed into another space with {@link #transform}.
+ */
+public class Ray {
+    /**
+     * Returned by the intersection tests when the ray misses
+     */
+    public static final float MISS = Float.POSITIVE_INFINITY;
+
+    public final Vec3f origin, direction;
+
+    public Ray(Vec3f origin, Vec3f direction) {
+        this.origin = new Vec3f(origin);
+        this.direction = new Vec3f(direction);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s -> %s", origin, direction);
+    }
+
+    /**
+     * Returns the point at a distance along the ray.
+     */
+    public Vec3f getPoint(float distance) {
+        return new Vec3f(origin.x + direction.x * distance, origin.y + direction.y * distance,
+                origin.z + direction.z * distance);
+    }
+
+    /**
+     * Returns the distance at which the ray enters a box, or 0 if it starts inside of it.
+     * @param maxDistance hits further away than this are ignored
+     * @return the distance, or {@link #MISS}
+     */
+    public float intersectBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, float maxDistance) {
+        float near = 0f, far = maxDistance;
+
+        // Dividing by a zero direction gives infinities, which the comparisons handle correctly
+        float inv = 1f / direction.x;
+        float t0 = (minX - origin.x) * inv, t1 = (maxX - origin.x) * inv;
+        near = Math.max(near, Math.min(t0, t1));
+        far = Math.min(far, Math.max(t0, t1));
+
+        inv = 1f / direction.y;
+        t0 = (minY - origin.y) * inv;
+        t1 = (maxY - origin.y) * inv;
+        near = Math.max(near, Math.min(t0, t1));
+        far = Math.min(far, Math.max(t0, t1));
+
+        inv = 1f / direction.z;
+        t0 = (minZ - origin.z) * inv;
+        t1 = (maxZ - origin.z) * inv;
+        near = Math.max(near, Math.min(t0, t1));
+        far = Math.min(far, Math.max(t0, t1));
+
+        return near <= far ? near : MISS;
+    }
+
+    public float intersectBox(BoundingBox box, float maxDistance) {
+        return intersectBox(box.min.x, box.min.y, box.min.z, box.max.x, box.max.y, box.max.z, maxDistance);
+    }
+
+    /**
+     * Returns the distance at which the ray hits a triangle from either side.
+     * @param v the corners of the triangle as x, y, z of each
+     * @param offset the index of the first corner in v
+     * @return the distance, or {@link #MISS}
+     */
+    public float intersectTriangle(float[] v, int offset) {
+        float ax = v[offset], ay = v[offset + 1], az = v[offset + 2];
+        float e1x = v[offset + 3] - ax, e1y = v[offset + 4] - ay, e1z = v[offset + 5] - az;
+        float e2x = v[offset + 6] - ax, e2y = v[offset + 7] - ay, e2z = v[offset + 8] - az;
+
+        // Moeller-Trumbore
+        float px = direction.y * e2z - direction.z * e2y;
+        float py = direction.z * e2x - direction.x * e2z;
+        float pz = direction.x * e2y - direction.y * e2x;
+        float det = e1x * px + e1y * py + e1z * pz;
+        if (det == 0f || Float.isNaN(det))
+            return MISS;
+
+        float inv = 1f / det;
+        float sx = origin.x - ax, sy = origin.y - ay, sz = origin.z - az;
+        float u = (sx * px + sy * py + sz * pz) * inv;
+        if (u < 0f || u > 1f)
+            return MISS;
+
+        float qx = sy * e1z - sz * e1y;
+        float qy = sz * e1x - sx * e1z;
+        float qz = sx * e1y - sy * e1x;
+        float w = (direction.x * qx + direction.y * qy + direction.z * qz) * inv;
+        if (w < 0f || u + w > 1f)
+            return MISS;
+
+        float t = (e2x * qx + e2y * qy + e2z * qz) * inv;
+        return t >= 0f ? t : MISS;
+    }
+
+    /**
+     * Returns the ray in the space a matrix transforms into. The direction isn't normalized, so distances along both
+     * rays are the same.
+     * @param ray the ray to transform
+     * @param m the transformation, see {@link Matrix4}
+     * @return a new ray
+     */
+    public static Ray transform(Ray ray, Matrix4 m) {
+        float[] a = m.m;
+        Vec3f o = ray.origin, d = ray.direction;
+        Vec3f origin = new Vec3f(
+                a[0] * o.x + a[4] * o.y + a[8] * o.z + a[12],
+                a[1] * o.x + a[5] * o.y + a[9] * o.z + a[13],
+                a[2] * o.x + a[6] * o.y + a[10] * o.z + a[14]);
+        Vec3f direction = new Vec3f(
+                a[0] * d.x + a[4] * d.y + a[8] * d.z,
+                a[1] * d.x + a[5] * d.y + a[9] * d.z,
+                a[2] * d.x + a[6] * d.y + a[10] * d.z);
+        return new Ray(origin, direction);
+    }
+}
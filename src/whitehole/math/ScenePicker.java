@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2022 Whitehole Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitehole.math;
+
+import java.util.ArrayList;
+
+/**
+ * Finds the items of a scene under a ray without drawing anything. Every item has a box in world space and optionally
+ * the triangles of its model, which rays are tested against once they hit the box.
+ * @param <T> the type of the items, for example the objects of a galaxy
+ */
+public class ScenePicker<T> {
+    private static final int LEAF_SIZE = 4;
+
+    public static class Hit<T> {
+        public final T item;
+
+        /**
+         * The distance along the picking ray, see {@link Ray}
+         */
+        public final float distance;
+
+        public Hit(T item, float distance) {
+            this.item = item;
+            this.distance = distance;
+        }
+    }
+
+    private final ArrayList<T> items = new ArrayList();
+    private final ArrayList<TriangleMesh> meshes = new ArrayList();
+    private final ArrayList<Matrix4> worldToMesh = new ArrayList();
+    private float[] bounds = new float[64 * 6];
+    private Bvh bvh = null;
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Adds an item to the scene. Call {@link #build} once all items have been added.
+     * @param item the item
+     * @param worldBounds the box around the item in world space
+     * @param mesh the triangles of the item, or null to pick it by its box
+     * @param meshToWorld transforms the mesh into world space, or null if it is in world space already
+     */
+    public void add(T item, BoundingBox worldBounds, TriangleMesh mesh, Matrix4 meshToWorld) {
+        if (worldBounds == null || worldBounds.isEmpty())
+            return;
+
+        if ((items.size() + 1) * 6 > bounds.length) {
+            float[] grown = new float[bounds.length * 2];
+            System.arraycopy(bounds, 0, grown, 0, items.size() * 6);
+            bounds = grown;
+        }
+
+        worldBounds.toArray(bounds, items.size() * 6);
+        items.add(item);
+        meshes.add(mesh);
+        worldToMesh.add(mesh != null && meshToWorld != null ? Matrix4.invert(meshToWorld) : null);
+        bvh = null;
+    }
+
+    /**
+     * Builds the hierarchy over the added items.
+     */
+    public void build() {
+        bvh = new Bvh(bounds, items.size(), LEAF_SIZE);
+    }
+
+    public int getItemCount() { return items.size(); }
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the nearest item that is hit by a ray.
+     * @param ray the ray in world space
+     * @return the item and the distance it is hit at, or null if nothing is hit
+     */
+    public Hit<T> pickRay(Ray ray) {
+        if (bvh == null)
+            build();
+
+        int[] nearest = { -1 };
+
+        float distance = bvh.queryRay(ray, Ray.MISS, (leaf, max) -> {
+            int start = bvh.getLeafStart(leaf);
+            int end = start + bvh.getLeafSize(leaf);
+
+            for (int i = start; i < end; i++) {
+                int item = bvh.getItem(i);
+                float t = intersectItem(ray, item, max);
+
+                if (t < max) {
+                    max = t;
+                    nearest[0] = item;
+                }
+            }
+
+            return max;
+        });
+
+        if (nearest[0] < 0)
+            return null;
+
+        return new Hit<>(items.get(nearest[0]), distance);
+    }
+
+    private float intersectItem(Ray ray, int item, float maxDistance) {
+        float t = bvh.intersectItem(ray, item, maxDistance);
+        TriangleMesh mesh = meshes.get(item);
+        if (t == Ray.MISS || mesh == null)
+            return t;
+
+        Matrix4 toMesh = worldToMesh.get(item);
+        return mesh.intersect(toMesh != null ? Ray.transform(ray, toMesh) : ray, maxDistance);
+    }
+}
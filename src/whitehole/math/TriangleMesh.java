@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2022 Whitehole Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitehole.math;
+
+/**
+ * A list of triangles with a {@link Bvh} over them, so rays can be tested against models without drawing them.
+ */
+public class TriangleMesh {
+    private static final int LEAF_SIZE = 4;
+
+    private final float[] triangles;
+    private final int triangleCount;
+    private final Bvh bvh;
+    private final BoundingBox bounds = new BoundingBox();
+
+    /**
+     * @param triangles nine floats per triangle, the x, y and z of its three corners. The array is kept.
+     * @param triangleCount the number of triangles
+     */
+    public TriangleMesh(float[] triangles, int triangleCount) {
+        this.triangles = triangles;
+        this.triangleCount = triangleCount;
+
+        float[] boxes = new float[triangleCount * 6];
+        BoundingBox box = new BoundingBox();
+
+        for (int i = 0; i < triangleCount; i++) {
+            int t = i * 9;
+            box.min.x = box.min.y = box.min.z = Float.POSITIVE_INFINITY;
+            box.max.x = box.max.y = box.max.z = Float.NEGATIVE_INFINITY;
+            box.include(triangles[t], triangles[t + 1], triangles[t + 2]);
+            box.include(triangles[t + 3], triangles[t + 4], triangles[t + 5]);
+            box.include(triangles[t + 6], triangles[t + 7], triangles[t + 8]);
+            box.toArray(boxes, i * 6);
+            bounds.include(box);
+        }
+
+        bvh = new Bvh(boxes, triangleCount, LEAF_SIZE);
+    }
+
+    public int getTriangleCount() { return triangleCount; }
+
+    /**
+     * Returns the box around all triangles. The box must not be changed.
+     */
+    public BoundingBox getBounds() { return bounds; }
+
+    /**
+     * Returns the distance at which a ray hits the nearest triangle, from either side.
+     * @param ray the ray in the space of the triangles
+     * @param maxDistance hits at this distance or further away are ignored
+     * @return the distance, or {@link Ray#MISS}
+     */
+    public float intersect(Ray ray, float maxDistance) {
+        return bvh.queryRay(ray, maxDistance, (leaf, max) -> {
+            int start = bvh.getLeafStart(leaf);
+            int end = start + bvh.getLeafSize(leaf);
+
+            for (int i = start; i < end; i++) {
+                float t = ray.intersectTriangle(triangles, bvh.getItem(i) * 9);
+                if (t < max)
+                    max = t;
+            }
+
+            return max;
+        });
+    }
+}
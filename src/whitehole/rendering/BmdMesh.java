@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2022 Whitehole Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitehole.rendering;
+
+import java.util.Arrays;
+import whitehole.math.Vec2f;
+import whitehole.math.Vec3f;
+import whitehole.smg.Bmd;
+import whitehole.util.Color4;
+
+/**
+ * The geometry of a {@link Bmd} converted to flat arrays that can be handed to OpenGL as they are. Every batch becomes
+ * one {@link Part}. Vertices that use the same combination of indices in a packet are stored only once. Baking does
+ * not need an OpenGL context, so it can be done on any thread.
+ */
+public class BmdMesh {
+    public static final int ARRAY_POSITION_MATRIX = 1 << 0;
+    public static final int ARRAY_NORMAL = 1 << 10;
+    public static final int ARRAY_COLOR0 = 1 << 11;
+    public static final int ARRAY_TEXCOORD0 = 1 << 13;
+
+    public final Part[] parts;
+
+    public BmdMesh(Part[] parts) {
+        this.parts = parts;
+    }
+
+    /**
+     * The baked geometry of one batch. Arrays of attributes that no primitive of the batch uses are {@code null}.
+     */
+    public static class Part {
+        /**
+         * The material the scene graph draws this batch with, or -1 if it isn't drawn at all
+         */
+        public int materialIndex = -1;
+
+        /**
+         * The attributes used by any primitive of the batch, see {@link Bmd.Batch.Packet.Primitive#arrayMask}
+         */
+        public int arrayMask;
+        public int vertexCount;
+
+        public float[] positions;
+        public float[] normals;
+        public final float[][] colors = new float[2][];
+        public final float[][] texcoords = new float[8][];
+
+        /**
+         * Per vertex: the index into the matrix table of the packet the vertex belongs to
+         */
+        public short[] matrixIndices;
+
+        /**
+         * Triangles, then lines, then points of every packet
+         */
+        public int[] indices;
+
+        /**
+         * Per packet: first index and index count of its triangles, lines and points
+         */
+        public int[] packetRanges;
+
+        public boolean hasArray(int array) {
+            return (arrayMask & array) != 0;
+        }
+
+        public int getTriangleStart(int packet) { return packetRanges[packet * 6]; }
+        public int getTriangleCount(int packet) { return packetRanges[packet * 6 + 1]; }
+        public int getLineStart(int packet) { return packetRanges[packet * 6 + 2]; }
+        public int getLineCount(int packet) { return packetRanges[packet * 6 + 3]; }
+        public int getPointStart(int packet) { return packetRanges[packet * 6 + 4]; }
+        public int getPointCount(int packet) { return packetRanges[packet * 6 + 5]; }
+    }
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Bakes all batches of the given model.
+     * @param model
+     * @return the baked mesh
+     */
+    public static BmdMesh bake(Bmd model) {
+        Part[] parts = new Part[model.batches.length];
+
+        for (int i = 0; i < parts.length; i++)
+            parts[i] = bakeBatch(model, model.batches[i]);
+
+        for (Bmd.SceneGraphNode node : model.sceneGraph) {
+            if (node.nodeType == 0 && node.nodeID < parts.length && parts[node.nodeID].materialIndex < 0)
+                parts[node.nodeID].materialIndex = node.materialID;
+        }
+
+        return new BmdMesh(parts);
+    }
+
+    private static Part bakeBatch(Bmd model, Bmd.Batch batch) {
+        Part part = new Part();
+
+        // Find out which attributes are used and how much space we need
+        int arrayMask = 0, numCorners = 0, maxPacketCorners = 0, numIndices = 0;
+
+        for (Bmd.Batch.Packet packet : batch.packets) {
+            int packetCorners = 0;
+
+            for (Bmd.Batch.Packet.Primitive prim : packet.primitives) {
+                arrayMask |= prim.arrayMask;
+                packetCorners += prim.numIndices;
+                numIndices += getPrimitiveIndexCount(prim);
+            }
+
+            numCorners += packetCorners;
+            maxPacketCorners = Math.max(maxPacketCorners, packetCorners);
+        }
+
+        // Each vertex is identified by its matrix, position and other attribute indices
+        int[] attribs = new int[11];
+        int numAttribs = 0;
+        for (int bit = 10; bit <= 20; bit++) {
+            if ((arrayMask & (1 << bit)) != 0)
+                attribs[numAttribs++] = bit;
+        }
+
+        int tupleLength = 2 + numAttribs;
+        int[] tuples = new int[numCorners * tupleLength];
+        int[] corners = new int[maxPacketCorners];
+        int[] slots = new int[Integer.highestOneBit(Math.max(maxPacketCorners, 1)) << 2];
+
+        int[] indices = new int[numIndices];
+        int[] tris = new int[numIndices], lines = new int[numIndices], points = new int[numIndices];
+        int[] packetRanges = new int[batch.packets.length * 6];
+        int numVertices = 0, index = 0;
+
+        for (int p = 0; p < batch.packets.length; p++) {
+            int numTris = 0, numLines = 0, numPoints = 0, corner = 0;
+            int mask = slots.length - 1;
+            Arrays.fill(slots, -1);
+
+            for (Bmd.Batch.Packet.Primitive prim : batch.packets[p].primitives) {
+                int first = corner;
+
+                for (int i = 0; i < prim.numIndices; i++) {
+                    int t = numVertices * tupleLength;
+                    tuples[t] = (prim.arrayMask & ARRAY_POSITION_MATRIX) != 0 ? prim.posMatrixIndices[i] : 0;
+                    tuples[t + 1] = prim.positionIndices[i];
+
+                    for (int a = 0; a < numAttribs; a++)
+                        tuples[t + 2 + a] = getAttributeIndex(prim, attribs[a], i);
+
+                    int hash = 0;
+                    for (int k = 0; k < tupleLength; k++)
+                        hash = hash * 31 + tuples[t + k];
+                    hash ^= hash >>> 16;
+
+                    int slot = hash & mask;
+                    int vertex;
+
+                    while (true) {
+                        vertex = slots[slot];
+
+                        if (vertex < 0) {
+                            vertex = numVertices++;
+                            slots[slot] = vertex;
+                            break;
+                        }
+                        if (Arrays.equals(tuples, vertex * tupleLength, (vertex + 1) * tupleLength, tuples, t, t + tupleLength))
+                            break;
+
+                        slot = (slot + 1) & mask;
+                    }
+
+                    corners[corner++] = vertex;
+                }
+
+                int n = prim.numIndices;
+                switch ((prim.primitiveType - 0x80) / 8) {
+                    case 0: // quads
+                        for (int i = 0; i + 3 < n; i += 4) {
+                            tris[numTris++] = corners[first + i];
+                            tris[numTris++] = corners[first + i + 1];
+                            tris[numTris++] = corners[first + i + 2];
+                            tris[numTris++] = corners[first + i];
+                            tris[numTris++] = corners[first + i + 2];
+                            tris[numTris++] = corners[first + i + 3];
+                        }
+                        break;
+                    case 2: // triangles
+                        for (int i = 0; i + 2 < n; i += 3) {
+                            tris[numTris++] = corners[first + i];
+                            tris[numTris++] = corners[first + i + 1];
+                            tris[numTris++] = corners[first + i + 2];
+                        }
+                        break;
+                    case 3: // triangle strip
+                        for (int i = 2; i < n; i++) {
+                            boolean flip = (i & 1) != 0;
+                            tris[numTris++] = corners[first + (flip ? i - 1 : i - 2)];
+                            tris[numTris++] = corners[first + (flip ? i - 2 : i - 1)];
+                            tris[numTris++] = corners[first + i];
+                        }
+                        break;
+                    case 4: // triangle fan
+                        for (int i = 2; i < n; i++) {
+                            tris[numTris++] = corners[first];
+                            tris[numTris++] = corners[first + i - 1];
+                            tris[numTris++] = corners[first + i];
+                        }
+                        break;
+                    case 5: // lines
+                        for (int i = 0; i + 1 < n; i += 2) {
+                            lines[numLines++] = corners[first + i];
+                            lines[numLines++] = corners[first + i + 1];
+                        }
+                        break;
+                    case 6: // line strip
+                        for (int i = 1; i < n; i++) {
+                            lines[numLines++] = corners[first + i - 1];
+                            lines[numLines++] = corners[first + i];
+                        }
+                        break;
+                    default: // points
+                        for (int i = 0; i < n; i++)
+                            points[numPoints++] = corners[first + i];
+                        break;
+                }
+            }
+
+            int r = p * 6;
+            packetRanges[r] = index;
+            packetRanges[r + 1] = numTris;
+            System.arraycopy(tris, 0, indices, index, numTris);
+            index += numTris;
+            packetRanges[r + 2] = index;
+            packetRanges[r + 3] = numLines;
+            System.arraycopy(lines, 0, indices, index, numLines);
+            index += numLines;
+            packetRanges[r + 4] = index;
+            packetRanges[r + 5] = numPoints;
+            System.arraycopy(points, 0, indices, index, numPoints);
+            index += numPoints;
+        }
+
+        part.arrayMask = arrayMask;
+        part.vertexCount = numVertices;
+        part.indices = indices;
+        part.packetRanges = packetRanges;
+        fillArrays(model, part, tuples, tupleLength, attribs, numAttribs);
+
+        return part;
+    }
+
+    private static void fillArrays(Bmd model, Part part, int[] tuples, int tupleLength, int[] attribs, int numAttribs) {
+        int n = part.vertexCount;
+        part.positions = new float[n * 3];
+        part.matrixIndices = new short[n];
+
+        for (int a = 0; a < numAttribs; a++) {
+            int bit = attribs[a];
+
+            if (bit == 10)
+                part.normals = new float[n * 3];
+            else if (bit <= 12)
+                part.colors[bit - 11] = new float[n * 4];
+            else
+                part.texcoords[bit - 13] = new float[n * 2];
+        }
+
+        for (int v = 0; v < n; v++) {
+            int t = v * tupleLength;
+            part.matrixIndices[v] = (short)tuples[t];
+
+            Vec3f pos = model.positionArray[tuples[t + 1]];
+            part.positions[v * 3] = pos.x;
+            part.positions[v * 3 + 1] = pos.y;
+            part.positions[v * 3 + 2] = pos.z;
+
+            for (int a = 0; a < numAttribs; a++) {
+                int bit = attribs[a];
+                int idx = tuples[t + 2 + a];
+
+                if (bit == 10) {
+                    if (idx < 0)
+                        continue;
+
+                    Vec3f nrm = model.normalArray[idx];
+                    part.normals[v * 3] = nrm.x;
+                    part.normals[v * 3 + 1] = nrm.y;
+                    part.normals[v * 3 + 2] = nrm.z;
+                }
+                else if (bit <= 12) {
+                    float[] dst = part.colors[bit - 11];
+
+                    if (idx < 0) {
+                        Arrays.fill(dst, v * 4, v * 4 + 4, 1f);
+                        continue;
+                    }
+
+                    Color4 col = model.colorArray[bit - 11][idx];
+                    dst[v * 4] = col.r;
+                    dst[v * 4 + 1] = col.g;
+                    dst[v * 4 + 2] = col.b;
+                    dst[v * 4 + 3] = col.a;
+                }
+                else {
+                    if (idx < 0)
+                        continue;
+
+                    Vec2f tex = model.texcoordArray[bit - 13][idx];
+                    float[] dst = part.texcoords[bit - 13];
+                    dst[v * 2] = tex.x;
+                    dst[v * 2 + 1] = tex.y;
+                }
+            }
+        }
+    }
+
+    private static int getAttributeIndex(Bmd.Batch.Packet.Primitive prim, int bit, int i) {
+        if ((prim.arrayMask & (1 << bit)) == 0)
+            return -1;
+        if (bit == 10)
+            return prim.normalIndices[i];
+        if (bit <= 12)
+            return prim.colorIndices[bit - 11][i];
+        return prim.texcoordIndices[bit - 13][i];
+    }
+
+    private static int getPrimitiveIndexCount(Bmd.Batch.Packet.Primitive prim) {
+        int n = prim.numIndices;
+
+        switch ((prim.primitiveType - 0x80) / 8) {
+            case 0: return n / 4 * 6;
+            case 2: return n / 3 * 3;
+            case 3:
+            case 4: return Math.max(n - 2, 0) * 3;
+            case 5: return n / 2 * 2;
+            case 6: return Math.max(n - 1, 0) * 2;
+            default: return n;
+        }
+    }
+}
@@ -21,28 +21,49 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.*;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.Random;
 import whitehole.Settings;
 import whitehole.Whitehole;
-import whitehole.io.ExternalFile;
+import whitehole.io.ExternalFilesystem;
 import whitehole.io.FileBase;
+import whitehole.io.FilesystemBase;
 import whitehole.io.RarcFile;
 import whitehole.smg.Bmd;
 import whitehole.smg.ImageUtils;
 import whitehole.smg.animation.*;
 import whitehole.util.Color4;
 import whitehole.util.SuperFastHash;
+import whitehole.math.BoundingBox;
 import whitehole.math.Vec2f;
 import whitehole.math.Vec3f;
 import whitehole.math.Matrix4;
+import whitehole.math.TriangleMesh;
 import whitehole.smg.Bti;
 
 public class BmdRenderer extends GLRenderer {
     protected RarcFile archive = null;
     protected Bmd model = null;
+    private RarcFile modelArchive = null;
+    private String modelPath = null;
+    private ModelAssetCache.CacheEntry asset = null;
+    private float[] jointPose = null;
+    private boolean[] hiddenMaterials = null;
     
     protected Shader[] shaders = null;
+    protected Shader flatShader = null;
+    protected BatchBuffer[] batchBuffers = null;
+    private final float[] jointPalette = new float[JOINT_PALETTE_SIZE * 16];
+    
+    /**
+     * Scratch storage of {@link #render}. The envelope matrices are blended at most once per render, and the packets
+     * alternate between the two matrix tables, since a packet can reuse entries of the previous packet's table.
+     */
+    private Matrix4[] envelopes = null;
+    private boolean[] isEnvelopeCalculated = null;
+    private final Matrix4 envelopeScratch = new Matrix4();
+    private Matrix4[] packetMatrices = new Matrix4[0], lastPacketMatrices = new Matrix4[0];
     protected int[] textures = null;
     protected boolean hasShaders = false;
     protected Vec3f translation = DEFAULT_TRANSLATION;
@@ -62,6 +83,51 @@ public class BmdRenderer extends GLRenderer {
     protected Bpk matRegisterAnim = null;
     protected int matRegisterAnimIndex = 0;
     
+    /**
+     * The animations that are played back in the viewport, see {@link #PLAYBACK_BCK}
+     */
+    protected int playbackAnims = PLAYBACK_BCK | PLAYBACK_BTP | PLAYBACK_BVA | PLAYBACK_BTK | PLAYBACK_BRK | PLAYBACK_BPK;
+    private int jointAnimStart = 0, texPatternAnimStart = 0, shapeVisibleAnimStart = 0;
+    private int texMatrixAnimStart = 0, colRegisterAnimStart = 0, matRegisterAnimStart = 0;
+    
+    /**
+     * The uniforms of the animated materials, see {@link #setMaterialUniforms}. They are only calculated again once the
+     * frame of a material animation has changed.
+     */
+    private float[][] materialUniforms = null;
+    private boolean[] isMaterialUniformCurrent = null;
+    private int posedJointFrame = -1;
+    private boolean isJointAnimSampled = false;
+    private boolean[] changedJoints = null;
+    private BoundingBox modelBounds = null;
+    
+    /**
+     * Animations that are applied while rendering, so they can be played back by drawing the renderer at another frame.
+     * The shaders of materials animated by BTK, BRK or BPK take the animated values as uniforms, see
+     * {@link #isMaterialAnimated}.
+     */
+    protected static final int PLAYBACK_BCK = 1 << 0;
+    protected static final int PLAYBACK_BTP = 1 << 1;
+    protected static final int PLAYBACK_BVA = 1 << 2;
+    protected static final int PLAYBACK_BTK = 1 << 3;
+    protected static final int PLAYBACK_BRK = 1 << 4;
+    protected static final int PLAYBACK_BPK = 1 << 5;
+    
+    /**
+     * GX packets reference at most ten position matrices
+     */
+    protected static final int JOINT_PALETTE_SIZE = 10;
+    
+    /**
+     * Materials have ten texture matrices, followed by four register colors, four konst colors and the material color
+     * in the uniforms of animated materials
+     */
+    protected static final int TEX_MATRIX_COUNT = 10;
+    private static final int MATERIAL_UNIFORM_SIZE = TEX_MATRIX_COUNT * 16 + 9 * 4;
+    protected static final int ATTRIB_SECONDARY_ALPHA = 1;
+    protected static final int ATTRIB_MATRIX_INDEX = 6;
+    private static final String FLAT_SHADER_KEY = "BmdRenderer.FlatShader";
+    
     /**
      * Set this flag to force a blue cube to be created
      */
@@ -101,16 +167,45 @@ public class BmdRenderer extends GLRenderer {
      * @param modelName 
      */
     protected final void ctor_doNonSpecialModelLoad(RenderInfo info, String modelName) {
-        if (!ctor_tryLoadModelDefault(modelName))
+        if (!ctor_doNonSpecialModelPreload(modelName))
             return;
         
+        ctor_uploadData(info);
+    }
+    
+    /**
+     * The part of the default loading sequence that does not need OpenGL. It reads the archive, the model and its
+     * default animations and bakes the mesh, so it can be run on any thread.
+     * @param modelName
+     * @return false on all failures, true on success
+     */
+    protected final boolean ctor_doNonSpecialModelPreload(String modelName) {
+        if (!ctor_tryLoadModelDefault(modelName))
+            return false;
+        
         //Some default BVA files for things like Thwomps
         if (shapeVisibleAnim == null)
             shapeVisibleAnim = ctor_tryLoadBVA(modelName, "Wait", archive);
         if (shapeVisibleAnim == null)
             shapeVisibleAnim = ctor_tryLoadBVA(modelName, "Normal", archive);
         
-        ctor_uploadData(info);
+        ctor_prepareMesh();
+        return true;
+    }
+    
+    /**
+     * Loads a model without uploading anything to OpenGL. {@link #ctor_uploadData} has to be called on the render
+     * thread before the renderer can be used.
+     * @param modelName
+     * @return the renderer, or null if the model couldn't be loaded
+     */
+    static BmdRenderer preload(String modelName) {
+        BmdRenderer renderer = new BmdRenderer();
+        
+        if (!renderer.ctor_doNonSpecialModelPreload(modelName))
+            return null;
+        
+        return renderer;
     }
     
     /**
@@ -160,19 +255,22 @@ public class BmdRenderer extends GLRenderer {
         // Load the BMD/BDL file
         try
         {
+            String path;
             if (archive.fileExists("/" + modelName + "/" + modelName + ".bdl"))
-            {
-                FileBase file = archive.openFile("/" + modelName + "/" + modelName + ".bdl");
-                file.setBigEndian(archive.isBigEndian());
-                return new Bmd(file);
-            }
+                path = "/" + modelName + "/" + modelName + ".bdl";
             else if (archive.fileExists("/" + modelName + "/" + modelName + ".bmd"))
-            {
-                FileBase file = archive.openFile("/" + modelName + "/" + modelName + ".bmd");
-                file.setBigEndian(archive.isBigEndian());
-                return new Bmd(file);
-            }
-            return null;
+                path = "/" + modelName + "/" + modelName + ".bmd";
+            else
+                return null;
+            
+            if (asset != null)
+                ModelAssetCache.release(asset);
+            
+            modelArchive = archive;
+            modelPath = path;
+            asset = ModelAssetCache.acquire(archive, path);
+            jointPose = asset.restPose.clone();
+            return asset.model;
         }
         catch(IOException up)
         {
@@ -208,8 +306,17 @@ public class BmdRenderer extends GLRenderer {
                 return null;
         }
         
-        FileBase fi = UseAbsolutePath ? new ExternalFile(arcPath) : Whitehole.getCurrentGameFileSystem().openFile(arcPath);
-        return new RarcFile(fi);
+        FilesystemBase fs = Whitehole.getCurrentGameFileSystem();
+        if (!UseAbsolutePath && !(fs instanceof ExternalFilesystem))
+            return new RarcFile(fs.openFileReadOnly(arcPath));
+        
+        if (!UseAbsolutePath)
+            arcPath = ((ExternalFilesystem)fs).getFileName(arcPath);
+        
+        // Only archives on disk can be told apart by their path, so only their models are shared
+        RarcFile archive = ModelCache.openArchive(arcPath);
+        ModelAssetCache.registerArchive(archive, arcPath);
+        return archive;
     }
     
     /**
@@ -352,6 +459,22 @@ public class BmdRenderer extends GLRenderer {
         if(!isValidBmdModel())
             return;
         
+        // Playback starts from the frames the renderer has been set up with
+        jointAnimStart = jointAnimIndex;
+        texPatternAnimStart = texPatternAnimIndex;
+        shapeVisibleAnimStart = shapeVisibleAnimIndex;
+        texMatrixAnimStart = texMatrixAnimIndex;
+        colRegisterAnimStart = colRegisterAnimIndex;
+        matRegisterAnimStart = matRegisterAnimIndex;
+        
+        if(asset != null && asset.bounds != null) {
+            modelBounds = new BoundingBox(asset.bounds);
+            
+            // Joint animations may move the vertices well beyond the rest pose
+            if(jointAnim != null)
+                modelBounds.scaleAroundCenter(2f);
+        }
+        
         GL2 gl = info.drawable.getGL().getGL2();
         
         String extensions = gl.glGetString(GL2.GL_EXTENSIONS);
@@ -363,10 +486,18 @@ public class BmdRenderer extends GLRenderer {
         textures = new int[model.textures.length];
         for(int i = 0; i < model.textures.length; i++)
             ctor_uploadTexture(gl, i);
+        
+        // Also writes the model cache, so do this even if the mesh won't be used
+        ctor_prepareMesh();
 
         if(!hasShaders)
             return;
         shaders = new Shader[model.materials.length];
+        materialUniforms = new float[model.materials.length][];
+        isMaterialUniformCurrent = new boolean[model.materials.length];
+        
+        // Undo the material animations of other renderers of the shared model before applying this one's
+        model.setMaterialAnimState(asset.restMaterials);
         
         for(int i = 0; i < model.materials.length; i++) {
             try {
@@ -390,10 +521,79 @@ public class BmdRenderer extends GLRenderer {
                 //hope it continues?
                 throw ex;
             }
+            
+            if(shaders[i].program != 0) {
+                shaders[i].jointMatricesLocation = gl.glGetUniformLocation(shaders[i].program, "jointMatrices");
+                
+                if(isMaterialAnimated(model.materials[i])) {
+                    shaders[i].hasMaterialUniforms = true;
+                    shaders[i].texMatricesLocation = gl.glGetUniformLocation(shaders[i].program, "texMatrices");
+                    shaders[i].registerColorsLocation = gl.glGetUniformLocation(shaders[i].program, "registerColors");
+                    shaders[i].konstColorsLocation = gl.glGetUniformLocation(shaders[i].program, "konstColors");
+                    shaders[i].materialColorLocation = gl.glGetUniformLocation(shaders[i].program, "materialColor");
+                }
+            }
+        }
+        
+        ctor_generateFlatShader(gl);
+        
+        // The buffers are shared by all renderers of the model, so they are only uploaded by the first one
+        synchronized(asset) {
+            if(asset.batchBuffers == null) {
+                BmdMesh mesh = asset.mesh;
+                BatchBuffer[] buffers = new BatchBuffer[mesh.parts.length];
+                for(int i = 0; i < mesh.parts.length; i++)
+                    buffers[i] = ctor_uploadBatch(gl, mesh.parts[i]);
+                
+                asset.batchBuffers = buffers;
+                asset.mesh = null;
+            }
+            
+            batchBuffers = asset.batchBuffers;
         }
     }
     
     
+    /**
+     * Bakes the mesh of the model unless that was already done. The model is the last thing that is loaded from the
+     * archive, so whatever was loaded is written to the model cache afterwards.
+     */
+    protected final void ctor_prepareMesh() {
+        if(!isValidBmdModel())
+            return;
+        
+        ModelAssetCache.prepareMesh(asset, modelArchive, modelPath);
+        ModelCache.writeChanges(modelArchive);
+    }
+    
+    /**
+     * Hides or shows all materials of the given name. Only affects this renderer, even if the model is shared.
+     * @param name
+     * @param isHidden 
+     */
+    protected final void setMaterialHidden(String name, boolean isHidden) {
+        if(hiddenMaterials == null)
+            hiddenMaterials = new boolean[model.materials.length];
+        
+        for(int i = 0; i < model.materials.length; i++) {
+            if(model.materials[i].name.equals(name))
+                hiddenMaterials[i] = isHidden;
+        }
+    }
+    
+    /**
+     * Sets the Y translation of the given joint in the pose of this renderer. The joints of the model itself must not
+     * be changed, since the model may be shared with other renderers.
+     * @param jointName
+     * @param y 
+     */
+    protected final void ctor_setJointTranslationY(String jointName, float y) {
+        for(int i = 0; i < model.joints.length; i++) {
+            if(model.joints[i].name.equals(jointName))
+                jointPose[i * 9 + 7] = y;
+        }
+    }
+    
     private void ctor_uploadTexture(GL2 gl, int id) {
         Bti tex = model.textures[id];
         int hash = textureHash(id);
@@ -446,13 +646,151 @@ public class BmdRenderer extends GLRenderer {
         gl.glBindTexture(GL2.GL_TEXTURE_2D, 0); // Unbind
     }
     
-    // Huge performance eater. rewrite will never happen :c
-    private void ctor_generateShaders_OpenGL_2_1(GL2 gl, int matid) throws GLException {
-        // Used to be a null check here, however it's completely useless since it's impossible to get to this function with an invalid BMD
+    /**
+     * Creates the shader used for picking and highlighting. It only applies the joint matrices and keeps the current
+     * color, which is set by the caller before rendering.
+     * @param gl
+     * @throws GLException 
+     */
+    private void ctor_generateFlatShader(GL2 gl) throws GLException {
+        flatShader = new Shader();
+        
+        if(ShaderCache.containsEntry(FLAT_SHADER_KEY)) {
+            ShaderCache.CacheEntry entry = ShaderCache.getEntry(FLAT_SHADER_KEY);
+            flatShader.vertexShader = entry.vertexID;
+            flatShader.fragmentShader = entry.fragmentID;
+            flatShader.program = entry.programID;
+        }
+        else {
+            String vert = "#version 120\n"
+                    + "\n"
+                    + "attribute float matrixIndex;\n"
+                    + String.format("uniform mat4 jointMatrices[%1$d];\n", JOINT_PALETTE_SIZE)
+                    + "\n"
+                    + "void main()\n"
+                    + "{\n"
+                    + "    gl_Position = gl_ModelViewProjectionMatrix * (jointMatrices[int(matrixIndex)] * gl_Vertex);\n"
+                    + "    gl_FrontColor = gl_Color;\n"
+                    + "}\n";
+            String frag = "#version 120\n"
+                    + "\n"
+                    + "void main()\n"
+                    + "{\n"
+                    + "    gl_FragColor = gl_Color;\n"
+                    + "}\n";
+            
+            int[] sillyarray = new int[1];
+            int vertid = gl.glCreateShader(GL2.GL_VERTEX_SHADER);
+            int fragid = gl.glCreateShader(GL2.GL_FRAGMENT_SHADER);
+            gl.glShaderSource(vertid, 1, new String[] { vert }, new int[] { vert.length() }, 0);
+            gl.glShaderSource(fragid, 1, new String[] { frag }, new int[] { frag.length() }, 0);
+            gl.glCompileShader(vertid);
+            gl.glCompileShader(fragid);
+            
+            int sid = gl.glCreateProgram();
+            gl.glAttachShader(sid, vertid);
+            gl.glAttachShader(sid, fragid);
+            gl.glBindAttribLocation(sid, ATTRIB_MATRIX_INDEX, "matrixIndex");
+            gl.glLinkProgram(sid);
+            gl.glGetProgramiv(sid, GL2.GL_LINK_STATUS, sillyarray, 0);
+            
+            if(sillyarray[0] == 0)
+                throw new GLException("!Failed to link flat shader program");
+            
+            flatShader.vertexShader = vertid;
+            flatShader.fragmentShader = fragid;
+            flatShader.program = sid;
+            ShaderCache.addEntry(FLAT_SHADER_KEY, vertid, fragid, sid);
+        }
         
-        Bmd.Material mat = this.model.materials[matid];
+        flatShader.jointMatricesLocation = gl.glGetUniformLocation(flatShader.program, "jointMatrices");
+    }
+    
+    /**
+     * Uploads a baked batch as one interleaved vertex buffer and one index buffer. Every vertex stores the index of its
+     * position matrix in the packet's matrix table, so that the joints can be applied by the shader.
+     * @param gl
+     * @param part
+     * @return the uploaded buffers
+     */
+    private BatchBuffer ctor_uploadBatch(GL2 gl, BmdMesh.Part part) {
+        BatchBuffer ret = new BatchBuffer();
+        
+        ret.arrayMask = part.arrayMask;
+        ret.packetRanges = part.packetRanges;
+        ret.normalOffset = 3;
+        ret.color0Offset = ret.normalOffset + (part.normals != null ? 3 : 0);
+        ret.color1Offset = ret.color0Offset + (part.colors[0] != null ? 4 : 0);
+        ret.texcoordOffset = ret.color1Offset + (part.colors[1] != null ? 4 : 0);
+        ret.matrixIndexOffset = ret.texcoordOffset;
+        for(float[] texcoords : part.texcoords) {
+            if(texcoords != null)
+                ret.matrixIndexOffset += 2;
+        }
+        ret.stride = ret.matrixIndexOffset + 1;
         
-        // Handle the current animations that have to be done before the shaders are processed
+        int numVertices = part.vertexCount;
+        float[] vertices = new float[numVertices * ret.stride];
+        
+        for(int i = 0; i < numVertices; i++) {
+            int v = i * ret.stride;
+            System.arraycopy(part.positions, i * 3, vertices, v, 3);
+            
+            if(part.normals != null)
+                System.arraycopy(part.normals, i * 3, vertices, v + ret.normalOffset, 3);
+            if(part.colors[0] != null)
+                System.arraycopy(part.colors[0], i * 4, vertices, v + ret.color0Offset, 4);
+            if(part.colors[1] != null)
+                System.arraycopy(part.colors[1], i * 4, vertices, v + ret.color1Offset, 4);
+            
+            int o = v + ret.texcoordOffset;
+            for(float[] texcoords : part.texcoords) {
+                if(texcoords == null)
+                    continue;
+                
+                System.arraycopy(texcoords, i * 2, vertices, o, 2);
+                o += 2;
+            }
+            
+            vertices[v + ret.matrixIndexOffset] = part.matrixIndices[i];
+        }
+        
+        int[] bufferids = new int[2];
+        gl.glGenBuffers(2, bufferids, 0);
+        ret.vertexBuffer = bufferids[0];
+        ret.indexBuffer = bufferids[1];
+        
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, ret.vertexBuffer);
+        gl.glBufferData(GL2.GL_ARRAY_BUFFER, vertices.length * 4L, FloatBuffer.wrap(vertices), GL2.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+        
+        int[] indices = part.indices;
+        int numIndices = indices.length;
+        
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, ret.indexBuffer);
+        if(numVertices <= 0x10000) {
+            short[] shortIndices = new short[numIndices];
+            for(int i = 0; i < numIndices; i++)
+                shortIndices[i] = (short)indices[i];
+            
+            ret.indexType = GL2.GL_UNSIGNED_SHORT;
+            ret.indexSize = 2;
+            gl.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER, numIndices * 2L, ShortBuffer.wrap(shortIndices), GL2.GL_STATIC_DRAW);
+        }
+        else {
+            ret.indexType = GL2.GL_UNSIGNED_INT;
+            ret.indexSize = 4;
+            gl.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER, numIndices * 4L, IntBuffer.wrap(indices), GL2.GL_STATIC_DRAW);
+        }
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+        
+        return ret;
+    }
+    
+    /**
+     * Applies the BTK, BRK and BPK animations to a material at their current frames.
+     */
+    private void applyMaterialAnims(Bmd.Material mat) {
         if (texMatrixAnim != null)
         {
             int Frame = texMatrixAnimIndex;
@@ -530,6 +868,42 @@ public class BmdRenderer extends GLRenderer {
                 mat.matColors[0].a = (int)x.Alpha.getValueAtFrame((short)Frame);
             }
         }
+    }
+    
+    /**
+     * Returns whether the playback changes the texture matrices or colors of a material. The shaders of such materials
+     * take these values as uniforms instead of having them baked in, see {@link #setMaterialUniforms}.
+     */
+    private boolean isMaterialAnimated(Bmd.Material mat) {
+        if((playbackAnims & PLAYBACK_BTK) != 0 && texMatrixAnim != null && texMatrixAnim.duration > 1 && texMatrixAnim.getAnimByName(mat.name) != null)
+            return true;
+        
+        if((playbackAnims & PLAYBACK_BRK) != 0 && colRegisterAnim != null && colRegisterAnim.duration > 1) {
+            for(var x : colRegisterAnim.animData) {
+                if(x.MaterialName.equals(mat.name))
+                    return true;
+            }
+        }
+        
+        if((playbackAnims & PLAYBACK_BPK) != 0 && matRegisterAnim != null && matRegisterAnim.duration > 1) {
+            for(var x : matRegisterAnim.animData) {
+                if(x.MaterialName.equals(mat.name))
+                    return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    // Huge performance eater. rewrite will never happen :c
+    private void ctor_generateShaders_OpenGL_2_1(GL2 gl, int matid) throws GLException {
+        // Used to be a null check here, however it's completely useless since it's impossible to get to this function with an invalid BMD
+        
+        Bmd.Material mat = this.model.materials[matid];
+        
+        // Handle the current animations that have to be done before the shaders are processed
+        applyMaterialAnims(mat);
+        boolean isAnimatedMaterial = isMaterialAnimated(mat);
         
         // Now with the final texture matrix and color assignments handled, we can hash the material
         int hash = shaderHash(matid);
@@ -611,17 +985,22 @@ public class BmdRenderer extends GLRenderer {
         vert.append("\n");
         vert.append("attribute float secondaryAlpha;");
         vert.append("\n");
+        vert.append("attribute float matrixIndex;\n");
+        vert.append(String.format("uniform mat4 jointMatrices[%1$d];\n", JOINT_PALETTE_SIZE));
+        if (isAnimatedMaterial)
+            vert.append(String.format("uniform mat4 texMatrices[%1$d];\n", TEX_MATRIX_COUNT));
         vert.append("varying float vSecondaryAlpha;");
         vert.append("\n");
         vert.append("void main()\n");
         vert.append("{\n");
-        vert.append("    gl_Position = gl_ModelViewProjectionMatrix * gl_Vertex;\n");
+        vert.append("    vec4 position = jointMatrices[int(matrixIndex)] * gl_Vertex;\n");
+        vert.append("    gl_Position = gl_ModelViewProjectionMatrix * position;\n");
         vert.append("    gl_FrontColor = gl_Color;\n");
         vert.append("    gl_FrontSecondaryColor = gl_SecondaryColor;\n");
         vert.append("    vSecondaryAlpha = secondaryAlpha;\n");
         vert.append("\n");
-        vert.append("    vec4 position = gl_Vertex;\n");
-        vert.append("    vec4 normal = vec4(normalize(gl_NormalMatrix * gl_Normal), 1.0);\n");
+        vert.append("    vec3 jointNormal = (jointMatrices[int(matrixIndex)] * vec4(gl_Normal, 0.0)).xyz;\n");
+        vert.append("    vec4 normal = vec4(normalize(gl_NormalMatrix * jointNormal), 1.0);\n");
         vert.append("    vec4 texcoord;\n");
         vert.append("    mat4 texmatrix, texprojectionmatrix;\n");
         
@@ -641,13 +1020,18 @@ public class BmdRenderer extends GLRenderer {
             {
                 Bmd.Material.TextureMatrix texmtx = mat.texMtx[(mtxid - 30) / 3];
                 
-                vert.append("    texmatrix = mat4(");
-                for (int j = 0; j < 16; j++)
+                if (isAnimatedMaterial)
+                    vert.append(String.format("    texmatrix = texMatrices[%1$d];\n", (mtxid - 30) / 3));
+                else
                 {
-                    float mtxTMP = texmtx.basicMatrix.m[j];
-                    vert.append(String.format(usa, "%2$s%1$f", mtxTMP, (j > 0) ? "," : ""));
+                    vert.append("    texmatrix = mat4(");
+                    for (int j = 0; j < 16; j++)
+                    {
+                        float mtxTMP = texmtx.basicMatrix.m[j];
+                        vert.append(String.format(usa, "%2$s%1$f", mtxTMP, (j > 0) ? "," : ""));
+                    }
+                    vert.append(");\n");
                 }
-                vert.append(");\n");
                 vert.append("    texprojectionmatrix = mat4(");
                 for (int j = 0; j < 16; j++)
                 {
@@ -740,6 +1124,12 @@ public class BmdRenderer extends GLRenderer {
             if(mat.textureIndicies[i] == (short)0xFFFF) continue;
             frag.append(String.format("uniform sampler2D texture%1$d;\n", i));
         }
+        if (isAnimatedMaterial)
+        {
+            frag.append("uniform vec4 registerColors[4];\n");
+            frag.append("uniform vec4 konstColors[4];\n");
+            frag.append("uniform vec4 materialColor;\n");
+        }
 
         frag.append("\n");
         frag.append("float truncc1(float c)\n");
@@ -760,28 +1150,38 @@ public class BmdRenderer extends GLRenderer {
         for(int i = 0; i < 4; i++)
         {
             int _i = (i == 0) ? 3 : i - 1; // ???
-            frag.append(String.format(usa, "    vec4 %1$s = vec4(%2$f, %3$f, %4$f, %5$f);\n",
-                outputregs[i],
-               (float)(mat.tevRegisterColors[_i].r) / 255f,(float)(mat.tevRegisterColors[_i].g) / 255f,
-               (float)(mat.tevRegisterColors[_i].b) / 255f,(float)(mat.tevRegisterColors[_i].a) / 255f));
+            if (isAnimatedMaterial)
+                frag.append(String.format("    vec4 %1$s = registerColors[%2$d];\n", outputregs[i], _i));
+            else
+                frag.append(String.format(usa, "    vec4 %1$s = vec4(%2$f, %3$f, %4$f, %5$f);\n",
+                    outputregs[i],
+                   (float)(mat.tevRegisterColors[_i].r) / 255f,(float)(mat.tevRegisterColors[_i].g) / 255f,
+                   (float)(mat.tevRegisterColors[_i].b) / 255f,(float)(mat.tevRegisterColors[_i].a) / 255f));
         }
 
         for(int i = 0; i < 4; i++)
         {
-            frag.append(String.format(usa, "    vec4 k%1$d = vec4(%2$f, %3$f, %4$f, %5$f);\n",
-                i,
-               (float)mat.constColors[i].r / 255f,(float)mat.constColors[i].g / 255f,
-               (float)mat.constColors[i].b / 255f,(float)mat.constColors[i].a / 255f));
+            if (isAnimatedMaterial)
+                frag.append(String.format("    vec4 k%1$d = konstColors[%1$d];\n", i));
+            else
+                frag.append(String.format(usa, "    vec4 k%1$d = vec4(%2$f, %3$f, %4$f, %5$f);\n",
+                    i,
+                   (float)mat.constColors[i].r / 255f,(float)mat.constColors[i].g / 255f,
+                   (float)mat.constColors[i].b / 255f,(float)mat.constColors[i].a / 255f));
         }
 
         frag.append("    vec4 texcolor, rascolor, konst, lightchannel0, lightchannel1;\n");
 
-        if (mat.lightChannels[0] != null && mat.lightChannels[0].color.materialColorSource == 0) {
+        if (mat.lightChannels[0] != null && mat.lightChannels[0].color.materialColorSource == 0 && isAnimatedMaterial) {
+            frag.append("    lightchannel0.rgb = materialColor.rgb;\n");
+        } else if (mat.lightChannels[0] != null && mat.lightChannels[0].color.materialColorSource == 0) {
             frag.append("    lightchannel0.rgb = vec3(").append(String.format(usa, "%1$f, %2$f, %3$f", mat.matColors[0].r/255f, mat.matColors[0].g/255f, mat.matColors[0].b/255f)).append(");\n");
         } else
             frag.append("    lightchannel0.rgb = gl_Color.rgb;\n");
         
-        if (mat.lightChannels[0] != null && mat.lightChannels[0].alpha.materialColorSource == 0) {
+        if (mat.lightChannels[0] != null && mat.lightChannels[0].alpha.materialColorSource == 0 && isAnimatedMaterial) {
+            frag.append("    lightchannel0.a = materialColor.a;\n");
+        } else if (mat.lightChannels[0] != null && mat.lightChannels[0].alpha.materialColorSource == 0) {
             frag.append("    lightchannel0.a = ").append(String.format(usa, "%1$f", mat.matColors[0].a/255f)).append(";\n");
         } else
             frag.append("    lightchannel0.a = gl_Color.a;\n");
@@ -1070,7 +1470,8 @@ public class BmdRenderer extends GLRenderer {
         gl.glAttachShader(sid, vertid);
         gl.glAttachShader(sid, fragid);
 
-        gl.glBindAttribLocation(sid, 1, "secondaryAlpha");
+        gl.glBindAttribLocation(sid, ATTRIB_SECONDARY_ALPHA, "secondaryAlpha");
+        gl.glBindAttribLocation(sid, ATTRIB_MATRIX_INDEX, "matrixIndex");
         
         gl.glLinkProgram(sid);
         gl.glGetProgramiv(sid, GL2.GL_LINK_STATUS, sillyarray, 0);
@@ -1253,6 +1654,9 @@ public class BmdRenderer extends GLRenderer {
         sig.put(mat.AlphaCompareFunction1);
         sig.putInt(mat.AlphaCompareReference1);
         
+        // Animated materials take their texture matrices and colors as uniforms, so they can't share the baked shaders
+        sig.put((byte)(isMaterialAnimated(mat) ? 1 : 0));
+        
         return(int) SuperFastHash.calculate(sigarray, 0, 0, sig.position());
     }
 
@@ -1304,6 +1708,139 @@ public class BmdRenderer extends GLRenderer {
         return false;
     }
 
+    @Override
+    public boolean isAnimated() {
+        if(model == null)
+            return false;
+        
+        return ((playbackAnims & PLAYBACK_BCK) != 0 && jointAnim != null && jointAnim.duration > 1 && jointAnim.jointCount == model.joints.length)
+            || ((playbackAnims & PLAYBACK_BTP) != 0 && texPatternAnim != null && texPatternAnim.duration > 1)
+            || ((playbackAnims & PLAYBACK_BVA) != 0 && shapeVisibleAnim != null && shapeVisibleAnim.duration > 1)
+            || ((playbackAnims & PLAYBACK_BTK) != 0 && texMatrixAnim != null && texMatrixAnim.duration > 1)
+            || ((playbackAnims & PLAYBACK_BRK) != 0 && colRegisterAnim != null && colRegisterAnim.duration > 1)
+            || ((playbackAnims & PLAYBACK_BPK) != 0 && matRegisterAnim != null && matRegisterAnim.duration > 1);
+    }
+    
+    @Override
+    public BoundingBox getBounds() {
+        if(modelBounds == null)
+            return null;
+        
+        return BoundingBox.transform(modelBounds, getMeshMatrix());
+    }
+    
+    @Override
+    public TriangleMesh getMesh() {
+        return asset != null ? ModelAssetCache.getTriangleMesh(asset) : null;
+    }
+    
+    @Override
+    public Matrix4 getMeshMatrix() {
+        // Same order as the rotations in render
+        Vec3f rot = new Vec3f((float)Math.toRadians(rotation.z), (float)Math.toRadians(rotation.y), (float)Math.toRadians(rotation.x));
+        return Matrix4.SRTToMatrix(scale, rot, translation);
+    }
+    
+    @Override
+    public boolean setPlaybackFrame(int frame) {
+        if(!isAnimated())
+            return false;
+        
+        int oldJointFrame = jointAnimIndex, oldPatternFrame = texPatternAnimIndex, oldVisibleFrame = shapeVisibleAnimIndex;
+        int oldTexMatrixFrame = texMatrixAnimIndex, oldColRegisterFrame = colRegisterAnimIndex, oldMatRegisterFrame = matRegisterAnimIndex;
+        
+        if((playbackAnims & PLAYBACK_BCK) != 0 && jointAnim != null) {
+            // Frames are looked up rather than interpolated once the animation is actually being played
+            if(frame != 0 && !isJointAnimSampled) {
+                jointAnim.presample();
+                isJointAnimSampled = true;
+            }
+            
+            jointAnimIndex = getPlaybackIndex(jointAnimStart, frame, jointAnim.duration);
+        }
+        if((playbackAnims & PLAYBACK_BTP) != 0 && texPatternAnim != null)
+            texPatternAnimIndex = getPlaybackIndex(texPatternAnimStart, frame, texPatternAnim.duration);
+        if((playbackAnims & PLAYBACK_BVA) != 0 && shapeVisibleAnim != null)
+            shapeVisibleAnimIndex = getPlaybackIndex(shapeVisibleAnimStart, frame, shapeVisibleAnim.duration);
+        if((playbackAnims & PLAYBACK_BTK) != 0 && texMatrixAnim != null)
+            texMatrixAnimIndex = getPlaybackIndex(texMatrixAnimStart, frame, texMatrixAnim.duration);
+        if((playbackAnims & PLAYBACK_BRK) != 0 && colRegisterAnim != null)
+            colRegisterAnimIndex = getPlaybackIndex(colRegisterAnimStart, frame, colRegisterAnim.duration);
+        if((playbackAnims & PLAYBACK_BPK) != 0 && matRegisterAnim != null)
+            matRegisterAnimIndex = getPlaybackIndex(matRegisterAnimStart, frame, matRegisterAnim.duration);
+        
+        boolean isMaterialChanged = oldTexMatrixFrame != texMatrixAnimIndex || oldColRegisterFrame != colRegisterAnimIndex || oldMatRegisterFrame != matRegisterAnimIndex;
+        if(isMaterialChanged && isMaterialUniformCurrent != null)
+            Arrays.fill(isMaterialUniformCurrent, false);
+        
+        return oldJointFrame != jointAnimIndex || oldPatternFrame != texPatternAnimIndex || oldVisibleFrame != shapeVisibleAnimIndex || isMaterialChanged;
+    }
+    
+    /**
+     * Uploads the texture matrices and colors of an animated material at the current frames. Renderers of the same model
+     * may share the shader program, so the uniforms are set on every draw, but only calculated when the frame changes.
+     */
+    private void setMaterialUniforms(GL2 gl, Shader shader, int matid) {
+        float[] values = materialUniforms[matid];
+        if(values == null) {
+            values = new float[MATERIAL_UNIFORM_SIZE];
+            materialUniforms[matid] = values;
+        }
+        
+        if(!isMaterialUniformCurrent[matid]) {
+            // The material is shared by all renderers of the model, so the animations start over from the rest values
+            Bmd.Material mat = model.materials[matid];
+            model.setMaterialAnimState(asset.restMaterials, matid);
+            applyMaterialAnims(mat);
+            
+            for(int i = 0; i < TEX_MATRIX_COUNT; i++) {
+                if(mat.texMtx[i] != null)
+                    System.arraycopy(mat.texMtx[i].basicMatrix.m, 0, values, i * 16, 16);
+            }
+            
+            int p = TEX_MATRIX_COUNT * 16;
+            for(int i = 0; i < 4; i++)
+                p = putUniformColor(values, p, mat.tevRegisterColors[i]);
+            for(int i = 0; i < 4; i++)
+                p = putUniformColor(values, p, mat.constColors[i]);
+            putUniformColor(values, p, mat.matColors[0]);
+            
+            isMaterialUniformCurrent[matid] = true;
+        }
+        
+        int colors = TEX_MATRIX_COUNT * 16;
+        gl.glUniformMatrix4fv(shader.texMatricesLocation, TEX_MATRIX_COUNT, false, values, 0);
+        gl.glUniform4fv(shader.registerColorsLocation, 4, values, colors);
+        gl.glUniform4fv(shader.konstColorsLocation, 4, values, colors + 16);
+        gl.glUniform4fv(shader.materialColorLocation, 1, values, colors + 32);
+    }
+    
+    private static int putUniformColor(float[] values, int p, Bmd.Material.ColorInfo col) {
+        if(col != null) {
+            values[p] = col.r / 255f;
+            values[p + 1] = col.g / 255f;
+            values[p + 2] = col.b / 255f;
+            values[p + 3] = col.a / 255f;
+        }
+        return p + 4;
+    }
+    
+    private static int getPlaybackIndex(int start, int frame, int duration) {
+        if(frame == 0 || duration <= 0)
+            return start;
+        return Math.floorMod(start + frame, duration);
+    }
+    
+    private static boolean setJointValue(Vec3f value, float x, float y, float z) {
+        if(value.x == x && value.y == y && value.z == z)
+            return false;
+        
+        value.x = x;
+        value.y = y;
+        value.z = z;
+        return true;
+    }
+    
     @Override
     public void render(RenderInfo info) throws GLException {
         GL2 gl = info.drawable.getGL().getGL2();
@@ -1331,6 +1868,13 @@ public class BmdRenderer extends GLRenderer {
         if(!isValidBmdModel())
             return;
         
+        // The model may be shared, so set the joints to the pose of this renderer first
+        if(asset.poseOwner != this) {
+            model.setJointPose(jointPose);
+            asset.poseOwner = this;
+            posedJointFrame = -1;
+        }
+        
         if (jointAnim != null && jointAnim.jointCount == model.joints.length)
         {
             int Frame = jointAnimIndex;
@@ -1339,28 +1883,53 @@ public class BmdRenderer extends GLRenderer {
             if (Frame > jointAnim.duration)
                 Frame = jointAnim.duration-1;
             
-            //init BCK data
-            for (int i = 0; i < model.joints.length; i++) {
-                Bmd.Joint jnt = model.getJointByIndex(i);
-                if (jnt == null)
-                    continue; //what
+            // The joints are still posed at the last frame this renderer has drawn, so only the joints whose values
+            // differ from that frame and the joints below them are calculated again
+            if (Frame != posedJointFrame)
+            {
+                if (changedJoints == null || changedJoints.length != model.joints.length)
+                    changedJoints = new boolean[model.joints.length];
                 
-                Bck.Animation animdata = jointAnim.animData.get(i);
-                if (animdata == null)
-                    continue; //what
+                //init BCK data
+                for (int i = 0; i < model.joints.length; i++) {
+                    changedJoints[i] = false;
+                    
+                    Bmd.Joint jnt = model.getJointByIndex(i);
+                    if (jnt == null)
+                        continue; //what
+                    
+                    Bck.Animation animdata = jointAnim.animData.get(i);
+                    if (animdata == null)
+                        continue; //what
+                    
+                    changedJoints[i] = setJointValue(jnt.translation,
+                            animdata.TranslationX.getValueAtFrame((short)Frame),
+                            animdata.TranslationY.getValueAtFrame((short)Frame),
+                            animdata.TranslationZ.getValueAtFrame((short)Frame))
+                        | setJointValue(jnt.rotation, //Convert to radians because yes.
+                            animdata.RotationX.getValueAtFrame((short)Frame) * (float)(Math.PI/180),
+                            animdata.RotationY.getValueAtFrame((short)Frame) * (float)(Math.PI/180),
+                            animdata.RotationZ.getValueAtFrame((short)Frame) * (float)(Math.PI/180))
+                        | setJointValue(jnt.scale,
+                            animdata.ScaleX.getValueAtFrame((short)Frame),
+                            animdata.ScaleY.getValueAtFrame((short)Frame),
+                            animdata.ScaleZ.getValueAtFrame((short)Frame));
+                }
                 
-                jnt.translation.x = animdata.TranslationX.getValueAtFrame((short)Frame);
-                jnt.translation.y = animdata.TranslationY.getValueAtFrame((short)Frame);
-                jnt.translation.z = animdata.TranslationZ.getValueAtFrame((short)Frame);
-                jnt.rotation.x = animdata.RotationX.getValueAtFrame((short)Frame) * (float)(Math.PI/180); //Convert to radians because yes.
-                jnt.rotation.y = animdata.RotationY.getValueAtFrame((short)Frame) * (float)(Math.PI/180);
-                jnt.rotation.z = animdata.RotationZ.getValueAtFrame((short)Frame) * (float)(Math.PI/180);
-                jnt.scale.x = animdata.ScaleX.getValueAtFrame((short)Frame);
-                jnt.scale.y = animdata.ScaleY.getValueAtFrame((short)Frame);
-                jnt.scale.z = animdata.ScaleZ.getValueAtFrame((short)Frame);
+                model.recalcJoints(changedJoints);
+                posedJointFrame = Frame;
             }
-            
-            model.recalcAllJoints();
+        }
+        
+        // Weighted matrices depend on the pose, so they are blended once per render
+        if(model.multiMatrix != null) {
+            if(envelopes == null || envelopes.length != model.multiMatrix.length) {
+                envelopes = new Matrix4[model.multiMatrix.length];
+                isEnvelopeCalculated = new boolean[envelopes.length];
+                for(int i = 0; i < envelopes.length; i++)
+                    envelopes[i] = new Matrix4();
+            }
+            Arrays.fill(isEnvelopeCalculated, false);
         }
         
         gl.glPushMatrix();
@@ -1380,7 +1949,7 @@ public class BmdRenderer extends GLRenderer {
                 var shp = shapeVisibleAnim.animData.get(shape);
                 if (shp != null)
                 {
-                    var vis = shp.get(shapeVisibleAnimIndex);
+                    var vis = shp.isEmpty() ? null : shp.get(Math.min(Math.max(shapeVisibleAnimIndex, 0), shp.size() - 1));
                     if (vis != null && !vis)
                         continue;
                 }
@@ -1401,7 +1970,7 @@ public class BmdRenderer extends GLRenderer {
 
                 Bmd.Material mat = model.materials[node.materialID];
 
-                if (mat.isHiddenMaterial)
+                if (mat.isHiddenMaterial || (hiddenMaterials != null && hiddenMaterials[node.materialID]))
                     continue;
                 
                 if(info.renderMode != RenderMode.PICKING && info.renderMode != RenderMode.HIGHLIGHT)
@@ -1410,8 +1979,12 @@ public class BmdRenderer extends GLRenderer {
                         continue;
                     if(hasShaders) {
                         // shader: handles multitexturing, color combination, alpha test
-                        if(gl.isFunctionAvailable("glUseProgram"))
-                            gl.glUseProgram(shaders[node.materialID].program);
+                        if(gl.isFunctionAvailable("glUseProgram")) {
+                            Shader shader = getBatchShader(info, node.materialID);
+                            gl.glUseProgram(shader.program);
+                            if(shader.hasMaterialUniforms)
+                                setMaterialUniforms(gl, shader, node.materialID);
+                        }
 
                         // do multitexturing
                         for(int i = 0; i < 8; i++)
@@ -1541,9 +2114,27 @@ public class BmdRenderer extends GLRenderer {
                 throw new GLException(String.format("Material-less geometry node %1$d", node.nodeID));
 
             Bmd.Batch batch = model.batches[shape];
+            BatchBuffer buffers = batchBuffers != null ? batchBuffers[shape] : null;
+            Shader batchShader = null;
             
-            for(Bmd.Batch.Packet packet : batch.packets) {
-                Matrix4[] mtxtable = new Matrix4[packet.matrixTable.length];
+            if(buffers != null) {
+                batchShader = getBatchShader(info, node.materialID);
+                if(info.renderMode == RenderMode.PICKING || info.renderMode == RenderMode.HIGHLIGHT)
+                    gl.glUseProgram(batchShader.program);
+                
+                bindBatchBuffer(gl, info, buffers);
+            }
+            
+            for(int p = 0; p < batch.packets.length; p++) {
+                Bmd.Batch.Packet packet = batch.packets[p];
+                Matrix4[] mtxtable = lastmatrixtable == packetMatrices ? lastPacketMatrices : packetMatrices;
+                if(mtxtable.length < packet.matrixTable.length) {
+                    mtxtable = Arrays.copyOf(mtxtable, packet.matrixTable.length);
+                    if(lastmatrixtable == packetMatrices)
+                        lastPacketMatrices = mtxtable;
+                    else
+                        packetMatrices = mtxtable;
+                }
 
                 for(int i = 0; i < packet.matrixTable.length; i++) {
                     if(packet.matrixTable[i] ==(short)0xFFFF)
@@ -1552,31 +2143,11 @@ public class BmdRenderer extends GLRenderer {
                         Bmd.MatrixType mtxtype = model.matrixTypes[packet.matrixTable[i]];
 
                         if(mtxtype.isWeighted) {
-                            //throw new NotImplementedException("weighted matrix");
-
-                            // code inspired from bmdview2, except doesn't work right
-                            /*Matrix4 mtx = new Matrix4();
-                            Bmd.MultiMatrix mm = m_Model.MultiMatrices[mtxtype.Index];
-                            for(int j = 0; j < mm.NumMatrices; j++)
-                            {
-                                Matrix4 wmtx = mm.Matrices[j];
-                                float weight = mm.MatrixWeights[j];
-                                Matrix4.Mult(ref wmtx, ref m_Model.Joints[mm.MatrixIndices[j]].Matrix, out wmtx);
-                                Vector4.Mult(ref wmtx.Row0, weight, out wmtx.Row0);
-                                Vector4.Mult(ref wmtx.Row1, weight, out wmtx.Row1);
-                                Vector4.Mult(ref wmtx.Row2, weight, out wmtx.Row2);
-                                //Vector4.Mult(ref wmtx.Row3, weight, out wmtx.Row3);
-                                Vector4.Add(ref mtx.Row0, ref wmtx.Row0, out mtx.Row0);
-                                Vector4.Add(ref mtx.Row1, ref wmtx.Row1, out mtx.Row1);
-                                Vector4.Add(ref mtx.Row2, ref wmtx.Row2, out mtx.Row2);
-                                //Vector4.Add(ref mtx.Row3, ref wmtx.Row3, out mtx.Row3);
+                            if(!isEnvelopeCalculated[mtxtype.index]) {
+                                model.calcEnvelopeMatrix(model.multiMatrix[mtxtype.index], envelopes[mtxtype.index], envelopeScratch);
+                                isEnvelopeCalculated[mtxtype.index] = true;
                             }
-                            mtx.M44 = 1f;
-                            mtxtable[i] = mtx;*/
-
-                            // seems fine in most cases
-                            // but hey, certainly not right, that data has to be used in some way
-                            mtxtable[i] = new Matrix4();
+                            mtxtable[i] = envelopes[mtxtype.index];
                         }
                         else {
                             mtxtable[i] = model.joints[mtxtype.index].finalMatrix;
@@ -1585,6 +2156,23 @@ public class BmdRenderer extends GLRenderer {
                 }
 
                 lastmatrixtable = mtxtable;
+                
+                if(buffers != null) {
+                    int numMatrices = Math.min(packet.matrixTable.length, JOINT_PALETTE_SIZE);
+                    for(int i = 0; i < numMatrices; i++)
+                        System.arraycopy(mtxtable[i].m, 0, jointPalette, i * 16, 16);
+                    
+                    gl.glUniformMatrix4fv(batchShader.jointMatricesLocation, numMatrices, false, jointPalette, 0);
+                    
+                    int r = p * 6;
+                    if(buffers.packetRanges[r + 1] > 0)
+                        gl.glDrawElements(GL2.GL_TRIANGLES, buffers.packetRanges[r + 1], buffers.indexType, (long)buffers.packetRanges[r] * buffers.indexSize);
+                    if(buffers.packetRanges[r + 3] > 0)
+                        gl.glDrawElements(GL2.GL_LINES, buffers.packetRanges[r + 3], buffers.indexType, (long)buffers.packetRanges[r + 2] * buffers.indexSize);
+                    if(buffers.packetRanges[r + 5] > 0)
+                        gl.glDrawElements(GL2.GL_POINTS, buffers.packetRanges[r + 5], buffers.indexType, (long)buffers.packetRanges[r + 4] * buffers.indexSize);
+                    continue;
+                }
 
                 for(Bmd.Batch.Packet.Primitive prim : packet.primitives) {
                     int[] primtypes = { GL2.GL_QUADS, GL2.GL_POINTS, GL2.GL_TRIANGLES, GL2.GL_TRIANGLE_STRIP,
@@ -1672,21 +2260,123 @@ public class BmdRenderer extends GLRenderer {
                     gl.glEnd();
                 }
             }
+            
+            if(buffers != null) {
+                unbindBatchBuffer(gl, info, buffers);
+                if(info.renderMode == RenderMode.PICKING || info.renderMode == RenderMode.HIGHLIGHT)
+                    gl.glUseProgram(0);
+            }
         }
         
         gl.glPopMatrix();
     }
     
+    /**
+     * Returns the shader that draws the baked buffers for the given material and render mode. Picking and highlighting
+     * only need the positions, and materials whose shader failed to compile fall back to the flat shader as well.
+     */
+    private Shader getBatchShader(RenderInfo info, int matid) {
+        if(info.renderMode == RenderMode.PICKING || info.renderMode == RenderMode.HIGHLIGHT || shaders[matid].program == 0)
+            return flatShader;
+        return shaders[matid];
+    }
+    
+    private void bindBatchBuffer(GL2 gl, RenderInfo info, BatchBuffer buffers) {
+        int stride = buffers.stride * 4;
+        
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, buffers.vertexBuffer);
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, buffers.indexBuffer);
+        
+        gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+        gl.glVertexPointer(3, GL2.GL_FLOAT, stride, 0L);
+        gl.glEnableVertexAttribArray(ATTRIB_MATRIX_INDEX);
+        gl.glVertexAttribPointer(ATTRIB_MATRIX_INDEX, 1, GL2.GL_FLOAT, false, stride, buffers.matrixIndexOffset * 4L);
+        
+        if(info.renderMode == RenderMode.PICKING || info.renderMode == RenderMode.HIGHLIGHT)
+            return;
+        
+        if((buffers.arrayMask & (1 << 10)) != 0) {
+            gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+            gl.glNormalPointer(GL2.GL_FLOAT, stride, buffers.normalOffset * 4L);
+        }
+        if((buffers.arrayMask & (1 << 11)) != 0) {
+            gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
+            gl.glColorPointer(4, GL2.GL_FLOAT, stride, buffers.color0Offset * 4L);
+        }
+        if((buffers.arrayMask & (1 << 12)) != 0) {
+            gl.glEnableClientState(GL2.GL_SECONDARY_COLOR_ARRAY);
+            gl.glSecondaryColorPointer(3, GL2.GL_FLOAT, stride, buffers.color1Offset * 4L);
+            gl.glEnableVertexAttribArray(ATTRIB_SECONDARY_ALPHA);
+            gl.glVertexAttribPointer(ATTRIB_SECONDARY_ALPHA, 1, GL2.GL_FLOAT, false, stride, (buffers.color1Offset + 3) * 4L);
+        }
+        
+        long offset = buffers.texcoordOffset * 4L;
+        for(int k = 0; k < 8; k++) {
+            if((buffers.arrayMask & (1 << (13 + k))) == 0)
+                continue;
+            
+            gl.glClientActiveTexture(GL2.GL_TEXTURE0 + k);
+            gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+            gl.glTexCoordPointer(2, GL2.GL_FLOAT, stride, offset);
+            offset += 8;
+        }
+    }
+    
+    private void unbindBatchBuffer(GL2 gl, RenderInfo info, BatchBuffer buffers) {
+        gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+        gl.glDisableVertexAttribArray(ATTRIB_MATRIX_INDEX);
+        
+        if(info.renderMode != RenderMode.PICKING && info.renderMode != RenderMode.HIGHLIGHT) {
+            gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+            gl.glDisableClientState(GL2.GL_COLOR_ARRAY);
+            gl.glDisableClientState(GL2.GL_SECONDARY_COLOR_ARRAY);
+            gl.glDisableVertexAttribArray(ATTRIB_SECONDARY_ALPHA);
+            
+            for(int k = 0; k < 8; k++) {
+                if((buffers.arrayMask & (1 << (13 + k))) == 0)
+                    continue;
+                
+                gl.glClientActiveTexture(GL2.GL_TEXTURE0 + k);
+                gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+            }
+            gl.glClientActiveTexture(GL2.GL_TEXTURE0);
+        }
+        
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+    
     @Override
     public void close(RenderInfo info) throws GLException {
-        if(!isValidBmdModel())
+        if(asset == null)
             return;
         
+        super.close(info);
         GL2 gl = info.drawable.getGL().getGL2();
         
-        if(hasShaders) {
+        if(ModelAssetCache.release(asset) && asset.batchBuffers != null) {
+            for(BatchBuffer buffers : asset.batchBuffers)
+                gl.glDeleteBuffers(2, new int[] { buffers.vertexBuffer, buffers.indexBuffer }, 0);
+            asset.batchBuffers = null;
+        }
+        
+        asset = null;
+        batchBuffers = null;
+        
+        if(flatShader != null) {
+            if(ShaderCache.removeEntry(FLAT_SHADER_KEY)) {
+                gl.glDetachShader(flatShader.program, flatShader.vertexShader);
+                gl.glDeleteShader(flatShader.vertexShader);
+                gl.glDetachShader(flatShader.program, flatShader.fragmentShader);
+                gl.glDeleteShader(flatShader.fragmentShader);
+                gl.glDeleteProgram(flatShader.program);
+            }
+            flatShader = null;
+        }
+        
+        if(hasShaders && shaders != null) {
             for(Shader shader : shaders) {
-                if(!ShaderCache.removeEntry(shader.cacheKey))
+                if(shader == null || !ShaderCache.removeEntry(shader.cacheKey))
                     continue;
                 
                 if(shader.vertexShader > 0) {
@@ -1704,18 +2394,30 @@ public class BmdRenderer extends GLRenderer {
             }
         }
 
-        for(int tex : textures) {
-            int theid = TextureCache.getTextureID(tex);
-            if(!TextureCache.removeEntry(tex))
-                continue;
-            
-            gl.glDeleteTextures(1, new int[] { theid }, 0);
+        if(textures != null) {
+            for(int tex : textures) {
+                int theid = TextureCache.getTextureID(tex);
+                if(!TextureCache.removeEntry(tex))
+                    continue;
+                
+                gl.glDeleteTextures(1, new int[] { theid }, 0);
+            }
+            textures = null;
         }
-
+        
+        releaseModelData();
     }
     
     @Override
     public void releaseStorage() {
+        // Animated models are drawn every frame, so they are kept until the renderer is closed
+        if(isAnimated())
+            return;
+        
+        releaseModelData();
+    }
+    
+    private void releaseModelData() {
         try
         {
             if(jointAnim != null)
@@ -1736,9 +2438,6 @@ public class BmdRenderer extends GLRenderer {
             if (matRegisterAnim != null)
                 matRegisterAnim.close();
             
-            if (model != null)
-                model.close();
-            
             if (archive != null)
                 archive.close();
             
@@ -1750,6 +2449,7 @@ public class BmdRenderer extends GLRenderer {
             colRegisterAnim = null;
             matRegisterAnim = null;
             archive = null;
+            modelArchive = null;
         }
         catch(IOException ex)
         {
@@ -1759,5 +2459,26 @@ public class BmdRenderer extends GLRenderer {
     
     protected class Shader {
         public int program, vertexShader, fragmentShader, cacheKey;
+        public int jointMatricesLocation = -1;
+        
+        /**
+         * Whether the texture matrices and colors of the material are uniforms, see {@link #setMaterialUniforms}
+         */
+        public boolean hasMaterialUniforms = false;
+        public int texMatricesLocation = -1, registerColorsLocation = -1, konstColorsLocation = -1, materialColorLocation = -1;
+    }
+    
+    /**
+     * The baked vertices and indices of one batch. Offsets and the stride are counted in floats.
+     */
+    protected static class BatchBuffer {
+        public int vertexBuffer, indexBuffer, indexType, indexSize;
+        public int arrayMask, stride;
+        public int normalOffset, color0Offset, color1Offset, texcoordOffset, matrixIndexOffset;
+        
+        /**
+         * Per packet: first index and index count of its triangles, lines and points
+         */
+        public int[] packetRanges;
     }
 }
\ No newline at end of file
@@ -22,8 +22,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import whitehole.Settings;
 import whitehole.Whitehole;
-import whitehole.io.ExternalFile;
-import whitehole.io.FileBase;
+import whitehole.io.MappedFile;
 import whitehole.io.RarcFile;
 import whitehole.smg.Bti;
 import whitehole.smg.ImageUtils;
@@ -63,7 +62,7 @@ public class BtiRenderer extends GLRenderer {
         
         // Access resource archive and BTI data
         try {
-            FileBase fi = UseAbsolutePath ? new ExternalFile(arcPath) : Whitehole.getCurrentGameFileSystem().openFile(arcPath);
+            MappedFile fi = UseAbsolutePath ? new MappedFile(arcPath) : Whitehole.getCurrentGameFileSystem().openFileReadOnly(arcPath);
             archive = new RarcFile(fi);
             
             if (archive.fileExists(btiPath)) {
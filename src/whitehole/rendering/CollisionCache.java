@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2022 Whitehole Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitehole.rendering;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import whitehole.Settings;
+import whitehole.Whitehole;
+import whitehole.io.MappedFile;
+import whitehole.io.RarcFile;
+import whitehole.smg.Kcl;
+
+/**
+ * Keeps the collision of object models, so the editor can place objects on the ground whether or not collision is
+ * drawn. Models without collision are remembered as well, so their archives are only opened once. Collision is loaded
+ * on a background thread, so asking for it never blocks the caller.
+ */
+public class CollisionCache {
+    private static HashMap<String, Kcl> CACHE = new HashMap();
+    private static HashSet<String> PENDING = new HashSet();
+    private static ExecutorService LOADER;
+    private static int LOAD_COUNT = 0;
+
+    public static synchronized void init() {
+        // Collision finished after the cache has been reset belongs to a closed editor and is dropped
+        CACHE = new HashMap();
+        PENDING = new HashSet();
+    }
+
+    /**
+     * Returns the collision of a model, or null if it has none or if it hasn't been loaded yet. Collision that isn't
+     * loaded yet is loaded in the background, see {@link #getLoadCount}.
+     * @param modelName the name of the model, see {@link RendererFactory#getSubstitutedModelName}
+     */
+    public static synchronized Kcl getCollision(String modelName) {
+        String key = modelName.toLowerCase();
+
+        if (CACHE.containsKey(key)) {
+            return CACHE.get(key);
+        }
+
+        if (PENDING.add(key)) {
+            scheduleLoad(modelName, key);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns how many models have been loaded so far, with or without collision. Callers that skipped models whose
+     * collision wasn't loaded yet compare this to know when to ask again.
+     */
+    public static synchronized int getLoadCount() {
+        return LOAD_COUNT;
+    }
+
+    /**
+     * Returns whether collision is still being loaded.
+     */
+    public static synchronized boolean isLoading() {
+        return !PENDING.isEmpty();
+    }
+
+    private static void scheduleLoad(String modelName, String key) {
+        if (LOADER == null) {
+            LOADER = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "Collision loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        HashMap<String, Kcl> cache = CACHE;
+        HashSet<String> pending = PENDING;
+
+        LOADER.execute(() -> {
+            Kcl kcl = null;
+
+            try {
+                kcl = loadCollision(modelName);
+            }
+            catch (IOException | RuntimeException ex) {
+                System.out.println("Failed to load collision of " + modelName + ": " + ex.getMessage());
+            }
+
+            synchronized (CollisionCache.class) {
+                cache.put(key, kcl);
+                pending.remove(key);
+                LOAD_COUNT++;
+            }
+        });
+    }
+
+    private static Kcl loadCollision(String modelName) throws IOException {
+        String arcPath = Whitehole.createResourceArcPath(modelName);
+        MappedFile arcFile;
+
+        if (arcPath != null) {
+            arcFile = Whitehole.getCurrentGameFileSystem().openFileReadOnly(arcPath);
+        }
+        else {
+            // Same as KclRenderer, vanilla models are only looked up in ObjectData
+            String base = Settings.getBaseGameDir();
+            if (base == null || base.length() == 0)
+                return null;
+
+            arcPath = String.format("%s/%s/%s.arc", base, "ObjectData", modelName);
+            if (!new File(arcPath).exists())
+                return null;
+
+            arcFile = new MappedFile(arcPath);
+        }
+
+        RarcFile archive = new RarcFile(arcFile);
+
+        try {
+            String kclPath = "/" + modelName + "/" + modelName + ".kcl";
+            if (!archive.fileExists(kclPath))
+                return null;
+
+            // Everything is read into memory, the file is only needed for saving
+            Kcl kcl = new Kcl(archive.openFileReadOnly(kclPath), archive.isBigEndian());
+            kcl.close();
+            return kcl;
+        }
+        finally {
+            archive.close();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2022 Whitehole Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitehole.rendering;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import whitehole.math.BoundingBox;
+import whitehole.math.Bvh;
+import whitehole.math.Matrix4;
+import whitehole.math.Ray;
+import whitehole.math.Vec3f;
+import whitehole.smg.Kcl;
+import whitehole.smg.object.AbstractObj;
+
+/**
+ * Finds the collision of placed objects along rays. The areas of the objects' collision are kept in world space in a
+ * {@link Bvh}, so a ray only tests the collision of the objects whose areas it passes through. Objects whose collision
+ * is still being loaded are left out, see {@link #isOutdated}.
+ */
+public class CollisionIndex {
+    private static final int LEAF_SIZE = 4;
+
+    private final ArrayList<AbstractObj> objects = new ArrayList();
+    private final ArrayList<Kcl> collisions = new ArrayList();
+    private final ArrayList<Matrix4> zoneMatrices = new ArrayList();
+    private final ArrayList<Matrix4> worldToCollision = new ArrayList();
+    private final IdentityHashMap<AbstractObj, Integer> indices = new IdentityHashMap();
+    private float[] bounds = new float[64 * 6];
+    private Bvh bvh = null;
+    private boolean isRefitNeeded = false;
+    private final int loadCount = CollisionCache.getLoadCount();
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Adds an object unless it has no collision. Call {@link #build} once all objects have been added.
+     * @param obj the object
+     * @param zoneMatrix places the zone of the object in the world, or null
+     */
+    public void add(AbstractObj obj, Matrix4 zoneMatrix) {
+        Kcl collision = CollisionCache.getCollision(RendererFactory.getSubstitutedModelName(obj.name, obj, false));
+        if (collision == null)
+            return;
+
+        int item = objects.size();
+        if ((item + 1) * 6 > bounds.length) {
+            float[] grown = new float[bounds.length * 2];
+            System.arraycopy(bounds, 0, grown, 0, item * 6);
+            bounds = grown;
+        }
+
+        Matrix4 toWorld = getObjectMatrix(obj, zoneMatrix);
+        BoundingBox.transform(collision.getArea(), toWorld).toArray(bounds, item * 6);
+        objects.add(obj);
+        collisions.add(collision);
+        zoneMatrices.add(zoneMatrix);
+        worldToCollision.add(Matrix4.invert(toWorld));
+        indices.put(obj, item);
+    }
+
+    /**
+     * Builds the hierarchy over the added objects.
+     */
+    public void build() {
+        bvh = new Bvh(bounds, objects.size(), LEAF_SIZE);
+        isRefitNeeded = false;
+    }
+
+    /**
+     * Returns whether collision has been loaded since the index was created, so it has to be created again to include
+     * the objects that were left out.
+     */
+    public boolean isOutdated() {
+        return loadCount != CollisionCache.getLoadCount();
+    }
+
+    /**
+     * Moves the collision of an object to where the object is now.
+     * @param obj the object that has been moved, rotated or scaled
+     */
+    public void update(AbstractObj obj) {
+        Integer item = indices.get(obj);
+        if (item == null)
+            return;
+
+        Matrix4 toWorld = getObjectMatrix(obj, zoneMatrices.get(item));
+        worldToCollision.set(item, Matrix4.invert(toWorld));
+        bvh.setItemBounds(item, BoundingBox.transform(collisions.get(item).getArea(), toWorld));
+        isRefitNeeded = true;
+    }
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the distance at which a ray hits the nearest collision of a shown object.
+     * @param ray the ray in world space
+     * @param ignored objects whose collision is left out, by their unique ID
+     * @return the distance, or {@link Ray#MISS}
+     */
+    public float raycast(Ray ray, Map<Integer, AbstractObj> ignored) {
+        if (bvh == null)
+            build();
+        if (isRefitNeeded) {
+            bvh.refit();
+            isRefitNeeded = false;
+        }
+
+        return bvh.queryRay(ray, Ray.MISS, (leaf, max) -> {
+            int start = bvh.getLeafStart(leaf);
+            int end = start + bvh.getLeafSize(leaf);
+
+            for (int i = start; i < end; i++) {
+                int item = bvh.getItem(i);
+                AbstractObj obj = objects.get(item);
+                if (obj.isHidden || ignored.containsKey(obj.uniqueID))
+                    continue;
+                if (bvh.intersectItem(ray, item, max) == Ray.MISS)
+                    continue;
+
+                // Distances along the ray don't change in the space of the collision, see Ray.transform
+                float distance = collisions.get(item).raycast(Ray.transform(ray, worldToCollision.get(item)), max);
+                if (distance < max)
+                    max = distance;
+            }
+
+            return max;
+        });
+    }
+
+    /**
+     * Returns the matrix that places an object and its collision in the world.
+     */
+    private static Matrix4 getObjectMatrix(AbstractObj obj, Matrix4 zoneMatrix) {
+        Vec3f rot = new Vec3f((float)Math.toRadians(obj.rotation.x), (float)Math.toRadians(obj.rotation.y), (float)Math.toRadians(obj.rotation.z));
+        Matrix4 ret = Matrix4.SRTToMatrix(obj.scale, rot, obj.position);
+        if (zoneMatrix != null)
+            Matrix4.mult(ret, zoneMatrix, ret);
+        return ret;
+    }
+}
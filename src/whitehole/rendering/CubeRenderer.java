@@ -17,6 +17,8 @@
 package whitehole.rendering;
 
 import com.jogamp.opengl.*;
+import whitehole.math.BoundingBox;
+import whitehole.math.Vec3f;
 import whitehole.util.Color4;
 
 public class CubeRenderer extends GLRenderer {
@@ -83,6 +85,13 @@ public class CubeRenderer extends GLRenderer {
         return info.renderMode != RenderMode.TRANSLUCENT;
     }
 
+    @Override
+    public BoundingBox getBounds() {
+        // The axes reach twice as far as the faces of the cube
+        float s = showAxes ? cubeSize : cubeSize / 2f;
+        return new BoundingBox(new Vec3f(-s, -s, -s), new Vec3f(s, s, s));
+    }
+
     @Override
     public void render(RenderInfo info) throws GLException {
         if (info.renderMode == RenderMode.TRANSLUCENT) {
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2022 Whitehole Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitehole.rendering;
+
+import com.jogamp.opengl.*;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import whitehole.Settings;
+import whitehole.math.BoundingBox;
+import whitehole.math.Matrix4;
+import whitehole.math.TriangleMesh;
+
+/**
+ * Draws a dummy cube while the actual model is loaded on a worker thread. Once the model has been read, the render
+ * thread uploads it and compiles it into the display lists of this renderer. The lists keep their names, so every list
+ * that calls them shows the model from then on without being compiled again.
+ */
+public class DeferredRenderer extends GLRenderer {
+    private final Supplier<BmdRenderer> loader;
+    private final GLRenderer placeholder;
+    private GLRenderer target;
+    private BmdRenderer loaded;
+    private Future<?> task;
+    private boolean isClosed;
+
+    public DeferredRenderer(Supplier<BmdRenderer> loader) {
+        this.loader = loader;
+        placeholder = RendererFactory.createDummyCubeRenderer();
+        target = placeholder;
+        loaded = null;
+        task = null;
+        isClosed = false;
+    }
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    void setTask(Future<?> task) {
+        this.task = task;
+    }
+
+    /**
+     * Reads the model. Runs on a worker thread and must not touch OpenGL.
+     * @return true if the model was loaded and has to be uploaded
+     */
+    boolean load() {
+        try {
+            loaded = loader.get();
+        }
+        catch(RuntimeException ex) {
+            System.out.println("Failed to load model: " + ex.getMessage());
+            if (Settings.getDebugAdditionalLogs())
+                ex.printStackTrace();
+            loaded = null;
+        }
+
+        return loaded != null;
+    }
+
+    /**
+     * Uploads the loaded model and compiles it into the display lists. Runs on the render thread.
+     * @param info
+     * @return true if the objects that use this renderer have to be rendered again because the model is transformed
+     * differently than the placeholder
+     */
+    boolean finishLoading(RenderInfo info) throws GLException {
+        BmdRenderer renderer = loaded;
+        loaded = null;
+
+        if (renderer == null)
+            return false;
+        if (isClosed) {
+            renderer.close(info);
+            renderer.releaseStorage();
+            return false;
+        }
+
+        try {
+            renderer.ctor_uploadData(info);
+        }
+        catch(GLException ex) {
+            renderer.close(info);
+            renderer.releaseStorage();
+            throw ex;
+        }
+
+        boolean wasScaled = target.isScaled();
+        target = renderer;
+
+        if (displayLists != null) {
+            updateDisplayLists(info);
+            target.releaseStorage();
+        }
+
+        placeholder.close(info);
+
+        return wasScaled != target.isScaled();
+    }
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles a list for every render mode, even the ones the placeholder doesn't draw anything in, so that the
+     * model can be compiled into them later on.
+     */
+    @Override
+    public void compileDisplayLists(RenderInfo info) throws GLException {
+        if (displayLists != null) {
+            return;
+        }
+
+        displayLists = new int[RenderMode._MAX.ordinal()];
+
+        GL2 gl = info.drawable.getGL().getGL2();
+        RenderInfo tempInfo = new RenderInfo();
+        tempInfo.drawable = info.drawable;
+
+        final RenderMode[] modes = RenderMode.values();
+
+        for (int i = 0 ; i < displayLists.length ; i++) {
+            tempInfo.renderMode = modes[i];
+
+            displayLists[i] = gl.glGenLists(1);
+            gl.glNewList(displayLists[i], GL2.GL_COMPILE);
+            if (target.gottaRender(tempInfo))
+                target.render(tempInfo);
+            gl.glEndList();
+        }
+    }
+
+    @Override
+    public void close(RenderInfo info) throws GLException {
+        super.close(info);
+        isClosed = true;
+
+        if (task != null)
+            task.cancel(false);
+
+        target.close(info);
+    }
+
+    @Override
+    public void releaseStorage() {
+        // The model can only be released once it has been compiled
+        if (displayLists != null)
+            target.releaseStorage();
+    }
+
+    @Override
+    public boolean gottaRender(RenderInfo info) throws GLException {
+        return target.gottaRender(info);
+    }
+
+    @Override
+    public void render(RenderInfo info) throws GLException {
+        target.render(info);
+    }
+
+    @Override
+    public boolean isAnimated() { return target.isAnimated(); }
+    @Override
+    public boolean setPlaybackFrame(int frame) { return target.setPlaybackFrame(frame); }
+    @Override
+    public BoundingBox getBounds() { return target.getBounds(); }
+    @Override
+    public TriangleMesh getMesh() { return target.getMesh(); }
+    @Override
+    public Matrix4 getMeshMatrix() { return target.getMeshMatrix(); }
+    @Override
+    public boolean isScaled() { return target.isScaled(); }
+    @Override
+    public boolean hasSpecialPosition() { return target.hasSpecialPosition(); }
+    @Override
+    public boolean hasSpecialRotation() { return target.hasSpecialRotation(); }
+    @Override
+    public boolean hasSpecialScaling() { return target.hasSpecialScaling(); }
+    @Override
+    public boolean hasPathConnection() { return target.hasPathConnection(); }
+    @Override
+    public boolean boundToPathId() { return target.boundToPathId(); }
+    @Override
+    public boolean boundToObjArg(int arg) { return target.boundToObjArg(arg); }
+    @Override
+    public boolean boundToProperty() { return target.boundToProperty(); }
+    @Override
+    public boolean boundToActiveLayers() { return target.boundToActiveLayers(); }
+}
@@ -18,6 +18,9 @@ package whitehole.rendering;
 
 import com.jogamp.opengl.*;
 import java.util.ArrayList;
+import whitehole.math.BoundingBox;
+import whitehole.math.Matrix4;
+import whitehole.math.TriangleMesh;
 import whitehole.math.Vec3f;
 
 public abstract class GLRenderer {
@@ -40,6 +43,12 @@ public abstract class GLRenderer {
         public GLAutoDrawable drawable;
         public RenderMode renderMode;
         public ArrayList<String> activeLayers;
+        
+        /**
+         * The frame animated renderers are drawn at, or -1 if animations aren't played back and all renderers are
+         * drawn from their display lists, see {@link GLRenderer#setPlaybackFrame}
+         */
+        public int animationFrame = -1;
     }
     
     // -------------------------------------------------------------------------------------------------------------------------
@@ -82,6 +91,38 @@ public abstract class GLRenderer {
     public boolean boundToProperty() { return false; }
     public boolean boundToActiveLayers() { return false; }
     
+    /**
+     * Returns true if the renderer has animations that can be played back in the viewport.
+     */
+    public boolean isAnimated() { return false; }
+    
+    /**
+     * Sets the frame of the animation playback. Frame 0 shows the renderer as it looks when playback is stopped.
+     * @param frame the number of frames since playback started
+     * @return true if the renderer looks different now. Animated renderers are drawn without their display lists, so
+     * nothing has to be compiled again, see {@link whitehole.smg.object.AbstractObj#render}
+     */
+    public boolean setPlaybackFrame(int frame) { return false; }
+    
+    /**
+     * Returns the box around everything the renderer draws, in the space of the object before it is moved, rotated and
+     * scaled. Objects are culled against this box, so renderers that don't know their size return null and are always
+     * drawn.
+     */
+    public BoundingBox getBounds() { return null; }
+    
+    /**
+     * Returns the triangles the renderer draws, so objects can be picked without drawing them, or null if they are
+     * unknown. The triangles are placed by {@link #getMeshMatrix()}.
+     */
+    public TriangleMesh getMesh() { return null; }
+    
+    /**
+     * Returns the transformation from the space of {@link #getMesh()} into the space of {@link #getBounds()}, or null
+     * if they are the same.
+     */
+    public Matrix4 getMeshMatrix() { return null; }
+    
     public void compileDisplayLists(RenderInfo info) throws GLException {
         if (displayLists != null) {
             return;
@@ -110,4 +151,33 @@ public abstract class GLRenderer {
             }
         }
     }
+    
+    /**
+     * Compiles the renderer again into the display lists it already has. The lists keep their names, so the lists that
+     * call them show the renderer as it is now without being compiled again themselves.
+     * @param info
+     */
+    public void updateDisplayLists(RenderInfo info) throws GLException {
+        if (displayLists == null) {
+            return;
+        }
+        
+        GL2 gl = info.drawable.getGL().getGL2();
+        RenderInfo tempInfo = new RenderInfo();
+        tempInfo.drawable = info.drawable;
+        
+        final RenderMode[] modes = RenderMode.values();
+        
+        for (int i = 0 ; i < displayLists.length ; i++) {
+            if (displayLists[i] == 0)
+                continue;
+            
+            tempInfo.renderMode = modes[i];
+            
+            gl.glNewList(displayLists[i], GL2.GL_COMPILE);
+            if (gottaRender(tempInfo))
+                render(tempInfo);
+            gl.glEndList();
+        }
+    }
 }
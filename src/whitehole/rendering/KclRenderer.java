@@ -27,9 +27,11 @@ import java.util.HashMap;
 import java.util.Locale;
 import whitehole.Settings;
 import whitehole.Whitehole;
-import whitehole.io.ExternalFile;
-import whitehole.io.FileBase;
+import whitehole.io.MappedFile;
 import whitehole.io.RarcFile;
+import whitehole.math.BoundingBox;
+import whitehole.math.Matrix4;
+import whitehole.math.TriangleMesh;
 import whitehole.math.Vec3f;
 import static whitehole.rendering.GLRenderer.DEFAULT_ROTATION;
 import static whitehole.rendering.GLRenderer.DEFAULT_SCALE;
@@ -312,7 +314,7 @@ public class KclRenderer extends GLRenderer {
                 return null;
         }
         
-        FileBase fi = UseAbsolutePath ? new ExternalFile(arcPath) : Whitehole.getCurrentGameFileSystem().openFile(arcPath);
+        MappedFile fi = UseAbsolutePath ? new MappedFile(arcPath) : Whitehole.getCurrentGameFileSystem().openFileReadOnly(arcPath);
         return new RarcFile(fi);
     }
     
@@ -321,6 +323,10 @@ public class KclRenderer extends GLRenderer {
             return;
         }
         
+        vertices = model.getTriangles();
+        mesh = new TriangleMesh(vertices, model.triangles.length);
+        ctor_calcFaces();
+        
         GL2 gl = info.drawable.getGL().getGL2();
         
         String extensions = gl.glGetString(GL2.GL_EXTENSIONS);
@@ -354,6 +360,35 @@ public class KclRenderer extends GLRenderer {
         }
     }
     
+    /**
+     * Calculates the normal and the color of every triangle, so they don't have to be calculated every frame.
+     */
+    protected final void ctor_calcFaces() {
+        int count = model.triangles.length;
+        faceNormals = new float[count * 3];
+        faceColors = new float[count * 3];
+        float[] v = vertices;
+        
+        for(int i = 0; i < count; i++) {
+            // Corners are stored as C, B and A, the normal is (B - A) x (C - A) flipped
+            int t = i * 9;
+            float ux = v[t + 3] - v[t + 6], uy = v[t + 4] - v[t + 7], uz = v[t + 5] - v[t + 8];
+            float wx = v[t] - v[t + 6], wy = v[t + 1] - v[t + 7], wz = v[t + 2] - v[t + 8];
+            Vec3f N = new Vec3f(uy * wz - uz * wy, uz * wx - ux * wz, ux * wy - uy * wx);
+            Vec3f.normalize(N, N);
+            faceNormals[i * 3] = -N.x;
+            faceNormals[i * 3 + 1] = -N.y;
+            faceNormals[i * 3 + 2] = -N.z;
+            
+            Bcsv.Entry entry = getDataFromGroupIdx(model.triangles[i].groupIndex);
+            Integer FloorCode = entry.getInt("Floor_code");
+            int Color = colorTable.getOrDefault(FloorCode, colorTable.get(0));
+            faceColors[i * 3] = ((Color >> 24) & 0xFF) / 255f;
+            faceColors[i * 3 + 1] = ((Color >> 16) & 0xFF) / 255f;
+            faceColors[i * 3 + 2] = ((Color >> 8) & 0xFF) / 255f;
+        }
+    }
+    
     protected Bcsv.Entry getDataFromGroupIdx(int idx) {
         if (idx >= data.entries.size() || idx < 0) {
             idx = 0; //Failsafe
@@ -414,6 +449,26 @@ public class KclRenderer extends GLRenderer {
         }
     }
 
+    @Override
+    public BoundingBox getBounds() {
+        if(mesh == null)
+            return null;
+        
+        return BoundingBox.transform(mesh.getBounds(), getMeshMatrix());
+    }
+    
+    @Override
+    public TriangleMesh getMesh() {
+        return mesh;
+    }
+    
+    @Override
+    public Matrix4 getMeshMatrix() {
+        // Same order as the rotations in render
+        Vec3f rot = new Vec3f((float)Math.toRadians(rotation.z), (float)Math.toRadians(rotation.y), (float)Math.toRadians(rotation.x));
+        return Matrix4.SRTToMatrix(scale, rot, translation);
+    }
+
     @Override
     public boolean gottaRender(RenderInfo info) throws GLException {
         return info.renderMode != RenderMode.TRANSLUCENT;
@@ -426,7 +481,7 @@ public class KclRenderer extends GLRenderer {
         if(info.renderMode != RenderMode.PICKING && info.renderMode != RenderMode.HIGHLIGHT)
             gl.glColor4f(1f, 1f, 1f, 1f);
         
-        if(model == null)
+        if(model == null || vertices == null)
             return;
         
         gl.glPushMatrix();
@@ -451,49 +506,24 @@ public class KclRenderer extends GLRenderer {
         gl.glDisable(GL2.GL_TEXTURE_2D);
         gl.glBegin(GL2.GL_TRIANGLES);
         
-        for(Kcl.Primitive prim : model.triangles)
+        boolean isColored = info.renderMode != RenderMode.PICKING && info.renderMode != RenderMode.HIGHLIGHT;
+        float[] v = vertices;
+        
+        for(int i = 0; i < faceNormals.length / 3; i++)
         {
-
-            // Create triangle
-            Vec3f Dir = model.normalArray[prim.directionIndex];
-            Vec3f A = model.positionArray[prim.positionIndex];
-            Vec3f CrossA = new Vec3f(), CrossB = new Vec3f();
-            Vec3f.cross(model.normalArray[prim.normalAIndex], Dir, CrossA);
-            Vec3f.cross(model.normalArray[prim.normalBIndex], Dir, CrossB);
-            CrossB.scale(prim.Length / Vec3f.dot(CrossB, model.normalArray[prim.normalCIndex]));
-            CrossA.scale(prim.Length / Vec3f.dot(CrossA, model.normalArray[prim.normalCIndex]));
-            Vec3f B = new Vec3f(A), C = new Vec3f(A);
-            B.add(CrossB);
-            C.add(CrossA);
-            Vec3f V = new Vec3f(B), V2 = new Vec3f(C), N = new Vec3f();
-            V.subtract(A);
-            V2.subtract(A);
-            Vec3f.cross(V, V2, N);
-            Vec3f.normalize(N, N);
-
-            Vec3f[] pp = new Vec3f[3];
-            pp[0] = C;
-            pp[1] = B;
-            pp[2] = A;
-
-            for(Vec3f current : pp)
+            int f = i * 3;
+            if(isColored)
             {
-                if(info.renderMode != RenderMode.PICKING && info.renderMode != RenderMode.HIGHLIGHT)
-                {
-                    Bcsv.Entry entry = getDataFromGroupIdx(prim.groupIndex);
-                    Integer FloorCode = entry.getInt("Floor_code");
-                    Integer Color = colorTable.getOrDefault(FloorCode, colorTable.get(0));
-                    int Hash = Color;
-                    float Red = Math.abs((Hash >> 24) & 0xFF) / 255f;
-                    float Green = Math.abs((Hash >> 16) & 0xFF) / 255f;
-                    float Blue = Math.abs((Hash >> 8) & 0xFF) / 255f;
-                    gl.glColor4f(Red, Green, Blue, 1.0f);
-                    gl.glSecondaryColor3f(Red, Green, Blue);
-                }
-
-                gl.glNormal3f(-N.x, -N.y, -N.z);
-                gl.glVertex3f(current.x, current.y, current.z);
+                gl.glColor4f(faceColors[f], faceColors[f + 1], faceColors[f + 2], 1.0f);
+                gl.glSecondaryColor3f(faceColors[f], faceColors[f + 1], faceColors[f + 2]);
             }
+            
+            gl.glNormal3f(faceNormals[f], faceNormals[f + 1], faceNormals[f + 2]);
+            
+            int t = i * 9;
+            gl.glVertex3f(v[t], v[t + 1], v[t + 2]);
+            gl.glVertex3f(v[t + 3], v[t + 4], v[t + 5]);
+            gl.glVertex3f(v[t + 6], v[t + 7], v[t + 8]);
         }
         
         gl.glEnd();
@@ -507,6 +537,8 @@ public class KclRenderer extends GLRenderer {
     
     protected RarcFile archive = null;
     protected Kcl model = null;
+    private TriangleMesh mesh = null;
+    private float[] vertices, faceNormals, faceColors;
     protected Bcsv data = null;
     protected Shader[] shaders = null;
     protected boolean hasShaders = false;
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2022 Whitehole Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitehole.rendering;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import whitehole.io.RarcFile;
+import whitehole.math.BoundingBox;
+import whitehole.math.Matrix4;
+import whitehole.math.TriangleMesh;
+import whitehole.smg.Bmd;
+
+/**
+ * Shares loaded models between all renderers that draw them. Renderers of the same model usually differ only in their
+ * animation frames, joint poses or hidden materials, so the parsed model, its baked mesh and its vertex buffers are
+ * loaded once and reference counted. Renderers keep everything that differs between them on their own.
+ */
+public class ModelAssetCache {
+    public static class CacheEntry {
+        /**
+         * The key of the entry, or null if the model can't be shared
+         */
+        public final String key;
+        public Bmd model;
+
+        /**
+         * The pose of the joints as it was loaded, see {@link Bmd#getJointPose()}
+         */
+        public float[] restPose;
+        
+        /**
+         * The final matrices of the joints in the rest pose, see {@link Bmd#getJointMatrices()}
+         */
+        Matrix4[] restJointMatrices;
+
+        /**
+         * The animated values of the materials as they were loaded, see {@link Bmd#getMaterialAnimState()}
+         */
+        public float[] restMaterials;
+        
+        /**
+         * The box around the model in its rest pose, see {@link Bmd#calcBoundingBox()}
+         */
+        public BoundingBox bounds;
+
+        /**
+         * The triangles of the model in its rest pose, built by {@link #getTriangleMesh} when they are needed first
+         */
+        TriangleMesh triangleMesh;
+
+        /**
+         * The baked mesh until its buffers have been uploaded
+         */
+        public BmdMesh mesh;
+        BmdRenderer.BatchBuffer[] batchBuffers;
+
+        /**
+         * The renderer whose pose the joints of the model are currently set to
+         */
+        Object poseOwner;
+        public int refCount;
+
+        private CacheEntry(String key) {
+            this.key = key;
+        }
+    }
+
+    private static HashMap<String, CacheEntry> CACHE = new HashMap();
+    private static final Map<RarcFile, String> ARCHIVE_KEYS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    public static void init() {
+        synchronized (ModelAssetCache.class) {
+            CACHE = new HashMap();
+        }
+    }
+
+    /**
+     * Remembers where an archive has been opened from. Only models from registered archives are shared.
+     * @param archive the opened archive
+     * @param path the path the archive was opened from
+     */
+    public static void registerArchive(RarcFile archive, String path) {
+        ARCHIVE_KEYS.put(archive, path);
+    }
+
+    /**
+     * Returns the shared model at the given path of an archive, loading it if no renderer uses it yet. Every call has
+     * to be paired with a call to {@link #release}.
+     * @param archive the archive containing the model
+     * @param filePath the path of the BMD/BDL file in the archive
+     * @return the entry of the model
+     * @throws IOException if the model couldn't be loaded
+     */
+    public static CacheEntry acquire(RarcFile archive, String filePath) throws IOException {
+        String archiveKey = ARCHIVE_KEYS.get(archive);
+        CacheEntry entry;
+
+        if (archiveKey == null) {
+            entry = new CacheEntry(null);
+            entry.refCount = 1;
+        }
+        else {
+            String key = archiveKey + ":" + filePath.toLowerCase();
+
+            synchronized (ModelAssetCache.class) {
+                entry = CACHE.computeIfAbsent(key, CacheEntry::new);
+                entry.refCount++;
+            }
+        }
+
+        // Renderers may be created on several threads, so only the first one loads the model
+        try {
+            synchronized (entry) {
+                if (entry.model == null) {
+                    entry.model = ModelCache.loadModel(archive, filePath);
+                    entry.restPose = entry.model.getJointPose();
+                    entry.restJointMatrices = entry.model.getJointMatrices();
+                    entry.restMaterials = entry.model.getMaterialAnimState();
+                    entry.bounds = entry.model.calcBoundingBox();
+                }
+            }
+        }
+        catch(IOException | RuntimeException ex) {
+            release(entry);
+            throw ex;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Returns the baked mesh of an entry unless its buffers have been uploaded already.
+     * @param entry the entry of the model
+     * @param archive the archive the model was loaded from
+     * @param filePath the path of the BMD/BDL file in the archive
+     * @return the baked mesh, or null if it isn't needed anymore
+     */
+    public static BmdMesh prepareMesh(CacheEntry entry, RarcFile archive, String filePath) {
+        synchronized (entry) {
+            if (entry.mesh == null && entry.batchBuffers == null && entry.model != null)
+                entry.mesh = ModelCache.getMesh(archive, filePath, entry.model);
+            return entry.mesh;
+        }
+    }
+
+    /**
+     * Returns the triangles of an entry's model in its rest pose, building them if they are needed for the first time.
+     * @param entry the entry of the model
+     * @return the triangles, or null if the model has been released
+     */
+    public static TriangleMesh getTriangleMesh(CacheEntry entry) {
+        synchronized (entry) {
+            if (entry.triangleMesh == null && entry.model != null) {
+                // The joints may be posed by one of the renderers at the same time, so they are left alone
+                float[] triangles = entry.model.calcTriangles(entry.restJointMatrices);
+                entry.triangleMesh = new TriangleMesh(triangles, triangles.length / 9);
+            }
+            return entry.triangleMesh;
+        }
+    }
+
+    /**
+     * Drops one reference to an entry.
+     * @param entry the entry of the model
+     * @return true if this was the last reference, so the buffers of the entry have to be deleted
+     */
+    public static boolean release(CacheEntry entry) {
+        synchronized (ModelAssetCache.class) {
+            entry.refCount--;
+            if (entry.refCount > 0)
+                return false;
+
+            if (entry.key != null && CACHE.get(entry.key) == entry)
+                CACHE.remove(entry.key);
+        }
+
+        synchronized (entry) {
+            try {
+                if (entry.model != null)
+                    entry.model.close();
+            }
+            catch(IOException ex) {
+
+            }
+
+            entry.model = null;
+            entry.mesh = null;
+            entry.triangleMesh = null;
+        }
+
+        return true;
+    }
+}
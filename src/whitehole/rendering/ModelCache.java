@@ -0,0 +1,672 @@
+/*
+ * Copyright (C) 2022 Whitehole Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitehole.rendering;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import whitehole.Settings;
+import whitehole.io.FileBase;
+import whitehole.io.MappedFile;
+import whitehole.io.RarcFile;
+import whitehole.smg.Bmd;
+
+/**
+ * On-disk cache of object archives. For every archive, the cache stores the decompressed archive, the decoded texture
+ * images and the baked meshes of the models that were loaded from it. When an archive is opened again, it is read from
+ * the memory-mapped cache file instead, which skips the Yaz0 decompression and the texture decoding.
+ * <p>
+ * Cache files are tied to the path, size, modification time and CRC32 of the archive they were created from, and are
+ * ignored when any of these don't match anymore. An open cache file is mapped until its archive is closed, so cache
+ * files are never replaced. Every write creates the next generation of the file instead, and older generations are
+ * deleted once nothing maps them anymore.
+ * <p>
+ * The cache is limited to {@link #MAX_CACHE_SIZE} bytes. Reading a cache file updates its modification time, and the
+ * least recently used files are deleted once the limit is exceeded.
+ */
+public final class ModelCache {
+    private static final int MAGIC = 0x57484D43; // WHMC
+    private static final int VERSION = 2;
+    private static final Path CACHE_DIR = Paths.get("data", "cache", "models");
+    private static final Pattern CACHE_FILE_NAME = Pattern.compile("([0-9A-F]{8}-)(\\d+)\\.whmc");
+    private static final long MAX_CACHE_SIZE = 512L * 1024 * 1024;
+
+    private static final Map<RarcFile, Entry> ENTRIES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private ModelCache() {}
+
+    private static class Entry {
+        final String sourcePath;
+        final LinkedHashMap<String, Model> models = new LinkedHashMap<>();
+        
+        /**
+         * The CRC32 of the archive, or null until it has been calculated
+         */
+        Integer checksum = null;
+        
+        /**
+         * Whether models have been added or baked since the cache file was read
+         */
+        boolean isChanged = false;
+
+        Entry(String path) {
+            sourcePath = path;
+        }
+    }
+
+    private static class Model {
+        byte[][][] textures;
+        BmdMesh mesh;
+    }
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Opens an archive from the disk in read-only mode, using the cached copy if it is still valid.
+     * @param path the absolute path of the archive
+     * @return the opened archive
+     * @throws IOException
+     */
+    public static RarcFile openArchive(String path) throws IOException {
+        if (!Settings.getUseModelCache())
+            return new RarcFile(new MappedFile(path));
+        
+        Entry entry = new Entry(path);
+
+        try {
+            MappedFile cached = readEntry(entry);
+
+            if (cached != null) {
+                RarcFile archive = new RarcFile(cached);
+                ENTRIES.put(archive, entry);
+                return archive;
+            }
+        }
+        catch (IOException | RuntimeException ex) {
+            System.out.println("Ignoring model cache for " + path + ": " + ex.getMessage());
+            entry.models.clear();
+        }
+
+        RarcFile archive = new RarcFile(new MappedFile(path));
+        ENTRIES.put(archive, entry);
+        return archive;
+    }
+
+    /**
+     * Loads a model from an archive. If the archive was opened through the cache, the texture images are taken from
+     * the cache instead of being decoded.
+     * @param archive the archive containing the model
+     * @param filePath the path of the BMD/BDL file in the archive
+     * @return the loaded model
+     * @throws IOException
+     */
+    public static Bmd loadModel(RarcFile archive, String filePath) throws IOException {
+        FileBase file = archive.openFile(filePath);
+        file.setBigEndian(archive.isBigEndian());
+
+        Entry entry = ENTRIES.get(archive);
+        if (entry == null)
+            return new Bmd(file);
+
+        String key = filePath.toLowerCase();
+        Model cached = entry.models.get(key);
+
+        if (cached != null && cached.textures != null) {
+            Bmd model = new Bmd(file, false);
+
+            if (model.textures.length == cached.textures.length) {
+                for (int i = 0; i < model.textures.length; i++)
+                    model.textures[i].image = cached.textures[i];
+                return model;
+            }
+        }
+
+        Bmd model = new Bmd(file);
+        Model data = new Model();
+        data.textures = new byte[model.textures.length][][];
+        for (int i = 0; i < model.textures.length; i++)
+            data.textures[i] = model.textures[i].image;
+
+        synchronized (entry) {
+            entry.models.put(key, data);
+            entry.isChanged = true;
+        }
+        return model;
+    }
+
+    /**
+     * Returns the baked mesh of a model loaded by {@link #loadModel}. Meshes that aren't cached yet are baked, and are
+     * written to the cache file by {@link #writeChanges}.
+     * @param archive the archive containing the model
+     * @param filePath the path of the BMD/BDL file in the archive
+     * @param model the loaded model
+     * @return the baked mesh
+     */
+    public static BmdMesh getMesh(RarcFile archive, String filePath, Bmd model) {
+        Entry entry = archive != null ? ENTRIES.get(archive) : null;
+        Model cached = entry != null ? entry.models.get(filePath.toLowerCase()) : null;
+
+        if (cached != null && cached.mesh != null)
+            return cached.mesh;
+
+        BmdMesh mesh = BmdMesh.bake(model);
+
+        if (cached != null) {
+            synchronized (entry) {
+                cached.mesh = mesh;
+                entry.isChanged = true;
+            }
+        }
+
+        return mesh;
+    }
+    
+    /**
+     * Writes the models that have been loaded from an archive since it was opened to a new cache file. Call this once
+     * all models of the archive have been loaded and baked, it does nothing if nothing has changed.
+     * @param archive the archive the models were loaded from
+     */
+    public static void writeChanges(RarcFile archive) {
+        Entry entry = archive != null ? ENTRIES.get(archive) : null;
+        if (entry == null)
+            return;
+        
+        synchronized (entry) {
+            if (!entry.isChanged)
+                return;
+            entry.isChanged = false;
+            
+            try {
+                writeEntry(entry, archive);
+            }
+            catch (IOException ex) {
+                System.out.println("Failed to write model cache for " + entry.sourcePath + ": " + ex.getMessage());
+                if (Settings.getDebugAdditionalLogs())
+                    ex.printStackTrace();
+            }
+        }
+    }
+    
+    /**
+     * Deletes the cache files that can't be used anymore: files of older versions, older generations, leftover
+     * temporary files and the least recently used files above the size limit. Call this once on startup, before any
+     * archive is opened.
+     */
+    public static synchronized void cleanUp() {
+        if (!Files.isDirectory(CACHE_DIR))
+            return;
+        
+        try {
+            HashMap<String, Path> newest = new HashMap<>();
+            HashMap<String, Integer> newestGenerations = new HashMap<>();
+            
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(CACHE_DIR)) {
+                for (Path file : files) {
+                    Matcher name = CACHE_FILE_NAME.matcher(file.getFileName().toString());
+                    
+                    if (!name.matches() || !hasCurrentVersion(file)) {
+                        deleteCacheFile(file);
+                        continue;
+                    }
+                    
+                    String prefix = name.group(1);
+                    int generation;
+                    try {
+                        generation = Integer.parseInt(name.group(2));
+                    }
+                    catch (NumberFormatException ex) {
+                        deleteCacheFile(file);
+                        continue;
+                    }
+                    
+                    Integer other = newestGenerations.get(prefix);
+                    if (other != null && other > generation) {
+                        deleteCacheFile(file);
+                        continue;
+                    }
+                    if (other != null)
+                        deleteCacheFile(newest.get(prefix));
+                    
+                    newest.put(prefix, file);
+                    newestGenerations.put(prefix, generation);
+                }
+            }
+            
+            trimCache(null);
+        }
+        catch (IOException ex) {
+            System.out.println("Failed to clean up model cache: " + ex.getMessage());
+            if (Settings.getDebugAdditionalLogs())
+                ex.printStackTrace();
+        }
+    }
+    
+    /**
+     * Deletes all cache files. Files that are still mapped by an open archive may not be deletable, they are deleted
+     * by a later clean-up.
+     * @return whether all cache files were deleted
+     */
+    public static synchronized boolean clear() {
+        if (!Files.isDirectory(CACHE_DIR))
+            return true;
+        
+        boolean ret = true;
+        
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(CACHE_DIR)) {
+            for (Path file : files)
+                ret &= deleteCacheFile(file);
+        }
+        catch (IOException ex) {
+            System.out.println("Failed to clear model cache: " + ex.getMessage());
+            return false;
+        }
+        
+        return ret;
+    }
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    private static String getCacheFilePrefix(String sourcePath) {
+        CRC32 crc = new CRC32();
+        crc.update(sourcePath.getBytes(StandardCharsets.UTF_8));
+        return String.format("%1$08X-", crc.getValue());
+    }
+    
+    /**
+     * Returns the generations of the cache files of an archive that exist, newest first.
+     */
+    private static List<Integer> getCacheGenerations(String sourcePath) throws IOException {
+        ArrayList<Integer> ret = new ArrayList<>();
+        if (!Files.isDirectory(CACHE_DIR))
+            return ret;
+        
+        String prefix = getCacheFilePrefix(sourcePath);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(CACHE_DIR, prefix + "*.whmc")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    ret.add(Integer.parseInt(name.substring(prefix.length(), name.length() - 5)));
+                }
+                catch (NumberFormatException ex) {
+                    // Not one of ours
+                }
+            }
+        }
+        
+        ret.sort(Collections.reverseOrder());
+        return ret;
+    }
+    
+    private static Path getCacheFile(String sourcePath, int generation) {
+        return CACHE_DIR.resolve(String.format("%1$s%2$d.whmc", getCacheFilePrefix(sourcePath), generation));
+    }
+    
+    private static int getChecksum(Entry entry) throws IOException {
+        if (entry.checksum == null)
+            entry.checksum = getChecksum(Paths.get(entry.sourcePath));
+        return entry.checksum;
+    }
+
+    private static int getChecksum(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            CRC32 crc = new CRC32();
+            ByteBuffer buf = ByteBuffer.allocate(0x10000);
+            
+            while (channel.read(buf) >= 0) {
+                buf.flip();
+                crc.update(buf);
+                buf.clear();
+            }
+            
+            return (int)crc.getValue();
+        }
+    }
+
+    /**
+     * Reads the cache file of an entry and returns the cached archive, or null if there is no valid cache file.
+     */
+    private static MappedFile readEntry(Entry entry) throws IOException {
+        List<Integer> generations = getCacheGenerations(entry.sourcePath);
+        if (generations.isEmpty())
+            return null;
+
+        Path cachePath = getCacheFile(entry.sourcePath, generations.get(0));
+        Path source = Paths.get(entry.sourcePath);
+        MappedByteBuffer mapped;
+
+        try (FileChannel channel = FileChannel.open(cachePath, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        // Only the archive is read from the mapping later on, everything else is copied
+        MappedFile cacheFile = new MappedFile(mapped);
+        ByteBuffer buf = mapped.duplicate();
+        
+        try {
+            if (!readHeader(buf, entry, source)) {
+                cacheFile.close();
+                return null;
+            }
+            
+            try {
+                Files.setLastModifiedTime(cachePath, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+            catch (IOException ex) {
+                // Only affects which files are evicted first
+            }
+
+            int archiveLength = buf.getInt();
+            int archiveOffset = buf.position();
+            buf.position(align4(archiveOffset + archiveLength));
+
+            int numModels = buf.getInt();
+            for (int i = 0; i < numModels; i++) {
+                String key = readString(buf);
+                Model model = new Model();
+
+                model.textures = new byte[buf.getInt()][][];
+                for (int t = 0; t < model.textures.length; t++) {
+                    model.textures[t] = new byte[buf.getInt()][];
+                    for (int mip = 0; mip < model.textures[t].length; mip++)
+                        model.textures[t][mip] = readBytes(buf);
+                }
+
+                int numParts = buf.getInt();
+                if (numParts >= 0) {
+                    BmdMesh.Part[] parts = new BmdMesh.Part[numParts];
+                    for (int p = 0; p < numParts; p++)
+                        parts[p] = readPart(buf);
+                    model.mesh = new BmdMesh(parts);
+                }
+
+                entry.models.put(key, model);
+            }
+
+            return cacheFile.sliceOwningMapping(archiveOffset, archiveLength);
+        }
+        catch (IOException | RuntimeException ex) {
+            cacheFile.close();
+            throw ex;
+        }
+    }
+    
+    private static boolean readHeader(ByteBuffer buf, Entry entry, Path source) throws IOException {
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+            return false;
+        if (!readString(buf).equals(entry.sourcePath))
+            return false;
+        if (buf.getLong() != Files.size(source) || buf.getLong() != Files.getLastModifiedTime(source).toMillis())
+            return false;
+        return buf.getInt() == getChecksum(entry);
+    }
+
+    /**
+     * Writes the next generation of the cache file of an entry and deletes the older ones. Two entries can share the
+     * same cache files, so only one thread writes at a time.
+     */
+    private static synchronized void writeEntry(Entry entry, RarcFile archive) throws IOException {
+        Path source = Paths.get(entry.sourcePath);
+        Files.createDirectories(CACHE_DIR);
+        List<Integer> generations = getCacheGenerations(entry.sourcePath);
+        int generation = generations.isEmpty() ? 0 : generations.get(0) + 1;
+        Path cachePath = getCacheFile(entry.sourcePath, generation);
+        Path tempPath = Paths.get(cachePath + ".tmp");
+
+        byte[] contents = archive.getDecompressedData();
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, entry.sourcePath);
+            out.writeLong(Files.size(source));
+            out.writeLong(Files.getLastModifiedTime(source).toMillis());
+            out.writeInt(getChecksum(entry));
+            writeBytes(out, contents);
+
+            out.writeInt(entry.models.size());
+            for (Map.Entry<String, Model> model : entry.models.entrySet()) {
+                writeString(out, model.getKey());
+
+                byte[][][] textures = model.getValue().textures;
+                out.writeInt(textures.length);
+                for (byte[][] mips : textures) {
+                    out.writeInt(mips.length);
+                    for (byte[] mip : mips)
+                        writeBytes(out, mip);
+                }
+
+                BmdMesh mesh = model.getValue().mesh;
+                out.writeInt(mesh != null ? mesh.parts.length : -1);
+                if (mesh != null) {
+                    for (BmdMesh.Part part : mesh.parts)
+                        writePart(out, part);
+                }
+            }
+        }
+
+        try {
+            Files.move(tempPath, cachePath, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tempPath, cachePath);
+        }
+        catch (IOException ex) {
+            Files.deleteIfExists(tempPath);
+            throw ex;
+        }
+        
+        // Older generations that are still mapped can't be deleted on Windows, they are retried on the next write
+        for (int old : generations) {
+            try {
+                Files.deleteIfExists(getCacheFile(entry.sourcePath, old));
+            }
+            catch (IOException ex) {
+                if (Settings.getDebugAdditionalLogs())
+                    System.out.println("Can't delete old model cache file: " + ex.getMessage());
+            }
+        }
+        
+        trimCache(cachePath);
+    }
+    
+    /**
+     * Deletes the least recently used cache files until the cache fits into {@link #MAX_CACHE_SIZE}.
+     * @param keep a cache file that is never deleted, or null
+     */
+    private static void trimCache(Path keep) throws IOException {
+        ArrayList<Path> files = new ArrayList<>();
+        HashMap<Path, FileTime> times = new HashMap<>();
+        long totalSize = 0;
+        
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(CACHE_DIR, "*.whmc")) {
+            for (Path file : stream) {
+                files.add(file);
+                times.put(file, Files.getLastModifiedTime(file));
+                totalSize += Files.size(file);
+            }
+        }
+        
+        if (totalSize <= MAX_CACHE_SIZE)
+            return;
+        
+        files.sort(Comparator.comparing(times::get));
+        
+        for (Path file : files) {
+            if (totalSize <= MAX_CACHE_SIZE)
+                break;
+            if (file.equals(keep))
+                continue;
+            
+            long size = Files.size(file);
+            if (deleteCacheFile(file))
+                totalSize -= size;
+        }
+    }
+    
+    private static boolean hasCurrentVersion(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(8);
+            while (buf.hasRemaining() && channel.read(buf) >= 0);
+            buf.flip();
+            return buf.remaining() == 8 && buf.getInt() == MAGIC && buf.getInt() == VERSION;
+        }
+        catch (IOException ex) {
+            return false;
+        }
+    }
+    
+    /**
+     * Deletes a cache file. Files that are still mapped can't be deleted on Windows, which is not an error.
+     */
+    private static boolean deleteCacheFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+            return true;
+        }
+        catch (IOException ex) {
+            if (Settings.getDebugAdditionalLogs())
+                System.out.println("Can't delete model cache file: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    private static BmdMesh.Part readPart(ByteBuffer buf) {
+        BmdMesh.Part part = new BmdMesh.Part();
+        part.materialIndex = buf.getInt();
+        part.arrayMask = buf.getInt();
+        part.vertexCount = buf.getInt();
+        part.positions = readFloats(buf);
+        part.normals = readFloats(buf);
+        for (int i = 0; i < part.colors.length; i++)
+            part.colors[i] = readFloats(buf);
+        for (int i = 0; i < part.texcoords.length; i++)
+            part.texcoords[i] = readFloats(buf);
+
+        part.matrixIndices = new short[buf.getInt()];
+        buf.asShortBuffer().get(part.matrixIndices);
+        buf.position(align4(buf.position() + part.matrixIndices.length * 2));
+        part.indices = readInts(buf);
+        part.packetRanges = readInts(buf);
+        return part;
+    }
+
+    private static void writePart(DataOutputStream out, BmdMesh.Part part) throws IOException {
+        out.writeInt(part.materialIndex);
+        out.writeInt(part.arrayMask);
+        out.writeInt(part.vertexCount);
+        writeFloats(out, part.positions);
+        writeFloats(out, part.normals);
+        for (float[] colors : part.colors)
+            writeFloats(out, colors);
+        for (float[] texcoords : part.texcoords)
+            writeFloats(out, texcoords);
+
+        out.writeInt(part.matrixIndices.length);
+        for (short val : part.matrixIndices)
+            out.writeShort(val);
+        if ((part.matrixIndices.length & 1) != 0)
+            out.writeShort(0);
+        writeInts(out, part.indices);
+        writeInts(out, part.packetRanges);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        return new String(readBytes(buf), StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String val) throws IOException {
+        writeBytes(out, val.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] readBytes(ByteBuffer buf) {
+        byte[] ret = new byte[buf.getInt()];
+        buf.get(ret);
+        buf.position(align4(buf.position()));
+        return ret;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] val) throws IOException {
+        out.writeInt(val.length);
+        out.write(val);
+        for (int i = val.length; i < align4(val.length); i++)
+            out.writeByte(0);
+    }
+
+    private static float[] readFloats(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0)
+            return null;
+
+        float[] ret = new float[length];
+        buf.asFloatBuffer().get(ret);
+        buf.position(buf.position() + length * 4);
+        return ret;
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] val) throws IOException {
+        if (val == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        out.writeInt(val.length);
+        for (float f : val)
+            out.writeFloat(f);
+    }
+
+    private static int[] readInts(ByteBuffer buf) {
+        int[] ret = new int[buf.getInt()];
+        buf.asIntBuffer().get(ret);
+        buf.position(buf.position() + ret.length * 4);
+        return ret;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] val) throws IOException {
+        out.writeInt(val.length);
+        for (int i : val)
+            out.writeInt(i);
+    }
+
+    private static int align4(int val) {
+        return (val + 3) & ~3;
+    }
+}
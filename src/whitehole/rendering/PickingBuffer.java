@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2022 Whitehole Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitehole.rendering;
+
+import com.jogamp.opengl.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * An off-screen framebuffer for the picking pass. It has the size of the viewport, so every pixel that can be clicked
+ * has its own picking color, and it keeps its contents between frames, so the pixels under the cursor can be read again
+ * without drawing the scene. Reads go into pixel buffer objects and are only mapped by {@link #collect}, which lets the driver copy
+ * them while other commands are still being issued.
+ */
+public class PickingBuffer {
+    private int framebuffer = 0;
+    private int colorBuffer = 0;
+    private int depthBuffer = 0;
+    private final int[] packBuffers = new int[2]; // The 3x3 colors and the depth under the cursor
+    private int width = 0, height = 0;
+    private boolean isReadPending = false;
+
+    private PickingBuffer() {}
+
+    /**
+     * Creates a picking buffer in the given context.
+     * @return null if the context can't render into framebuffer objects or read into pixel buffer objects
+     */
+    public static PickingBuffer create(GL2 gl) {
+        boolean isSupported = gl.hasBasicFBOSupport()
+                && gl.isFunctionAvailable("glGenFramebuffers")
+                && gl.isFunctionAvailable("glMapBuffer")
+                && (gl.isExtensionAvailable("GL_VERSION_2_1") || gl.isExtensionAvailable("GL_ARB_pixel_buffer_object"));
+        if (!isSupported)
+            return null;
+
+        PickingBuffer ret = new PickingBuffer();
+        if (!ret.init(gl)) {
+            ret.close(gl);
+            return null;
+        }
+
+        return ret;
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Makes the buffer the target of drawing and sets the viewport to its size. The buffer is resized to fit the
+     * viewport first.
+     * @param gl
+     * @param viewWidth the width of the viewport in pixels
+     * @param viewHeight the height of the viewport in pixels
+     */
+    public void bind(GL2 gl, int viewWidth, int viewHeight) {
+        int w = Math.max(1, viewWidth);
+        int h = Math.max(1, viewHeight);
+
+        if (w != width || h != height) {
+            width = w;
+            height = h;
+
+            gl.glBindRenderbuffer(GL2.GL_RENDERBUFFER, colorBuffer);
+            gl.glRenderbufferStorage(GL2.GL_RENDERBUFFER, GL2.GL_RGBA8, width, height);
+            gl.glBindRenderbuffer(GL2.GL_RENDERBUFFER, depthBuffer);
+            gl.glRenderbufferStorage(GL2.GL_RENDERBUFFER, GL2.GL_DEPTH24_STENCIL8, width, height);
+            gl.glBindRenderbuffer(GL2.GL_RENDERBUFFER, 0);
+        }
+
+        gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, framebuffer);
+        gl.glViewport(0, 0, width, height);
+    }
+
+    /**
+     * Draws to the window again and restores its viewport.
+     */
+    public void unbind(GL2 gl, int viewWidth, int viewHeight) {
+        gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, gl.getContext().getDefaultDrawFramebuffer());
+        gl.glViewport(0, 0, viewWidth, viewHeight);
+    }
+
+    private boolean init(GL2 gl) {
+        int[] names = new int[2];
+
+        gl.glGenRenderbuffers(2, names, 0);
+        colorBuffer = names[0];
+        depthBuffer = names[1];
+
+        gl.glBindRenderbuffer(GL2.GL_RENDERBUFFER, colorBuffer);
+        gl.glRenderbufferStorage(GL2.GL_RENDERBUFFER, GL2.GL_RGBA8, 1, 1);
+        gl.glBindRenderbuffer(GL2.GL_RENDERBUFFER, depthBuffer);
+        gl.glRenderbufferStorage(GL2.GL_RENDERBUFFER, GL2.GL_DEPTH24_STENCIL8, 1, 1);
+        gl.glBindRenderbuffer(GL2.GL_RENDERBUFFER, 0);
+        width = height = 1;
+
+        gl.glGenFramebuffers(1, names, 0);
+        framebuffer = names[0];
+        gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, framebuffer);
+        gl.glFramebufferRenderbuffer(GL2.GL_FRAMEBUFFER, GL2.GL_COLOR_ATTACHMENT0, GL2.GL_RENDERBUFFER, colorBuffer);
+        gl.glFramebufferRenderbuffer(GL2.GL_FRAMEBUFFER, GL2.GL_DEPTH_ATTACHMENT, GL2.GL_RENDERBUFFER, depthBuffer);
+        gl.glFramebufferRenderbuffer(GL2.GL_FRAMEBUFFER, GL2.GL_STENCIL_ATTACHMENT, GL2.GL_RENDERBUFFER, depthBuffer);
+        int status = gl.glCheckFramebufferStatus(GL2.GL_FRAMEBUFFER);
+        gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, gl.getContext().getDefaultDrawFramebuffer());
+
+        if (status != GL2.GL_FRAMEBUFFER_COMPLETE)
+            return false;
+
+        gl.glGenBuffers(2, packBuffers, 0);
+        gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, packBuffers[0]);
+        gl.glBufferData(GL2.GL_PIXEL_PACK_BUFFER, 9 * 4, null, GL2.GL_STREAM_READ);
+        gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, packBuffers[1]);
+        gl.glBufferData(GL2.GL_PIXEL_PACK_BUFFER, 4, null, GL2.GL_STREAM_READ);
+        gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, 0);
+        return true;
+    }
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Starts reading the 3x3 colors and the depth around a point of the viewport. Same as reading from the window, the
+     * neighbours of a point at the edge lie outside the buffer and are undefined. The results are available from
+     * {@link #collect}.
+     * @param gl
+     * @param x the horizontal position in viewport pixels from the left
+     * @param y the vertical position in viewport pixels from the bottom
+     */
+    public void requestRead(GL2 gl, int x, int y) {
+        gl.glBindFramebuffer(GL2.GL_READ_FRAMEBUFFER, framebuffer);
+        gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, packBuffers[0]);
+        gl.glReadPixels(x - 1, y - 1, 3, 3, GL2.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, 0L);
+        gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, packBuffers[1]);
+        gl.glReadPixels(x, y, 1, 1, GL2.GL_DEPTH_COMPONENT, GL2.GL_FLOAT, 0L);
+        gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, 0);
+        gl.glBindFramebuffer(GL2.GL_READ_FRAMEBUFFER, gl.getContext().getDefaultReadFramebuffer());
+
+        isReadPending = true;
+    }
+
+    /**
+     * Copies the results of the last {@link #requestRead} into the given buffers. This waits for the read to finish,
+     * so it should be called as late as possible, for example once the rest of the frame has been issued.
+     * @param gl
+     * @param colors receives the 3x3 colors, bottom row first
+     * @param depth receives the depth under the point
+     * @return false if there was nothing to collect
+     */
+    public boolean collect(GL2 gl, IntBuffer colors, FloatBuffer depth) {
+        if (!isReadPending)
+            return false;
+
+        isReadPending = false;
+
+        gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, packBuffers[0]);
+        ByteBuffer data = gl.glMapBuffer(GL2.GL_PIXEL_PACK_BUFFER, GL2.GL_READ_ONLY);
+        if (data != null) {
+            IntBuffer ints = data.order(ByteOrder.nativeOrder()).asIntBuffer();
+            for (int i = 0; i < 9; i++)
+                colors.put(i, ints.get(i));
+            gl.glUnmapBuffer(GL2.GL_PIXEL_PACK_BUFFER);
+        }
+
+        gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, packBuffers[1]);
+        data = gl.glMapBuffer(GL2.GL_PIXEL_PACK_BUFFER, GL2.GL_READ_ONLY);
+        if (data != null) {
+            depth.put(0, data.order(ByteOrder.nativeOrder()).getFloat(0));
+            gl.glUnmapBuffer(GL2.GL_PIXEL_PACK_BUFFER);
+        }
+
+        gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, 0);
+        return true;
+    }
+
+    public void close(GL2 gl) {
+        if (framebuffer != 0)
+            gl.glDeleteFramebuffers(1, new int[] { framebuffer }, 0);
+        if (colorBuffer != 0)
+            gl.glDeleteRenderbuffers(2, new int[] { colorBuffer, depthBuffer }, 0);
+        if (packBuffers[0] != 0)
+            gl.glDeleteBuffers(2, packBuffers, 0);
+
+        framebuffer = colorBuffer = depthBuffer = 0;
+        packBuffers[0] = packBuffers[1] = 0;
+        width = height = 0;
+        isReadPending = false;
+    }
+}
@@ -19,6 +19,11 @@ package whitehole.rendering;
 import com.jogamp.opengl.*;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import whitehole.Settings;
 import whitehole.smg.object.AbstractObj;
 
@@ -32,10 +37,21 @@ public class RendererCache {
     public static GLContext refContext;
     public static int contextCount;
     
+    /**
+     * How long the render thread may spend uploading loaded models per frame, in nanoseconds
+     */
+    private static final long UPLOAD_TIME_BUDGET = 8000000L;
+    
+    private static ExecutorService LOADER;
+    private static ConcurrentLinkedQueue<DeferredRenderer> LOADED = new ConcurrentLinkedQueue();
+    private static final List<Runnable> LOAD_LISTENERS = new CopyOnWriteArrayList();
+    private static int UPLOAD_COUNT = 0;
+    
     // -------------------------------------------------------------------------------------------------------------------------
     
     public static void init() {
         CACHE = new HashMap();
+        LOADED = new ConcurrentLinkedQueue();
     }
     
     public static void setRefContext(GLContext ctx) {
@@ -70,7 +86,10 @@ public class RendererCache {
         }
         else
         {
-            GLRenderer renderer = RendererFactory.createRenderer(info, model, obj);
+            GLRenderer renderer = RendererFactory.createDeferredRenderer(info, model, obj);
+            
+            if (renderer instanceof DeferredRenderer)
+                scheduleLoad((DeferredRenderer)renderer);
 
             CacheEntry entry = new CacheEntry();
             entry.renderer = renderer;
@@ -103,4 +122,99 @@ public class RendererCache {
         else if (Settings.getDebugAdditionalLogs())
             System.out.println("[Cache - Miss] unknown key: "+key);
     }
+    
+    // -------------------------------------------------------------------------------------------------------------------------
+    // Animation playback
+    
+    /**
+     * Moves the animations of all renderers in use back to the frame they show while playback is stopped. Animated
+     * renderers are only drawn at other frames while they are played back, see {@link AbstractObj#render}.
+     */
+    public static void resetAnimations() {
+        for (CacheEntry entry : CACHE.values()) {
+            if (entry.renderer.isAnimated())
+                entry.renderer.setPlaybackFrame(0);
+        }
+    }
+    
+    // -------------------------------------------------------------------------------------------------------------------------
+    // Deferred loading
+    
+    /**
+     * Registers an action that is run whenever a model has been loaded and is waiting to be uploaded. Usually this
+     * repaints a viewport so that {@link #uploadLoadedRenderers} gets called. The action is run on a worker thread.
+     */
+    public static void addLoadListener(Runnable listener) {
+        LOAD_LISTENERS.add(listener);
+    }
+    
+    public static void removeLoadListener(Runnable listener) {
+        LOAD_LISTENERS.remove(listener);
+    }
+    
+    /**
+     * Uploads the models that have been loaded by now. Has to be called on the render thread with a current context.
+     * If there isn't enough time to upload all of them, the load listeners are notified again.
+     * @param info
+     * @return true if some objects have to be rendered again
+     */
+    public static boolean uploadLoadedRenderers(GLRenderer.RenderInfo info) {
+        ConcurrentLinkedQueue<DeferredRenderer> queue = LOADED;
+        boolean needsRerender = false;
+        long start = System.nanoTime();
+        DeferredRenderer renderer;
+        
+        while ((renderer = queue.poll()) != null) {
+            UPLOAD_COUNT++;
+            
+            try {
+                needsRerender |= renderer.finishLoading(info);
+            }
+            catch(GLException ex) {
+                System.out.println("Failed to upload model: " + ex.getMessage());
+            }
+            
+            if (System.nanoTime() - start > UPLOAD_TIME_BUDGET)
+                break;
+        }
+        
+        if (!queue.isEmpty())
+            notifyLoadListeners();
+        
+        return needsRerender;
+    }
+    
+    /**
+     * Returns how many models have been uploaded so far. Objects drawn with a placeholder change their size once their
+     * model is uploaded, so viewports compare this to update the bounds of their objects.
+     */
+    public static int getUploadCount() {
+        return UPLOAD_COUNT;
+    }
+    
+    private static void scheduleLoad(DeferredRenderer renderer) {
+        if (LOADER == null) {
+            int threadCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            LOADER = Executors.newFixedThreadPool(threadCount, task -> {
+                Thread thread = new Thread(task, "Model loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        
+        // Models finished after the cache has been reset belong to a closed editor and are dropped
+        ConcurrentLinkedQueue<DeferredRenderer> queue = LOADED;
+        
+        renderer.setTask(LOADER.submit(() -> {
+            if (renderer.load()) {
+                queue.add(renderer);
+                notifyLoadListeners();
+            }
+        }));
+    }
+    
+    private static void notifyLoadListeners() {
+        for (Runnable listener : LOAD_LISTENERS)
+            listener.run();
+    }
 }
@@ -244,6 +244,45 @@ public final class RendererFactory {
     // Renderer creation
     
     public static GLRenderer createRenderer(GLRenderer.RenderInfo info, String objModelName, AbstractObj obj) {
+        GLRenderer renderer = tryCreateSpecialRenderer(info, objModelName, obj);
+        if (renderer != null)
+            return renderer;
+        
+        // Try to create a sole model
+        renderer = tryCreateBmdRenderer(info, objModelName);
+        
+        if (renderer instanceof BmdRenderer) {
+            tryOffsetBmdRenderer((BmdRenderer)renderer, objModelName, obj);
+        }
+        
+        return renderer;
+    }
+    
+    /**
+     * Same as {@link #createRenderer}, but sole models are loaded on a worker thread. Until they are ready, a
+     * {@link DeferredRenderer} draws a dummy cube in their place.
+     */
+    public static GLRenderer createDeferredRenderer(GLRenderer.RenderInfo info, String objModelName, AbstractObj obj) {
+        GLRenderer renderer = tryCreateSpecialRenderer(info, objModelName, obj);
+        if (renderer != null)
+            return renderer;
+        
+        return new DeferredRenderer(() -> loadBmdRenderer(objModelName, obj));
+    }
+    
+    /**
+     * Loads a sole model without touching OpenGL. Returns null if there is no such model.
+     */
+    static BmdRenderer loadBmdRenderer(String objModelName, AbstractObj obj) {
+        BmdRenderer renderer = BmdRenderer.preload(objModelName);
+        
+        if (renderer != null)
+            tryOffsetBmdRenderer(renderer, objModelName, obj);
+        
+        return renderer;
+    }
+    
+    private static GLRenderer tryCreateSpecialRenderer(GLRenderer.RenderInfo info, String objModelName, AbstractObj obj) {
         GLRenderer renderer;
         
         if (Settings.getUseCollisionModels())
@@ -288,14 +327,7 @@ public final class RendererFactory {
                 return renderer;
         }
         
-        // Try to create a sole model
-        renderer = tryCreateBmdRenderer(info, objModelName);
-        
-        if (renderer instanceof BmdRenderer) {
-            tryOffsetBmdRenderer((BmdRenderer)renderer, objModelName, obj);
-        }
-        
-        return renderer;
+        return null;
     }
     
     private static GLRenderer tryCreateRendererForOceanType(String objName, AbstractObj obj) {
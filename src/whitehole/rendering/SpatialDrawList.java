@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2022 Whitehole Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package whitehole.rendering;
+
+import com.jogamp.opengl.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import whitehole.math.BoundingBox;
+import whitehole.math.Bvh;
+import whitehole.math.Frustum;
+import whitehole.rendering.GLRenderer.RenderMode;
+import whitehole.smg.object.AbstractObj;
+
+/**
+ * Draws a list of objects, for example one layer of a zone, in chunks of nearby objects. Every chunk is compiled into
+ * its own display lists, and only the chunks whose bounds are inside the view volume are drawn. Objects whose size is
+ * unknown are put into a chunk that is always drawn. When a single object changes, only its chunk has to be compiled
+ * again, see {@link #invalidate}.
+ * <p>
+ * While animations are played back, objects with animated renderers are left out of the lists, since those would have
+ * to be compiled again every frame. They are painted whenever their chunk is drawn instead, so only the animations of
+ * objects in view are played back, see {@link #setAnimating}.
+ */
+public class SpatialDrawList {
+    /**
+     * Draws a single object in the given render mode.
+     */
+    public interface Painter {
+        void paint(AbstractObj obj, RenderMode mode) throws GLException;
+    }
+
+    /**
+     * The modes the lists are compiled for, in the order of their lists
+     */
+    public static final RenderMode[] MODES = { RenderMode.PICKING, RenderMode.OPAQUE, RenderMode.TRANSLUCENT };
+
+    private static final int CHUNK_SIZE = 16;
+
+    /**
+     * Stands in for objects whose size has become unknown, so they are never culled
+     */
+    private static final float UNBOUNDED = 1e30f;
+
+    private final ArrayList<AbstractObj> bounded = new ArrayList();
+    private final ArrayList<AbstractObj> unbounded = new ArrayList();
+    private Bvh bvh = null;
+    private int[] chunkLists = new int[0];
+    private final int[] unboundedLists = new int[MODES.length];
+    
+    // The animated objects of every chunk, which are painted on every draw, see AbstractObj#isAnimated
+    private final ArrayList<ArrayList<AbstractObj>> liveChunks = new ArrayList();
+    private final ArrayList<AbstractObj> liveUnbounded = new ArrayList();
+    private boolean isAnimating = false;
+
+    // The index of every object in bounded, or -1 if it is unbounded
+    private final IdentityHashMap<AbstractObj, Integer> indices = new IdentityHashMap();
+    private boolean[] dirtyChunks = new boolean[0];
+    private boolean isUnboundedDirty = false;
+    private boolean isDirty = false;
+
+    // -------------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Sorts the objects into chunks and compiles the display lists of all chunks. Lists from the previous compilation
+     * are reused.
+     * @param gl
+     * @param objects the objects to draw
+     * @param painter draws each object
+     */
+    public void compile(GL2 gl, List<AbstractObj> objects, Painter painter) throws GLException {
+        bounded.clear();
+        unbounded.clear();
+        indices.clear();
+
+        float[] bounds = new float[objects.size() * 6];
+
+        for (AbstractObj obj : objects) {
+            BoundingBox box = obj.getBounds();
+
+            if (box == null || box.isEmpty()) {
+                indices.put(obj, -1);
+                unbounded.add(obj);
+                continue;
+            }
+
+            box.toArray(bounds, bounded.size() * 6);
+            indices.put(obj, bounded.size());
+            bounded.add(obj);
+        }
+
+        bvh = new Bvh(bounds, bounded.size(), CHUNK_SIZE);
+
+        int oldCount = chunkLists.length;
+        int newCount = bvh.getLeafCount() * MODES.length;
+
+        for (int i = newCount; i < oldCount; i++)
+            gl.glDeleteLists(chunkLists[i], 1);
+
+        int[] lists = new int[newCount];
+        System.arraycopy(chunkLists, 0, lists, 0, Math.min(oldCount, newCount));
+        chunkLists = lists;
+
+        while (liveChunks.size() > bvh.getLeafCount())
+            liveChunks.remove(liveChunks.size() - 1);
+        while (liveChunks.size() < bvh.getLeafCount())
+            liveChunks.add(new ArrayList());
+
+        for (int leaf = 0; leaf < bvh.getLeafCount(); leaf++)
+            compileChunk(gl, leaf, painter);
+
+        compileUnbounded(gl, painter);
+
+        dirtyChunks = new boolean[bvh.getLeafCount()];
+        isUnboundedDirty = false;
+        isDirty = false;
+    }
+
+    /**
+     * Compiles the chunks of the objects that have been invalidated since the last compilation.
+     * @param gl
+     * @param painter draws each object
+     */
+    public void compileDirty(GL2 gl, Painter painter) throws GLException {
+        if (!isDirty)
+            return;
+
+        // Moved objects may have left the bounds of their chunk
+        bvh.refit();
+
+        for (int leaf = 0; leaf < dirtyChunks.length; leaf++) {
+            if (dirtyChunks[leaf])
+                compileChunk(gl, leaf, painter);
+        }
+
+        if (isUnboundedDirty)
+            compileUnbounded(gl, painter);
+
+        Arrays.fill(dirtyChunks, false);
+        isUnboundedDirty = false;
+        isDirty = false;
+    }
+
+    private void compileChunk(GL2 gl, int leaf, Painter painter) throws GLException {
+        int start = bvh.getLeafStart(leaf);
+        int end = start + bvh.getLeafSize(leaf);
+
+        ArrayList<AbstractObj> live = liveChunks.get(leaf);
+        ArrayList<AbstractObj> baked = new ArrayList(end - start);
+        live.clear();
+
+        for (int i = start; i < end; i++) {
+            AbstractObj obj = bounded.get(bvh.getItem(i));
+            (isAnimating && obj.isAnimated() ? live : baked).add(obj);
+        }
+
+        compileLists(gl, chunkLists, leaf * MODES.length, baked, painter);
+    }
+
+    private void compileUnbounded(GL2 gl, Painter painter) throws GLException {
+        ArrayList<AbstractObj> baked = new ArrayList(unbounded.size());
+        liveUnbounded.clear();
+
+        for (AbstractObj obj : unbounded)
+            (isAnimating && obj.isAnimated() ? liveUnbounded : baked).add(obj);
+
+        compileLists(gl, unboundedLists, 0, baked, painter);
+    }
+
+    private static void compileLists(GL2 gl, int[] lists, int first, List<AbstractObj> objects, Painter painter) throws GLException {
+        for (int m = 0; m < MODES.length; m++) {
+            newList(gl, lists, first + m);
+
+            for (AbstractObj obj : objects)
+                painter.paint(obj, MODES[m]);
+
+            gl.glEndList();
+        }
+    }
+
+    /**
+     * Sets whether animations are played back, so animated objects are painted on every draw instead of being compiled.
+     * This takes effect once the list is compiled again with {@link #compile}.
+     */
+    public void setAnimating(boolean animating) {
+        isAnimating = animating;
+    }
+
+    /**
+     * Returns whether any objects are painted on every draw, see {@link #setAnimating}.
+     */
+    public boolean hasLiveObjects() {
+        if (!liveUnbounded.isEmpty())
+            return true;
+
+        for (ArrayList<AbstractObj> live : liveChunks) {
+            if (!live.isEmpty())
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Marks the chunk of an object to be compiled again by {@link #compileDirty} and takes the current bounds of the
+     * object. The chunks stay the same, so an object that has been moved far away makes its chunk larger until the
+     * list is compiled in full again.
+     * @param obj the object that has changed
+     * @return false if the object is not part of this list
+     */
+    public boolean invalidate(AbstractObj obj) {
+        Integer index = indices.get(obj);
+        if (index == null)
+            return false;
+
+        if (index < 0)
+            isUnboundedDirty = true;
+        else {
+            BoundingBox box = obj.getBounds();
+            bvh.setItemBounds(index, box == null || box.isEmpty() ? createUnboundedBox() : box);
+            dirtyChunks[bvh.getLeafOfItem(index)] = true;
+        }
+
+        isDirty = true;
+        return true;
+    }
+
+    private static void newList(GL2 gl, int[] lists, int index) {
+        if (lists[index] == 0)
+            lists[index] = gl.glGenLists(1);
+
+        gl.glNewList(lists[index], GL2.GL_COMPILE);
+    }
+
+    /**
+     * Takes the current bounds of all objects without compiling anything again. Call this when the renderers of the
+     * objects change their size, for example once a model has been loaded.
+     */
+    public void updateBounds() {
+        if (bvh == null)
+            return;
+
+        BoundingBox infinite = createUnboundedBox();
+
+        for (int i = 0; i < bounded.size(); i++) {
+            BoundingBox box = bounded.get(i).getBounds();
+            bvh.setItemBounds(i, box == null || box.isEmpty() ? infinite : box);
+        }
+
+        bvh.refit();
+    }
+
+    /**
+     * Draws the chunks that are at least partly inside the view volume, along with their live animated objects.
+     * @param gl
+     * @param frustum the view volume in the space of the objects, or null to draw everything
+     * @param mode one of {@link #MODES}
+     * @param painter draws each animated object
+     */
+    public void draw(GL2 gl, Frustum frustum, RenderMode mode, Painter painter) throws GLException {
+        int m = getModeIndex(mode);
+        if (m < 0)
+            return;
+
+        if (unboundedLists[m] != 0)
+            gl.glCallList(unboundedLists[m]);
+        for (AbstractObj obj : liveUnbounded)
+            painter.paint(obj, mode);
+
+        if (bvh == null)
+            return;
+
+        if (frustum == null) {
+            for (int leaf = 0; leaf < bvh.getLeafCount(); leaf++)
+                drawChunk(gl, leaf, m, painter);
+        }
+        else
+            bvh.queryFrustum(frustum, leaf -> drawChunk(gl, leaf, m, painter));
+    }
+
+    private void drawChunk(GL2 gl, int leaf, int m, Painter painter) throws GLException {
+        gl.glCallList(chunkLists[leaf * MODES.length + m]);
+
+        for (AbstractObj obj : liveChunks.get(leaf))
+            painter.paint(obj, MODES[m]);
+    }
+
+    private static BoundingBox createUnboundedBox() {
+        BoundingBox ret = new BoundingBox();
+        ret.include(-UNBOUNDED, -UNBOUNDED, -UNBOUNDED);
+        ret.include(UNBOUNDED, UNBOUNDED, UNBOUNDED);
+        return ret;
+    }
+
+    public void close(GL2 gl) {
+        for (int dl : chunkLists)
+            gl.glDeleteLists(dl, 1);
+
+        for (int m = 0; m < MODES.length; m++) {
+            gl.glDeleteLists(unboundedLists[m], 1);
+            unboundedLists[m] = 0;
+        }
+
+        chunkLists = new int[0];
+        liveChunks.clear();
+        liveUnbounded.clear();
+        dirtyChunks = new boolean[0];
+        isUnboundedDirty = false;
+        isDirty = false;
+        bvh = null;
+        bounded.clear();
+        unbounded.clear();
+        indices.clear();
+    }
+
+    public static int getModeIndex(RenderMode mode) {
+        for (int m = 0; m < MODES.length; m++) {
+            if (MODES[m] == mode)
+                return m;
+        }
+
+        return -1;
+    }
+}
@@ -66,6 +66,8 @@ public class BasicAnimationRenderer extends BmdRenderer {
             if (jointAnim == null)
                 jointAnim = ctor_tryLoadBCK(modelName, bckData.filename, archive);
             jointAnimIndex = getAnimationFrameOrSource(obj, bckData);
+            if (isFrameSelector(bckData))
+                playbackAnims &= ~PLAYBACK_BCK;
         }
     }
     
@@ -77,6 +79,8 @@ public class BasicAnimationRenderer extends BmdRenderer {
             if (colRegisterAnim == null)
                 colRegisterAnim = ctor_tryLoadBRK(modelName, brkData.filename, archive);
             colRegisterAnimIndex = getAnimationFrameOrSource(obj, brkData);
+            if (isFrameSelector(brkData))
+                playbackAnims &= ~PLAYBACK_BRK;
         }
     }
     
@@ -88,6 +92,8 @@ public class BasicAnimationRenderer extends BmdRenderer {
             if (texMatrixAnim == null)
                 texMatrixAnim = ctor_tryLoadBTK(modelName, btkData.filename, archive);
             texMatrixAnimIndex = getAnimationFrameOrSource(obj, btkData);
+            if (isFrameSelector(btkData))
+                playbackAnims &= ~PLAYBACK_BTK;
         }
     }
     
@@ -99,6 +105,8 @@ public class BasicAnimationRenderer extends BmdRenderer {
             if (texPatternAnim == null)
                 texPatternAnim = ctor_tryLoadBTP(modelName, btpData.filename, archive);
             texPatternAnimIndex = getAnimationFrameOrSource(obj, btpData);
+            if (isFrameSelector(btpData))
+                playbackAnims &= ~PLAYBACK_BTP;
         }
     }
     
@@ -110,6 +118,8 @@ public class BasicAnimationRenderer extends BmdRenderer {
             if (shapeVisibleAnim == null)
                 shapeVisibleAnim = ctor_tryLoadBVA(modelName, bvaData.filename, archive);
             shapeVisibleAnimIndex = getAnimationFrameOrSource(obj, bvaData);
+            if (isFrameSelector(bvaData))
+                playbackAnims &= ~PLAYBACK_BVA;
         }
     }
     
@@ -121,6 +131,8 @@ public class BasicAnimationRenderer extends BmdRenderer {
             if (matRegisterAnim == null)
                 matRegisterAnim = ctor_tryLoadBPK(modelName, bpkData.filename, archive);
             matRegisterAnimIndex = getAnimationFrameOrSource(obj, bpkData);
+            if (isFrameSelector(bpkData))
+                playbackAnims &= ~PLAYBACK_BPK;
         }
     }
     
@@ -154,6 +166,15 @@ public class BasicAnimationRenderer extends BmdRenderer {
         return x;
     }
     
+    /**
+     * Animations that show a fixed frame or a frame picked by the object are used to select a variant of the model, so
+     * they are not played back.
+     */
+    protected static boolean isFrameSelector(AnimationParam param)
+    {
+        return param.hasSource() || (param.frame != null && param.frame != 0);
+    }
+    
     @Override
     public void releaseStorage()
     {
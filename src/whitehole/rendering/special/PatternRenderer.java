@@ -20,6 +20,7 @@ import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.GLException;
 import java.util.HashMap;
 import org.json.JSONObject;
+import whitehole.math.BoundingBox;
 import whitehole.rendering.pattern.CircleModelPattern;
 import whitehole.smg.object.AbstractObj;
 
@@ -66,6 +67,10 @@ public class PatternRenderer extends BasicAnimationRenderer {
         return super.boundToObjArg(arg);
     }
     
+    // The copies of the model are spread out along the pattern
+    @Override
+    public BoundingBox getBounds() { return null; }
+    
     @Override
     public void render(RenderInfo info) throws GLException
     {
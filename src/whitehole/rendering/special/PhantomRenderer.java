@@ -21,6 +21,7 @@ import com.jogamp.opengl.GLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import org.json.*;
+import whitehole.math.BoundingBox;
 import whitehole.math.Vec3f;
 import whitehole.rendering.BmdRenderer;
 import whitehole.rendering.GLRenderer;
@@ -161,6 +162,10 @@ public class PhantomRenderer extends ShapeModelRenderer {
                 return true;
         return false;
     }
+    // The phantoms are placed far from the model itself
+    @Override
+    public BoundingBox getBounds() { return null; }
+    
     @Override
     public void render(GLRenderer.RenderInfo info) throws GLException {
         GL2 gl = info.drawable.getGL().getGL2();
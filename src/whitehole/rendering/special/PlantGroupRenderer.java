@@ -23,6 +23,7 @@ import java.util.HashMap;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import whitehole.Whitehole;
+import whitehole.math.BoundingBox;
 import whitehole.math.Vec3f;
 import whitehole.rendering.GLRenderer;
 import whitehole.smg.object.AbstractObj;
@@ -85,6 +86,7 @@ public class PlantGroupRenderer extends ShapeModelRenderer {
             texMatrixAnimIndex = plant.colorOverride;
             texPatternAnimIndex = plant.colorOverride;
             shapeVisibleAnimIndex = plant.colorOverride;
+            playbackAnims &= ~(PLAYBACK_BTP | PLAYBACK_BVA | PLAYBACK_BRK | PLAYBACK_BTK);
         }
         
         ctor_uploadData(info);
@@ -99,6 +101,10 @@ public class PlantGroupRenderer extends ShapeModelRenderer {
         return super.boundToObjArg(arg); 
     }
     
+    // Every plant of the group is drawn at its own position
+    @Override
+    public BoundingBox getBounds() { return null; }
+    
     @Override
     public void render(GLRenderer.RenderInfo info) throws GLException
     {
@@ -95,15 +95,16 @@ public class PowerStarRenderer extends BmdRenderer
         texPatternAnimIndex = getPowerStarColor(obj, defaultColorFrame);
         texMatrixAnimIndex = texPatternAnimIndex;
         colRegisterAnimIndex = texPatternAnimIndex;
+        playbackAnims &= ~(PLAYBACK_BTP | PLAYBACK_BTK | PLAYBACK_BRK); // The frame is the color, not a point in time
         
-        model.setMaterialHidden("GrandStarBronze", true);
-        model.setMaterialHidden("GrandStarEmpty", true);
+        setMaterialHidden("GrandStarBronze", true);
+        setMaterialHidden("GrandStarEmpty", true);
         if (texPatternAnimIndex == 1)
         {
             if (grandArchive != null) //Okay well this is just how Grand Stars work...
             {
-                model.setMaterialHidden("FooMat", true);
-                model.setMaterialHidden("GrandStarBronze", false);
+                setMaterialHidden("FooMat", true);
+                setMaterialHidden("GrandStarBronze", false);
             }
         }
         
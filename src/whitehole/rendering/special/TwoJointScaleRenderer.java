@@ -20,8 +20,8 @@ import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.GLException;
 import java.math.BigDecimal;
 import java.util.HashMap;
+import whitehole.math.BoundingBox;
 import whitehole.rendering.GLRenderer;
-import whitehole.smg.Bmd;
 import whitehole.smg.object.AbstractObj;
 
 /**
@@ -63,13 +63,10 @@ public class TwoJointScaleRenderer extends BasicAnimationRenderer {
             
             if (topName != null && bottomName != null && scaleYTop != null && posYBottom != null)
             {
-                Bmd.Joint TopJoint = model.getJointByName(topName);
-                Bmd.Joint BottomJoint = model.getJointByName(bottomName);
                 float f = scaleYTop.floatValue() * scaleValue;
                 float y = posYBottom.floatValue();
-                TopJoint.translation.y = f;
-                BottomJoint.translation.y = -(f+y);
-                model.recalcAllJoints();
+                ctor_setJointTranslationY(topName, f);
+                ctor_setJointTranslationY(bottomName, -(f+y));
             }
         }
         else if (calcType == 1) // Only top needs to move (T=S)
@@ -101,10 +98,8 @@ public class TwoJointScaleRenderer extends BasicAnimationRenderer {
             
             if (topName != null && scaleYTop != null && baseYTop != null)
             {
-                Bmd.Joint TopJoint = model.getJointByName(topName);
                 float f = scaleYTop.floatValue() * scaleValue;
-                TopJoint.translation.y = f + baseYTop.floatValue();
-                model.recalcAllJoints();
+                ctor_setJointTranslationY(topName, f + baseYTop.floatValue());
                 
             }
         }
@@ -117,6 +112,10 @@ public class TwoJointScaleRenderer extends BasicAnimationRenderer {
     @Override
     public boolean hasSpecialScaling() { return true; }
     
+    // The joints are moved away from the rest pose
+    @Override
+    public BoundingBox getBounds() { return null; }
+    
     @Override
     public void render(GLRenderer.RenderInfo info) throws GLException
     {
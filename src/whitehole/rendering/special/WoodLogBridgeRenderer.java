@@ -20,6 +20,7 @@ import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.GLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import whitehole.math.BoundingBox;
 import whitehole.math.Matrix4;
 import whitehole.math.Vec3f;
 import whitehole.rendering.BmdRenderer;
@@ -117,6 +118,10 @@ public class WoodLogBridgeRenderer extends BmdRenderer {
         return super.boundToObjArg(arg); 
     }
     
+    // The logs are spread out between the two bridge ends
+    @Override
+    public BoundingBox getBounds() { return null; }
+    
     @Override
     public void render(GLRenderer.RenderInfo info) throws GLException
     {
@@ -22,6 +22,7 @@ import java.util.HashMap;
 import org.json.JSONObject;
 import whitehole.db.SpecialRenderers;
 import whitehole.db.SpecialRenderers.AnimationParam;
+import whitehole.math.BoundingBox;
 import whitehole.rendering.BmdRenderer;
 import static whitehole.rendering.GLRenderer.RenderMode.HIGHLIGHT;
 import whitehole.smg.object.AbstractObj;
@@ -95,6 +96,10 @@ public class WorldMapPointRenderer extends BmdRenderer {
         return (isValidBmdModel() && super.gottaRender(info)) || (connectedModel != null && connectedModel.isValidBmdModel() && connectedModel.gottaRender(info));
     }
     
+    // The connected model and the link lines are drawn around the point
+    @Override
+    public BoundingBox getBounds() { return null; }
+    
     @Override
     public void render(RenderInfo info) {
         // TODO cleanup this code a little
@@ -17,17 +17,32 @@
 package whitehole.smg;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import whitehole.db.FieldHashes;
 import whitehole.io.FileBase;
 
 public class Bcsv {
     private static final int[] FIELD_SIZES = { 4, 32, 4, 4, 2, 1, 4 };
     private static final int[] FIELD_ORDERS = { 2, 0, 1, 3, 4, 5, 6 };
+    private static final Charset CHARSET_SJIS = Charset.forName("SJIS");
+    private static final Charset CHARSET_UTF8 = Charset.forName("UTF8");
     private static final Comparator<Field> FIELD_ORDERER = (f1, f2) -> Integer.compare(FIELD_ORDERS[f1.type], FIELD_ORDERS[f2.type]);
     
     public static int calcJGadgetHash(String field) {
@@ -76,6 +91,7 @@ public class Bcsv {
     private FileBase file;
     public LinkedHashMap<Integer, Field> fields;
     public List<Entry> entries;
+    private Columns columns;
     private int entrySize = -1;
     private boolean isBigEndian;
     
@@ -90,90 +106,135 @@ public class Bcsv {
             return;
         }
         
+        // Decode everything from one buffer instead of seeking through the file for every cell
+        int length = (int)file.getLength();
+        ByteBuffer data = wrapContents(file.getContents(), length, 0x10);
+        Charset charset = isBigEndian ? CHARSET_SJIS : CHARSET_UTF8;
+        
         // Read header and prepare data
-        file.position(0);
-        int numEntries = file.readInt();
-        int numFields = file.readInt();
-        int offData = file.readInt();
-        entrySize = file.readInt();
+        int numEntries = data.getInt(0x0);
+        int numFields = data.getInt(0x4);
+        int offData = data.getInt(0x8);
+        entrySize = data.getInt(0xC);
         int offStrings = offData + (numEntries * entrySize);
         
+        if (numEntries < 0 || numFields < 0 || offStrings < 0)
+            throw new IOException("Invalid BCSV header");
+        
+        // Truncated files read as zeroes past their end
+        data = wrapContents(data.array(), length, Math.max(0x10 + numFields * 0xC, offStrings));
+        
         fields = new LinkedHashMap(numFields);
         entries = new ArrayList(numEntries);
         
         // Read fields
         for (int i = 0; i < numFields; i++) {
             Field field = new Field();
-            file.position(0x10 + (0xC * i));
+            int offField = 0x10 + (0xC * i);
 
-            field.hash = file.readInt();
-            field.mask = file.readInt();
-            field.offset = file.readShort();
-            field.shift = file.readByte();
-            field.type = file.readByte();
+            field.hash = data.getInt(offField);
+            field.mask = data.getInt(offField + 0x4);
+            field.offset = data.getShort(offField + 0x8);
+            field.shift = data.get(offField + 0xA);
+            field.type = data.get(offField + 0xB);
             field.name = FieldHashes.get(field.hash);
             
+            if (field.type < 0 || field.type > 6)
+                throw new IOException("Unsupported JMap data type " + field.type);
+            
             fields.put(field.hash, field);
         }
         
-        byte[] stringBuffer = new byte[32];
+        columns = new Columns(fields.values(), numEntries);
+        byte[] array = data.array();
+        int limit = data.limit();
         
-        // Read entries
-        for (int i = 0; i < numEntries; i++) {
-            Entry entry = new Entry();
+        // Many entries share the same strings, so each one is only decoded once
+        HashMap<Integer, Integer> stringsByOffset = null;
+        
+        // Read entries column by column
+        int col = 0;
+        
+        for (Field field : fields.values()) {
+            Object column = columns.data[col++];
+            int mask = field.mask;
+            int shift = field.shift;
+            int offCell = offData + field.offset;
             
-            for (Field field: fields.values()) {
-                file.position(offData + (i * entrySize) + field.offset);
-                Object val = null;
-                
+            for (int i = 0; i < numEntries; i++, offCell += entrySize) {
                 switch (field.type) {
                     // LONG and LONG_2
                     case 0:
                     case 3:
-                        val = (int)((file.readInt() & field.mask) >>> field.shift);
+                        ((int[])column)[i] = (data.getInt(offCell) & mask) >>> shift;
                         break;
                     // STRING
                     case 1:
-                        int length = 0;
-                        for (; length < 32; length++) {
-                            byte b = file.readByte();
-                            
-                            if (b == 0) {
-                                break;
-                            }
-                            
-                            stringBuffer[length] = b;
-                        }
-                        val = new String(stringBuffer, 0, length, (isBigEndian ? "SJIS" : "UTF8"));
+                        int end = Math.min(offCell + 32, limit);
+                        int strLength = 0;
+                        while (offCell + strLength < end && array[offCell + strLength] != 0)
+                            strLength++;
+                        ((int[])column)[i] = columns.addString(new String(array, offCell, strLength, charset));
                         break;
                     // FLOAT
                     case 2:
-                        val = file.readFloat();
+                        ((float[])column)[i] = data.getFloat(offCell);
                         break;
                     // SHORT
                     case 4:
-                        val = (short)((file.readShort() & field.mask) >>> field.shift);
+                        ((short[])column)[i] = (short)((data.getShort(offCell) & mask) >>> shift);
                         break;
                     // CHAR
                     case 5:
-                        val = (byte)((file.readByte() & field.mask) >>> field.shift);
+                        ((byte[])column)[i] = (byte)((data.get(offCell) & mask) >>> shift);
                         break;
                     // STRING_OFFSET
                     case 6:
-                        int offString = file.readInt() + offStrings;
-                        file.position(offString);
-                        val = file.readString((isBigEndian ? "SJIS" : "UTF8"), 0);
+                        int offString = data.getInt(offCell) + offStrings;
+                        
+                        if (stringsByOffset == null)
+                            stringsByOffset = new HashMap();
+                        
+                        Integer index = stringsByOffset.get(offString);
+                        
+                        if (index == null) {
+                            offString = Math.max(0, Math.min(offString, limit));
+                            int strEnd = offString;
+                            while (strEnd < limit && array[strEnd] != 0)
+                                strEnd++;
+                            index = columns.addString(new String(array, offString, strEnd - offString, charset));
+                            stringsByOffset.put(offString, index);
+                        }
+                        
+                        ((int[])column)[i] = index;
                         break;
-                    // Invalid type
-                    default:
-                        throw new IOException("Unsupported JMap data type " + field.type);
                 }
-
-                entry.put(field.hash, val);
             }
-
-            entries.add(entry);
         }
+        
+        for (int i = 0; i < numEntries; i++)
+            entries.add(new Entry(columns, i));
+    }
+    
+    private ByteBuffer wrapContents(byte[] contents, int length, int minLength) {
+        if (length < minLength) {
+            byte[] padded = new byte[minLength];
+            System.arraycopy(contents, 0, padded, 0, Math.min(length, contents.length));
+            contents = padded;
+            length = minLength;
+        }
+        
+        ByteBuffer ret = ByteBuffer.wrap(contents, 0, length);
+        ret.order(isBigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        return ret;
+    }
+    
+    /**
+     * Returns the column store the entries were decoded into, or null if the file was empty. Entries that were added
+     * later or changed in a way that doesn't fit their columns are not part of it.
+     */
+    public Columns getColumns() {
+        return columns;
     }
 
     public void setBigEndian (boolean bigEndian) {
@@ -203,39 +264,64 @@ public class Bcsv {
         }
         
         int offStrings = offData + numEntries * entrySize;
-        file.setLength(offStrings);
+        Field[] fieldList = fields.values().toArray(new Field[numFields]);
+        
+        // Build the string table first, so the size of the whole file is known before writing anything
+        StringTable stringTable = new StringTable(isBigEndian ? CHARSET_SJIS : CHARSET_UTF8);
+        int numStringFields = 0;
+        
+        for (Field field : fieldList) {
+            if (field.type == 6)
+                numStringFields++;
+        }
+        
+        int[] stringOffsets = new int[numEntries * numStringFields];
+        
+        if (numStringFields > 0) {
+            int cell = 0;
+            
+            for (Entry entry : entries) {
+                for (Field field : fieldList) {
+                    if (field.type == 6)
+                        stringOffsets[cell++] = stringTable.add(entry.getString(field.hash, ""));
+                }
+            }
+        }
+        
+        // Align to 32 bytes
+        int endStrings = offStrings + stringTable.size();
+        int fileSize = (endStrings + 0x1F) & ~0x1F;
+        ByteBuffer data = ByteBuffer.allocate(fileSize);
+        data.order(isBigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
 
         // Write header
-        file.position(0);
-        file.writeInt(entries.size());
-        file.writeInt(fields.size());
-        file.writeInt(offData);
-        file.writeInt(entrySize);
+        data.putInt(numEntries);
+        data.putInt(numFields);
+        data.putInt(offData);
+        data.putInt(entrySize);
 
         // Write fields
-        for (Field field : fields.values()) {
-            file.writeInt(field.hash);
-            file.writeInt(field.mask);
-            file.writeShort(field.offset);
-            file.writeByte(field.shift);
-            file.writeByte(field.type);
+        for (Field field : fieldList) {
+            data.putInt(field.hash);
+            data.putInt(field.mask);
+            data.putShort(field.offset);
+            data.put(field.shift);
+            data.put(field.type);
         }
         
         // Write entries
-        int curString = 0;
-        int i = 0;
-        HashMap<String, Integer> stringLookup = new HashMap();
+        int offEntry = offData;
+        int cell = 0;
 
         for (Entry entry : entries) {
-            for (Field field : fields.values()) {
-                int offVal = (int)(offData + (i * entrySize) + field.offset);
-                file.position(offVal);
+            for (Field field : fieldList) {
+                int offVal = offEntry + field.offset;
 
                 switch(field.type) {
                     // LONG and LONG_2
                     case 0:
                     case 3:
-                        file.writeInt((entry.getInt(field.hash, -1) << field.shift) & field.mask);
+                        data.putInt(offVal, (entry.getInt(field.hash, -1) << field.shift) & field.mask);
                         break;
                     // STRING
                     case 1:
@@ -243,46 +329,30 @@ public class Bcsv {
                         break;
                     // FLOAT
                     case 2:
-                        file.writeFloat((float)entry.getFloat(field.hash, 0.0f));
+                        data.putFloat(offVal, entry.getFloat(field.hash, 0.0f));
                         break;
                     // SHORT
                     case 4:
-                        file.writeShort((short)((entry.getShort(field.hash, (short)-1) << field.shift) & field.mask));
+                        data.putShort(offVal, (short)((entry.getShort(field.hash, (short)-1) << field.shift) & field.mask));
                         break;
                     // BYTE
                     case 5:
-                        file.writeByte((byte)((entry.getByte(field.hash, (byte)-1) << field.shift) & field.mask));
+                        data.put(offVal, (byte)((entry.getByte(field.hash, (byte)-1) << field.shift) & field.mask));
                         break;
                     // STRING_OFFSET
                     case 6:
-                        String val = entry.getString(field.hash, "");
-                        
-                        if (stringLookup.containsKey(val)) {
-                            file.writeInt(stringLookup.get(val));
-                        }
-                        else {
-                            stringLookup.put(val, curString);
-                            file.writeInt(curString);
-                            
-                            file.position(offStrings + curString);
-                            curString += file.writeString((isBigEndian ? "SJIS" : "UTF8"), val, 0);
-                        }
+                        data.putInt(offVal, stringOffsets[cell++]);
                         break;
                 }
             }
 
-            i++;
+            offEntry += entrySize;
         }
         
-        // Align to 32 bytes
-        i = (int)file.getLength();
-        file.position(i);
-        int alignEnd = (i + 0x1F) & ~0x1F;
+        stringTable.copyTo(data.array(), offStrings);
+        Arrays.fill(data.array(), endStrings, fileSize, (byte)0x40);
         
-        for (; i < alignEnd; i++) {
-            file.writeByte((byte)0x40);
-        }
-
+        file.setContents(data.array());
         file.save();
     }
     
@@ -427,7 +497,420 @@ public class Bcsv {
         }
     }
 
-    public static class Entry extends LinkedHashMap<Integer, Object> {
+    /**
+     * Collects the distinct strings of a file and encodes each one once. Offsets are looked up in an open-addressing
+     * table, and all strings share one encoder and one growing buffer.
+     */
+    private static final class StringTable {
+        private final CharsetEncoder encoder;
+        private ByteBuffer buffer = ByteBuffer.allocate(0x400);
+        private String[] keys = new String[64];
+        private int[] offsets = new int[64];
+        private int count = 0;
+        
+        private StringTable(Charset charset) {
+            encoder = charset.newEncoder();
+        }
+        
+        /**
+         * Returns the offset of the string in the table, adding it first if it's not there yet.
+         */
+        private int add(String str) throws IOException {
+            int mask = keys.length - 1;
+            int hash = str.hashCode();
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            
+            while (keys[slot] != null) {
+                if (keys[slot].equals(str))
+                    return offsets[slot];
+                
+                slot = (slot + 1) & mask;
+            }
+            
+            int offset = buffer.position();
+            encode(str);
+            
+            keys[slot] = str;
+            offsets[slot] = offset;
+            
+            if (++count * 2 > keys.length)
+                rehash();
+            
+            return offset;
+        }
+        
+        private void encode(String str) throws IOException {
+            CharBuffer in = CharBuffer.wrap(str);
+            encoder.reset();
+            
+            for (;;) {
+                CoderResult res = encoder.encode(in, buffer, true);
+                
+                if (res.isUnderflow())
+                    res = encoder.flush(buffer);
+                if (res.isUnderflow())
+                    break;
+                if (res.isOverflow())
+                    grow();
+                else
+                    throw new IOException("Error while writing string");
+            }
+            
+            if (!buffer.hasRemaining())
+                grow();
+            buffer.put((byte)0);
+        }
+        
+        private void grow() {
+            ByteBuffer newBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+        
+        private void rehash() {
+            String[] oldKeys = keys;
+            int[] oldOffsets = offsets;
+            keys = new String[oldKeys.length * 2];
+            offsets = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null)
+                    continue;
+                
+                int hash = oldKeys[i].hashCode();
+                int slot = (hash ^ (hash >>> 16)) & mask;
+                
+                while (keys[slot] != null)
+                    slot = (slot + 1) & mask;
+                
+                keys[slot] = oldKeys[i];
+                offsets[slot] = oldOffsets[i];
+            }
+        }
+        
+        private int size() {
+            return buffer.position();
+        }
+        
+        private void copyTo(byte[] dest, int offset) {
+            System.arraycopy(buffer.array(), 0, dest, offset, buffer.position());
+        }
+    }
+    
+    /**
+     * Stores the values of all decoded entries column by column in primitive arrays. Strings are kept in a pool per
+     * file, so each column only stores indices into it.
+     */
+    public static final class Columns {
+        private final int[] hashes;
+        private final byte[] types;
+        private final Object[] data;
+        private final int[] slots;
+        private final int numRows;
+        private final ArrayList<String> strings = new ArrayList<>();
+        private final HashMap<String, Integer> stringIndices = new HashMap<>();
+        
+        private Columns(Iterable<Field> fields, int rows) {
+            List<Field> fieldList = new ArrayList<>();
+            fields.forEach(fieldList::add);
+            
+            hashes = new int[fieldList.size()];
+            types = new byte[fieldList.size()];
+            data = new Object[fieldList.size()];
+            numRows = rows;
+            
+            // Open-addressing table from field hashes to column index + 1
+            slots = new int[Integer.highestOneBit(Math.max(hashes.length, 1) * 4)];
+            
+            for (int i = 0; i < hashes.length; i++) {
+                Field field = fieldList.get(i);
+                hashes[i] = field.hash;
+                types[i] = field.type;
+                
+                int slot = field.hash & (slots.length - 1);
+                while (slots[slot] != 0)
+                    slot = (slot + 1) & (slots.length - 1);
+                slots[slot] = i + 1;
+                
+                switch (field.type) {
+                    case 2: data[i] = new float[rows]; break;
+                    case 4: data[i] = new short[rows]; break;
+                    case 5: data[i] = new byte[rows]; break;
+                    default: data[i] = new int[rows]; break;
+                }
+            }
+        }
+        
+        public int size() {
+            return numRows;
+        }
+        
+        public int getColumnCount() {
+            return hashes.length;
+        }
+        
+        public int getColumnHash(int column) {
+            return hashes[column];
+        }
+        
+        public byte getColumnType(int column) {
+            return types[column];
+        }
+        
+        /**
+         * Returns the column of the field with the given hash, or -1 if there is no such field.
+         */
+        public int indexOf(int hash) {
+            int mask = slots.length - 1;
+            
+            for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+                if (hashes[slots[slot] - 1] == hash)
+                    return slots[slot] - 1;
+            }
+            
+            return -1;
+        }
+        
+        public boolean isString(int column) {
+            return types[column] == 1 || types[column] == 6;
+        }
+        
+        public int getInt(int row, int column) {
+            switch (types[column]) {
+                case 2: return (int)((float[])data[column])[row];
+                case 4: return ((short[])data[column])[row];
+                case 5: return ((byte[])data[column])[row];
+                case 1:
+                case 6: return 0;
+                default: return ((int[])data[column])[row];
+            }
+        }
+        
+        public float getFloat(int row, int column) {
+            if (types[column] == 2)
+                return ((float[])data[column])[row];
+            return getInt(row, column);
+        }
+        
+        public short getShort(int row, int column) {
+            return (short)getInt(row, column);
+        }
+        
+        public byte getByte(int row, int column) {
+            return (byte)getInt(row, column);
+        }
+        
+        public String getString(int row, int column) {
+            if (isString(column))
+                return strings.get(((int[])data[column])[row]);
+            return String.valueOf(getValue(row, column));
+        }
+        
+        private Object getValue(int row, int column) {
+            switch (types[column]) {
+                case 1:
+                case 6: return strings.get(((int[])data[column])[row]);
+                case 2: return ((float[])data[column])[row];
+                case 4: return ((short[])data[column])[row];
+                case 5: return ((byte[])data[column])[row];
+                default: return ((int[])data[column])[row];
+            }
+        }
+        
+        /**
+         * Stores the value in the given cell if it has the exact type the column holds.
+         * @return whether the value could be stored
+         */
+        private boolean setValue(int row, int column, Object val) {
+            switch (types[column]) {
+                case 1:
+                case 6:
+                    if (!(val instanceof String)) return false;
+                    ((int[])data[column])[row] = addString((String)val);
+                    return true;
+                case 2:
+                    if (!(val instanceof Float)) return false;
+                    ((float[])data[column])[row] = (Float)val;
+                    return true;
+                case 4:
+                    if (!(val instanceof Short)) return false;
+                    ((short[])data[column])[row] = (Short)val;
+                    return true;
+                case 5:
+                    if (!(val instanceof Byte)) return false;
+                    ((byte[])data[column])[row] = (Byte)val;
+                    return true;
+                default:
+                    if (!(val instanceof Integer)) return false;
+                    ((int[])data[column])[row] = (Integer)val;
+                    return true;
+            }
+        }
+        
+        private int addString(String str) {
+            Integer index = stringIndices.get(str);
+            
+            if (index == null) {
+                index = strings.size();
+                strings.add(str);
+                stringIndices.put(str, index);
+            }
+            
+            return index;
+        }
+    }
+    
+    /**
+     * A single row of a BCSV file, mapping field hashes to values. Entries that were read from a file are views of
+     * their row in the file's {@link Columns}. They only get their own map once a field is added, removed or set to a
+     * value of a different type. Entries created by callers always use their own map.
+     */
+    public static class Entry extends AbstractMap<Integer, Object> {
+        private Columns columns;
+        private int row;
+        private LinkedHashMap<Integer, Object> values;
+        
+        public Entry() {
+            values = new LinkedHashMap<>();
+        }
+        
+        private Entry(Columns cols, int index) {
+            columns = cols;
+            row = index;
+        }
+        
+        private void detach() {
+            values = new LinkedHashMap<>(columns.getColumnCount() * 2);
+            
+            for (int i = 0; i < columns.getColumnCount(); i++)
+                values.put(columns.hashes[i], columns.getValue(row, i));
+            
+            columns = null;
+        }
+        
+        private int columnOf(Object key) {
+            return key instanceof Integer ? columns.indexOf((Integer)key) : -1;
+        }
+        
+        @Override
+        public int size() {
+            return columns != null ? columns.getColumnCount() : values.size();
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            return columns != null ? columnOf(key) >= 0 : values.containsKey(key);
+        }
+        
+        @Override
+        public Object get(Object key) {
+            if (columns == null)
+                return values.get(key);
+            
+            int col = columnOf(key);
+            return col >= 0 ? columns.getValue(row, col) : null;
+        }
+        
+        @Override
+        public Object getOrDefault(Object key, Object defval) {
+            if (columns == null)
+                return values.getOrDefault(key, defval);
+            
+            int col = columnOf(key);
+            return col >= 0 ? columns.getValue(row, col) : defval;
+        }
+        
+        @Override
+        public Object put(Integer key, Object val) {
+            if (columns != null) {
+                int col = columns.indexOf(key);
+                
+                if (col >= 0) {
+                    Object old = columns.getValue(row, col);
+                    
+                    if (columns.setValue(row, col, val))
+                        return old;
+                }
+                
+                detach();
+            }
+            
+            return values.put(key, val);
+        }
+        
+        @Override
+        public Object remove(Object key) {
+            if (columns != null) {
+                if (columnOf(key) < 0)
+                    return null;
+                
+                detach();
+            }
+            
+            return values.remove(key);
+        }
+        
+        @Override
+        public void clear() {
+            columns = null;
+            values = new LinkedHashMap<>();
+        }
+        
+        @Override
+        public Set<Map.Entry<Integer, Object>> entrySet() {
+            if (columns == null)
+                return values.entrySet();
+            
+            return new AbstractSet<Map.Entry<Integer, Object>>() {
+                private final int[] keys = columns.hashes;
+                
+                @Override
+                public int size() {
+                    return keys.length;
+                }
+                
+                @Override
+                public Iterator<Map.Entry<Integer, Object>> iterator() {
+                    return new Iterator<Map.Entry<Integer, Object>>() {
+                        private int next = 0;
+                        
+                        @Override
+                        public boolean hasNext() {
+                            return next < keys.length;
+                        }
+                        
+                        @Override
+                        public Map.Entry<Integer, Object> next() {
+                            if (next >= keys.length)
+                                throw new NoSuchElementException();
+                            
+                            int key = keys[next++];
+                            
+                            return new AbstractMap.SimpleEntry<Integer, Object>(key, get(key)) {
+                                @Override
+                                public Object setValue(Object val) {
+                                    put(getKey(), val);
+                                    return super.setValue(val);
+                                }
+                            };
+                        }
+                    };
+                }
+            };
+        }
+        
+        /**
+         * Returns a copy of this entry that has its own map.
+         */
+        @Override
+        public Object clone() {
+            Bcsv.Entry ret = new Bcsv.Entry();
+            ret.putAll(this);
+            return ret;
+        }
+        
         public Object get(String key) {
             return get(Bcsv.calcJGadgetHash(key));
         }
@@ -523,13 +1006,7 @@ public class Bcsv {
         // Easy data getters
         
         public byte getByte(String key, byte defval) {
-            Object val = getOrDefault(Bcsv.calcJGadgetHash(key), null);
-            
-            if (val == null || !(val instanceof Number)) {
-                return defval;
-            }
-            
-            return ((Number)val).byteValue();
+            return getByte(Bcsv.calcJGadgetHash(key), defval);
         }
         
         public byte getByte(String key) {
@@ -537,7 +1014,12 @@ public class Bcsv {
         }
         
         public byte getByte(int key, byte defval) {
-            Object val = getOrDefault(key, null);
+            if (columns != null) {
+                int col = columns.indexOf(key);
+                return col >= 0 && !columns.isString(col) ? columns.getByte(row, col) : defval;
+            }
+            
+            Object val = values.get(key);
             
             if (val == null || !(val instanceof Number)) {
                 return defval;
@@ -551,13 +1033,7 @@ public class Bcsv {
         }
         
         public short getShort(String key, short defval) {
-            Object val = getOrDefault(Bcsv.calcJGadgetHash(key), null);
-            
-            if (val == null || !(val instanceof Number)) {
-                return defval;
-            }
-            
-            return ((Number)val).shortValue();
+            return getShort(Bcsv.calcJGadgetHash(key), defval);
         }
         
         public short getShort(String key) {
@@ -565,7 +1041,12 @@ public class Bcsv {
         }
         
         public short getShort(int key, short defval) {
-            Object val = getOrDefault(key, null);
+            if (columns != null) {
+                int col = columns.indexOf(key);
+                return col >= 0 && !columns.isString(col) ? columns.getShort(row, col) : defval;
+            }
+            
+            Object val = values.get(key);
             
             if (val == null || !(val instanceof Number)) {
                 return defval;
@@ -579,13 +1060,7 @@ public class Bcsv {
         }
         
         public int getInt(String key, int defval) {
-            Object val = getOrDefault(Bcsv.calcJGadgetHash(key), null);
-            
-            if (val == null || !(val instanceof Number)) {
-                return defval;
-            }
-            
-            return ((Number)val).intValue();
+            return getInt(Bcsv.calcJGadgetHash(key), defval);
         }
         
         public int getInt(String key) {
@@ -593,7 +1068,12 @@ public class Bcsv {
         }
         
         public int getInt(int key, int defval) {
-            Object val = getOrDefault(key, null);
+            if (columns != null) {
+                int col = columns.indexOf(key);
+                return col >= 0 && !columns.isString(col) ? columns.getInt(row, col) : defval;
+            }
+            
+            Object val = values.get(key);
             
             if (val == null || !(val instanceof Number)) {
                 return defval;
@@ -607,13 +1087,7 @@ public class Bcsv {
         }
         
         public float getFloat(String key, float defval) {
-            Object val = getOrDefault(Bcsv.calcJGadgetHash(key), null);
-            
-            if (val == null || !(val instanceof Number)) {
-                return defval;
-            }
-            
-            return ((Number)val).floatValue();
+            return getFloat(Bcsv.calcJGadgetHash(key), defval);
         }
         
         public float getFloat(String key) {
@@ -621,7 +1095,12 @@ public class Bcsv {
         }
         
         public float getFloat(int key, float defval) {
-            Object val = getOrDefault(key, null);
+            if (columns != null) {
+                int col = columns.indexOf(key);
+                return col >= 0 && !columns.isString(col) ? columns.getFloat(row, col) : defval;
+            }
+            
+            Object val = values.get(key);
             
             if (val == null || !(val instanceof Number)) {
                 return defval;
@@ -635,13 +1114,7 @@ public class Bcsv {
         }
         
         public String getString(String key, String defval) {
-            Object val = getOrDefault(Bcsv.calcJGadgetHash(key), null);
-            
-            if (val == null) {
-                return defval;
-            }
-            
-            return val.toString();
+            return getString(Bcsv.calcJGadgetHash(key), defval);
         }
         
         public String getString(String key) {
@@ -649,7 +1122,12 @@ public class Bcsv {
         }
         
         public String getString(int key, String defval) {
-            Object val = getOrDefault(key, null);
+            if (columns != null) {
+                int col = columns.indexOf(key);
+                return col >= 0 ? columns.getString(row, col) : defval;
+            }
+            
+            Object val = values.get(key);
             
             if (val == null) {
                 return defval;
@@ -18,6 +18,7 @@ package whitehole.smg;
 import java.io.*;
 import java.util.*;
 import whitehole.io.FileBase;
+import whitehole.math.BoundingBox;
 import whitehole.math.Matrix4;
 import whitehole.math.Vec2f;
 import whitehole.math.Vec3f;
@@ -27,10 +28,21 @@ import whitehole.util.MathUtil;
 public class Bmd 
 {
     private boolean isBigEndian;
+    private boolean decodeTextures;
 
     public Bmd(FileBase _file) throws IOException
+    {
+        this(_file, true);
+    }
+
+    /**
+     * Reads a model. If {@code _decodeTextures} is false, only the texture headers are read and the images of all
+     * textures are left null.
+     */
+    public Bmd(FileBase _file, boolean _decodeTextures) throws IOException
     {
         file = _file;
+        decodeTextures = _decodeTextures;
         file.setBigEndian(true);
         isBigEndian = true;
         file.position(0);
@@ -116,6 +128,402 @@ public class Bmd
         }
     }
     
+    /**
+     * Recalculates the matrices of the changed joints and of all joints below them. Parents have to come before their
+     * children, just like {@link #recalcAllJoints()} expects.
+     * @param changed per joint: true if its scale, rotation or translation changed. Joints that are recalculated because
+     * of a parent are marked as well.
+     */
+    public void recalcJoints(boolean[] changed)
+    {
+        for (int i = 0; i < joints.length; i++)
+        {
+            int parent = joints[i].getParentIndex();
+            if (parent >= 0 && changed[parent])
+                changed[i] = true;
+            if (changed[i])
+                joints[i].doCalc();
+        }
+    }
+    
+    /**
+     * Blends the matrices of an envelope's joints by their weights. Vertices that belong to an envelope are stored in
+     * model space, so each joint's inverse bind matrix moves them into the joint's space before the joint's current
+     * matrix is applied.
+     * @param mm the envelope
+     * @return the blended matrix
+     */
+    public Matrix4 calcEnvelopeMatrix(MultiMatrix mm)
+    {
+        return calcEnvelopeMatrix(mm, new Matrix4(), new Matrix4());
+    }
+    
+    /**
+     * Same as {@link #calcEnvelopeMatrix(MultiMatrix)}, but writes the blended matrix to ret.
+     * @param mm the envelope
+     * @param ret the matrix to write to
+     * @param jointmtx a scratch matrix, must not be ret
+     * @return ret
+     */
+    public Matrix4 calcEnvelopeMatrix(MultiMatrix mm, Matrix4 ret, Matrix4 jointmtx)
+    {
+        return calcEnvelopeMatrix(mm, ret, jointmtx, null);
+    }
+    
+    /**
+     * Blends an envelope with the given joint matrices, or the current ones of the joints if jointMatrices is null.
+     */
+    private Matrix4 calcEnvelopeMatrix(MultiMatrix mm, Matrix4 ret, Matrix4 jointmtx, Matrix4[] jointMatrices)
+    {
+        for (int k = 0; k < 16; k++)
+            ret.m[k] = 0f;
+        
+        for (int j = 0; j < mm.numMatrices; j++)
+        {
+            int joint = mm.matrixIndices[j];
+            Matrix4.mult(mm.matrices[j], jointMatrices != null ? jointMatrices[joint] : joints[joint].finalMatrix, jointmtx);
+            
+            float weight = mm.matrixWeights[j];
+            for (int k = 0; k < 16; k++)
+                ret.m[k] += jointmtx.m[k] * weight;
+        }
+        
+        ret.m[3] = ret.m[7] = ret.m[11] = 0f;
+        ret.m[15] = 1f;
+        return ret;
+    }
+    
+    /**
+     * Returns the box around all vertices as they are placed by the current pose of the joints. Unlike
+     * {@link #bboxMin} and {@link #bboxMax}, this includes the joint and envelope matrices.
+     */
+    public BoundingBox calcBoundingBox()
+    {
+        BoundingBox ret = new BoundingBox();
+        Matrix4[] envelopes = new Matrix4[multiMatrix.length];
+        Matrix4[] lastmatrixtable = null;
+        Vec3f pos = new Vec3f();
+        
+        for (Batch batch : batches)
+        {
+            for (Batch.Packet packet : batch.packets)
+            {
+                Matrix4[] mtxtable = calcPacketMatrices(packet, envelopes, lastmatrixtable, null);
+                lastmatrixtable = mtxtable;
+                
+                for (Batch.Packet.Primitive prim : packet.primitives)
+                {
+                    for (int i = 0; i < prim.numIndices; i++)
+                    {
+                        pos.set(positionArray[prim.positionIndices[i]]);
+                        int mtx = (prim.arrayMask & 1) != 0 ? prim.posMatrixIndices[i] : 0;
+                        Vec3f.transform(pos, mtxtable[mtx], pos);
+                        ret.include(pos.x, pos.y, pos.z);
+                    }
+                }
+            }
+        }
+        
+        return ret;
+    }
+    
+    /**
+     * Returns the triangles of all quads, triangles, strips and fans as they are placed by the current pose of the
+     * joints, nine floats per triangle. Lines and points are left out.
+     */
+    public float[] calcTriangles()
+    {
+        return calcTriangles(null);
+    }
+    
+    /**
+     * Same as {@link #calcTriangles()}, but places the vertices with joint matrices returned by
+     * {@link #getJointMatrices()} instead of the current pose. This doesn't touch the joints, so it can be used while
+     * the model is posed by someone else.
+     */
+    public float[] calcTriangles(Matrix4[] jointMatrices)
+    {
+        int count = 0;
+        for (Batch batch : batches)
+        {
+            for (Batch.Packet packet : batch.packets)
+            {
+                for (Batch.Packet.Primitive prim : packet.primitives)
+                {
+                    int n = prim.numIndices;
+                    switch ((prim.primitiveType - 0x80) / 8)
+                    {
+                        case 0: count += n / 4 * 2; break;
+                        case 2: count += n / 3; break;
+                        case 3:
+                        case 4: count += Math.max(n - 2, 0); break;
+                    }
+                }
+            }
+        }
+        
+        float[] ret = new float[count * 9];
+        int t = 0;
+        Matrix4[] envelopes = new Matrix4[multiMatrix.length];
+        Matrix4[] lastmatrixtable = null;
+        Vec3f pos = new Vec3f();
+        
+        for (Batch batch : batches)
+        {
+            for (Batch.Packet packet : batch.packets)
+            {
+                Matrix4[] mtxtable = calcPacketMatrices(packet, envelopes, lastmatrixtable, jointMatrices);
+                lastmatrixtable = mtxtable;
+                
+                for (Batch.Packet.Primitive prim : packet.primitives)
+                {
+                    int type = (prim.primitiveType - 0x80) / 8;
+                    if (type != 0 && (type < 2 || type > 4))
+                        continue;
+                    
+                    int n = prim.numIndices;
+                    float[] corners = new float[n * 3];
+                    for (int i = 0; i < n; i++)
+                    {
+                        pos.set(positionArray[prim.positionIndices[i]]);
+                        int mtx = (prim.arrayMask & 1) != 0 ? prim.posMatrixIndices[i] : 0;
+                        Vec3f.transform(pos, mtxtable[mtx], pos);
+                        corners[i * 3] = pos.x;
+                        corners[i * 3 + 1] = pos.y;
+                        corners[i * 3 + 2] = pos.z;
+                    }
+                    
+                    switch (type)
+                    {
+                        case 0: // quads
+                            for (int i = 0; i + 3 < n; i += 4)
+                            {
+                                t = putTriangle(ret, t, corners, i, i + 1, i + 2);
+                                t = putTriangle(ret, t, corners, i, i + 2, i + 3);
+                            }
+                            break;
+                        case 2: // triangles
+                            for (int i = 0; i + 2 < n; i += 3)
+                                t = putTriangle(ret, t, corners, i, i + 1, i + 2);
+                            break;
+                        case 3: // triangle strip
+                            for (int i = 2; i < n; i++)
+                            {
+                                boolean flip = (i & 1) != 0;
+                                t = putTriangle(ret, t, corners, flip ? i - 1 : i - 2, flip ? i - 2 : i - 1, i);
+                            }
+                            break;
+                        case 4: // triangle fan
+                            for (int i = 2; i < n; i++)
+                                t = putTriangle(ret, t, corners, 0, i - 1, i);
+                            break;
+                    }
+                }
+            }
+        }
+        
+        return ret;
+    }
+    
+    private static int putTriangle(float[] out, int offset, float[] corners, int a, int b, int c)
+    {
+        System.arraycopy(corners, a * 3, out, offset, 3);
+        System.arraycopy(corners, b * 3, out, offset + 3, 3);
+        System.arraycopy(corners, c * 3, out, offset + 6, 3);
+        return offset + 9;
+    }
+    
+    /**
+     * Returns the position matrices a packet refers to. Entries of 0xFFFF keep the matrix of the previous packet. The
+     * joint matrices are taken from jointMatrices, or from the joints if it is null.
+     */
+    private Matrix4[] calcPacketMatrices(Batch.Packet packet, Matrix4[] envelopes, Matrix4[] lastmatrixtable, Matrix4[] jointMatrices)
+    {
+        Matrix4[] mtxtable = new Matrix4[packet.matrixTable.length];
+        
+        for (int i = 0; i < packet.matrixTable.length; i++)
+        {
+            if (packet.matrixTable[i] == (short)0xFFFF)
+                mtxtable[i] = lastmatrixtable != null ? lastmatrixtable[i] : new Matrix4();
+            else
+            {
+                MatrixType mtxtype = matrixTypes[packet.matrixTable[i]];
+                
+                if (mtxtype.isWeighted)
+                {
+                    if (envelopes[mtxtype.index] == null)
+                        envelopes[mtxtype.index] = calcEnvelopeMatrix(multiMatrix[mtxtype.index], new Matrix4(), new Matrix4(), jointMatrices);
+                    mtxtable[i] = envelopes[mtxtype.index];
+                }
+                else
+                    mtxtable[i] = jointMatrices != null ? jointMatrices[mtxtype.index] : joints[mtxtype.index].finalMatrix;
+            }
+        }
+        
+        return mtxtable;
+    }
+    
+    /**
+     * Returns copies of the final matrices of all joints in their current pose.
+     */
+    public Matrix4[] getJointMatrices()
+    {
+        Matrix4[] ret = new Matrix4[joints.length];
+        for (int i = 0; i < joints.length; i++)
+        {
+            ret[i] = new Matrix4();
+            if (joints[i].finalMatrix != null)
+                System.arraycopy(joints[i].finalMatrix.m, 0, ret[i].m, 0, 16);
+        }
+        return ret;
+    }
+    
+    /**
+     * Returns the scale, rotation and translation of all joints, nine floats per joint.
+     */
+    public float[] getJointPose()
+    {
+        float[] pose = new float[joints.length * 9];
+        for (int i = 0; i < joints.length; i++)
+        {
+            Joint jnt = joints[i];
+            int p = i * 9;
+            pose[p] = jnt.scale.x;
+            pose[p + 1] = jnt.scale.y;
+            pose[p + 2] = jnt.scale.z;
+            pose[p + 3] = jnt.rotation.x;
+            pose[p + 4] = jnt.rotation.y;
+            pose[p + 5] = jnt.rotation.z;
+            pose[p + 6] = jnt.translation.x;
+            pose[p + 7] = jnt.translation.y;
+            pose[p + 8] = jnt.translation.z;
+        }
+        return pose;
+    }
+    
+    /**
+     * Sets the scale, rotation and translation of all joints from a pose returned by {@link #getJointPose()} and
+     * recalculates their matrices.
+     */
+    public void setJointPose(float[] pose)
+    {
+        for (int i = 0; i < joints.length; i++)
+        {
+            Joint jnt = joints[i];
+            int p = i * 9;
+            jnt.scale.x = pose[p];
+            jnt.scale.y = pose[p + 1];
+            jnt.scale.z = pose[p + 2];
+            jnt.rotation.x = pose[p + 3];
+            jnt.rotation.y = pose[p + 4];
+            jnt.rotation.z = pose[p + 5];
+            jnt.translation.x = pose[p + 6];
+            jnt.translation.y = pose[p + 7];
+            jnt.translation.z = pose[p + 8];
+        }
+        recalcAllJoints();
+    }
+    
+    private static final int MATERIAL_ANIM_STATE_SIZE = 10 * 8 + 9 * 4;
+    
+    /**
+     * Returns the values of all materials that can be changed by material animations: the texture matrices, the TEV
+     * register and constant colors and the first material color.
+     */
+    public float[] getMaterialAnimState()
+    {
+        float[] state = new float[materials.length * MATERIAL_ANIM_STATE_SIZE];
+        for (int i = 0; i < materials.length; i++)
+        {
+            Material mat = materials[i];
+            int p = i * MATERIAL_ANIM_STATE_SIZE;
+            for (Material.TextureMatrix mtx : mat.texMtx)
+            {
+                if (mtx != null)
+                {
+                    state[p] = mtx.center.x;
+                    state[p + 1] = mtx.center.y;
+                    state[p + 2] = mtx.center.z;
+                    state[p + 3] = mtx.scale.x;
+                    state[p + 4] = mtx.scale.y;
+                    state[p + 5] = mtx.rotate;
+                    state[p + 6] = mtx.translation.x;
+                    state[p + 7] = mtx.translation.y;
+                }
+                p += 8;
+            }
+            for (Material.ColorInfo col : mat.tevRegisterColors)
+                p = putColor(state, p, col);
+            for (Material.ColorInfo col : mat.constColors)
+                p = putColor(state, p, col);
+            putColor(state, p, mat.matColors[0]);
+        }
+        return state;
+    }
+    
+    /**
+     * Sets the values returned by {@link #getMaterialAnimState()} and recalculates the texture matrices.
+     */
+    public void setMaterialAnimState(float[] state)
+    {
+        for (int i = 0; i < materials.length; i++)
+            setMaterialAnimState(state, i);
+    }
+    
+    /**
+     * Same as {@link #setMaterialAnimState(float[])}, but only for a single material.
+     */
+    public void setMaterialAnimState(float[] state, int index)
+    {
+        Material mat = materials[index];
+        int p = index * MATERIAL_ANIM_STATE_SIZE;
+        for (Material.TextureMatrix mtx : mat.texMtx)
+        {
+            if (mtx != null)
+            {
+                mtx.center.x = state[p];
+                mtx.center.y = state[p + 1];
+                mtx.center.z = state[p + 2];
+                mtx.scale.x = state[p + 3];
+                mtx.scale.y = state[p + 4];
+                mtx.rotate = state[p + 5];
+                mtx.translation.x = state[p + 6];
+                mtx.translation.y = state[p + 7];
+                mtx.doCalc();
+            }
+            p += 8;
+        }
+        for (Material.ColorInfo col : mat.tevRegisterColors)
+            p = getColor(state, p, col);
+        for (Material.ColorInfo col : mat.constColors)
+            p = getColor(state, p, col);
+        getColor(state, p, mat.matColors[0]);
+    }
+    
+    private static int putColor(float[] state, int p, Material.ColorInfo col)
+    {
+        if (col != null)
+        {
+            state[p] = col.r;
+            state[p + 1] = col.g;
+            state[p + 2] = col.b;
+            state[p + 3] = col.a;
+        }
+        return p + 4;
+    }
+    
+    private static int getColor(float[] state, int p, Material.ColorInfo col)
+    {
+        if (col != null)
+        {
+            col.r = (int)state[p];
+            col.g = (int)state[p + 1];
+            col.b = (int)state[p + 2];
+            col.a = (int)state[p + 3];
+        }
+        return p + 4;
+    }
+    
     // ======================================
     
     private float readArrayValue_s16(int fixedpoint) throws IOException
@@ -475,14 +883,16 @@ public class Bmd
                 mm.matrixWeights[j] = file.readFloat();
                 position2 += 4;
 
+                // Stored as 3x4 rows, but Matrix4 is column-major
                 file.position(sectionstart + offset3 + (mm.matrixIndices[j] * 48));
                 mm.matrices[j] = new Matrix4();
-                mm.matrices[j].m[0] = file.readFloat(); mm.matrices[j].m[1] = file.readFloat();
-                mm.matrices[j].m[2] = file.readFloat(); mm.matrices[j].m[3] = file.readFloat();
-                mm.matrices[j].m[4] = file.readFloat(); mm.matrices[j].m[5] = file.readFloat();
-                mm.matrices[j].m[6] = file.readFloat(); mm.matrices[j].m[7] = file.readFloat();
-                mm.matrices[j].m[8] = file.readFloat(); mm.matrices[j].m[9] = file.readFloat();
-                mm.matrices[j].m[10] = file.readFloat(); mm.matrices[j].m[11] = file.readFloat();
+                for (int row = 0; row < 3; row++)
+                {
+                    mm.matrices[j].m[row] = file.readFloat();
+                    mm.matrices[j].m[row + 4] = file.readFloat();
+                    mm.matrices[j].m[row + 8] = file.readFloat();
+                    mm.matrices[j].m[row + 12] = file.readFloat();
+                }
             }
         }
 
@@ -1309,7 +1719,7 @@ public class Bmd
         for (int i = 0; i < numtextures; i++)
         {
             file.position(sectionstart + entriesoffset + (i * 32));
-            Bti tex = new Bti(file, isBigEndian);
+            Bti tex = new Bti(file, isBigEndian, decodeTextures);
             textures[i] = tex;
         }
 
@@ -1360,7 +1770,15 @@ public class Bmd
     public class MultiMatrix
     {
         public int numMatrices;
+        
+        /**
+         * The joints this envelope is made of
+         */
         public short[] matrixIndices;
+        
+        /**
+         * The inverse bind matrices of the joints, which move a vertex from model space into the space of each joint
+         */
         public Matrix4[] matrices;
         public float[] matrixWeights;
     }
@@ -1389,8 +1807,18 @@ public class Bmd
         public Matrix4 matrix;
         public Matrix4 finalMatrix; // matrix with parents' transforms applied
         
-        public void doCalc()
+        // -2 until the scene graph has been searched, -3 if the joint isn't in it, -1 for root joints
+        private int parentIndex = -2;
+        
+        /**
+         * Returns the index of the parent joint, or a negative value if the joint has none.
+         */
+        public int getParentIndex()
         {
+            if (parentIndex != -2)
+                return parentIndex;
+            
+            parentIndex = -3;
             for (SceneGraphNode node : sceneGraph)
             {
                 if (node.nodeType != 1) continue;
@@ -1408,39 +1836,48 @@ public class Bmd
                     parentnode = sceneGraph.get(parentnode.parentIndex);
 
                 } while (parentnode.nodeType != 1);
-
-                matrix = Matrix4.SRTToMatrix(scale, rotation, translation);
-                if (parentnode != null)
+                
+                parentIndex = parentnode != null ? parentnode.nodeID : -1;
+                break;
+            }
+            return parentIndex;
+        }
+        
+        public void doCalc()
+        {
+            int parentJoint = getParentIndex();
+            if (parentJoint == -3)
+                return;
+            
+            matrix = Matrix4.SRTToMatrix(scale, rotation, translation);
+            if (parentJoint >= 0)
+            {
+                Joint parent = joints[parentJoint];
+                
+                int matrixCalcFlag = (MiscFlags & 0xF);
+                if (matrixCalcFlag == 2 && ((doNotInheritParentScale & 0x01) == 1))
                 {
-                    Joint parent = joints[parentnode.nodeID];
+                    float ipsx = 1/parent.scale.x;
+                    float ipsy = 1/parent.scale.y;
+                    float ipsz = 1/parent.scale.z;
                     
-                    int matrixCalcFlag = (MiscFlags & 0xF);
-                    if (matrixCalcFlag == 2 && ((doNotInheritParentScale & 0x01) == 1))
-                    {
-                        float ipsx = 1/parent.scale.x;
-                        float ipsy = 1/parent.scale.y;
-                        float ipsz = 1/parent.scale.z;
-                        
-                        matrix.m[0] *= ipsx;
-                        matrix.m[4] *= ipsx;
-                        matrix.m[8] *= ipsx;
-                        
-                        matrix.m[1] *= ipsy;
-                        matrix.m[5] *= ipsy;
-                        matrix.m[9] *= ipsy;
-                        
-                        matrix.m[2] *= ipsz;
-                        matrix.m[6] *= ipsz;
-                        matrix.m[10] *= ipsz;
-                    }
-                    finalMatrix = new Matrix4();
-                    Matrix4.mult(matrix, parent.finalMatrix, finalMatrix);
+                    matrix.m[0] *= ipsx;
+                    matrix.m[4] *= ipsx;
+                    matrix.m[8] *= ipsx;
+                    
+                    matrix.m[1] *= ipsy;
+                    matrix.m[5] *= ipsy;
+                    matrix.m[9] *= ipsy;
+                    
+                    matrix.m[2] *= ipsz;
+                    matrix.m[6] *= ipsz;
+                    matrix.m[10] *= ipsz;
                 }
-                else
-                    finalMatrix = matrix;
-
-                break;
+                finalMatrix = new Matrix4();
+                Matrix4.mult(matrix, parent.finalMatrix, finalMatrix);
             }
+            else
+                finalMatrix = matrix;
         }
     
         @Override
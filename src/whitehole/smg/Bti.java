@@ -20,6 +20,14 @@ import whitehole.io.FileBase;
 
 public class Bti {
     public Bti(FileBase f, boolean isBigEndian) throws IOException {
+        this(f, isBigEndian, true);
+    }
+    
+    /**
+     * Reads a texture header. If {@code decodeImage} is false, the image data is not decoded and {@link #image} is
+     * left null for the caller to fill in.
+     */
+    public Bti(FileBase f, boolean isBigEndian, boolean decodeImage) throws IOException {
         file = f;
         file.setBigEndian(isBigEndian); 
         
@@ -47,7 +55,8 @@ public class Bti {
         lodBias = file.readShort() * 0.01F;
         int imageOffset = (int)filestart + file.readInt();
         
-        image = ImageUtils.decodeTextureData(file, imageOffset, mipmapCount, format, width, height, isBigEndian);
+        if (decodeImage)
+            image = ImageUtils.decodeTextureData(file, imageOffset, mipmapCount, format, width, height, isBigEndian, true);
     }
     
     public void save() throws IOException {
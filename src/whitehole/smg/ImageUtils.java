@@ -17,6 +17,11 @@ package whitehole.smg;
 
 import com.jogamp.opengl.GL2;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import whitehole.io.FileBase;
 
 public class ImageUtils {    
@@ -65,297 +70,367 @@ public class ImageUtils {
         }
     }
     
+    /**
+     * Textures with at least this many pixels are decoded in parallel by {@link #decodeTextureData} if asked to.
+     */
+    public static final int PARALLEL_DECODE_THRESHOLD = 128 * 128;
+    
+    /**
+     * Tile rows are split until a task decodes at most this many source bytes.
+     */
+    private static final int PARALLEL_DECODE_CHUNK = 0x4000;
+    
     public static byte[][] decodeTextureData(FileBase file, long offset, int mipmaps, int format, int width, int height, boolean isBigEndian) throws IOException {
+        return decodeTextureData(file, offset, mipmaps, format, width, height, isBigEndian, false);
+    }
+    
+    /**
+     * Decodes all mipmaps of a texture. The encoded data is read into memory at once and every mipmap is then decoded
+     * tile row by tile row. As tile rows write to distinct rows of the image, they can be decoded independently. If
+     * {@code parallel} is set and the texture is large enough, the mipmaps and their tile rows are decoded on the
+     * common fork-join pool.
+     */
+    public static byte[][] decodeTextureData(FileBase file, long offset, int mipmaps, int format, int width, int height, boolean isBigEndian, boolean parallel) throws IOException {
         byte[][] ret = new byte[mipmaps][];
-        file.position(offset);
+        
+        if (!isSupportedFormat(format)) {
+            System.out.println(String.format("Unsupported texture type %1$d, generating solid color texture instead", format));
+            
+            for (int mip = 0; mip < mipmaps; mip++) {
+                byte[] image = new byte[width * height * 4];
+                for (int i = 0; i < width * height; i++) {
+                    int outp = i * 4;
+                    image[outp++] = (byte)255;
+                    image[outp++] = (byte)0;
+                    image[outp++] = (byte)255;
+                    image[outp  ] = (byte)255;
+                }
+                
+                ret[mip] = image;
+                width /= 2; height /= 2;
+            }
+            
+            return ret;
+        }
+        
+        int tileWidth = getTileWidth(format), tileHeight = getTileHeight(format), tileSize = getTileSize(format);
+        int[] widths = new int[mipmaps], heights = new int[mipmaps], offsets = new int[mipmaps];
+        int totalSize = 0, totalPixels = 0;
         
         for (int mip = 0; mip < mipmaps; mip++) {
-            byte[] image;
-
-            switch (format) {
-                case 0: // I4
-                    {
-                        image = new byte[width * height];
-
-                        for (int by = 0; by < height; by += 8) {
-                            for (int bx = 0; bx < width; bx += 8) {
-                                for (int y = 0; y < 8; y++) {
-                                    for (int x = 0; x < 8; x += 2) {
-                                        int b = file.readByte() & 0xFF;
-
-                                        int outp = (((by + y) * width) + (bx + x));
-                                        image[outp++] = (byte)((b & 0xF0) | (b >>> 4));
-                                        image[outp  ] = (byte)((b << 4) | (b & 0x0F));
-                                    }
-                                }
+            widths[mip] = width;
+            heights[mip] = height;
+            offsets[mip] = totalSize;
+            ret[mip] = new byte[width * height * getPixelSize(format)];
+            
+            totalSize += ((width + tileWidth - 1) / tileWidth) * ((height + tileHeight - 1) / tileHeight) * tileSize;
+            totalPixels += width * height;
+            width /= 2; height /= 2;
+        }
+        
+        // Data past the end of the file decodes as zeroes
+        file.position(offset);
+        int available = (int)Math.max(0, Math.min(totalSize, file.getLength() - offset));
+        byte[] data = file.readBytes(available);
+        if (available < totalSize)
+            data = Arrays.copyOf(data, totalSize);
+        
+        if (parallel && totalPixels >= PARALLEL_DECODE_THRESHOLD) {
+            List<DecodeTask> tasks = new ArrayList<>(mipmaps);
+            for (int mip = 0; mip < mipmaps; mip++) {
+                int tileRows = (heights[mip] + tileHeight - 1) / tileHeight;
+                tasks.add(new DecodeTask(format, data, offsets[mip], ret[mip], widths[mip], heights[mip], 0, tileRows, isBigEndian));
+            }
+            
+            ForkJoinTask.invokeAll(tasks);
+        }
+        else {
+            for (int mip = 0; mip < mipmaps; mip++) {
+                int tileRows = (heights[mip] + tileHeight - 1) / tileHeight;
+                decodeTileRows(format, data, offsets[mip], ret[mip], widths[mip], heights[mip], 0, tileRows, isBigEndian);
+            }
+        }
+        
+        return ret;
+    }
+    
+    private static boolean isSupportedFormat(int format) {
+        return (format >= 0 && format <= 6) || format == 14;
+    }
+    
+    private static int getTileWidth(int format) {
+        switch (format) {
+            case 0: case 1: case 2: case 14: return 8;
+            default: return 4;
+        }
+    }
+    
+    private static int getTileHeight(int format) {
+        switch (format) {
+            case 0: case 14: return 8;
+            default: return 4;
+        }
+    }
+    
+    private static int getTileSize(int format) {
+        return format == 6 ? 64 : 32;
+    }
+    
+    private static int getPixelSize(int format) {
+        switch (format) {
+            case 0: case 1: return 1;
+            case 2: case 3: return 2;
+            default: return 4;
+        }
+    }
+    
+    /**
+     * Decodes a range of mipmaps' tile rows, splitting it up while it is larger than {@link #PARALLEL_DECODE_CHUNK}.
+     */
+    private static class DecodeTask extends RecursiveAction {
+        private final int format, offset, width, height, firstRow, endRow;
+        private final byte[] data, image;
+        private final boolean isBigEndian;
+        
+        private DecodeTask(int format, byte[] data, int offset, byte[] image, int width, int height, int firstRow, int endRow, boolean isBigEndian) {
+            this.format = format;
+            this.data = data;
+            this.offset = offset;
+            this.image = image;
+            this.width = width;
+            this.height = height;
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+            this.isBigEndian = isBigEndian;
+        }
+        
+        @Override
+        protected void compute() {
+            int rowSize = ((width + getTileWidth(format) - 1) / getTileWidth(format)) * getTileSize(format);
+            
+            if (endRow - firstRow > 1 && (endRow - firstRow) * rowSize > PARALLEL_DECODE_CHUNK) {
+                int mid = (firstRow + endRow) >>> 1;
+                invokeAll(new DecodeTask(format, data, offset, image, width, height, firstRow, mid, isBigEndian),
+                          new DecodeTask(format, data, offset, image, width, height, mid, endRow, isBigEndian));
+            }
+            else
+                decodeTileRows(format, data, offset, image, width, height, firstRow, endRow, isBigEndian);
+        }
+    }
+    
+    private static int readShort(byte[] data, int pos, boolean isBigEndian) {
+        if (isBigEndian)
+            return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+        return ((data[pos + 1] & 0xFF) << 8) | (data[pos] & 0xFF);
+    }
+    
+    private static int readInt(byte[] data, int pos, boolean isBigEndian) {
+        if (isBigEndian)
+            return ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16) | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+        return ((data[pos + 3] & 0xFF) << 24) | ((data[pos + 2] & 0xFF) << 16) | ((data[pos + 1] & 0xFF) << 8) | (data[pos] & 0xFF);
+    }
+    
+    /**
+     * Decodes the tile rows {@code firstRow} up to {@code endRow} of one mipmap. Pixels of tiles that stick out of the
+     * image are skipped.
+     */
+    private static void decodeTileRows(int format, byte[] data, int offset, byte[] image, int width, int height, int firstRow, int endRow, boolean isBigEndian) {
+        int tileWidth = getTileWidth(format), tileHeight = getTileHeight(format), tileSize = getTileSize(format);
+        int tilesPerRow = (width + tileWidth - 1) / tileWidth;
+        int[] colors = new int[16];
+        
+        for (int ty = firstRow; ty < endRow; ty++) {
+            for (int tx = 0; tx < tilesPerRow; tx++) {
+                int inp = offset + (ty * tilesPerRow + tx) * tileSize;
+                int by = ty * tileHeight, bx = tx * tileWidth;
+                
+                switch (format) {
+                    case 0: // I4
+                        for (int y = 0; y < 8; y++) {
+                            for (int x = 0; x < 8; x += 2) {
+                                int b = data[inp++] & 0xFF;
+                                
+                                if (by + y >= height || bx + x >= width)
+                                    continue;
+                                
+                                int outp = (((by + y) * width) + (bx + x));
+                                image[outp++] = (byte)((b & 0xF0) | (b >>> 4));
+                                if (bx + x + 1 < width)
+                                    image[outp] = (byte)((b << 4) | (b & 0x0F));
                             }
                         }
-                    }
-                    break;
-
-                case 1: // I8
-                    {
-                        image = new byte[width * height];
-
-                        for (int by = 0; by < height; by += 4)
-                        {
-                            for (int bx = 0; bx < width; bx += 8)
-                            {
-                                for (int y = 0; y < 4; y++)
-                                {
-                                    for (int x = 0; x < 8; x++)
-                                    {
-                                        byte b = file.readByte();
-
-                                        int outp = (((by + y) * width) + (bx + x));
-                                        if (outp < image.length)
-                                            image[outp] = b;
-                                    }
-                                }
+                        break;
+                        
+                    case 1: // I8
+                        for (int y = 0; y < 4; y++) {
+                            for (int x = 0; x < 8; x++) {
+                                byte b = data[inp++];
+                                
+                                if (by + y < height && bx + x < width)
+                                    image[((by + y) * width) + (bx + x)] = b;
                             }
                         }
-                    }
-                    break;
-
-                case 2: // IA4
-                    {
-                        image = new byte[width * height * 2];
-
-                        for (int by = 0; by < height; by += 4) {
-                            for (int bx = 0; bx < width; bx += 8) {
-                                for (int y = 0; y < 4; y++) {
-                                    for (int x = 0; x < 8; x++) {
-                                        int b = file.readByte() & 0xFF;
-
-                                        int outp = (((by + y) * width) + (bx + x)) * 2;
-                                        image[outp++] = (byte)((b << 4) | (b & 0x0F));
-                                        image[outp  ] = (byte)((b & 0xF0) | (b >>> 4));
-                                    }
-                                }
+                        break;
+                        
+                    case 2: // IA4
+                        for (int y = 0; y < 4; y++) {
+                            for (int x = 0; x < 8; x++) {
+                                int b = data[inp++] & 0xFF;
+                                
+                                if (by + y >= height || bx + x >= width)
+                                    continue;
+                                
+                                int outp = (((by + y) * width) + (bx + x)) * 2;
+                                image[outp++] = (byte)((b << 4) | (b & 0x0F));
+                                image[outp  ] = (byte)((b & 0xF0) | (b >>> 4));
                             }
                         }
-                    }
-                    break;
-
-                case 3: // IA8
-                    {
-                        image = new byte[width * height * 2];
-
-                        for (int by = 0; by < height; by += 4) {
-                            for (int bx = 0; bx < width; bx += 4) {
-                                for (int y = 0; y < 4; y++) {
-                                    for (int x = 0; x < 4; x++) {
-                                        byte a = file.readByte();
-                                        byte l = file.readByte();
-
-                                        int outp = (((by + y) * width) + (bx + x)) * 2;
-                                        image[outp++] = l;
-                                        image[outp  ] = a;
-                                    }
-                                }
+                        break;
+                        
+                    case 3: // IA8
+                        for (int y = 0; y < 4; y++) {
+                            for (int x = 0; x < 4; x++) {
+                                byte a = data[inp++];
+                                byte l = data[inp++];
+                                
+                                if (by + y >= height || bx + x >= width)
+                                    continue;
+                                
+                                int outp = (((by + y) * width) + (bx + x)) * 2;
+                                image[outp++] = l;
+                                image[outp  ] = a;
                             }
                         }
-                    }
-                    break;
-
-                case 4: // RGB565
-                    {
-                        image = new byte[width * height * 4];
-
-                        for (int by = 0; by < height; by += 4) {
-                            for (int bx = 0; bx < width; bx += 4) {
-                                for (int y = 0; y < 4; y++) {
-                                    for (int x = 0; x < 4; x++) {
-                                        int col;
-                                        if (isBigEndian) {
-                                            col = file.readShort();
-                                        } else {
-                                            byte lower = file.readByte();
-                                            byte higher = file.readByte();
-                                            col = (int) ((higher & 0xFF) << 8 | (lower & 0xFF));
-                                        }
-
-                                        int outp = (((by + y) * width) + (bx + x)) * 4;
-                                        image[outp++] = (byte)(((col & 0x001F) << 3) | ((col & 0x001F) >>> 2));
-                                        image[outp++] = (byte)(((col & 0x07E0) >>> 3) | ((col & 0x07E0) >>> 8));
-                                        image[outp++] = (byte)(((col & 0xF800) >>> 8) | ((col & 0xF800) >>> 13));
-                                        image[outp  ] = (byte)255;
-                                    }
-                                }
+                        break;
+                        
+                    case 4: // RGB565
+                        for (int y = 0; y < 4; y++) {
+                            for (int x = 0; x < 4; x++) {
+                                int col = readShort(data, inp, isBigEndian);
+                                inp += 2;
+                                
+                                if (by + y >= height || bx + x >= width)
+                                    continue;
+                                
+                                int outp = (((by + y) * width) + (bx + x)) * 4;
+                                image[outp++] = (byte)(((col & 0x001F) << 3) | ((col & 0x001F) >>> 2));
+                                image[outp++] = (byte)(((col & 0x07E0) >>> 3) | ((col & 0x07E0) >>> 8));
+                                image[outp++] = (byte)(((col & 0xF800) >>> 8) | ((col & 0xF800) >>> 13));
+                                image[outp  ] = (byte)255;
                             }
                         }
-                    }
-                    break;
-                    
-                case 5: // RGB5A3
-                    {
-                        image = new byte[width * height * 4];
-
-                        for (int by = 0; by < height; by += 4) {
-                            for (int bx = 0; bx < width; bx += 4) {
-                                for (int y = 0; y < 4; y++) {
-                                    for (int x = 0; x < 4; x++) {
-                                        int col;
-                                        if (isBigEndian) {
-                                            col = file.readShort() & 0xFFFF;
-                                        } else {
-                                            byte lower = file.readByte();
-                                            byte higher = file.readByte();
-                                            col = ((higher & 0xFF) << 8) | (lower & 0xFF);
-                                        }
-
-                                        int outp = (((by + y) * width) + (bx + x)) * 4;
-
-                                        if ((col & 0x8000) != 0) {
-                                            // RGB555 (opaque)
-                                            int r = (col >> 10) & 0x1F;
-                                            int g = (col >> 5)  & 0x1F;
-                                            int b =  col        & 0x1F;
-
-                                            image[outp++] = (byte)((b << 3) | (b >> 2));
-                                            image[outp++] = (byte)((g << 3) | (g >> 2));
-                                            image[outp++] = (byte)((r << 3) | (r >> 2));
-                                            image[outp] = (byte)255;
-                                        } else {
-                                            // ARGB3444
-                                            int a = (col >> 12) & 0x7;
-                                            int r = (col >> 8)  & 0xF;
-                                            int g = (col >> 4)  & 0xF;
-                                            int b =  col        & 0xF;
-
-                                            image[outp++] = (byte)((b << 4) | b);
-                                            image[outp++] = (byte)((g << 4) | g);
-                                            image[outp++] = (byte)((r << 4) | r);
-                                            image[outp] = (byte)((a << 5) | (a << 2) | (a >> 1));
-                                        }
-                                    }
+                        break;
+                        
+                    case 5: // RGB5A3
+                        for (int y = 0; y < 4; y++) {
+                            for (int x = 0; x < 4; x++) {
+                                int col = readShort(data, inp, isBigEndian);
+                                inp += 2;
+                                
+                                if (by + y >= height || bx + x >= width)
+                                    continue;
+                                
+                                int outp = (((by + y) * width) + (bx + x)) * 4;
+                                
+                                if ((col & 0x8000) != 0) {
+                                    // RGB555 (opaque)
+                                    int r = (col >> 10) & 0x1F;
+                                    int g = (col >> 5)  & 0x1F;
+                                    int b =  col        & 0x1F;
+                                    
+                                    image[outp++] = (byte)((b << 3) | (b >> 2));
+                                    image[outp++] = (byte)((g << 3) | (g >> 2));
+                                    image[outp++] = (byte)((r << 3) | (r >> 2));
+                                    image[outp] = (byte)255;
+                                } else {
+                                    // ARGB3444
+                                    int a = (col >> 12) & 0x7;
+                                    int r = (col >> 8)  & 0xF;
+                                    int g = (col >> 4)  & 0xF;
+                                    int b =  col        & 0xF;
+                                    
+                                    image[outp++] = (byte)((b << 4) | b);
+                                    image[outp++] = (byte)((g << 4) | g);
+                                    image[outp++] = (byte)((r << 4) | r);
+                                    image[outp] = (byte)((a << 5) | (a << 2) | (a >> 1));
                                 }
                             }
                         }
-                    }
-                    break;
-
-                case 6: // RGBA32
-                    {
-                        image = new byte[width * height * 4];
-
-                        for (int by = 0; by < height; by += 4) {
-                            for (int bx = 0; bx < width; bx += 4) {
-                                for (int y = 0; y < 4; y++) {
-                                    for (int x = 0; x < 4; x++) {
-                                        byte a = file.readByte();
-                                        byte r = file.readByte();
-
-                                        int outp = (((by + y) * width) + (bx + x)) * 4;
-                                        image[outp+3] = a;
-                                        image[outp+2] = r;
-                                    }
+                        break;
+                        
+                    case 6: // RGBA32
+                        for (int y = 0; y < 4; y++) {
+                            for (int x = 0; x < 4; x++) {
+                                if (by + y >= height || bx + x >= width)
+                                    continue;
+                                
+                                int i = (y * 4 + x) * 2;
+                                int outp = (((by + y) * width) + (bx + x)) * 4;
+                                image[outp+3] = data[inp + i];
+                                image[outp+2] = data[inp + i + 1];
+                                image[outp+1] = data[inp + i + 32];
+                                image[outp  ] = data[inp + i + 33];
+                            }
+                        }
+                        break;
+                        
+                    case 14: // CMPR
+                        for (int sby = 0; sby < 8; sby += 4) {
+                            for (int sbx = 0; sbx < 8; sbx += 4) {
+                                // The colors are always stored in big endian
+                                int c1 = readShort(data, inp, true);
+                                int c2 = readShort(data, inp + 2, true);
+                                int block = readInt(data, inp + 4, isBigEndian);
+                                inp += 8;
+                                
+                                int r1 = (c1 & 0xF800) >>> 8;
+                                int g1 = (c1 & 0x07E0) >>> 3;
+                                int b1 = (c1 & 0x001F) << 3;
+                                int r2 = (c2 & 0xF800) >>> 8;
+                                int g2 = (c2 & 0x07E0) >>> 3;
+                                int b2 = (c2 & 0x001F) << 3;
+                                
+                                colors[0] = 255; colors[1] = r1; colors[2] = g1; colors[3] = b1;
+                                colors[4] = 255; colors[5] = r2; colors[6] = g2; colors[7] = b2;
+                                if (c1 > c2) {
+                                    colors[8] = 255;
+                                    colors[9] = ((r1 << 1) + r2) / 3;
+                                    colors[10] = ((g1 << 1) + g2) / 3;
+                                    colors[11] = ((b1 << 1) + b2) / 3;
+                                    colors[12] = 255;
+                                    colors[13] = (r1 + (r2 << 1)) / 3;
+                                    colors[14] = (g1 + (g2 << 1)) / 3;
+                                    colors[15] = (b1 + (b2 << 1)) / 3;
                                 }
+                                else {
+                                    colors[8] = 255;
+                                    colors[9] = (r1 + r2) / 2;
+                                    colors[10] = (g1 + g2) / 2;
+                                    colors[11] = (b1 + b2) / 2;
+                                    colors[12] = 0; colors[13] = r2; colors[14] = g2; colors[15] = b2;
+                                }
+                                
                                 for (int y = 0; y < 4; y++) {
                                     for (int x = 0; x < 4; x++) {
-                                        byte g = file.readByte();
-                                        byte b = file.readByte();
-
-                                        int outp = (((by + y) * width) + (bx + x)) * 4;
-                                        image[outp+1] = g;
-                                        image[outp  ] = b;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    break;
-
-                case 14: // CMPR
-                    {
-                        image = new byte[width * height * 4];
-
-                        for (int by = 0; by < height; by += 8) {
-                            for (int bx = 0; bx < width; bx += 8) {
-                                for (int sby = 0; sby < 8; sby += 4) {
-                                    for (int sbx = 0; sbx < 8; sbx += 4) {
-                                        int c1, c2;
-                                        if (isBigEndian) {
-                                            c1 = file.readShort() & 0xFFFF;
-                                            c2 = file.readShort() & 0xFFFF;
-                                        } else {
-                                            byte lower = file.readByte();
-                                            byte higher = file.readByte();
-                                            c1 = (int) ((lower & 0xFF) << 8 | (higher & 0xFF));
-                                            lower = file.readByte();
-                                            higher = file.readByte();
-                                            c2 = (int) ((lower & 0xFF) << 8 | (higher & 0xFF));
-                                        }
-                                        int block = file.readInt();
-
-                                        int r1 = (c1 & 0xF800) >>> 8;
-                                        int g1 = (c1 & 0x07E0) >>> 3;
-                                        int b1 = (c1 & 0x001F) << 3;
-                                        int r2 = (c2 & 0xF800) >>> 8;
-                                        int g2 = (c2 & 0x07E0) >>> 3;
-                                        int b2 = (c2 & 0x001F) << 3;
-
-                                        int[][] colors = new int[4][4];
-                                        colors[0][0] = 255; colors[0][1] = r1; colors[0][2] = g1; colors[0][3] = b1;
-                                        colors[1][0] = 255; colors[1][1] = r2; colors[1][2] = g2; colors[1][3] = b2;
-                                        if (c1 > c2) {
-                                            int r3 = ((r1 << 1) + r2) / 3;
-                                            int g3 = ((g1 << 1) + g2) / 3;
-                                            int b3 = ((b1 << 1) + b2) / 3;
-
-                                            int r4 = (r1 + (r2 << 1)) / 3;
-                                            int g4 = (g1 + (g2 << 1)) / 3;
-                                            int b4 = (b1 + (b2 << 1)) / 3;
-
-                                            colors[2][0] = 255; colors[2][1] = r3; colors[2][2] = g3; colors[2][3] = b3;
-                                            colors[3][0] = 255; colors[3][1] = r4; colors[3][2] = g4; colors[3][3] = b4;
-                                        }
-                                        else {
-                                            colors[2][0] = 255;
-                                            colors[2][1] = ((r1 + r2) / 2);
-                                            colors[2][2] = ((g1 + g2) / 2);
-                                            colors[2][3] = ((b1 + b2) / 2);
-                                            colors[3][0] = 0; colors[3][1] = r2; colors[3][2] = g2; colors[3][3] = b2;
-                                        }
-
-                                        for (int y = 0; y < 4; y++) {
-                                            for (int x = 0; x < 4; x++) {
-                                                int c = block >>> 30;
-                                                int outp = (((by + sby + y) * width) + (bx + sbx + x)) * 4;
-                                                image[outp++] = (byte)(colors[c][3] | (colors[c][3] >>> 5));
-                                                image[outp++] = (byte)(colors[c][2] | (colors[c][2] >>> 5));
-                                                image[outp++] = (byte)(colors[c][1] | (colors[c][1] >>> 5));
-                                                image[outp  ] = (byte)colors[c][0];
-                                                block <<= 2;
-                                            }
-                                        }
+                                        int c = (block >>> 30) * 4;
+                                        block <<= 2;
+                                        
+                                        int py = by + sby + y, px = bx + sbx + x;
+                                        if (py >= height || px >= width)
+                                            continue;
+                                        
+                                        int outp = ((py * width) + px) * 4;
+                                        image[outp++] = (byte)(colors[c + 3] | (colors[c + 3] >>> 5));
+                                        image[outp++] = (byte)(colors[c + 2] | (colors[c + 2] >>> 5));
+                                        image[outp++] = (byte)(colors[c + 1] | (colors[c + 1] >>> 5));
+                                        image[outp  ] = (byte)colors[c];
                                     }
                                 }
                             }
                         }
-                    }
-                    break;
-
-                default: 
-                    {
-                        System.out.println(String.format("Unsupported texture type %1$d, generating solid color texture instead", format));
-                        
-                        image = new byte[width * height * 4];
-                        for (int i = 0; i < width * height; i++) {
-                            int outp = i * 4;
-                            image[outp++] = (byte)255;
-                            image[outp++] = (byte)0;
-                            image[outp++] = (byte)255;
-                            image[outp  ] = (byte)255;
-                        }
-                    }
-                    break;
+                        break;
+                }
             }
-
-            ret[mip] = image;
-            width /= 2; height /= 2;
         }
-        
-        return ret;
     }
-}
\ No newline at end of file
+}
@@ -17,9 +17,15 @@
 package whitehole.smg;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
 import whitehole.io.FileBase;
+import whitehole.math.BoundingBox;
+import whitehole.math.Ray;
 import whitehole.math.Vec3f;
-import whitehole.util.MathUtil;
 
 /**
  *
@@ -34,10 +40,10 @@ public class Kcl {
         int PositionsOffset = file.readInt();
         int NormalsOffset = file.readInt();
         int TrianglesOffset = file.readInt() + 0x10; // Still don't know why there's an additional thing needed...
-        int OctreeOffset = file.readInt(); //We're probably not gonna need this for rendering...
+        int OctreeOffset = file.readInt();
         
         thickness = file.readFloat(); //Might actually use this (Probably not...)
-        Vec3f MinCoords = new Vec3f(file.readFloat(), file.readFloat(), file.readFloat());
+        areaMin = new Vec3f(file.readFloat(), file.readFloat(), file.readFloat());
         int MaskX = file.readInt();
         int MaskY = file.readInt();
         int MaskZ = file.readInt();
@@ -48,27 +54,22 @@ public class Kcl {
         int PositionCount = (NormalsOffset - PositionsOffset) / 12;
         int NormalCount = (TrianglesOffset - NormalsOffset) / 12;
         int TriangleCount = (OctreeOffset - TrianglesOffset) / 16;
-        int OctreeNodeCount = ((~(int)MaskX >> (int)ShiftX) + 1) * ((~(int)MaskY >> (int)ShiftX) + 1) * ((~(int)MaskZ >> (int)ShiftX) + 1);
+        
+        // The root of the octree is a grid of cells with the size 1 << ShiftX, ShiftY and ShiftZ are the bits the Y
+        // and Z cell indices are shifted by
+        blockShift = ShiftX;
+        rootShiftY = ShiftY;
+        rootShiftZ = ShiftZ;
+        rootCountX = (~MaskX >> ShiftX) + 1;
+        rootCountY = (~MaskY >> ShiftX) + 1;
+        rootCountZ = (~MaskZ >> ShiftX) + 1;
         
         file.position(PositionsOffset);
-        positionArray = new Vec3f[PositionCount];
-        for (int i = 0; i < positionArray.length; i++) {
-            Vec3f newVec = new Vec3f(file.readFloat(), file.readFloat(), file.readFloat());
-            //TEST
-            for (int j = 0; j < i; j++) {
-                float dist = MathUtil.distance(newVec, positionArray[j]);
-                if (dist < 1f)
-                    newVec = positionArray[j];
-            }
-            positionArray[i] = newVec;
-        }
+        positions = file.readFloats(PositionCount * 3);
+        weldPositions(positions, PositionCount);
         
         file.position(NormalsOffset);
-        normalArray = new Vec3f[NormalCount];
-        for (int i = 0; i < normalArray.length; i++) {
-            Vec3f newVec = new Vec3f(file.readFloat(), file.readFloat(), file.readFloat());
-            normalArray[i] = newVec;
-        }
+        normals = file.readFloats(NormalCount * 3);
         
         file.position(TrianglesOffset);
         triangles = new Primitive[TriangleCount];
@@ -84,9 +85,428 @@ public class Kcl {
             triangles[i] = p;
         }
         
-        // Currently not going to bother adding Octree support...
+        file.position(OctreeOffset);
+        octree = ByteBuffer.wrap(file.readBytes((int)(file.getLength() - OctreeOffset)));
+        octree.order(isBigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    private static long getCellKey(int x, int y, int z)
+    {
+        return ((long)(x & 0x1FFFFF) << 42) | ((long)(y & 0x1FFFFF) << 21) | (z & 0x1FFFFF);
+    }
+    
+    /**
+     * Moves positions closer than a unit onto each other, so the collision is drawn without cracks. Every position is
+     * compared to the first positions of the unit cells around it, which are found through a hash of the cells.
+     * @param pos three floats per position, changed in place
+     * @param count the number of positions
+     */
+    private static void weldPositions(float[] pos, int count)
+    {
+        // Open addressing, every slot holds a cell and the index of its last position. The positions of a cell are
+        // linked through next.
+        int capacity = Integer.highestOneBit(Math.max(count, 8) * 2 - 1) << 1;
+        int mask = capacity - 1;
+        long[] keys = new long[capacity];
+        int[] heads = new int[capacity];
+        int[] next = new int[count];
+        Arrays.fill(heads, -1);
+        
+        for (int i = 0; i < count; i++)
+        {
+            float x = pos[i * 3], y = pos[i * 3 + 1], z = pos[i * 3 + 2];
+            int cx = (int)Math.floor(x), cy = (int)Math.floor(y), cz = (int)Math.floor(z);
+            int match = -1;
+            float matchDist = 1f;
+            
+            for (int dz = -1; dz <= 1; dz++)
+            {
+                for (int dy = -1; dy <= 1; dy++)
+                {
+                    for (int dx = -1; dx <= 1; dx++)
+                    {
+                        int slot = findCell(keys, heads, mask, getCellKey(cx + dx, cy + dy, cz + dz));
+                        
+                        for (int j = heads[slot]; j >= 0; j = next[j])
+                        {
+                            float ex = pos[j * 3] - x, ey = pos[j * 3 + 1] - y, ez = pos[j * 3 + 2] - z;
+                            float dist = (float)Math.sqrt(ex * ex + ey * ey + ez * ez);
+                            if (dist < matchDist)
+                            {
+                                match = j;
+                                matchDist = dist;
+                            }
+                        }
+                    }
+                }
+            }
+            
+            if (match >= 0)
+            {
+                pos[i * 3] = pos[match * 3];
+                pos[i * 3 + 1] = pos[match * 3 + 1];
+                pos[i * 3 + 2] = pos[match * 3 + 2];
+            }
+            else
+            {
+                int slot = findCell(keys, heads, mask, getCellKey(cx, cy, cz));
+                keys[slot] = getCellKey(cx, cy, cz);
+                next[i] = heads[slot];
+                heads[slot] = i;
+            }
+        }
+    }
+    
+    /**
+     * Returns the slot of a cell, or the empty slot it would go into.
+     */
+    private static int findCell(long[] keys, int[] heads, int mask, long key)
+    {
+        int slot = (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (heads[slot] >= 0 && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+    
+    /**
+     * Returns the corners of all triangles, nine floats per triangle in the same order as {@link #triangles}. The
+     * array is computed once and must not be changed.
+     */
+    public float[] getTriangles()
+    {
+        if (corners == null)
+            corners = calcTriangles();
+        return corners;
+    }
+    
+    private float[] calcTriangles()
+    {
+        float[] ret = new float[triangles.length * 9];
+        float[] n = normals;
+
+        for (int i = 0; i < triangles.length; i++)
+        {
+            Primitive prim = triangles[i];
+            int d = prim.directionIndex * 3, na = prim.normalAIndex * 3, nb = prim.normalBIndex * 3, nc = prim.normalCIndex * 3;
+            int a = prim.positionIndex * 3;
+            
+            // The corners lie on the crossings of the edge planes, the direction crossed with the normal of an edge
+            // points along that edge
+            float crossAx = n[na + 1] * n[d + 2] - n[na + 2] * n[d + 1];
+            float crossAy = n[na + 2] * n[d] - n[na] * n[d + 2];
+            float crossAz = n[na] * n[d + 1] - n[na + 1] * n[d];
+            float crossBx = n[nb + 1] * n[d + 2] - n[nb + 2] * n[d + 1];
+            float crossBy = n[nb + 2] * n[d] - n[nb] * n[d + 2];
+            float crossBz = n[nb] * n[d + 1] - n[nb + 1] * n[d];
+            float scaleA = prim.Length / (crossAx * n[nc] + crossAy * n[nc + 1] + crossAz * n[nc + 2]);
+            float scaleB = prim.Length / (crossBx * n[nc] + crossBy * n[nc + 1] + crossBz * n[nc + 2]);
+            float ax = positions[a], ay = positions[a + 1], az = positions[a + 2];
+
+            // C, B and A, the order they are drawn in
+            int t = i * 9;
+            ret[t] = ax + crossAx * scaleA;
+            ret[t + 1] = ay + crossAy * scaleA;
+            ret[t + 2] = az + crossAz * scaleA;
+            ret[t + 3] = ax + crossBx * scaleB;
+            ret[t + 4] = ay + crossBy * scaleB;
+            ret[t + 5] = az + crossBz * scaleB;
+            ret[t + 6] = ax;
+            ret[t + 7] = ay;
+            ret[t + 8] = az;
+        }
+
+        return ret;
+    }
+    
+    // -------------------------------------------------------------------------------------------------------------------------
+    // Octree queries
+    //
+    // Every node is a 32-bit value. With the top bit set it is a leaf, and the remaining bits point to its list of
+    // triangles, which starts after a zero and ends with one. Otherwise it points to the eight children of the node.
+    // Both offsets are relative to the group of nodes it is part of, for the roots this is the start of the octree.
+    
+    /**
+     * Returns the box around all cells of the octree.
+     */
+    public BoundingBox getArea()
+    {
+        float size = 1 << blockShift;
+        BoundingBox ret = new BoundingBox();
+        ret.include(areaMin.x, areaMin.y, areaMin.z);
+        ret.include(areaMin.x + rootCountX * size, areaMin.y + rootCountY * size, areaMin.z + rootCountZ * size);
+        return ret;
+    }
+    
+    private int getRootIndex(int x, int y, int z)
+    {
+        return (z << rootShiftZ) | (y << rootShiftY) | x;
+    }
+    
+    private void visitTriangleList(int offset, BitSet visited, IntConsumer visitor)
+    {
+        // Prism indices start at 1, which is the first entry of triangles
+        for (int p = offset + 2; ; p += 2)
+        {
+            int tri = (octree.getShort(p) & 0xFFFF) - 1;
+            if (tri < 0)
+                break;
+            
+            if (tri < triangles.length && !visited.get(tri))
+            {
+                visited.set(tri);
+                visitor.accept(tri);
+            }
+        }
+    }
+    
+    /**
+     * Calls the visitor once with every triangle in the cells of the octree that overlap a box.
+     * @param box the box in the space of the collision
+     * @param visitor receives the indices of the triangles in {@link #triangles}
+     */
+    public void queryBox(BoundingBox box, IntConsumer visitor)
+    {
+        BitSet visited = new BitSet(triangles.length);
+        float size = 1 << blockShift;
+        
+        int x0 = Math.max(0, (int)Math.floor((box.min.x - areaMin.x) / size));
+        int y0 = Math.max(0, (int)Math.floor((box.min.y - areaMin.y) / size));
+        int z0 = Math.max(0, (int)Math.floor((box.min.z - areaMin.z) / size));
+        int x1 = Math.min(rootCountX - 1, (int)Math.floor((box.max.x - areaMin.x) / size));
+        int y1 = Math.min(rootCountY - 1, (int)Math.floor((box.max.y - areaMin.y) / size));
+        int z1 = Math.min(rootCountZ - 1, (int)Math.floor((box.max.z - areaMin.z) / size));
+        
+        for (int z = z0; z <= z1; z++)
+        {
+            for (int y = y0; y <= y1; y++)
+            {
+                for (int x = x0; x <= x1; x++)
+                {
+                    queryBoxNode(0, getRootIndex(x, y, z), areaMin.x + x * size, areaMin.y + y * size,
+                            areaMin.z + z * size, blockShift, box, visited, visitor);
+                }
+            }
+        }
     }
     
+    private void queryBoxNode(int base, int index, float x, float y, float z, int shift, BoundingBox box, BitSet visited, IntConsumer visitor)
+    {
+        int node = octree.getInt(base + index * 4);
+        if (node < 0)
+        {
+            visitTriangleList(base + (node & 0x7FFFFFFF), visited, visitor);
+            return;
+        }
+        
+        int children = base + node;
+        shift--;
+        float size = 1 << shift;
+        
+        for (int c = 0; c < 8; c++)
+        {
+            float cx = x + ((c & 1) != 0 ? size : 0f);
+            float cy = y + ((c & 2) != 0 ? size : 0f);
+            float cz = z + ((c & 4) != 0 ? size : 0f);
+            
+            if (cx <= box.max.x && cx + size >= box.min.x && cy <= box.max.y && cy + size >= box.min.y
+                    && cz <= box.max.z && cz + size >= box.min.z)
+                queryBoxNode(children, c, cx, cy, cz, shift, box, visited, visitor);
+        }
+    }
+    
+    /**
+     * Calls the visitor with every triangle that touches a sphere.
+     * @param center the center in the space of the collision
+     * @param radius the radius of the sphere
+     * @param visitor receives the indices of the triangles in {@link #triangles}
+     */
+    public void querySphere(Vec3f center, float radius, IntConsumer visitor)
+    {
+        BoundingBox box = new BoundingBox();
+        box.include(center.x - radius, center.y - radius, center.z - radius);
+        box.include(center.x + radius, center.y + radius, center.z + radius);
+        float[] v = getTriangles();
+        float radiusSq = radius * radius;
+        
+        queryBox(box, tri -> {
+            if (distanceSquaredToTriangle(v, tri * 9, center.x, center.y, center.z) <= radiusSq)
+                visitor.accept(tri);
+        });
+    }
+    
+    /**
+     * Returns the squared distance from a point to the closest point of a triangle.
+     */
+    private static float distanceSquaredToTriangle(float[] v, int o, float px, float py, float pz)
+    {
+        float ax = v[o], ay = v[o + 1], az = v[o + 2];
+        float abx = v[o + 3] - ax, aby = v[o + 4] - ay, abz = v[o + 5] - az;
+        float acx = v[o + 6] - ax, acy = v[o + 7] - ay, acz = v[o + 8] - az;
+        float apx = px - ax, apy = py - ay, apz = pz - az;
+        
+        // Find the region of the triangle the point is closest to, see Ericson's Real-Time Collision Detection
+        float d1 = abx * apx + aby * apy + abz * apz;
+        float d2 = acx * apx + acy * apy + acz * apz;
+        float u, w;
+        
+        if (d1 <= 0f && d2 <= 0f)
+        {
+            u = 0f; w = 0f;
+        }
+        else
+        {
+            float bpx = px - v[o + 3], bpy = py - v[o + 4], bpz = pz - v[o + 5];
+            float d3 = abx * bpx + aby * bpy + abz * bpz;
+            float d4 = acx * bpx + acy * bpy + acz * bpz;
+            float cpx = px - v[o + 6], cpy = py - v[o + 7], cpz = pz - v[o + 8];
+            float d5 = abx * cpx + aby * cpy + abz * cpz;
+            float d6 = acx * cpx + acy * cpy + acz * cpz;
+            float va = d3 * d6 - d5 * d4, vb = d5 * d2 - d1 * d6, vc = d1 * d4 - d3 * d2;
+            
+            if (d3 >= 0f && d4 <= d3)
+            {
+                u = 1f; w = 0f;
+            }
+            else if (d6 >= 0f && d5 <= d6)
+            {
+                u = 0f; w = 1f;
+            }
+            else if (vc <= 0f && d1 >= 0f && d3 <= 0f)
+            {
+                u = d1 / (d1 - d3); w = 0f;
+            }
+            else if (vb <= 0f && d2 >= 0f && d6 <= 0f)
+            {
+                u = 0f; w = d2 / (d2 - d6);
+            }
+            else if (va <= 0f && d4 - d3 >= 0f && d5 - d6 >= 0f)
+            {
+                w = (d4 - d3) / ((d4 - d3) + (d5 - d6));
+                u = 1f - w;
+            }
+            else
+            {
+                float denom = 1f / (va + vb + vc);
+                u = vb * denom;
+                w = vc * denom;
+            }
+        }
+        
+        float dx = ax + abx * u + acx * w - px;
+        float dy = ay + aby * u + acy * w - py;
+        float dz = az + abz * u + acz * w - pz;
+        return dx * dx + dy * dy + dz * dz;
+    }
+    
+    /**
+     * Returns the distance at which a ray hits the nearest triangle, from either side. The cells of the octree are
+     * visited along the ray, so the search ends at the first cell that contains a hit.
+     * @param ray the ray in the space of the collision
+     * @param maxDistance hits at this distance or further away are ignored
+     * @return the distance, or {@link Ray#MISS}
+     */
+    public float raycast(Ray ray, float maxDistance)
+    {
+        float size = 1 << blockShift;
+        BoundingBox area = getArea();
+        float t = ray.intersectBox(area, maxDistance);
+        if (t == Ray.MISS)
+            return Ray.MISS;
+        
+        // Walk the root cells along the ray
+        Vec3f o = ray.origin, d = ray.direction;
+        float ox = o.x - areaMin.x, oy = o.y - areaMin.y, oz = o.z - areaMin.z;
+        int x = Math.min(rootCountX - 1, Math.max(0, (int)Math.floor((ox + d.x * t) / size)));
+        int y = Math.min(rootCountY - 1, Math.max(0, (int)Math.floor((oy + d.y * t) / size)));
+        int z = Math.min(rootCountZ - 1, Math.max(0, (int)Math.floor((oz + d.z * t) / size)));
+        int stepX = d.x > 0f ? 1 : -1, stepY = d.y > 0f ? 1 : -1, stepZ = d.z > 0f ? 1 : -1;
+        float nextX = d.x != 0f ? ((x + (d.x > 0f ? 1 : 0)) * size - ox) / d.x : Float.POSITIVE_INFINITY;
+        float nextY = d.y != 0f ? ((y + (d.y > 0f ? 1 : 0)) * size - oy) / d.y : Float.POSITIVE_INFINITY;
+        float nextZ = d.z != 0f ? ((z + (d.z > 0f ? 1 : 0)) * size - oz) / d.z : Float.POSITIVE_INFINITY;
+        float deltaX = size / Math.abs(d.x), deltaY = size / Math.abs(d.y), deltaZ = size / Math.abs(d.z);
+        
+        BitSet tested = new BitSet(triangles.length);
+        float[] best = { maxDistance };
+        
+        while (true)
+        {
+            raycastNode(ray, 0, getRootIndex(x, y, z), areaMin.x + x * size, areaMin.y + y * size,
+                    areaMin.z + z * size, blockShift, best, tested);
+            
+            // Hits in the following cells can't be nearer
+            float exit = Math.min(nextX, Math.min(nextY, nextZ));
+            if (best[0] <= exit || exit >= maxDistance)
+                break;
+            
+            if (nextX == exit)
+            {
+                x += stepX;
+                nextX += deltaX;
+            }
+            else if (nextY == exit)
+            {
+                y += stepY;
+                nextY += deltaY;
+            }
+            else
+            {
+                z += stepZ;
+                nextZ += deltaZ;
+            }
+            
+            if (x < 0 || x >= rootCountX || y < 0 || y >= rootCountY || z < 0 || z >= rootCountZ)
+                break;
+        }
+        
+        return best[0] < maxDistance ? best[0] : Ray.MISS;
+    }
+    
+    private void raycastNode(Ray ray, int base, int index, float x, float y, float z, int shift, float[] best, BitSet tested)
+    {
+        int node = octree.getInt(base + index * 4);
+        if (node < 0)
+        {
+            float[] v = getTriangles();
+            visitTriangleList(base + (node & 0x7FFFFFFF), tested, tri -> {
+                float t = ray.intersectTriangle(v, tri * 9);
+                if (t < best[0])
+                    best[0] = t;
+            });
+            return;
+        }
+        
+        int children = base + node;
+        shift--;
+        float size = 1 << shift;
+        float[] entries = new float[8];
+        
+        for (int c = 0; c < 8; c++)
+        {
+            float cx = x + ((c & 1) != 0 ? size : 0f);
+            float cy = y + ((c & 2) != 0 ? size : 0f);
+            float cz = z + ((c & 4) != 0 ? size : 0f);
+            entries[c] = ray.intersectBox(cx, cy, cz, cx + size, cy + size, cz + size, best[0]);
+        }
+        
+        // Nearest child first, the others may be ruled out by its hits
+        while (true)
+        {
+            int nearest = -1;
+            for (int c = 0; c < 8; c++)
+            {
+                if (entries[c] < best[0] && (nearest < 0 || entries[c] < entries[nearest]))
+                    nearest = c;
+            }
+            
+            if (nearest < 0)
+                break;
+            
+            entries[nearest] = Ray.MISS;
+            raycastNode(ray, children, nearest, x + ((nearest & 1) != 0 ? size : 0f),
+                    y + ((nearest & 2) != 0 ? size : 0f), z + ((nearest & 4) != 0 ? size : 0f), shift, best, tested);
+        }
+    }
+
     public void save() throws IOException
     {
         file.save();
@@ -100,8 +520,19 @@ public class Kcl {
     private FileBase file;
     
     public final float thickness;
-    public Vec3f[] positionArray;
-    public Vec3f[] normalArray;
+    
+    // The octree, see queryBox
+    private final Vec3f areaMin;
+    private final int blockShift, rootShiftY, rootShiftZ;
+    private final int rootCountX, rootCountY, rootCountZ;
+    private final ByteBuffer octree;
+    private float[] corners = null;
+    
+    /**
+     * Three floats per position and normal. Positions closer than a unit have been moved onto each other.
+     */
+    public float[] positions;
+    public float[] normals;
     
     public Primitive[] triangles;
     
@@ -19,6 +19,7 @@ package whitehole.smg;
 import java.io.*;
 import java.util.*;
 import whitehole.Whitehole;
+import whitehole.io.FileTransaction;
 import whitehole.io.FilesystemBase;
 import whitehole.io.RarcFile;
 import whitehole.smg.object.AbstractObj;
@@ -31,6 +32,7 @@ import whitehole.smg.object.GravityObj;
 import whitehole.smg.object.LevelObj;
 import whitehole.smg.object.MapPartObj;
 import whitehole.smg.object.PathObj;
+import whitehole.smg.object.PathPointObj;
 import whitehole.smg.object.PositionObj;
 import whitehole.smg.object.SoundObj;
 import whitehole.smg.object.StageObj;
@@ -50,6 +52,9 @@ public class StageArchive {
     public HashMap<String, List<StageObj>> zones;
     public List<PathObj> paths;
     
+    // BCSV rows as they were last loaded from or written to the map archive, keyed by lowercase file path
+    private final HashMap<String, List<Bcsv.Entry>> savedRows = new HashMap<>();
+    
     public StageArchive(GalaxyArchive arc, String name) throws IOException {
         galaxy = arc;
         filesystem = Whitehole.getCurrentGameFileSystem();
@@ -169,6 +174,9 @@ public class StageArchive {
         mapArc.close();
         if (assistPath != null) 
             assistArc.close();
+        
+        // Remember what saving would write right now, so an untouched zone is never rewritten
+        markSaved(collectChangedRows());
     }
     
     private void loadLayeredObjects(RarcFile archive, String folder, String file) {
@@ -269,83 +277,225 @@ public class StageArchive {
     // -------------------------------------------------------------------------------------------------------------------------
     // Saving
     
-    public void save() throws IOException {
-        mapArc = new RarcFile(filesystem.openFile(mapPath));
-        saveLayeredZones();
-        savePaths();
+    /**
+     * Writes all placement, zone and path files that changed since they were last loaded or saved. If nothing in this
+     * stage changed, the map archive is not touched at all.
+     * @return whether the map archive had to be rewritten
+     * @throws IOException 
+     */
+    public boolean save() throws IOException {
+        return save(null);
+    }
+    
+    /**
+     * Same as {@link #save()}, but the map archive is only staged in the given transaction. The stage counts as saved
+     * once the transaction has been committed.
+     * @param transaction the transaction to stage the archive in, or null to write it right away
+     * @return whether the map archive had to be rewritten
+     * @throws IOException 
+     */
+    public boolean save(FileTransaction transaction) throws IOException {
+        LinkedHashMap<String, List<Bcsv.Entry>> changedRows = collectChangedRows();
+        
+        if (changedRows.isEmpty())
+            return false;
+        
+        if (transaction != null)
+            mapArc = new RarcFile(transaction.openFile(filesystem, mapPath));
+        else
+            mapArc = new RarcFile(filesystem.openFile(mapPath));
+        saveLayeredZones(changedRows);
+        savePaths(changedRows);
             
-        saveLayeredObjects(mapArc, "Placement", "ObjInfo");
-        saveLayeredObjects(mapArc, "MapParts", "MapPartsInfo");
-        saveLayeredObjects(mapArc, "Placement", "AreaObjInfo");
-        saveLayeredObjects(mapArc, "Placement", "CameraCubeInfo");
-        saveLayeredObjects(mapArc, "Placement", "PlanetObjInfo");
-        saveLayeredObjects(mapArc, "Placement", "DemoObjInfo");
-        saveLayeredObjects(mapArc, "Start", "StartInfo");
-        saveLayeredObjects(mapArc, "GeneralPos", "GeneralPosInfo");
-        saveLayeredObjects(mapArc, "Debug", "DebugMoveInfo");
+        saveLayeredObjects(changedRows, mapArc, "Placement", "ObjInfo");
+        saveLayeredObjects(changedRows, mapArc, "MapParts", "MapPartsInfo");
+        saveLayeredObjects(changedRows, mapArc, "Placement", "AreaObjInfo");
+        saveLayeredObjects(changedRows, mapArc, "Placement", "CameraCubeInfo");
+        saveLayeredObjects(changedRows, mapArc, "Placement", "PlanetObjInfo");
+        saveLayeredObjects(changedRows, mapArc, "Placement", "DemoObjInfo");
+        saveLayeredObjects(changedRows, mapArc, "Start", "StartInfo");
+        saveLayeredObjects(changedRows, mapArc, "GeneralPos", "GeneralPosInfo");
+        saveLayeredObjects(changedRows, mapArc, "Debug", "DebugMoveInfo");
         
         if (Whitehole.getCurrentGameType() == 1) {
-            saveLayeredObjects(mapArc, "ChildObj", "ChildObjInfo");
-            saveLayeredObjects(mapArc, "Placement", "SoundInfo");
+            saveLayeredObjects(changedRows, mapArc, "ChildObj", "ChildObjInfo");
+            saveLayeredObjects(changedRows, mapArc, "Placement", "SoundInfo");
         }
         
         mapArc.save();
         mapArc.close();
+        
+        if (transaction != null)
+            transaction.onCommit(() -> markSaved(changedRows));
+        else
+            markSaved(changedRows);
+        return true;
     }
     
-    private void saveLayeredObjects(RarcFile archive, String folder, String file) throws IOException {
-        int game = Whitehole.getCurrentGameType();
+    /**
+     * Builds the rows of every placement, zone and path file and returns those that differ from the last saved state.
+     * Objects are written back to their entries in the process, just like when saving.
+     */
+    private LinkedHashMap<String, List<Bcsv.Entry>> collectChangedRows() {
+        LinkedHashMap<String, List<Bcsv.Entry>> changedRows = new LinkedHashMap<>();
+        
+        collectLayeredZones(changedRows);
+        collectPaths(changedRows);
         
+        collectLayeredObjects(changedRows, "Placement", "ObjInfo");
+        collectLayeredObjects(changedRows, "MapParts", "MapPartsInfo");
+        collectLayeredObjects(changedRows, "Placement", "AreaObjInfo");
+        collectLayeredObjects(changedRows, "Placement", "CameraCubeInfo");
+        collectLayeredObjects(changedRows, "Placement", "PlanetObjInfo");
+        collectLayeredObjects(changedRows, "Placement", "DemoObjInfo");
+        collectLayeredObjects(changedRows, "Start", "StartInfo");
+        collectLayeredObjects(changedRows, "GeneralPos", "GeneralPosInfo");
+        collectLayeredObjects(changedRows, "Debug", "DebugMoveInfo");
+        
+        if (Whitehole.getCurrentGameType() == 1) {
+            collectLayeredObjects(changedRows, "ChildObj", "ChildObjInfo");
+            collectLayeredObjects(changedRows, "Placement", "SoundInfo");
+        }
+        
+        return changedRows;
+    }
+    
+    private void markSaved(Map<String, List<Bcsv.Entry>> rows) {
+        // Rows are copied since the objects keep editing their entries in place
+        for (Map.Entry<String, List<Bcsv.Entry>> entry : rows.entrySet())
+            savedRows.put(entry.getKey(), copyRows(entry.getValue()));
+    }
+    
+    private void collectLayeredObjects(Map<String, List<Bcsv.Entry>> changedRows, String folder, String file) {
         for (String layerKey : objects.keySet()) {
-            List<AbstractObj> objectList = objects.get(layerKey);
-            String layer = StageHelper.layerKeyToLayer(layerKey);
-            
-            Bcsv bcsv = StageHelper.getOrCreateJMapPlacementFile(archive, folder, layer, file, game);
-            bcsv.entries.clear();
+            List<Bcsv.Entry> rows = new ArrayList<>();
             
-            for (AbstractObj obj : objectList) {
+            for (AbstractObj obj : objects.get(layerKey)) {
                 if (obj.getFileType().equalsIgnoreCase(file)) {
                     obj.save();
-                    bcsv.entries.add(obj.data);
+                    rows.add(obj.data);
                 }
             }
             
+            collectRows(changedRows, getPlacementKey(folder, layerKey, file), rows);
+        }
+    }
+    
+    private void collectLayeredZones(Map<String, List<Bcsv.Entry>> changedRows) {
+        for (String layerKey : zones.keySet()) {
+            List<Bcsv.Entry> rows = new ArrayList<>();
+            
+            for (StageObj obj : zones.get(layerKey)) {
+                obj.save();
+                rows.add(obj.data);
+            }
+            
+            collectRows(changedRows, getPlacementKey("Placement", layerKey, "StageObjInfo"), rows);
+        }
+    }
+    
+    private void collectPaths(Map<String, List<Bcsv.Entry>> changedRows) {
+        List<Bcsv.Entry> rows = new ArrayList<>(paths.size());
+        int fileIndex = 0;
+        
+        for (PathObj pobj : paths) {
+            List<Bcsv.Entry> pointRows = new ArrayList<>(pobj.size());
+            
+            for (PathPointObj point : pobj.getPoints()) {
+                point.save();
+                pointRows.add(point.data);
+            }
+            
+            collectRows(changedRows, getPathPointInfoKey(fileIndex), pointRows);
+            pobj.saveEntry(fileIndex++);
+            rows.add(pobj.data);
+        }
+        
+        collectRows(changedRows, PATH_INFO_KEY, rows);
+    }
+    
+    private void collectRows(Map<String, List<Bcsv.Entry>> changedRows, String key, List<Bcsv.Entry> rows) {
+        if (!rows.equals(savedRows.get(key)))
+            changedRows.put(key, rows);
+    }
+    
+    private static List<Bcsv.Entry> copyRows(List<Bcsv.Entry> rows) {
+        List<Bcsv.Entry> ret = new ArrayList<>(rows.size());
+        
+        for (Bcsv.Entry row : rows) {
+            Bcsv.Entry copy = new Bcsv.Entry();
+            copy.putAll(row);
+            ret.add(copy);
+        }
+        
+        return ret;
+    }
+    
+    private static final String PATH_INFO_KEY = "/stage/jmp/path/commonpathinfo";
+    
+    private static String getPathPointInfoKey(int index) {
+        return "/stage/jmp/path/commonpathpointinfo." + index;
+    }
+    
+    private static String getPlacementKey(String folder, String layerKey, String file) {
+        return String.format("/stage/jmp/%s/%s/%s", folder, layerKey, file).toLowerCase();
+    }
+    
+    private void saveLayeredObjects(Map<String, List<Bcsv.Entry>> changedRows, RarcFile archive, String folder, String file) throws IOException {
+        int game = Whitehole.getCurrentGameType();
+        
+        for (String layerKey : objects.keySet()) {
+            List<Bcsv.Entry> rows = changedRows.get(getPlacementKey(folder, layerKey, file));
+            if (rows == null)
+                continue;
+            
+            String layer = StageHelper.layerKeyToLayer(layerKey);
+            
+            Bcsv bcsv = StageHelper.getOrCreateJMapPlacementFile(archive, folder, layer, file, game);
+            bcsv.entries.clear();
+            bcsv.entries.addAll(rows);
+            
             bcsv.save();
             bcsv.close();
         }
     }
     
-    private void saveLayeredZones() throws IOException {
+    private void saveLayeredZones(Map<String, List<Bcsv.Entry>> changedRows) throws IOException {
         int game = Whitehole.getCurrentGameType();
         
         for (String layerKey : zones.keySet()) {
-            List<StageObj> objectList = zones.get(layerKey);
+            List<Bcsv.Entry> rows = changedRows.get(getPlacementKey("Placement", layerKey, "StageObjInfo"));
+            if (rows == null)
+                continue;
+            
             String layer = StageHelper.layerKeyToLayer(layerKey);
             
             Bcsv bcsv = StageHelper.getOrCreateJMapPlacementFile(mapArc, "Placement", layer, "StageObjInfo", game);
             bcsv.entries.clear();
-            
-            for (StageObj obj : objectList) {
-                obj.save();
-                bcsv.entries.add(obj.data);
-            }
+            bcsv.entries.addAll(rows);
             
             bcsv.save();
             bcsv.close();
         }
     }
     
-    private void savePaths() throws IOException {
-        Bcsv bcsv = new Bcsv(mapArc.openFile("/Stage/jmp/Path/CommonPathInfo"), mapArc.isBigEndian());
-        bcsv.entries.clear();
-        
+    private void savePaths(Map<String, List<Bcsv.Entry>> changedRows) throws IOException {
         int fileIndex = 0;
         
         for (PathObj pobj : paths) {
-            pobj.save(fileIndex++);
-            bcsv.entries.add(pobj.data);
+            if (changedRows.containsKey(getPathPointInfoKey(fileIndex)))
+                pobj.save(fileIndex);
+            fileIndex++;
         }
         
+        List<Bcsv.Entry> rows = changedRows.get(PATH_INFO_KEY);
+        if (rows == null)
+            return;
+        
+        Bcsv bcsv = new Bcsv(mapArc.openFile("/Stage/jmp/Path/CommonPathInfo"), mapArc.isBigEndian());
+        bcsv.entries.clear();
+        bcsv.entries.addAll(rows);
+        
         bcsv.save();
         bcsv.close();
     }
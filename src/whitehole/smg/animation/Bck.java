@@ -98,6 +98,28 @@ public class Bck {
         file.close();
     }
     
+    /**
+     * Samples every track at every frame of the animation so that playing it back only looks up values. Only worth it
+     * for animations that are played back, as it takes nine floats per joint and frame.
+     */
+    public void presample() {
+        for (Animation anim : animData) {
+            if (anim == null)
+                continue;
+            
+            // The last frame is sampled as well, as the renderer may ask for it
+            anim.ScaleX.presample(duration + 1);
+            anim.ScaleY.presample(duration + 1);
+            anim.ScaleZ.presample(duration + 1);
+            anim.RotationX.presample(duration + 1);
+            anim.RotationY.presample(duration + 1);
+            anim.RotationZ.presample(duration + 1);
+            anim.TranslationX.presample(duration + 1);
+            anim.TranslationY.presample(duration + 1);
+            anim.TranslationZ.presample(duration + 1);
+        }
+    }
+    
     
     public class Animation {
         public J3DAnimationTrack ScaleX = new J3DAnimationTrack();
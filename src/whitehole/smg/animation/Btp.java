@@ -31,6 +31,10 @@ public class Btp {
      * The animation data.
      */
     public List<Animation> animData;
+    /**
+    * The length of the animation
+    */
+    public final int duration;
     
     
     public Btp(FileBase file) throws IOException {
@@ -41,7 +45,8 @@ public class Btp {
         if (tag == 0x3144334A) 
             this.file.setBigEndian(false);
         
-        file.position(0x2C);
+        file.position(0x2A);
+        duration = file.readShort();
         short batchCount = file.readShort();
         file.skip(0x2);
         
@@ -26,6 +26,10 @@ public class Bva {
      * The animation data.
      */
     public List<List<Boolean>> animData;
+    /**
+    * The length of the animation
+    */
+    public final int duration;
     
     
     public Bva(FileBase file) throws IOException {
@@ -36,7 +40,8 @@ public class Bva {
         if (tag == 0x3144334A) 
             this.file.setBigEndian(false);
         
-        file.position(0x2C);
+        file.position(0x2A);
+        duration = file.readShort();
         short batchCount = file.readShort();
         file.skip(0x2);
         
@@ -29,11 +29,39 @@ public class J3DAnimationTrack extends ArrayList<J3DKeyFrame> {
     // Replacement for TangentMode for now...
     public boolean IsDoubleTangent;
     
+    // The index of the keyframe after the last evaluated frame. Playback mostly moves forward by a frame or two, so
+    // the next lookup usually finds its keyframe right here.
+    private int cursor = 0;
+    
+    // The value at every frame, see presample
+    private float[] samples = null;
+    
     
     public float getValueAtFrame(short Time) {
+        if (samples != null && Time >= 0 && Time < samples.length)
+            return samples[Time];
         return getValueAtFrame(this, Time);
     }
     
+    /**
+     * Evaluates the track at every frame up to the given one once, so that these frames are just looked up from then
+     * on. Tracks with a single keyframe don't need this and are left alone.
+     * @param FrameCount the number of frames to sample, usually the duration of the animation
+     */
+    public void presample(int FrameCount) {
+        if (size() < 2 || FrameCount <= 0 || (samples != null && samples.length >= FrameCount))
+            return;
+        
+        float[] values = new float[FrameCount];
+        for (int i = 0; i < FrameCount; i++)
+            values[i] = getValueAtFrame(this, (short)i);
+        samples = values;
+    }
+    
+    public boolean isPresampled() {
+        return samples != null;
+    }
+    
     
     public static J3DAnimationTrack createTrackFloat(FileBase file, float[] Data, float Scale) throws IOException {
         short Count = file.readShort(),
@@ -48,17 +76,15 @@ public class J3DAnimationTrack extends ArrayList<J3DKeyFrame> {
         return translateTrackOnLoad(Data, Scale, Count, animIndex, TangentType);
     }
     public static Short getNextKeyframeIndex(J3DAnimationTrack Track, short Time) {
-        for (int i = 0; i < Track.size(); i++)
-            if (Time < Track.get(i).Time)
-                return (short)i;
-        return null;
+        int NextFrameId = Track.findNextKeyframe(Time);
+        return NextFrameId < Track.size() ? (short)NextFrameId : null;
     }
     public static float getValueAtFrame(J3DAnimationTrack Track, short Time) {
         if (Track.isEmpty())
             return 0;
-        Short NextFrameId = getNextKeyframeIndex(Track, Time);
+        int NextFrameId = Track.findNextKeyframe(Time);
 
-        if (NextFrameId == null)
+        if (NextFrameId == Track.size())
             return Track.get(Track.size() - 1).Value;
         if (NextFrameId == 0)
             return Track.get(0).Value;
@@ -66,6 +92,37 @@ public class J3DAnimationTrack extends ArrayList<J3DKeyFrame> {
         return J3DKeyFrame.GetHermiteInterpolation(Track.get(NextFrameId-1), Track.get(NextFrameId), Time);
     }
     
+    /**
+     * Returns the index of the first keyframe after the given time, or the number of keyframes if there is none.
+     * Keyframes are sorted by time.
+     */
+    private int findNextKeyframe(int Time) {
+        int Count = size();
+        int Cursor = cursor;
+        
+        // Try the keyframe of the last lookup and the one after it first
+        if (Cursor <= Count && (Cursor == 0 || get(Cursor - 1).Time <= Time)) {
+            if (Cursor == Count || Time < get(Cursor).Time)
+                return Cursor;
+            if (Cursor + 1 == Count || Time < get(Cursor + 1).Time) {
+                cursor = Cursor + 1;
+                return Cursor + 1;
+            }
+        }
+        
+        int Low = 0, High = Count;
+        while (Low < High) {
+            int Mid = (Low + High) >>> 1;
+            if (Time < get(Mid).Time)
+                High = Mid;
+            else
+                Low = Mid + 1;
+        }
+        
+        cursor = Low;
+        return Low;
+    }
+    
     private static J3DAnimationTrack translateTrackOnLoad(float[] Data, float Scale, short Count, short Index, boolean TangentTypeIsDouble) throws IOException {
         if (Count == 0)
             throw new IOException("Zero length tracks not allowed!");
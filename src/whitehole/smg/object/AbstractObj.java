@@ -28,6 +28,9 @@ import whitehole.smg.Bcsv;
 import whitehole.smg.StageArchive;
 import whitehole.smg.StageHelper;
 import whitehole.util.PropertyGrid;
+import whitehole.math.BoundingBox;
+import whitehole.math.Matrix4;
+import whitehole.math.ScenePicker;
 import whitehole.math.Vec3f;
 import whitehole.util.UIUtil;
 
@@ -547,6 +550,15 @@ public abstract class AbstractObj {
         renderer = null;
     }
     
+    /**
+     * Returns whether the renderer of the object plays back animations. Such objects are drawn without display lists
+     * while animations are played back, so they must not be compiled into other display lists meanwhile, since those
+     * would keep showing a single frame.
+     */
+    public boolean isAnimated() {
+        return renderer != null && renderer.isAnimated();
+    }
+    
     public void render(GLRenderer.RenderInfo info) {
         if (isHidden || renderer == null) {
             return;
@@ -564,13 +576,73 @@ public abstract class AbstractObj {
             gl.glScalef(scale.x, scale.y, scale.z);
         }
         
-        try {
-            gl.glCallList(renderer.getDisplayList(info.renderMode));
+        if (info.animationFrame >= 0 && renderer.isAnimated()) {
+            // Played back renderers would have to be compiled again every frame, so they are drawn as they are
+            renderer.setPlaybackFrame(info.animationFrame);
+            if (renderer.gottaRender(info))
+                renderer.render(info);
         }
-        catch(NullPointerException ex) {
-            // This line gives an error when exiting out of fullscreen, catching it to prevent that
+        else {
+            try {
+                gl.glCallList(renderer.getDisplayList(info.renderMode));
+            }
+            catch(NullPointerException ex) {
+                // This line gives an error when exiting out of fullscreen, catching it to prevent that
+            }
         }
         
         gl.glPopMatrix();
     }
+    
+    /**
+     * Returns the box around the object as it is placed in its zone, see {@link GLRenderer#getBounds()}.
+     * @return the box, or null if the size of the renderer is unknown
+     */
+    public BoundingBox getBounds() {
+        if (renderer == null) {
+            return null;
+        }
+        
+        BoundingBox bounds = renderer.getBounds();
+        if (bounds == null) {
+            return null;
+        }
+        
+        return BoundingBox.transform(bounds, getMatrix());
+    }
+    
+    /**
+     * Returns the transformation that places the renderer of the object in its zone.
+     */
+    public Matrix4 getMatrix() {
+        Vec3f rot = new Vec3f((float)Math.toRadians(rotation.x), (float)Math.toRadians(rotation.y), (float)Math.toRadians(rotation.z));
+        Vec3f scl = renderer != null && renderer.isScaled() ? scale : GLRenderer.DEFAULT_SCALE;
+        return Matrix4.SRTToMatrix(scl, rot, position);
+    }
+    
+    /**
+     * Adds the object to a picker with its box and, if the renderer knows them, the triangles of its model. Objects
+     * whose size is unknown are left out. The items are the values the object is drawn with in the picking pass, so
+     * they can be handled like the picking colors.
+     * @param picker the picker
+     * @param zoneMatrix places the zone of the object in the world, or null
+     */
+    public void addToPicker(ScenePicker<Integer> picker, Matrix4 zoneMatrix) {
+        BoundingBox bounds = getBounds();
+        if (bounds == null) {
+            return;
+        }
+        
+        Matrix4 meshToWorld = getMatrix();
+        Matrix4 meshMatrix = renderer.getMeshMatrix();
+        if (meshMatrix != null) {
+            Matrix4.mult(meshMatrix, meshToWorld, meshToWorld);
+        }
+        if (zoneMatrix != null) {
+            Matrix4.mult(meshToWorld, zoneMatrix, meshToWorld);
+            bounds = BoundingBox.transform(bounds, zoneMatrix);
+        }
+        
+        picker.add(uniqueID << 3, bounds, renderer.getMesh(), meshToWorld);
+    }
 }
@@ -167,11 +167,18 @@ public class PathObj {
     // -------------------------------------------------------------------------------------------------------------------------
     // Saving
     
-    public void save(int index) {
+    /**
+     * Updates the CommonPathInfo entry of this path without writing any of its points.
+     */
+    public void saveEntry(int index) {
         data.put("name", name);
         data.put("no", (short)index);
         data.put("l_id", pathID);
         data.put("num_pnt", points.size());
+    }
+    
+    public void save(int index) {
+        saveEntry(index);
         
         String filePath = String.format("/Stage/jmp/Path/CommonPathPointInfo.%d", index);
         
@@ -19,6 +19,9 @@ package whitehole.smg.object;
 import com.jogamp.opengl.*;
 import java.util.ArrayList;
 import java.util.List;
+import whitehole.math.BoundingBox;
+import whitehole.math.Matrix4;
+import whitehole.math.ScenePicker;
 import whitehole.rendering.GLRenderer;
 import whitehole.smg.Bcsv;
 import whitehole.util.PropertyGrid;
@@ -121,6 +124,26 @@ public class PathPointObj extends AbstractObj {
         gl.glPopMatrix();
     }
     
+    /**
+     * Adds the point and both of its control points to a picker, with the boxes of the cubes they are drawn as.
+     */
+    @Override
+    public void addToPicker(ScenePicker<Integer> picker, Matrix4 zoneMatrix) {
+        Vec3f[] points = { position, point1, point2 };
+        
+        for (int pointno = 0; pointno < 3; pointno++) {
+            CubeRenderer cube = pointno == 0 ? path.getBigPointRenderer() : path.getSmallPointRenderer();
+            if (cube == null)
+                continue;
+            
+            BoundingBox bounds = BoundingBox.transform(cube.getBounds(), Matrix4.SRTToMatrix(GLRenderer.DEFAULT_SCALE, GLRenderer.DEFAULT_ROTATION, points[pointno]));
+            if (zoneMatrix != null)
+                bounds = BoundingBox.transform(bounds, zoneMatrix);
+            
+            picker.add((uniqueID << 3) + pointno, bounds, null, null);
+        }
+    }
+    
     private static List<String> choiceUsage = new ArrayList() {{ add("General"); add("Camera"); }};
 
     @Override